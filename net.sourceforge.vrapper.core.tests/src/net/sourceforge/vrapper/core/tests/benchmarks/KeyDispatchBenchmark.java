@@ -0,0 +1,91 @@
+package net.sourceforge.vrapper.core.tests.benchmarks;
+
+import static net.sourceforge.vrapper.keymap.vim.ConstructorWrappers.parseKeyStrokes;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.vrapper.keymap.KeyStroke;
+import net.sourceforge.vrapper.keymap.State;
+import net.sourceforge.vrapper.keymap.StateCompiler;
+import net.sourceforge.vrapper.keymap.Transition;
+import net.sourceforge.vrapper.platform.PlatformSpecificStateProvider;
+import net.sourceforge.vrapper.vim.DefaultTextObjectProvider;
+import net.sourceforge.vrapper.vim.EditorAdaptor;
+import net.sourceforge.vrapper.vim.commands.Command;
+import net.sourceforge.vrapper.vim.modes.NormalMode;
+
+/**
+ * Compares key dispatch through normal mode's state graph as built with the same graph after
+ * {@link StateCompiler} flattened it. Not a test, run it as a Java application.
+ */
+public class KeyDispatchBenchmark {
+
+    /** Typical commands, each one ends in the initial state again. */
+    private static final String[] COMMANDS = { "j", "k", "w", "b", "dw", "3j", "\"ayy", "ciw",
+            "fx", "gg", "dd", "12x", "yi(", "gqq", "p" };
+    private static final int WARMUP = 200000;
+    private static final int RUNS = 2000000;
+
+    public static void main(String[] args) {
+        State<Command> built = new StateSource().build();
+        State<Command> compiled = StateCompiler.compile(built);
+        List<List<KeyStroke>> commands = new ArrayList<List<KeyStroke>>();
+        for (String command : COMMANDS) {
+            List<KeyStroke> keys = new ArrayList<KeyStroke>();
+            for (KeyStroke key : parseKeyStrokes(command)) {
+                keys.add(key);
+            }
+            commands.add(keys);
+        }
+        System.out.println(String.format("built     %6.1f ns/key", time(built, commands)));
+        System.out.println(String.format("compiled  %6.1f ns/key", time(compiled, commands)));
+    }
+
+    /** @return average nanoseconds per key after some warm-up runs. */
+    private static double time(State<Command> initial, List<List<KeyStroke>> commands) {
+        int keys = 0;
+        long start = 0;
+        for (int run = 0; run < WARMUP + RUNS; run++) {
+            if (run == WARMUP) {
+                keys = 0;
+                start = System.nanoTime();
+            }
+            List<KeyStroke> command = commands.get(run % commands.size());
+            State<Command> state = initial;
+            for (int i = 0; i < command.size(); i++) {
+                Transition<Command> transition = state.press(command.get(i));
+                if (transition == null) {
+                    throw new IllegalStateException("Unknown command " + command);
+                }
+                // Like CommandBasedMode, a command is only created when there is one.
+                transition.getValue();
+                state = transition.getNextState();
+                keys++;
+            }
+        }
+        return (double) (System.nanoTime() - start) / keys;
+    }
+
+    /** Gives access to the state built by normal mode. */
+    private static class StateSource extends NormalMode {
+
+        StateSource() {
+            super(mockEditor());
+        }
+
+        State<Command> build() {
+            return buildInitialState();
+        }
+
+        private static EditorAdaptor mockEditor() {
+            EditorAdaptor editor = mock(EditorAdaptor.class);
+            PlatformSpecificStateProvider provider = mock(PlatformSpecificStateProvider.class);
+            when(editor.getPlatformSpecificStateProvider()).thenReturn(provider);
+            when(editor.getTextObjectProvider()).thenReturn(new DefaultTextObjectProvider());
+            return editor;
+        }
+    }
+}
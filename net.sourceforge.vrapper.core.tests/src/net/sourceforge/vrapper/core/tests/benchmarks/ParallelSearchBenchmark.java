@@ -0,0 +1,62 @@
+package net.sourceforge.vrapper.core.tests.benchmarks;
+
+import java.util.Random;
+
+import net.sourceforge.vrapper.utils.ParallelSearch;
+import net.sourceforge.vrapper.utils.VimPattern;
+import net.sourceforge.vrapper.utils.VimRegexCompiler;
+
+/**
+ * Compares {@link ParallelSearch} with a sequential scan on a generated text. Not a test, run
+ * it as a Java application; the optional argument is the text size in megabytes.
+ */
+public class ParallelSearchBenchmark {
+
+    private static final String[] PATTERNS = { "foo", "fo+ba[rz]", "\\bqux\\w*", "(?<=a)b$" };
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        CharSequence text = generateText(megabytes << 20);
+        System.out.println(String.format("%d MB, %d processors", megabytes,
+                Runtime.getRuntime().availableProcessors()));
+        for (String find : PATTERNS) {
+            VimPattern pattern = VimRegexCompiler.compile(find, true);
+            ParallelSearch sequential = new ParallelSearch(pattern, Integer.MAX_VALUE);
+            ParallelSearch parallel = new ParallelSearch(pattern);
+            int matches = sequential.findAll(text, 0, text.length()).size();
+            if (parallel.findAll(text, 0, text.length()).size() != matches) {
+                throw new IllegalStateException("Different results for " + find);
+            }
+            System.out.println(String.format("%-12s %8d matches  sequential %6.1f ms  parallel %6.1f ms",
+                    find, matches, time(sequential, text), time(parallel, text)));
+        }
+    }
+
+    /** @return average milliseconds per search after some warm-up runs. */
+    private static double time(ParallelSearch search, CharSequence text) {
+        for (int i = 0; i < WARMUP; i++) {
+            search.findAll(text, 0, text.length());
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            search.findAll(text, 0, text.length());
+        }
+        return (System.nanoTime() - start) / 1e6 / RUNS;
+    }
+
+    private static CharSequence generateText(int length) {
+        String[] words = { "foo", "bar", "baz", "foobar", "qux", "ab", "\t", "the", "quick" };
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder(length + 80);
+        while (text.length() < length) {
+            int count = 1 + random.nextInt(12);
+            for (int i = 0; i < count; i++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            text.append(random.nextBoolean() ? "ab\n" : "\n");
+        }
+        return text;
+    }
+}
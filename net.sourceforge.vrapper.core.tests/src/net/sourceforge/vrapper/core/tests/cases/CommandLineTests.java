@@ -1,5 +1,6 @@
 package net.sourceforge.vrapper.core.tests.cases;
 
+import static net.sourceforge.vrapper.keymap.vim.ConstructorWrappers.key;
 import static net.sourceforge.vrapper.keymap.vim.ConstructorWrappers.parseKeyStrokes;
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.junit.Assert.assertEquals;
@@ -7,6 +8,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.LinkedList;
@@ -21,6 +24,7 @@ import net.sourceforge.vrapper.utils.LineRange;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.utils.Search;
 import net.sourceforge.vrapper.utils.SimpleLineRange;
+import net.sourceforge.vrapper.utils.StartEndTextRange;
 import net.sourceforge.vrapper.utils.SubstitutionDefinition;
 import net.sourceforge.vrapper.vim.Options;
 import net.sourceforge.vrapper.vim.commands.Command;
@@ -28,13 +32,16 @@ import net.sourceforge.vrapper.vim.commands.CommandExecutionException;
 import net.sourceforge.vrapper.vim.commands.DummyTextObject;
 import net.sourceforge.vrapper.vim.commands.LineRangeOperationCommand;
 import net.sourceforge.vrapper.vim.commands.MotionCommand;
+import net.sourceforge.vrapper.vim.commands.SimpleSelection;
 import net.sourceforge.vrapper.vim.commands.RetabOperation;
 import net.sourceforge.vrapper.vim.commands.SortOperation;
 import net.sourceforge.vrapper.vim.commands.SubstitutionOperation;
 import net.sourceforge.vrapper.vim.commands.TextObject;
 import net.sourceforge.vrapper.vim.commands.TextOperation;
 import net.sourceforge.vrapper.vim.commands.TextOperationTextObjectCommand;
+import net.sourceforge.vrapper.vim.commands.UniqOperation;
 import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
+import net.sourceforge.vrapper.vim.modes.ConfirmSubstitutionMode;
 import net.sourceforge.vrapper.vim.modes.NormalMode;
 import net.sourceforge.vrapper.vim.modes.commandline.CommandLineMode;
 import net.sourceforge.vrapper.vim.modes.commandline.CommandLineParser;
@@ -122,8 +129,112 @@ public class CommandLineTests extends VimTestCase {
         // Special case: do last search again, replace with empty string
         makeSubstitution("s//").execute(adaptor, 0, defaultRange);
         assertEquals("one  three two", content.getText());
+
+        // Hex escapes and \C, which retains the case of the match, work like in Eclipse.
+        content.setText("a b");
+        makeSubstitution("s/ /\\x2d\\u00e9/").execute(adaptor, 0, defaultRange);
+        assertEquals("a-\u00e9b", content.getText());
+
+        content.setText("TWO two Two tWo");
+        makeSubstitution("s/two/\\Cfour/ig").execute(adaptor, 0, defaultRange);
+        assertEquals("FOUR four Four four", content.getText());
+
+        content.setText("a b");
+        try {
+            makeSubstitution("s/ /\\x2/").execute(adaptor, 0, defaultRange);
+            fail("an incomplete hex escape should be rejected");
+        } catch (CommandExecutionException e) {
+            assertEquals("a b", content.getText());
+        }
     }
     
+    @Test
+    public void testRangeSubstitution() throws CommandExecutionException {
+        registerManager = new DefaultRegisterManager();
+        when(platform.getSearchAndReplaceService()).thenReturn(new TestSearchService(content, configuration));
+        reloadEditorAdaptor();
+
+        content.setText("foo foo\nbar\nfoo\nfoo foo foo");
+        makeSubstitution("s/foo/x/").execute(adaptor, SimpleLineRange.entireFile(adaptor));
+        assertEquals("x foo\nbar\nx\nx foo foo", content.getText());
+        verify(userInterfaceService).setInfoMessage("3 substitutions on 3 lines");
+
+        content.setText("foo foo\nbar\nfoo\nfoo foo foo");
+        makeSubstitution("s/foo/x/g").execute(adaptor, SimpleLineRange.entireFile(adaptor));
+        assertEquals("x x\nbar\nx\nx x x", content.getText());
+        verify(userInterfaceService).setInfoMessage("6 substitutions on 3 lines");
+
+        // Counting doesn't change the text.
+        content.setText("foo foo\nbar\nfoo\nfoo foo foo");
+        makeSubstitution("s/foo/x/gn").execute(adaptor, SimpleLineRange.entireFile(adaptor));
+        assertEquals("foo foo\nbar\nfoo\nfoo foo foo", content.getText());
+        verify(userInterfaceService).setInfoMessage("6 matches on 3 lines");
+
+        // Inserted lines are not substituted again, groups and anchors work per line.
+        content.setText("a1\nb2\nc3");
+        makeSubstitution("s/([a-z])([0-9])/$2\\r$1/").execute(adaptor, SimpleLineRange.entireFile(adaptor));
+        assertEquals("1\na\n2\nb\n3\nc", content.getText());
+
+        content.setText("a\nb\nc");
+        makeSubstitution("s/^/> /").execute(adaptor, SimpleLineRange.entireFile(adaptor));
+        assertEquals("> a\n> b\n> c", content.getText());
+        makeSubstitution("s/$/;/").execute(adaptor, SimpleLineRange.entireFile(adaptor));
+        assertEquals("> a;\n> b;\n> c;", content.getText());
+
+        // A match may continue into the line after the range.
+        content.setText("a\nb\nc");
+        LineRange firstLine = SimpleLineRange.singleLineInModel(adaptor, 0);
+        makeSubstitution("s/a\\nb/ab/").execute(adaptor, firstLine);
+        assertEquals("ab\nc", content.getText());
+    }
+
+    @Test
+    public void testConfirmSubstitution() throws CommandExecutionException {
+        registerManager = new DefaultRegisterManager();
+        when(platform.getSearchAndReplaceService()).thenReturn(new TestSearchService(content, configuration));
+        reloadEditorAdaptor();
+
+        // Groups and escapes in the replacement work like without the 'c' flag.
+        content.setText("a1 a2\nb3\na4 a5");
+        confirmSubstitution("s/a([0-9])/$1\\ta/g", 0, 2, "ynya");
+        assertEquals("1\ta a2\nb3\n4\ta 5\ta", content.getText());
+        assertEquals(NormalMode.NAME, adaptor.getCurrentModeName());
+
+        // Without 'g' only the first match of each line is offered, 'l' substitutes and stops.
+        content.setText("a1 a2\na3 a4\na5");
+        confirmSubstitution("s/a([0-9])/<$1>/", 0, 2, "nl");
+        assertEquals("a1 a2\n<3> a4\na5", content.getText());
+        assertEquals(NormalMode.NAME, adaptor.getCurrentModeName());
+
+        // Empty matches advance instead of matching the same position again.
+        content.setText("ab\ncd");
+        confirmSubstitution("s/x*/-/g", 0, 1, "a");
+        assertEquals("-a-b-\n-c-d-", content.getText());
+
+        // \%V matches nothing without a visual area.
+        content.setText("aa aa aa");
+        confirmSubstitution("s/\\%Va/xyz/g", 0, 0, "");
+        assertEquals("aa aa aa", content.getText());
+        assertEquals(NormalMode.NAME, adaptor.getCurrentModeName());
+
+        // The area grows with the replacements inside of it.
+        cursorAndSelection.setSelection(new SimpleSelection(
+                new StartEndTextRange(new DumbPosition(3), new DumbPosition(8))));
+        adaptor.rememberLastActiveSelection();
+        cursorAndSelection.setSelection(null);
+        confirmSubstitution("s/\\%Va/xyz/g", 0, 0, "yyna");
+        assertEquals("aa xyzxyz axyz", content.getText());
+    }
+
+    private void confirmSubstitution(String command, int startLine, int endLine, String keys) {
+        SubstitutionDefinition definition = new SubstitutionDefinition(command, registerManager);
+        adaptor.changeModeSafely(ConfirmSubstitutionMode.NAME,
+                new ConfirmSubstitutionMode.SubstitutionConfirm(definition, startLine, endLine));
+        for (char c : keys.toCharArray()) {
+            adaptor.handleKey(key(c));
+        }
+    }
+
     private SubstitutionOperation makeSubstitution(String command) {
         SubstitutionDefinition definition = new SubstitutionDefinition(command, registerManager);
         return new SubstitutionOperation(definition);
@@ -283,6 +394,8 @@ public class CommandLineTests extends VimTestCase {
     
     @Test
     public void testSort() throws CommandExecutionException {
+        when(platform.getSearchAndReplaceService()).thenReturn(new TestSearchService(content, configuration));
+        reloadEditorAdaptor();
         // This will trigger sort operation's default range (sort all file)
         TextObject defaultRange = new DummyTextObject(null);
     	content.setText("single line");
@@ -397,6 +510,120 @@ public class CommandLineTests extends VimTestCase {
     	content.setText("3\n2\n-1\n1\n0");
     	new SortOperation("").execute(adaptor, 0, defaultRange);
     	assertEquals("-1\n0\n1\n2\n3", content.getText());
+    	
+    	content.setText("0x1F\n-0x2\nb3\nz");
+    	new SortOperation("x").execute(adaptor, 0, defaultRange);
+    	assertEquals("z\n-0x2\n0x1F\nb3", content.getText());
+    	
+    	content.setText("99999999999999999999\na1\n-99999999999999999999\nb1");
+    	new SortOperation("n").execute(adaptor, 0, defaultRange);
+    	assertEquals("-99999999999999999999\na1\nb1\n99999999999999999999", content.getText());
+
+    	// Only equal lines which end up next to each other are dropped.
+    	content.setText("a1\nb1\na1\nc2\nC2");
+    	new SortOperation("nu").execute(adaptor, 0, defaultRange);
+    	assertEquals("a1\nb1\na1\nc2\nC2", content.getText());
+    	
+    	new SortOperation("nui").execute(adaptor, 0, defaultRange);
+    	assertEquals("a1\nb1\na1\nc2", content.getText());
+    	
+    	content.setText("b\na\nb\nA");
+    	new SortOperation("!ui").execute(adaptor, 0, defaultRange);
+    	assertEquals("b\nA", content.getText());
+
+    	// The order doesn't depend on how many threads sort.
+    	for (int threshold : new int[] { 1, 0 }) {
+    	    configuration.set(Options.PARALLEL_SORT, threshold);
+    	    content.setText("b2\na1\nc3\na0\nb1");
+    	    new SortOperation("").execute(adaptor, 0, defaultRange);
+    	    assertEquals("a0\na1\nb1\nb2\nc3", content.getText());
+    	}
+    }
+
+    @Test
+    public void testSortPattern() throws CommandExecutionException {
+        when(platform.getSearchAndReplaceService()).thenReturn(new TestSearchService(content, configuration));
+        reloadEditorAdaptor();
+        TextObject defaultRange = new DummyTextObject(null);
+        // Sort on the second field.
+        content.setText("x,3,c\ny,1,a\nz,2,b\nnone");
+        new SortOperation("/[^,]*,/").execute(adaptor, 0, defaultRange);
+        assertEquals("none\ny,1,a\nz,2,b\nx,3,c", content.getText());
+
+        // With r the match is the key.
+        content.setText("x2z\ny1a\nw2b");
+        new SortOperation("/\\d/ r").execute(adaptor, 0, defaultRange);
+        assertEquals("y1a\nx2z\nw2b", content.getText());
+
+        new SortOperation("/\\d/").execute(adaptor, 0, defaultRange);
+        assertEquals("y1a\nw2b\nx2z", content.getText());
+
+        // The number must be inside the match.
+        content.setText("a10b5\nc9d99\ne");
+        new SortOperation("/[a-c]\\d+/ rn").execute(adaptor, 0, defaultRange);
+        assertEquals("e\nc9d99\na10b5", content.getText());
+
+        content.setText("b\n\na");
+        new SortOperation("/^$/ r").execute(adaptor, 0, defaultRange);
+        assertEquals("b\n\na", content.getText());
+
+        // An empty pattern uses the last search.
+        registerManager = new DefaultRegisterManager();
+        reloadEditorAdaptor();
+        registerManager.setSearch(new Search(";", false, false, false));
+        content.setText("a;3\nb;1\nc;2");
+        new SortOperation("//").execute(adaptor, 0, defaultRange);
+        assertEquals("b;1\nc;2\na;3", content.getText());
+
+        // The pattern follows the case rules of :s, [i] only makes the keys compare ignoring case.
+        content.setText("a1\nbA2\nca3");
+        new SortOperation("/A/").execute(adaptor, 0, defaultRange);
+        assertEquals("a1\nca3\nbA2", content.getText());
+        content.setText("a1\nbA2\nca3");
+        new SortOperation("/A/ i").execute(adaptor, 0, defaultRange);
+        assertEquals("a1\nca3\nbA2", content.getText());
+        content.setText("xAb\nyAB\nzAa");
+        new SortOperation("/A/ i").execute(adaptor, 0, defaultRange);
+        assertEquals("zAa\nxAb\nyAB", content.getText());
+        configuration.setLocal(Options.IGNORE_CASE, true);
+        content.setText("a1\nbA2\nca3");
+        new SortOperation("/A/").execute(adaptor, 0, defaultRange);
+        assertEquals("a1\nbA2\nca3", content.getText());
+        configuration.setLocal(Options.IGNORE_CASE, false);
+
+        // Lines are matched on their own, so \%V can't be honoured.
+        try {
+            new SortOperation("/\\%VA/").execute(adaptor, 0, defaultRange);
+            fail("\\%V should be rejected");
+        } catch (CommandExecutionException e) {
+            assertEquals("a1\nbA2\nca3", content.getText());
+        }
+    }
+
+    @Test
+    public void testUniq() throws CommandExecutionException {
+        TextObject defaultRange = new DummyTextObject(null);
+        content.setText("b\na\nb\nc\nA\na");
+        new UniqOperation("").execute(adaptor, 0, defaultRange);
+        assertEquals("b\na\nc\nA", content.getText());
+
+        new UniqOperation("i").execute(adaptor, 0, defaultRange);
+        assertEquals("b\na\nc", content.getText());
+
+        content.setText("a\nb\na\nb\na");
+        LineRange range = SimpleLineRange.betweenPositions(adaptor, new DumbPosition(2), new DumbPosition(6));
+        new UniqOperation("").execute(adaptor, 0, range);
+        assertEquals("a\nb\na\na", content.getText());
+
+        // Anything but [i] is rejected instead of being ignored.
+        for (String argument : new String[] { "x", "i u", "ii" }) {
+            try {
+                new UniqOperation(argument).execute(adaptor, 0, defaultRange);
+                fail("Expected CommandExecutionException for " + argument);
+            } catch (CommandExecutionException e) {
+                assertEquals("a\nb\na\na", content.getText());
+            }
+        }
     }
    
     @Test
@@ -479,6 +706,122 @@ public class CommandLineTests extends VimTestCase {
         content.setText("line\n\t\t\tnew\tline\n\t\tABC");
         type(parseKeyStrokes(":%normal rm<CR>"));
         assertEquals("mine\nm\t\tnew\tline\nm\tABC", content.getText());
+
+        content.setText("a\nb\nc");
+        type(parseKeyStrokes(":%normal A;<CR>"));
+        assertEquals("a;\nb;\nc;", content.getText());
+
+        // Lines inserted or deleted by the command don't make it skip or repeat lines.
+        content.setText("a\nb\nc");
+        type(parseKeyStrokes(":%normal yyp<CR>"));
+        assertEquals("a\na\nb\nb\nc\nc", content.getText());
+
+        // Once per line of the range and never on the same line twice, like Vim.
+        content.setText("a\nb\nc\nd");
+        type(parseKeyStrokes(":2,3normal dd<CR>"));
+        assertEquals("a\nc", content.getText());
+
+        content.setText("a\nb\nc\nd\ne\nf");
+        type(parseKeyStrokes(":1,3normal J<CR>"));
+        assertEquals("a b\nc d\ne f", content.getText());
+
+        content.setText("a\nb\nc\nd\ne\nf");
+        type(parseKeyStrokes(":1,3normal jdd<CR>"));
+        assertEquals("a\nc\ne", content.getText());
+    }
+
+    @Test
+    public void testGlobalCommand() {
+        registerManager = new DefaultRegisterManager();
+        when(platform.getSearchAndReplaceService()).thenReturn(new TestSearchService(content, configuration));
+        reloadEditorAdaptor();
+        adaptor.changeModeSafely(NormalMode.NAME);
+
+        content.setText("a1\nb2\na3\n\na4\nb5");
+        type(parseKeyStrokes(":g/a/d<CR>"));
+        assertEquals("b2\n\nb5", content.getText());
+
+        assertEquals("a4\n", registerManager.getDefaultRegister().getContent().getText());
+        assertEquals("a3\n", registerManager.getRegister("2").getContent().getText());
+
+        content.setText("a1\nb2\na3\n\na4\nb5");
+        type(parseKeyStrokes(":v/a/d<CR>"));
+        assertEquals("a1\na3\na4", content.getText());
+        assertEquals("b5\n", registerManager.getDefaultRegister().getContent().getText());
+
+        content.setText("a1\nb2\na3\nb4");
+        type(parseKeyStrokes(":g/b/y x<CR>"));
+        type(parseKeyStrokes(":g/a/y X<CR>"));
+        assertEquals("a1\nb2\na3\nb4", content.getText());
+        assertEquals("b4\na1\na3\n", registerManager.getRegister("x").getContent().getText());
+
+        content.setText("a1\n  \n\nb2\n\t\na3");
+        type(parseKeyStrokes(":g/^\\s*$/d<CR>"));
+        assertEquals("a1\nb2\na3", content.getText());
+
+        content.setText("a1\nb2\na3\n\na4\nb5");
+        type(parseKeyStrokes(":2,4g/^$|a/normal Ax<CR>"));
+        assertEquals("a1\nb2\na3x\nx\na4\nb5", content.getText());
+
+        // Lines inserted by the command don't confuse the marked lines behind them.
+        content.setText("a1\nb2\na3");
+        type(parseKeyStrokes(":g/a/normal yyp<CR>"));
+        assertEquals("a1\na1\nb2\na3\na3", content.getText());
+
+        // Marked lines which were joined or deleted are skipped, like in Vim.
+        content.setText("a\nb\nc\nd");
+        type(parseKeyStrokes(":g/^/j<CR>"));
+        assertEquals("a b\nc d", content.getText());
+
+        content.setText("x1\nx2\nx3\nx4\na\nb\nc\nd");
+        type(parseKeyStrokes(":g/x/normal 3jdd<CR>"));
+        assertEquals("x1\nx2\nx3\na\nc", content.getText());
+
+        // Deleted empty lines don't leave their mark behind on the next line.
+        content.setText("\n\nx");
+        type(parseKeyStrokes(":g/^$/normal dd<CR>"));
+        assertEquals("x", content.getText());
+
+        content.setText("a\n\n\nb\n\nc");
+        type(parseKeyStrokes(":g/^$/normal dd<CR>"));
+        assertEquals("a\nb\nc", content.getText());
+
+        // A count includes the lines below each match, deleted matches are skipped.
+        content.setText("x1\na\nb\nx2\nc\nd\ne");
+        type(parseKeyStrokes(":g/x/d 2<CR>"));
+        assertEquals("b\nd\ne", content.getText());
+
+        content.setText("x1\nx2\na\nb\nc");
+        type(parseKeyStrokes(":g/x/d 2<CR>"));
+        assertEquals("a\nb\nc", content.getText());
+
+        content.setText("x1\na\nx2\nb\nc");
+        type(parseKeyStrokes(":g/x/d z 2<CR>"));
+        assertEquals("c", content.getText());
+        assertEquals("x2\nb\n", registerManager.getRegister("z").getContent().getText());
+
+        // A line is searched from its start, even if a match of the line before reaches into
+        // it, no matter how the search is split up.
+        for (String threshold : new String[] { "1", "0" }) {
+            type(parseKeyStrokes(":set parallelsearch=" + threshold + "<CR>"));
+            assertEquals(Integer.valueOf(threshold), configuration.get(Options.PARALLEL_SEARCH));
+            content.setText("xa\nb\nc");
+            type(parseKeyStrokes(":g/a\\nb|b/d<CR>"));
+            assertEquals("c", content.getText());
+        }
+
+        // \%V only matches inside the last visual area, nothing without one.
+        content.setText("a\nb\nc");
+        type(parseKeyStrokes(":g/\\%V/d<CR>"));
+        assertEquals("a\nb\nc", content.getText());
+
+        content.setText("a1\nb2\nc3");
+        cursorAndSelection.setSelection(new SimpleSelection(
+                new StartEndTextRange(new DumbPosition(3), new DumbPosition(5))));
+        adaptor.rememberLastActiveSelection();
+        cursorAndSelection.setSelection(null);
+        type(parseKeyStrokes(":g/\\%V\\d/d<CR>"));
+        assertEquals("a1\nc3", content.getText());
     }
 
     @Test
@@ -75,12 +75,17 @@ public class KeyMapTests extends TestCase {
     private void assertTransitionsOverPath(List<KeyStroke> strokes,
             int... transitions) throws Exception {
         assertEquals("at root", transitions[0], getTransitions(su(map)));
-        Transition<Remapping> next = map.press(strokes.get(0));
+        Transition<Remapping> next = su(map).press(strokes.get(0));
+        Transition<Remapping> compiled = map.press(strokes.get(0));
         for(int i = 1; i < strokes.size(); i++) {
             assertEquals("at state "+i, transitions[i], getTransitions(next.getNextState()));
             next = next.getNextState().press(strokes.get(i));
+            compiled = compiled.getNextState().press(strokes.get(i));
         }
         assertEquals(next.getValue(), mapping);
+        // The snapshot used for lookups follows every edit.
+        assertEquals(compiled.getValue(), mapping);
+        assertEquals(next.getNextState() == null, compiled.getNextState() == null);
     }
 
     /*
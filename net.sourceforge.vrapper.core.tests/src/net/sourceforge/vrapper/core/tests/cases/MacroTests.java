@@ -1,12 +1,25 @@
 package net.sourceforge.vrapper.core.tests.cases;
 
+import static net.sourceforge.vrapper.keymap.vim.ConstructorWrappers.key;
+import static net.sourceforge.vrapper.keymap.vim.ConstructorWrappers.parseKeyStrokes;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import net.sourceforge.vrapper.core.tests.utils.CommandTestCase;
+import net.sourceforge.vrapper.vim.Options;
 import net.sourceforge.vrapper.vim.modes.NormalMode;
 import net.sourceforge.vrapper.vim.register.DefaultRegisterManager;
 
 import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class MacroTests extends CommandTestCase {
+
+	private String lastError;
 	
 	@Override
 	public void setUp() {
@@ -14,6 +27,21 @@ public class MacroTests extends CommandTestCase {
         registerManager = new DefaultRegisterManager();
         reloadEditorAdaptor();
 		adaptor.changeModeSafely(NormalMode.NAME);
+		when(configuration.get(Options.MACRO_CACHE)).thenReturn(Boolean.TRUE);
+		lastError = null;
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				lastError = (String) invocation.getArguments()[0];
+				return null;
+			}
+		}).when(userInterfaceService).setErrorMessage(Mockito.anyString());
+		when(userInterfaceService.getLastErrorValue()).thenAnswer(new Answer<String>() {
+			@Override
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				return lastError;
+			}
+		});
 	};
 
 	@Test public void testMacro() {
@@ -97,6 +125,67 @@ public class MacroTests extends CommandTestCase {
 				"Ala bla", 'h', " kota");
 	}
 	
+	@Test public void testCompiledMacro() {
+		checkCommand(forKeySeq("qaxq"),
+				"",'a', "bcd",
+				"",'b', "cd");
+		//first playback records the macro
+		checkCommand(forKeySeq("@a"),
+				"",'a', "bcd",
+				"",'b', "cd");
+		//second playback hands the recorded key to normal mode without looking up mappings
+		checkCommand(forKeySeq("@a"),
+				"",'a', "bcd",
+				"",'b', "cd");
+		verify(adaptor, times(2)).handleKeyOffRecord(key('x'));
+
+		//a new mapping for the key is used
+		type(parseKeyStrokes(":nmap x dd<CR>"));
+		checkCommand(forKeySeq("@a"),
+				"",'a', "bcd\nefg",
+				"",'e', "fg");
+	}
+
+	@Test public void testCompiledMacroWithOtherEffect() {
+		checkCommand(forKeySeq("qact)X<ESC>q"),
+				"x(",'a', "b)y",
+				"x(",'X', ")y");
+		checkCommand(forKeySeq("@a"),
+				"x(",'a', "b)y",
+				"x(",'X', ")y");
+		checkCommand(forKeySeq("@a"),
+				"x(",'a', "b)y",
+				"x(",'X', ")y");
+		//ct) fails, so X deletes a character in normal mode like when the keys are played
+		checkCommand(forKeySeq("@a"),
+				"xa",'b', "y",
+				"x",'b', "y");
+	}
+
+	@Test public void testCountedMacro() {
+		checkCommand(forKeySeq("qaxf,q"),
+				"",'a', ",b,c,d",
+				",b",',', "c,d");
+		checkCommand(forKeySeq("2@a"),
+				"",'a', ",b,c,d",
+				",bc",',', "d");
+		//the third iteration fails to find a comma, so the fourth one is not played
+		checkCommand(forKeySeq("4@a"),
+				"",'a', ",b,c,d",
+				",bc",'d', "");
+	}
+
+	@Test public void testCountedMacroWithoutProgress() {
+		checkCommand(forKeySeq("qa\"Bylq"),
+				"",'x', "yz",
+				"",'x', "yz");
+		//writing a register counts as progress, all iterations are played
+		checkCommand(forKeySeq("3@a"),
+				"",'x', "yz",
+				"",'x', "yz");
+		assertEquals("xxxx", registerManager.getRegister("b").getContent().getText());
+	}
+
 	@Test public void testRegisters() {
 		//yank a word into the "a" register
 		checkCommand(forKeySeq("\"ayw"),
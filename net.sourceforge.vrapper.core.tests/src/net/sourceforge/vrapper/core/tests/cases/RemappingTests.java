@@ -1,15 +1,22 @@
 package net.sourceforge.vrapper.core.tests.cases;
 
 import static net.sourceforge.vrapper.keymap.vim.ConstructorWrappers.parseKeyStrokes;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import net.sourceforge.vrapper.core.tests.utils.CommandTestCase;
+import net.sourceforge.vrapper.core.tests.utils.DumbPosition;
 import net.sourceforge.vrapper.utils.Position;
+import net.sourceforge.vrapper.vim.Options;
+import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
 import net.sourceforge.vrapper.vim.modes.NormalMode;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 /**
@@ -47,6 +54,63 @@ public class RemappingTests extends CommandTestCase {
                 "", 'j', "kl");
     }
 
+    @Test
+    public void testNestedRemap() {
+        type(parseKeyStrokes(":nmap Q Rl<CR>"));
+        type(parseKeyStrokes(":nmap R x<CR>"));
+        // The rest of the outer mapping is played after the inner one.
+        checkCommand(forKeySeq("Q"),
+                "a", 'b', "cd",
+                "ac", 'd', "");
+    }
+
+    @Test
+    public void testMappingTimeout() {
+        when(configuration.get(Options.TIMEOUT)).thenReturn(Boolean.TRUE);
+        ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+        type(parseKeyStrokes(":nmap Q x<CR>"));
+        type(parseKeyStrokes(":nmap QQ dd<CR>"));
+        type(parseKeyStrokes(":nmap ja x<CR>"));
+
+        // Waits for the next key, then uses the longest mapping found.
+        checkCommand(forKeySeq("Q"),
+                "a", 'b', "c\ndef",
+                "a", 'b', "c\ndef");
+        verify(userInterfaceService).timerExec(Mockito.eq(1000), timeout.capture());
+        timeout.getValue().run();
+        assertEquals("ac\ndef", content.getText());
+
+        // Without a complete mapping the keys are used as they are.
+        checkCommand(forKeySeq("j"),
+                "a", 'b', "c\ndef",
+                "a", 'b', "c\ndef");
+        timeout.getValue().run();
+        assertEquals(5, cursorAndSelection.getPosition().getModelOffset());
+
+        // Mappings starting with Escape use 'ttimeoutlen', another key cancels the timeout.
+        type(parseKeyStrokes(":set ttimeoutlen=50<CR>"));
+        type(parseKeyStrokes(":nmap <lt>Esc>Q x<CR>"));
+        checkCommand(forKeySeq("<Esc>"),
+                "a", 'b', "c\ndef",
+                "a", 'b', "c\ndef");
+        verify(userInterfaceService).timerExec(Mockito.eq(50), Mockito.<Runnable>any());
+        type(parseKeyStrokes("Q"));
+        verify(userInterfaceService, atLeastOnce()).timerExec(Mockito.eq(-1), Mockito.<Runnable>any());
+        assertEquals("ac\ndef", content.getText());
+
+        // Pending characters in insert mode stay when the mapping times out.
+        type(parseKeyStrokes(":inoremap jk <lt>Esc><CR>"));
+        content.setText("ab");
+        cursorAndSelection.setPosition(new DumbPosition(1), StickyColumnPolicy.NEVER);
+        type(parseKeyStrokes("ij"));
+        assertEquals("ajb", content.getText());
+        timeout.getValue().run();
+        assertEquals("ajb", content.getText());
+        type(parseKeyStrokes("jk"));
+        assertEquals("ajb", content.getText());
+        assertEquals(NormalMode.NAME, adaptor.getCurrentModeName());
+    }
+
     @Test
     public void testOmap() {
         // Sanity checks
@@ -5,9 +5,11 @@ import static net.sourceforge.vrapper.keymap.vim.ConstructorWrappers.parseKeyStr
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import net.sourceforge.vrapper.core.tests.utils.TestSearchService;
 import net.sourceforge.vrapper.core.tests.utils.VisualTestCase;
+import net.sourceforge.vrapper.utils.SearchMatchIndex;
 import net.sourceforge.vrapper.vim.Options;
 import net.sourceforge.vrapper.vim.modes.NormalMode;
 import net.sourceforge.vrapper.vim.register.DefaultRegisterManager;
@@ -46,6 +48,49 @@ public class SearchModeTests extends VisualTestCase {
                 "I couldn't live wi", 't', "hout this\nfull-range three-linear variable.");
     }
 
+    @Test
+    public void testSearchCount() {
+        checkCommand(forKeySeq("/th<CR>"),
+                "I ", 'c', "ouldn't live without this\nfull-range three-linear variable.",
+                "I couldn't live wi", 't', "hout this\nfull-range three-linear variable.");
+        verify(userInterfaceService).setInfoMessage("/th [1/3]");
+        checkCommand(forKeySeq("n"),
+                "I couldn't live wi", 't', "hout this\nfull-range three-linear variable.",
+                "I couldn't live without ", 't', "his\nfull-range three-linear variable.");
+        verify(userInterfaceService).setInfoMessage("/th [2/3]");
+    }
+
+    @Test
+    public void testLazySearchCount() {
+        // Far away matches are counted a chunk at a time once the cursor moved there.
+        StringBuilder text = new StringBuilder("th\n");
+        while (text.length() < 2 * SearchMatchIndex.CHUNK_SIZE + 1000) {
+            text.append("just a filler line\n");
+        }
+        text.append("th\n");
+        content.setText(text.toString());
+        type(parseKeyStrokes("/th<CR>"));
+        verify(userInterfaceService).setInfoMessage("/th");
+        ArgumentCaptor<Runnable> updater = ArgumentCaptor.forClass(Runnable.class);
+        verify(userInterfaceService).timerExec(eq(0), updater.capture());
+        updater.getValue().run();
+        verify(userInterfaceService, never()).setInfoMessage("/th [2/2]");
+        updater.getValue().run();
+        verify(userInterfaceService).setInfoMessage("/th [2/2]");
+    }
+
+    @Test
+    public void testSearchOverlappingMatches() {
+        // Matches are searched from the cursor, not taken from one scan over the document.
+        when(configuration.get(Options.SEARCH_REGEX)).thenReturn(true);
+        checkCommand(forKeySeq("/a.*b<CR>"),
+                "", 'a', "1b a2b\naaaa\n",
+                "a1b ", 'a', "2b\naaaa\n");
+        checkCommand(forKeySeq("/aa<CR>"),
+                "a1b a2b\n", 'a', "aaa\n",
+                "a1b a2b\na", 'a', "aa\n");
+    }
+
     @Test
     public void testRepeatSearch() {
         checkCommand(forKeySeq("/th<CR>"),
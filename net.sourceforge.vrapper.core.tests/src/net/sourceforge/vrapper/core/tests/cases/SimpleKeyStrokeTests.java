@@ -8,6 +8,7 @@ import static net.sourceforge.vrapper.keymap.vim.ConstructorWrappers.key;
 import static net.sourceforge.vrapper.keymap.vim.ConstructorWrappers.parseKeyStrokes;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collections;
@@ -15,8 +16,10 @@ import java.util.Collections;
 import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.keymap.SpecialKey;
 import net.sourceforge.vrapper.keymap.vim.ConstructorWrappers;
+import net.sourceforge.vrapper.keymap.vim.KeyStrokes;
 import net.sourceforge.vrapper.keymap.vim.PlugKeyStroke;
 import net.sourceforge.vrapper.keymap.vim.SimpleKeyStroke;
+import net.sourceforge.vrapper.vim.RemappedKeyStroke;
 
 import org.junit.Test;
 
@@ -79,6 +82,32 @@ public class SimpleKeyStrokeTests {
 		assertEquals(expected, key.getCharacter());
 	}
 
+    @Test
+    public void testKeyStrokes() {
+        assertSame(KeyStrokes.get('a'), KeyStrokes.get('a'));
+        assertSame(KeyStrokes.get('a'), key('a'));
+        assertSame(ctrlKey('a'), KeyStrokes.intern(new SimpleKeyStroke('a', false, false, true)));
+        assertSame(key(ARROW_LEFT), KeyStrokes.get(ARROW_LEFT, false, false, false));
+        assertEquals(new SimpleKeyStroke(SpecialKey.F1, true, true, false),
+                KeyStrokes.get(SpecialKey.F1, true, true, false));
+        // Shift is part of printable characters, so these are equal and share an id.
+        KeyStroke shifted = KeyStrokes.get('A', true, false, false);
+        assertTrue(shifted.withShiftKey());
+        assertEquals(KeyStrokes.id(key('A')), KeyStrokes.id(shifted));
+        assertFalse(KeyStrokes.id(key(' ')) == KeyStrokes.id(KeyStrokes.get(' ', true, false, false)));
+        assertFalse(KeyStrokes.id(key('a')) == KeyStrokes.id(key('A')));
+        assertFalse(KeyStrokes.id(key(ARROW_LEFT)) == KeyStrokes.id(KeyStrokes.get(ARROW_LEFT, true, false, false)));
+        assertEquals(KeyStrokes.NO_ID, KeyStrokes.id(new PlugKeyStroke("(vrapper.window.moveUp)")));
+
+        RemappedKeyStroke remapped = KeyStrokes.remapped(key('x'), false);
+        assertSame(remapped, KeyStrokes.remapped(new SimpleKeyStroke('x'), false));
+        assertSame(remapped, KeyStrokes.remapped(KeyStrokes.remapped(key('x'), true), false));
+        assertFalse(remapped.isRecursive());
+        assertTrue(KeyStrokes.remapped(key('x'), true).isRecursive());
+        assertEquals(key('x'), remapped);
+        assertEquals(KeyStrokes.id(key('x')), KeyStrokes.id(remapped));
+    }
+
     @Test
     public void testPayseKeySeq() {
         assertEquals(asList(new SimpleKeyStroke(SpecialKey.ESC)), parseKeyStrokes("<Esc>"));
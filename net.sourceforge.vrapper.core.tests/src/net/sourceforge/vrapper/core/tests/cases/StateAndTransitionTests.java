@@ -10,11 +10,14 @@ import static net.sourceforge.vrapper.keymap.vim.ConstructorWrappers.transitionB
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import net.sourceforge.vrapper.keymap.ConvertingState;
 import net.sourceforge.vrapper.keymap.EmptyState;
 import net.sourceforge.vrapper.keymap.HashMapState;
 import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.keymap.State;
+import net.sourceforge.vrapper.keymap.StateCompiler;
+import net.sourceforge.vrapper.keymap.TableState;
 import net.sourceforge.vrapper.keymap.Transition;
 import net.sourceforge.vrapper.keymap.UnionState;
 import net.sourceforge.vrapper.keymap.WrappingState;
@@ -275,6 +278,40 @@ public class StateAndTransitionTests {
         assertNull(wrapped42.press(key('-')).getNextState().press(key('-')).getNextState().press(key('5')));
     }
     
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStateCompiler() {
+        Function<Integer, Integer> addHundred = new Function<Integer, Integer>() {
+            public Integer call(Integer arg) { return arg + 100; }
+        };
+        Function<Integer, Integer> negate = new Function<Integer, Integer>() {
+            public Integer call(Integer arg) { return -arg; }
+        };
+        State<Integer> plain = state(
+                leafBind('a', 1),
+                transitionBind('g', leafBind('g', 2), leafBind('b', 5)));
+        State<Integer> converted = new ConvertingState<Integer, Integer>(addHundred, state(
+                leafBind('b', 3),
+                transitionBind('g', leafBind('x', 4), leafBind('g', 6))));
+        State<Integer> original = new WrappingState<Integer>(
+                state(transitionBind('-', negate, state(leafBind('-', negate)))),
+                union(plain, converted));
+        State<Integer> compiled = StateCompiler.compile(original);
+
+        for (String keys : asList("a", "b", "gg", "gx", "gb", "-a", "-gx", "--b", "--gg")) {
+            assertEquals(keys, getValue(original, keys), getValue(compiled, keys));
+        }
+        assertNull(compiled.press(key('c')));
+        assertNull(compiled.press(key('g')).getNextState().press(key('a')));
+        // Static transitions are computed once.
+        assertSame(compiled.press(key('a')), compiled.press(key('a')));
+        assertSame(compiled.press(key('g')).getNextState(), compiled.press(key('g')).getNextState());
+        assertTrue(StateCompiler.compile(union(plain, converted)) instanceof TableState<?>);
+        // Subclasses may change their bindings, so they are kept.
+        State<Integer> subclass = new HashMapState<Integer>() { };
+        assertSame(subclass, StateCompiler.compile(subclass));
+    }
+
     static<T> T getValue(State<T> state, String keys) {
         return goThrough(state, keys).getValue();
     }
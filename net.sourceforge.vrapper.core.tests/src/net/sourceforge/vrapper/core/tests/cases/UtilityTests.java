@@ -1,12 +1,42 @@
 package net.sourceforge.vrapper.core.tests.cases;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.PatternSyntaxException;
 
+import net.sourceforge.vrapper.core.tests.utils.DumbPosition;
+import net.sourceforge.vrapper.core.tests.utils.TestCursorAndSelection;
+import net.sourceforge.vrapper.core.tests.utils.TestTextContent;
+import net.sourceforge.vrapper.utils.BackgroundSearch;
+import net.sourceforge.vrapper.utils.CharCursor;
+import net.sourceforge.vrapper.utils.EditBatch;
 import net.sourceforge.vrapper.utils.ExplodedPattern;
+import net.sourceforge.vrapper.utils.KeywordCharacterClass;
+import net.sourceforge.vrapper.utils.LineIndex;
+import net.sourceforge.vrapper.utils.LineSorter;
+import net.sourceforge.vrapper.utils.LiteralPattern;
+import net.sourceforge.vrapper.utils.ParallelSearch;
+import net.sourceforge.vrapper.utils.Search;
+import net.sourceforge.vrapper.utils.SearchMatchIndex;
+import net.sourceforge.vrapper.utils.SearchOffset;
+import net.sourceforge.vrapper.utils.StartEndTextRange;
 import net.sourceforge.vrapper.utils.StringUtils;
+import net.sourceforge.vrapper.utils.SubstitutionEngine;
+import net.sourceforge.vrapper.utils.TextContentCharSequence;
+import net.sourceforge.vrapper.utils.TextRange;
+import net.sourceforge.vrapper.utils.UniqueLines;
+import net.sourceforge.vrapper.utils.VimPattern;
+import net.sourceforge.vrapper.utils.VimRegexCompiler;
 import net.sourceforge.vrapper.utils.StringUtils.PatternHolder;
 
 import org.hamcrest.CoreMatchers;
@@ -175,4 +205,530 @@ public class UtilityTests {
         Assert.assertEquals("", holder.remainder);
 
     }
+
+    @Test
+    public void testKeywordCharacterClass() {
+        KeywordCharacterClass keywords = KeywordCharacterClass.compile("a-z,A-Z,48-57,_,192-383");
+        Assert.assertTrue(keywords.isKeyword('a'));
+        Assert.assertTrue(keywords.isKeyword('Z'));
+        Assert.assertTrue(keywords.isKeyword('5'));
+        Assert.assertTrue(keywords.isKeyword('_'));
+        Assert.assertTrue(keywords.isKeyword('\u00E9'));
+        Assert.assertFalse(keywords.isKeyword('-'));
+        Assert.assertFalse(keywords.isKeyword(','));
+        Assert.assertFalse(keywords.isKeyword(' '));
+        Assert.assertFalse(keywords.isKeyword('\u0180'));
+
+        // '@' means letters, '^' excludes again, ',' can be added as a literal part.
+        keywords = KeywordCharacterClass.compile("@,^x,@-@,,");
+        Assert.assertTrue(keywords.isKeyword('a'));
+        Assert.assertFalse(keywords.isKeyword('x'));
+        Assert.assertTrue(keywords.isKeyword('@'));
+        Assert.assertTrue(keywords.isKeyword(','));
+        Assert.assertFalse(keywords.isKeyword('1'));
+
+        // Numeric ranges may reach into supplementary code points.
+        keywords = KeywordCharacterClass.compile("65536-65600");
+        Assert.assertTrue(keywords.isKeywordCodePoint(0x10010));
+        Assert.assertFalse(keywords.isKeywordCodePoint(0x10100));
+        Assert.assertFalse(keywords.isKeyword('a'));
+
+        // Old regex-style values keep working.
+        keywords = KeywordCharacterClass.compile("a-zA-Z0-9_\\-");
+        Assert.assertTrue(keywords.isKeyword('q'));
+        Assert.assertTrue(keywords.isKeyword('-'));
+        Assert.assertFalse(keywords.isKeyword('.'));
+
+        Assert.assertTrue(KeywordCharacterClass.NON_BLANK.isKeyword('.'));
+        Assert.assertFalse(KeywordCharacterClass.NON_BLANK.isKeyword('\t'));
+    }
+
+    @Test
+    public void testCharCursor() {
+        TestTextContent content = new TestTextContent(new TestCursorAndSelection());
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("line ").append(i).append("\r\n");
+        }
+        content.setText(text.toString());
+
+        // Small buffer so that walking the text needs several refills in both directions.
+        CharCursor cursor = new CharCursor(content, 0, 16);
+        StringBuilder forward = new StringBuilder();
+        while (cursor.hasNext()) {
+            forward.append(cursor.next());
+        }
+        Assert.assertEquals(text.toString(), forward.toString());
+        StringBuilder backward = new StringBuilder();
+        while (cursor.hasPrevious()) {
+            backward.append(cursor.previous());
+        }
+        Assert.assertEquals(text.toString(), backward.reverse().toString());
+
+        Assert.assertEquals(2, cursor.newLineLengthAt(6));
+        Assert.assertEquals(1, cursor.newLineLengthAt(7));
+        Assert.assertEquals(0, cursor.newLineLengthAt(5));
+        Assert.assertEquals(2, cursor.newLineLengthBefore(8));
+        Assert.assertEquals(1, cursor.newLineLengthBefore(7));
+
+        CharSequence sequence = new TextContentCharSequence(content, 8, 14);
+        Assert.assertEquals("line 1", sequence.toString());
+        Assert.assertEquals('1', sequence.charAt(5));
+        Assert.assertEquals("ne", sequence.subSequence(2, 4).toString());
+    }
+
+    @Test
+    public void testLineIndex() {
+        StringBuilder text = new StringBuilder("one\ntwo\r\nthree\rfour");
+        LineIndex index = new LineIndex(text);
+        Assert.assertEquals(4, index.getNumberOfLines());
+        Assert.assertEquals(9, index.getLineStart(2));
+        Assert.assertEquals(3, index.getLineLength(1));
+        Assert.assertEquals(1, index.getLineOfOffset(8));
+        Assert.assertEquals(2, index.getLineOfOffset(9));
+        Assert.assertEquals(3, index.getLineOfOffset(text.length()));
+
+        // Random edits, including ones which split or join \r\n, must give the same result as
+        // indexing the modified text from scratch.
+        Random random = new Random(42);
+        String[] inserts = { "", "x", "\n", "\r", "\r\n", "a\rb\nc", "\n\n" };
+        for (int i = 0; i < 2000; i++) {
+            int offset = random.nextInt(text.length() + 1);
+            int length = random.nextInt(Math.min(4, text.length() - offset) + 1);
+            String insert = inserts[random.nextInt(inserts.length)];
+            text.replace(offset, offset + length, insert);
+            index.replaced(offset, length, insert.length());
+
+            LineIndex expected = new LineIndex(text);
+            Assert.assertEquals(expected.getNumberOfLines(), index.getNumberOfLines());
+            for (int line = 0; line < expected.getNumberOfLines(); line++) {
+                Assert.assertEquals(expected.getLineStart(line), index.getLineStart(line));
+                Assert.assertEquals(expected.getLineLength(line), index.getLineLength(line));
+            }
+        }
+    }
+
+    @Test
+    public void testEditBatch() {
+        TestTextContent content = new TestTextContent(new TestCursorAndSelection());
+        content.setText("alpha\nbeta\ngamma");
+        // Offsets refer to the original text, order doesn't matter.
+        new EditBatch()
+                .replace(11, 5, "GAMMA")
+                .insert(0, "> ")
+                .delete(5, 1)
+                .insert(6, "[")
+                .insert(6, "(")
+                .applyTo(content);
+        Assert.assertEquals("> alpha[(beta\nGAMMA", content.getText());
+        Assert.assertEquals(2, content.getNumberOfLines());
+
+        try {
+            new EditBatch().replace(0, 3, "x").insert(2, "y").applyTo(content);
+            Assert.fail("Overlapping edits must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Assert.assertEquals("> alpha[(beta\nGAMMA", content.getText());
+    }
+
+    @Test
+    public void testSubstitutionCount() {
+        // Large enough to be split over several threads.
+        StringBuilder text = new StringBuilder();
+        int lines = 60000;
+        for (int i = 0; i < lines; i++) {
+            text.append(i % 3 == 0 ? "foo bar foo\r\n" : "nothing to see here\n");
+        }
+        text.append("foo");
+        VimPattern pattern = VimRegexCompiler.compile("foo", true);
+        SubstitutionEngine.Result result = SubstitutionEngine.count(pattern, text, 0, text.length(), true, null);
+        Assert.assertEquals(2 * (lines / 3) + 1, result.getSubstitutions());
+        Assert.assertEquals(lines / 3 + 1, result.getLines());
+        result = SubstitutionEngine.count(pattern, text, 0, text.length(), false, null);
+        Assert.assertEquals(lines / 3 + 1, result.getSubstitutions());
+        Assert.assertEquals(lines / 3 + 1, result.getLines());
+
+        // Matches spanning the split points are counted exactly once.
+        StringBuilder pairs = new StringBuilder();
+        for (int i = 0; i < 2 * lines; i++) {
+            pairs.append("x-------x\n");
+        }
+        VimPattern pair = VimRegexCompiler.compile("x\\nx", true);
+        result = SubstitutionEngine.count(pair, pairs, 0, pairs.length(), true, null);
+        Assert.assertEquals(2 * lines - 1, result.getSubstitutions());
+        Assert.assertEquals(2 * lines - 1, result.getLines());
+
+        // Without 'g' the search goes on at the next line, even inside of a skipped match.
+        String skipped = "xa b\nbc\n";
+        VimPattern either = VimRegexCompiler.compile("a|b\\nb|bc", true);
+        result = SubstitutionEngine.count(either, skipped, 0, skipped.length(), false, null);
+        Assert.assertEquals(2, result.getSubstitutions());
+        Assert.assertEquals(2, result.getLines());
+        result = SubstitutionEngine.count(either, skipped, 0, skipped.length(), true, null);
+        Assert.assertEquals(2, result.getSubstitutions());
+        Assert.assertEquals(1, result.getLines());
+
+        // The end of the last line counts, the start of the line after the range doesn't.
+        String small = "a\nb\nc";
+        VimPattern end = VimRegexCompiler.compile("$", true);
+        Assert.assertEquals(3, SubstitutionEngine.count(end, small, 0, small.length(), true, null).getLines());
+        VimPattern start = VimRegexCompiler.compile("^", true);
+        Assert.assertEquals(2, SubstitutionEngine.count(start, small, 0, 4, true, null).getSubstitutions());
+
+        // With \%V only matches inside the visual area count, other patterns ignore it.
+        String area = "foo foo\nfoo foo";
+        TextRange visual = new StartEndTextRange(new DumbPosition(4), new DumbPosition(11));
+        VimPattern inside = VimRegexCompiler.compile("\\%Vfoo", true);
+        result = SubstitutionEngine.count(inside, area, 0, area.length(), true, visual);
+        Assert.assertEquals(2, result.getSubstitutions());
+        Assert.assertEquals(2, result.getLines());
+        Assert.assertEquals(4, SubstitutionEngine.count(pattern, area, 0, area.length(), true, visual)
+                .getSubstitutions());
+    }
+
+    @Test
+    public void testVimRegexCompiler() {
+        // Java syntax keeps working, with Vim's word boundaries and lazy repetition on top.
+        assertVimMatch("(foo|bar)+", true, "a barfoo b", "barfoo");
+        assertVimMatch("\\<ab\\>", true, "abc ab", "ab");
+        assertVimMatch("a.\\{-1,}b", true, "axxbyb", "axxb");
+        // Magic, very magic and very nomagic.
+        assertVimMatch("\\m\\(a\\|b\\)\\+c", true, "xabac", "abac");
+        assertVimMatch("\\m(a)+", true, "(a)+", "(a)+");
+        assertVimMatch("\\m\\vfoo(bar)=x{2}", true, "fooxx", "fooxx");
+        assertVimMatch("\\M\\v<is>", true, "this is", "is");
+        assertVimMatch("\\Va.b*", true, "axb a.b*", "a.b*");
+        assertVimMatch("\\V\\(a\\)\\1", true, "aa", "aa");
+        assertVimMatch("\\m[^a]\\+", true, "xy\nz", "xy");
+        assertVimMatch("\\m[[:digit:]]\\{2}", true, "a123", "12");
+        assertVimMatch("\\mfoo$", true, "foo$ foo\nfoo", "foo");
+        assertVimMatch("\\mfoo\\c", true, "FOO", "FOO");
+        assertVimMatch("\\ma\\_.b", true, "a\nb", "a\nb");
+        // Escapes which mean something in Java keep that meaning until Vim's syntax is used.
+        assertVimMatch("a\\vb", true, "a\nb", "a\nb");
+        assertVimMatch("b\\z", true, "ab\nab", "b");
+        assertVimMatch("\\cA", true, "x\u0001A", "\u0001");
+        // \zs and \ze only select part of the match, group numbers stay those of the pattern.
+        assertVimMatch("foo\\zsbar", true, "foobar bar", "bar");
+        assertVimMatch("foo\\zebar", true, "foobaz foobar", "foo");
+        VimPattern zs = VimRegexCompiler.compile("\\m\\(a\\)\\zs\\(b\\)\\2", true);
+        Matcher matcher = zs.matcher("abb");
+        Assert.assertTrue(matcher.find());
+        Assert.assertEquals(1, zs.start(matcher));
+        Assert.assertEquals(2, zs.groupCount());
+        Assert.assertEquals("b", zs.group(matcher, 2));
+        Assert.assertEquals("bb", zs.group(matcher, 0));
+
+        Assert.assertTrue(VimRegexCompiler.compile("\\%Vfoo", true).usesVisualArea());
+        Assert.assertSame(VimRegexCompiler.compile("foo", false), VimRegexCompiler.compile("foo", false));
+        Assert.assertNotSame(VimRegexCompiler.compile("foo", false), VimRegexCompiler.compile("foo", true));
+        try {
+            VimRegexCompiler.compile("\\m\\(a\\zsb\\)", true);
+            Assert.fail("\\zs inside a group is not supported");
+        } catch (PatternSyntaxException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testVisualAreaPattern() {
+        String text = "foo foo\nfoo foo";
+        VimPattern unbound = VimRegexCompiler.compile("\\%Vfoo", true);
+        // Without a visual area nothing matches, \%V isn't just left out.
+        Assert.assertNull(unbound.firstIn(text, 0));
+        Assert.assertEquals(-1, unbound.indexIn(text, 0, text.length()));
+
+        TextRange area = new StartEndTextRange(new DumbPosition(4), new DumbPosition(11));
+        VimPattern pattern = unbound.inVisualArea(area);
+        Assert.assertSame(pattern, pattern.inVisualArea(area));
+        Assert.assertArrayEquals(new int[] { 4, 7 }, pattern.firstIn(text, 0));
+        Assert.assertArrayEquals(new int[] { 8, 11 }, pattern.lastIn(text, text.length()));
+        Assert.assertNull(pattern.firstIn(text, 9));
+        Assert.assertEquals(2, new ParallelSearch(pattern, 1).findAll(text, 0, text.length()).size());
+        Assert.assertEquals(2, new SearchMatchIndex(pattern, text, 0).size());
+
+        // A match reaching out of the area is tried again further on.
+        VimPattern partly = VimRegexCompiler.compile("\\%Vo+ ?", true).inVisualArea(2, 6);
+        Assert.assertArrayEquals(new int[] { 2, 4 }, partly.firstIn(text, 0));
+
+        // Searches keep the area they were created with.
+        Search search = new Search("\\%Vfoo", false, false, true, SearchOffset.NONE, true, area);
+        Assert.assertArrayEquals(new int[] { 4, 7 }, search.getPattern().firstIn(text, 0));
+        Assert.assertArrayEquals(new int[] { 8, 11 }, search.reverse().getPattern().lastIn(text, 15));
+        Assert.assertTrue(search.getPattern().isEquivalent(search.reverse().getPattern()));
+        Assert.assertFalse(search.getPattern().isEquivalent(unbound));
+    }
+
+    @Test
+    public void testVimPatternLastIn() {
+        VimPattern pattern = VimRegexCompiler.compile("a\\w*", true);
+        String text = "ab abc abcd";
+        Assert.assertArrayEquals(new int[] { 7, 11 }, pattern.lastIn(text, 11));
+        Assert.assertArrayEquals(new int[] { 3, 6 }, pattern.lastIn(text, 6));
+        // "abc" is longer than the limit allows, it mustn't be cut short.
+        Assert.assertArrayEquals(new int[] { 0, 2 }, pattern.lastIn(text, 5));
+        Assert.assertNull(pattern.lastIn(text, 0));
+
+        StringBuilder far = new StringBuilder("ax");
+        for (int i = 0; i < 10000; i++) {
+            far.append(' ');
+        }
+        far.append("ax");
+        Assert.assertArrayEquals(new int[] { 10002, 10004 }, pattern.lastIn(far, far.length()));
+        Assert.assertArrayEquals(new int[] { 0, 2 }, pattern.lastIn(far, 10003));
+    }
+
+    private static void assertVimMatch(String pattern, boolean caseSensitive, String text, String match) {
+        VimPattern compiled = VimRegexCompiler.compile(pattern, caseSensitive);
+        Matcher matcher = compiled.matcher(text);
+        Assert.assertTrue(pattern + " should match " + text, matcher.find());
+        Assert.assertEquals(pattern, match, compiled.group(matcher, 0));
+    }
+
+    @Test
+    public void testSearchMatchIndex() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            text.append(i % 4 == 0 ? "a foo b foo\n" : "nothing\r\n");
+        }
+        Search search = new Search("fo+", false, false, true, SearchOffset.NONE, true);
+        SearchMatchIndex index = new SearchMatchIndex(search.getPattern(), text, 0);
+        Assert.assertEquals(2, index.getStart(index.next(0)));
+        Assert.assertFalse("Only the start should be indexed", index.isComplete());
+        int match = index.next(3);
+        Assert.assertEquals(8, index.getStart(match));
+        Assert.assertEquals(11, index.getEnd(match));
+        Assert.assertEquals(match - 1, index.previous(8));
+        Assert.assertEquals(-1, index.previous(2));
+        Assert.assertEquals(20000 - 1, index.last());
+        Assert.assertTrue(index.isComplete());
+        Assert.assertEquals(-1, index.next(text.length()));
+        Assert.assertTrue(index.isValidFor(search.reverse(), 0));
+        Assert.assertFalse(index.isValidFor(search, 1));
+
+        // Patching after random edits must give the same matches as a new index.
+        Random random = new Random(42);
+        String[] inserts = { "", "f", "oo", "foo", "\n", "x\r\nfoo", "fofoo" };
+        for (int stamp = 1; stamp < 300; stamp++) {
+            if (stamp % 50 == 0) {
+                index = new SearchMatchIndex(search.getPattern(), text, stamp - 1);
+                index.next(random.nextInt(text.length()));
+            }
+            int offset = random.nextInt(text.length());
+            int removed = Math.min(random.nextInt(6), text.length() - offset);
+            String inserted = inserts[random.nextInt(inserts.length)];
+            text.replace(offset, offset + removed, inserted);
+            index.documentChanged(offset, removed, inserted.length(), stamp);
+            if (stamp % 10 == 0) {
+                SearchMatchIndex expected = new SearchMatchIndex(search.getPattern(), text, stamp);
+                Assert.assertEquals(expected.size(), index.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    Assert.assertEquals(expected.getStart(i), index.getStart(i));
+                    Assert.assertEquals(expected.getEnd(i), index.getEnd(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBackgroundSearch() throws InterruptedException {
+        final BlockingQueue<String> results = new LinkedBlockingQueue<String>();
+        Executor sameThread = new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        BackgroundSearch.Callback callback = new BackgroundSearch.Callback() {
+            public void searchDone(Search search, int start, int end) {
+                results.add(search.getKeyword() + " " + start + "-" + end);
+            }
+        };
+        String text = "one two three\ntwo one\n";
+        BackgroundSearch background = new BackgroundSearch(text, 4, true, sameThread, callback);
+
+        // Only the last one of several quick requests is reported.
+        background.search(new Search("t", false, false, true));
+        background.search(new Search("tw", false, false, true));
+        background.search(new Search("two", false, false, true));
+        Assert.assertEquals("two 14-17", results.poll(5, TimeUnit.SECONDS));
+        background.search(new Search("two", true, false, true));
+        Assert.assertEquals("two 14-17", results.poll(5, TimeUnit.SECONDS));
+        background.search(new Search("one", false, false, true));
+        Assert.assertEquals("one 18-21", results.poll(5, TimeUnit.SECONDS));
+        background.search(new Search("four", false, false, true));
+        Assert.assertEquals("four -1--1", results.poll(5, TimeUnit.SECONDS));
+
+        background = new BackgroundSearch(text, 4, false, sameThread, callback);
+        background.search(new Search("three", true, false, true));
+        Assert.assertEquals("three -1--1", results.poll(5, TimeUnit.SECONDS));
+        background.search(new Search("one", false, false, true));
+        background.cancel();
+        Assert.assertNull(results.poll(4 * BackgroundSearch.DEBOUNCE_DELAY, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(results.isEmpty());
+
+        // Overlapping matches are found like with n and N.
+        background = new BackgroundSearch("aaaa", 0, false, sameThread, callback);
+        background.search(new Search("aa", false, false, true));
+        Assert.assertEquals("aa 1-3", results.poll(5, TimeUnit.SECONDS));
+        background = new BackgroundSearch("aaaa", 3, false, sameThread, callback);
+        background.search(new Search("aa", true, false, true));
+        Assert.assertEquals("aa 1-3", results.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLiteralPattern() {
+        Assert.assertNotNull(VimRegexCompiler.compile("foo bar", true).getLiteral());
+        Assert.assertNotNull(VimRegexCompiler.compile("\\Vfoo.*bar", true).getLiteral());
+        Assert.assertNotNull(new Search("a.b", false, false, true).getPattern().getLiteral());
+        Assert.assertTrue(new Search("ab", false, true, false).getPattern().getLiteral().isWholeWord());
+        Assert.assertNull(VimRegexCompiler.compile("fo+", true).getLiteral());
+        Assert.assertNull(VimRegexCompiler.compile("\\Vfoo$", true).getLiteral());
+        Assert.assertNull(VimRegexCompiler.compile("\\cfoo", true).getLiteral());
+
+        LiteralPattern literal = new LiteralPattern("abab", true, false);
+        Assert.assertEquals(2, literal.indexOf("xxababab", 0, 8));
+        Assert.assertEquals(4, literal.indexOf("xxababab", 3, 8));
+        Assert.assertEquals(-1, literal.indexOf("xxababab", 3, 7));
+        Assert.assertEquals(4, literal.lastIndexOf("xxababab", 8));
+        Assert.assertEquals(2, literal.lastIndexOf("xxababab", 3));
+        Assert.assertEquals(-1, literal.lastIndexOf("xxababab", 1));
+
+        // Must find the same matches as the regular expression.
+        Random random = new Random(3);
+        String[] words = { "foo", "Foo", "FOO", "fo", "o", "_", " ", "\n", "ß", "x" };
+        String[] literals = { "foo", "oo", "o f", "fo", "ß" };
+        for (int trial = 0; trial < 500; trial++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 30; i++) {
+                text.append(words[random.nextInt(words.length)]);
+            }
+            String find = literals[random.nextInt(literals.length)];
+            boolean caseSensitive = random.nextBoolean();
+            boolean wholeWord = random.nextBoolean();
+            VimPattern regex = VimRegexCompiler.compile(
+                    (wholeWord ? "\\b" : "") + "(?:\\Q" + find + "\\E)" + (wholeWord ? "\\b" : ""),
+                    caseSensitive);
+            Assert.assertNull(regex.getLiteral());
+            literal = new LiteralPattern(find, caseSensitive, wholeWord);
+            int from = random.nextInt(text.length());
+            Matcher matcher = regex.matcher(text);
+            int expected = matcher.find(from) ? matcher.start() : -1;
+            Assert.assertEquals(text + " / " + find, expected, literal.indexOf(text, from, text.length()));
+            int last = -1;
+            matcher.reset();
+            for (int start = 0; start <= from && matcher.find(start); start = matcher.start() + 1) {
+                if (matcher.start() <= from) {
+                    last = matcher.start();
+                }
+            }
+            Assert.assertEquals(text + " / " + find, last, literal.lastIndexOf(text, from));
+        }
+    }
+
+    @Test
+    public void testParallelSearch() {
+        Random random = new Random(5);
+        String[] words = { "foo", "of", "o", "x", " ", "\n", "\r\n" };
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append(words[random.nextInt(words.length)]);
+        }
+        String[] patterns = { "fo+", "o\\nf", "(?<=o)o", "foo", "x*", "o$", "\\bof\\b",
+                // matches spanning several lines
+                "x[^x]*x", "foo\\s+of" };
+        for (String find : patterns) {
+            VimPattern pattern = VimRegexCompiler.compile(find, true);
+            // Must find the same matches as a single scan.
+            Matcher matcher = pattern.matcher(text);
+            List<Integer> expected = new ArrayList<Integer>();
+            while (matcher.find()) {
+                expected.add(pattern.start(matcher));
+                expected.add(pattern.end(matcher));
+            }
+            ParallelSearch.Matches matches = new ParallelSearch(pattern, 1).findAll(text, 0, text.length());
+            List<Integer> actual = new ArrayList<Integer>();
+            for (int i = 0; i < matches.size(); i++) {
+                actual.add(matches.getStart(i));
+                actual.add(matches.getEnd(i));
+            }
+            Assert.assertEquals(find, expected, actual);
+        }
+
+        List<int[]> chunks = ParallelSearch.split("a\nb\nc\nd\n", 0, 8, 3);
+        Assert.assertEquals(2, chunks.size());
+        Assert.assertEquals(4, chunks.get(0)[1]);
+        Assert.assertEquals(4, chunks.get(1)[0]);
+        Assert.assertEquals(8, chunks.get(1)[1]);
+    }
+
+    @Test
+    public void testLineSorter() throws IOException {
+        Random random = new Random(7);
+        String[] words = { "a", "B", "b", "-", "0x", "1", "9", "99", "123456789012345678901234", " " };
+        final String[] lines = new String[5000];
+        for (int i = 0; i < lines.length; i++) {
+            StringBuilder line = new StringBuilder();
+            for (int j = random.nextInt(4); j >= 0; j--) {
+                line.append(words[random.nextInt(words.length)]);
+            }
+            lines[i] = line.toString();
+        }
+        LineSorter.LineSource source = new LineSorter.LineSource() {
+            @Override
+            public int getLineCount() {
+                return lines.length;
+            }
+            @Override
+            public String getLine(int index) {
+                return lines[index];
+            }
+        };
+        for (int radix : new int[] { 0, 10, 16 }) {
+            for (boolean ignoreCase : new boolean[] { false, true }) {
+                String mode = radix + (ignoreCase ? "i" : "");
+                int[] expected = new LineSorter(radix, ignoreCase, null, false).sort(lines);
+
+                LineSorter parallel = new LineSorter(radix, ignoreCase, null, false);
+                parallel.setParallelThreshold(1);
+                Assert.assertArrayEquals(mode, expected, parallel.sort(lines));
+
+                // A tiny budget gives many runs.
+                LineSorter external = new LineSorter(radix, ignoreCase, null, false);
+                external.setMemoryBudget(4096);
+                Assert.assertTrue(external.exceedsMemoryBudget(10000));
+                for (final boolean reversed : new boolean[] { false, true }) {
+                    final List<String> sorted = new ArrayList<String>();
+                    external.sortExternally(source, reversed, new LineSorter.LineSink() {
+                        @Override
+                        public void addLine(String line) {
+                            sorted.add(line);
+                        }
+                    });
+                    List<String> expectedLines = new ArrayList<String>();
+                    for (int line : expected) {
+                        expectedLines.add(lines[line]);
+                    }
+                    if (reversed) {
+                        Collections.reverse(expectedLines);
+                    }
+                    Assert.assertEquals(mode, expectedLines, sorted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUniqueLines() {
+        // "Aa" and "BB" have the same hash code.
+        String[] lines = { "Aa", "BB", "aa", "Aa", "", "bb", "", "AA" };
+        Assert.assertArrayEquals(new int[] { 0, 1, 2, 4, 5, 7 }, UniqueLines.firstOccurrences(lines, false));
+        Assert.assertArrayEquals(new int[] { 0, 1, 4 }, UniqueLines.firstOccurrences(lines, true));
+        Assert.assertArrayEquals(new int[0], UniqueLines.firstOccurrences(new String[0], false));
+
+        int[] order = { 0, 3, 2, 7, 1, 5, 4, 6 };
+        Assert.assertArrayEquals(new int[] { 0, 2, 7, 1, 5, 4 },
+                UniqueLines.removeAdjacent(lines, order.clone(), false));
+        Assert.assertArrayEquals(new int[] { 0, 1, 4 }, UniqueLines.removeAdjacent(lines, order.clone(), true));
+    }
 }
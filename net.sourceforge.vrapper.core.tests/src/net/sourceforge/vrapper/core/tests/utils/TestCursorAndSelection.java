@@ -2,7 +2,10 @@ package net.sourceforge.vrapper.core.tests.utils;
 
 import static java.lang.Math.min;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import net.sourceforge.vrapper.platform.CursorService;
@@ -21,6 +24,7 @@ import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
 public class TestCursorAndSelection implements CursorService, SelectionService {
 
 	private Position position = new DumbPosition(0);
+	private final Map<String, Integer> marks = new HashMap<String, Integer>();
 	private Selection selection;
 	private TextRange nativeSelection;
 	private CaretType caretType;
@@ -166,15 +170,33 @@ public class TestCursorAndSelection implements CursorService, SelectionService {
     }
 
     public Position getMark(String id) {
-        return null;
+        Integer offset = marks.get(id);
+        return offset == null ? null : new DumbPosition(offset);
     }
 
     public void setMark(String id, Position position) {
-        // do nothing
+        marks.put(id, position.getModelOffset());
     }
 
     public void deleteMark(String id) {
-        // do nothing
+        marks.remove(id);
+    }
+
+    /**
+     * Moves the marks like Eclipse moves its positions: a mark inside of removed text is
+     * deleted, a mark at the start of inserted text moves behind it.
+     */
+    void textReplaced(int index, int length, int newLength) {
+        Iterator<Map.Entry<String, Integer>> iterator = marks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Integer> mark = iterator.next();
+            int offset = mark.getValue();
+            if (index < offset && offset < index + length) {
+                iterator.remove();
+            } else if (offset >= index + length) {
+                mark.setValue(offset + newLength - length);
+            }
+        }
     }
 
 	public Position getNextChangeLocation(int count) {
@@ -206,7 +228,7 @@ public class TestCursorAndSelection implements CursorService, SelectionService {
 
 	@Override
 	public Set<String> getAllMarks() {
-		return new HashSet<String>();
+		return new HashSet<String>(marks.keySet());
 	}
 
 	@Override
@@ -1,21 +1,24 @@
 package net.sourceforge.vrapper.core.tests.utils;
 
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import net.sourceforge.vrapper.platform.Configuration;
 import net.sourceforge.vrapper.platform.SearchAndReplaceService;
-import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.utils.Search;
+import net.sourceforge.vrapper.utils.SearchMatchIndex;
 import net.sourceforge.vrapper.utils.SearchResult;
 import net.sourceforge.vrapper.utils.StringUtils;
+import net.sourceforge.vrapper.utils.SubstitutionEngine;
+import net.sourceforge.vrapper.utils.TextRange;
+import net.sourceforge.vrapper.utils.VimPattern;
 import net.sourceforge.vrapper.vim.Options;
 
 public class TestSearchService implements SearchAndReplaceService {
     
     private final TestTextContent content;
     private Configuration sharedConfiguration;
+    private SearchMatchIndex matchIndex;
 
     public TestSearchService(TestTextContent content, Configuration sharedConfiguration) {
         this.content = content;
@@ -25,69 +28,47 @@ public class TestSearchService implements SearchAndReplaceService {
     /** Case-sensitive search only. */
     public SearchResult find(Search search, Position start) {
         String stack = content.getText();
-        String needle = search.getKeyword();
-        int patternFlags = 0;
-        if ( ! search.isRegExSearch()) {
-            patternFlags = Pattern.LITERAL;
-        }
-        if ( ! search.isCaseSensitive()) {
-            patternFlags |= Pattern.CASE_INSENSITIVE;
-        }
-        Pattern pattern = Pattern.compile(needle, patternFlags);
+        VimPattern pattern = search.getPattern();
         Matcher matcher = pattern.matcher(stack);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
         
         Position resultPosition = null;
         Position endPosition = null;
         if (search.isBackward()) {
             matcher.region(0, start.getModelOffset());
             // Find last match by looping from the start until no more match can be found
-            while (matcher.find()) {
-                resultPosition =  start.setModelOffset(matcher.start());
-                endPosition =  start.setModelOffset(matcher.end());
+            while (pattern.find(matcher)) {
+                resultPosition =  start.setModelOffset(pattern.start(matcher));
+                endPosition =  start.setModelOffset(pattern.end(matcher));
             }
-        } else if (matcher.find(start.getModelOffset())) {
-            resultPosition =  start.setModelOffset(matcher.start());
-            endPosition =  start.setModelOffset(matcher.end());
+        } else if (start.getModelOffset() <= stack.length()
+                && pattern.find(matcher.region(start.getModelOffset(), stack.length()))) {
+            resultPosition =  start.setModelOffset(pattern.start(matcher));
+            endPosition =  start.setModelOffset(pattern.end(matcher));
         }
         SearchResult result = new SearchResult(resultPosition, endPosition);
         return result;
     }
 
-    /**
-     * Test replace stub.
-     */
-    public int replace(LineInformation line, String toFind, String replace, String flags) {
-        int nMatches = 0;
-
-        StringBuilder result = new StringBuilder();
-        String lineContent = content.getText().substring(line.getBeginOffset(), line.getLength());
-        int patternFlags = 0;
-        boolean doReplace = ! flags.contains("n");
-        boolean allMatches = flags.contains("g");
-        if ( ! isCaseSensitive(toFind, flags)) {
-            patternFlags |= Pattern.CASE_INSENSITIVE;
+    /** Creates a new index whenever the text changed. */
+    public SearchMatchIndex getMatchIndex(Search search) {
+        long stamp = content.getModificationStamp();
+        if (matchIndex == null || ! matchIndex.isValidFor(search, stamp)) {
+            matchIndex = new SearchMatchIndex(search.getPattern(), content.buffer, stamp,
+                    sharedConfiguration.get(Options.PARALLEL_SEARCH));
         }
-        Pattern pattern = Pattern.compile(toFind, patternFlags);
-        Matcher matcher = pattern.matcher(lineContent);
+        return matchIndex;
+    }
 
-        int lastMatchEnd = 0;
-        if (matcher.find()) {
-            nMatches++;
-            result.append(lineContent.substring(lastMatchEnd, matcher.start()));
-            result.append(replace);
-            lastMatchEnd = matcher.end();
-        }
-        while (allMatches && matcher.find()) {
-            nMatches++;
-            result.append(lineContent.substring(lastMatchEnd, matcher.start()));
-            result.append(replace);
-            lastMatchEnd = matcher.end();
-        }
-        result.append(lineContent.substring(lastMatchEnd, lineContent.length()));
-        if (doReplace) {
-            content.replace(line.getBeginOffset(), line.getLength(), result.toString());
-        }
-        return nMatches;
+    public SubstitutionEngine.Result countMatches(VimPattern pattern, int startLine, int endLine,
+            boolean global, TextRange visualArea) {
+        int rangeStart = content.getLineInformation(startLine).getBeginOffset();
+        int rangeEnd = endLine + 1 < content.getNumberOfLines()
+                ? content.getLineInformation(endLine + 1).getBeginOffset()
+                : content.getTextLength();
+        return SubstitutionEngine.count(pattern, content.getText(), rangeStart, rangeEnd, global,
+                visualArea, sharedConfiguration.get(Options.PARALLEL_SEARCH));
     }
 
 	public boolean isCaseSensitive(String toFind, String flags) {
@@ -117,9 +98,4 @@ public class TestSearchService implements SearchAndReplaceService {
     public void removeIncSearchHighlighting() {
     }
 
-    @Override
-    public boolean substitute(int start, String toFind, String flags, String toReplace) {
-        throw new UnsupportedOperationException();
-    }
-
 }
@@ -1,11 +1,15 @@
 package net.sourceforge.vrapper.core.tests.utils;
 
+import java.util.List;
+
 import net.sourceforge.vrapper.platform.CursorService;
 import net.sourceforge.vrapper.platform.TextContent;
+import net.sourceforge.vrapper.utils.EditBatch;
+import net.sourceforge.vrapper.utils.LineIndex;
 import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.utils.Space;
+import net.sourceforge.vrapper.utils.TextEdit;
 import net.sourceforge.vrapper.utils.TextRange;
-import net.sourceforge.vrapper.utils.VimUtils;
 import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
 
 /**
@@ -16,6 +20,8 @@ import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
 public class TestTextContent implements TextContent {
 
     StringBuilder buffer = new StringBuilder();
+    private final LineIndex lineIndex = new LineIndex(buffer);
+    private long modificationStamp;
 	private final CursorService cursorService;
 
     public TestTextContent(CursorService cursorService) {
@@ -26,71 +32,15 @@ public class TestTextContent implements TextContent {
 	    if (line >= getNumberOfLines()) {
 	        throw new RuntimeException("Line is out of range");
 	    }
-	    
-        int index = 0;
-        int currLine = 0;
-        while(currLine < line && index < buffer.length()) {
-            while (index < buffer.length()) {
-                String c = buffer.substring(index, index+1);
-                index += 1;
-                if(VimUtils.isNewLine(c)) {
-                    if (index < buffer.length()) {
-                        c = buffer.substring(index-1, index+1);
-                        if(VimUtils.isNewLine(c)) {
-                            index += 1;
-                        }
-                    }
-                    break;
-                }
-            }
-            currLine += 1;
-        }
-        int startIndex = index;
-        while(index < buffer.length()) {
-            String c = buffer.substring(index, index+1);
-            if(VimUtils.isNewLine(c)) {
-                break;
-            }
-            index += 1;
-        }
-        int endIndex = index;
-        return new LineInformation(line, startIndex, endIndex-startIndex);
+	    return lineIndex.getLineInformation(line);
     }
 
     public LineInformation getLineInformationOfOffset(int offset) {
-        int index = 0;
-        int currLine = 0;
-        while(index < offset && index < buffer.length()) {
-            String c = buffer.substring(index, index+1);
-            if(VimUtils.isNewLine(c)) {
-                if (index < offset-1) {
-                    c = buffer.substring(index, index+2);
-                    if(VimUtils.isNewLine(c)) {
-                        index += 1;
-                    }
-                }
-                currLine += 1;
-            }
-            index += 1;
-        }
-        return getLineInformation(currLine);
+        return lineIndex.getLineInformationOfOffset(Math.min(offset, buffer.length()));
     }
 
     public int getNumberOfLines() {
-        int lines = 1;
-        for (int i = 0; i < buffer.length(); i++) {
-            String c = buffer.substring(i, i+1);
-            if(VimUtils.isNewLine(c)) {
-                if (i > 1 && i < buffer.length()) {
-                    c = buffer.substring(i-1, i+1);
-                    if(VimUtils.isNewLine(c)) {
-                        i += 1;
-                    }
-                }
-                lines += 1;
-            }
-        }
-        return lines;
+        return lineIndex.getNumberOfLines();
     }
 
     public String getText(int index, int length) {
@@ -101,11 +51,28 @@ public class TestTextContent implements TextContent {
         return getText(range.getLeftBound().getModelOffset(), range.getModelLength());
     }
 
+    public char charAt(int index) {
+        return buffer.charAt(index);
+    }
+
+    public void getChars(int start, int end, char[] dest, int destStart) {
+        buffer.getChars(start, end, dest, destStart);
+    }
+
     public void replace(int index, int length, String s) {
 		buffer.replace(index, index+length, s);
+		lineIndex.replaced(index, length, s.length());
+		modificationStamp++;
+		if (cursorService instanceof TestCursorAndSelection) {
+			((TestCursorAndSelection) cursorService).textReplaced(index, length, s.length());
+		}
 		cursorService.setPosition(new DumbPosition(index + s.length()), StickyColumnPolicy.NEVER);
     }
 
+    public void applyEdits(List<TextEdit> edits) {
+        EditBatch.applyAsSingleReplace(this, edits);
+    }
+
 	public Space getSpace() {
 		return Space.MODEL; // it doesn't matter
 	}
@@ -115,14 +82,25 @@ public class TestTextContent implements TextContent {
 	}
 
 	public void setText(String content) {
+		if (cursorService instanceof TestCursorAndSelection) {
+			((TestCursorAndSelection) cursorService).textReplaced(0, buffer.length(), content.length());
+		}
 		buffer.setLength(0);
 		buffer.append(content);
+		lineIndex.rebuild();
+		modificationStamp++;
 	}
 
 	public String getText() {
 		return buffer.toString();
 	}
 
+	/** @return a number which changes whenever the text changes. */
+	@Override
+	public long getModificationStamp() {
+		return modificationStamp;
+	}
+
     public void smartInsert(int index, String s) {
         replace(index, 0, s);
     }
@@ -0,0 +1,15 @@
+package net.sourceforge.vrapper.keymap;
+
+/**
+ * A {@link State} which knows how to turn itself into an equivalent state with precomputed
+ * transitions, see {@link StateCompiler}.
+ */
+public interface CompilableState<T> extends State<T> {
+
+    /**
+     * @return a state which behaves like this one. States reached from it should be compiled
+     *         with {@link StateCompiler#compileState(State)}. May return <tt>this</tt>.
+     */
+    State<T> compile(StateCompiler compiler);
+
+}
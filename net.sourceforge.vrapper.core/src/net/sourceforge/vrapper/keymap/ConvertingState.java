@@ -3,7 +3,7 @@ package net.sourceforge.vrapper.keymap;
 import net.sourceforge.vrapper.log.VrapperLog;
 import net.sourceforge.vrapper.utils.Function;
 
-public class ConvertingState<T1, T2> implements State<T1> {
+public class ConvertingState<T1, T2> implements CompilableState<T1> {
 
     private final Function<T1, T2> converter;
     private final State<T2> wrapped;
@@ -25,4 +25,11 @@ public class ConvertingState<T1, T2> implements State<T1> {
         	VrapperLog.debug("TODO: implement ConvertingState's union efficently");
         return new UnionState<T1>(this, other);
     }
+
+    public State<T1> compile(StateCompiler compiler) {
+        if (StateCompiler.overridesPress(this, ConvertingState.class)) {
+            return this;
+        }
+        return compiler.convert(converter, compiler.compileState(wrapped));
+    }
 }
@@ -8,7 +8,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
-public class HashMapState<T> implements State<T> {
+public class HashMapState<T> implements CompilableState<T> {
 
     protected Map<KeyStroke, Transition<T>> map;
 
@@ -54,4 +54,12 @@ public class HashMapState<T> implements State<T> {
         return new UnionState<T>(this, other);
     }
 
+    public State<T> compile(StateCompiler compiler) {
+        // Subclasses may change their bindings later on.
+        if (getClass() != HashMapState.class) {
+            return this;
+        }
+        return compiler.table(this, map.keySet());
+    }
+
 }
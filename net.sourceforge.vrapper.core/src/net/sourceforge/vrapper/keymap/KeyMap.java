@@ -2,11 +2,16 @@ package net.sourceforge.vrapper.keymap;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import net.sourceforge.vrapper.keymap.vim.ConstructorWrappers;
 
 /**
  * Maps collections of keystrokes to another collection of keystrokes.
+ * <p>
+ * Mappings are edited in a tree of mutable states. Lookups go through an immutable snapshot of
+ * that tree made of {@link TableState}s, so each key is an array lookup no matter how many
+ * mappings there are. The snapshot is rebuilt on the first key press after an edit.
  *
  * @author Matthias Radig
  */
@@ -28,7 +33,10 @@ public class KeyMap {
     }
 
     private KeyMapState root = new KeyMapState();
+    private State<Remapping> snapshot;
     private final String mapid;
+    /** Counts the edits of this keymap, see {@link #getGeneration()}. */
+    private int generation;
 
     public KeyMap(String id) {
         mapid = id;
@@ -44,6 +52,8 @@ public class KeyMap {
      */
     public void addMapping(Iterable<KeyStroke> strokes, Remapping mapping) {
         root.addMapping(strokes.iterator(), mapping);
+        snapshot = null;
+        generation++;
     }
 
     /**
@@ -54,6 +64,8 @@ public class KeyMap {
      */
     public void removeMapping(Iterable<KeyStroke> strokes) {
         root.removeMapping(strokes.iterator());
+        snapshot = null;
+        generation++;
     }
 
     /**
@@ -61,10 +73,33 @@ public class KeyMap {
      */
     public void clear() {
         root = new KeyMapState();
+        snapshot = null;
+        generation++;
+    }
+
+    /**
+     * @return a number which changes whenever a mapping is added to or removed from this keymap.
+     */
+    public int getGeneration() {
+        return generation;
     }
 
     public Transition<Remapping> press(KeyStroke key) {
-        return root.press(key);
+        if (snapshot == null) {
+            snapshot = compile(root);
+        }
+        return snapshot.press(key);
+    }
+
+    private static TableState<Remapping> compile(KeyMapState state) {
+        TableState<Remapping> table = new TableState<Remapping>();
+        for (Map.Entry<KeyStroke, Transition<Remapping>> entry : state.map.entrySet()) {
+            Transition<Remapping> transition = entry.getValue();
+            KeyMapState next = (KeyMapState) transition.getNextState();
+            table.put(entry.getKey(), new SimpleTransition<Remapping>(transition.getValue(),
+                    next == null ? null : compile(next)));
+        }
+        return table;
     }
 
     public String toString() {
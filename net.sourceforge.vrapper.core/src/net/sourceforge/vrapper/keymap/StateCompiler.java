@@ -0,0 +1,159 @@
+package net.sourceforge.vrapper.keymap;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.vrapper.utils.Function;
+
+/**
+ * Turns the static parts of a state graph into {@link TableState}s.
+ * <p>
+ * Command states are built once from nested {@link HashMapState}s, {@link UnionState}s and
+ * {@link ConvertingState}s. Walking such a graph allocates new transitions and wrapper states
+ * on every key press. The compiler walks it once instead: it asks every {@link CompilableState}
+ * for an equivalent state, flattening unions of tables into one table and applying converters
+ * to the values in advance. States which can't be enumerated, such as counts, register names or
+ * the character after <tt>f</tt>, are kept as they are, with their static parts compiled.
+ * <p>
+ * The compiled graph behaves exactly like the original one, except that transitions and their
+ * values are shared between key presses. Only use it for graphs which don't change after they
+ * are built.
+ */
+public class StateCompiler {
+
+    /** Compiled form of every state compiled so far, by identity. */
+    private final Map<State<?>, State<?>> compiled = new IdentityHashMap<State<?>, State<?>>();
+    /** Tables created by {@link #convert(Function, State)}, by converter and source table. */
+    private final Map<Function<?, ?>, Map<TableState<?>, TableState<?>>> converted =
+            new IdentityHashMap<Function<?, ?>, Map<TableState<?>, TableState<?>>>();
+    /** Tables created by {@link #union(State, State)}, by both source tables. */
+    private final Map<TableState<?>, Map<TableState<?>, TableState<?>>> merged =
+            new IdentityHashMap<TableState<?>, Map<TableState<?>, TableState<?>>>();
+
+    public static <T> State<T> compile(State<T> state) {
+        return new StateCompiler().compileState(state);
+    }
+
+    /** @return the compiled form of <tt>state</tt>, which may be <tt>state</tt> itself. */
+    @SuppressWarnings("unchecked")
+    public <T> State<T> compileState(State<T> state) {
+        if (state == null || state instanceof TableState<?> || ! (state instanceof CompilableState<?>)) {
+            return state;
+        }
+        State<T> result = (State<T>) compiled.get(state);
+        if (result == null) {
+            result = ((CompilableState<T>) state).compile(this);
+            compiled.put(state, result);
+        }
+        return result;
+    }
+
+    /**
+     * Builds a table from the transitions of <tt>source</tt> for the given keys. The table is
+     * registered before the transitions are compiled, so cycles back to <tt>source</tt> end up
+     * in the table.
+     */
+    public <T> TableState<T> table(State<T> source, Iterable<KeyStroke> keys) {
+        TableState<T> table = new TableState<T>();
+        compiled.put(source, table);
+        for (KeyStroke key : keys) {
+            Transition<T> transition = source.press(key);
+            if (transition != null) {
+                table.put(key, new SimpleTransition<T>(transition.getValue(),
+                        compileState(transition.getNextState())));
+            }
+        }
+        return table;
+    }
+
+    /** @return compiled state which behaves like {@link UnionState} of both states. */
+    @SuppressWarnings("unchecked")
+    public <T> State<T> union(State<T> state1, State<T> state2) {
+        if (state1 instanceof EmptyState<?>) {
+            return state2;
+        }
+        if (state2 instanceof EmptyState<?>) {
+            return state1;
+        }
+        if ( ! (state1 instanceof TableState<?>) || ! (state2 instanceof TableState<?>)) {
+            return new UnionState<T>(state1, state2);
+        }
+        TableState<T> table1 = (TableState<T>) state1;
+        TableState<T> table2 = (TableState<T>) state2;
+        Map<TableState<?>, TableState<?>> byTable2 = merged.get(table1);
+        if (byTable2 == null) {
+            byTable2 = new IdentityHashMap<TableState<?>, TableState<?>>();
+            merged.put(table1, byTable2);
+        }
+        TableState<T> result = (TableState<T>) byTable2.get(table2);
+        if (result != null) {
+            return result;
+        }
+        result = new TableState<T>();
+        byTable2.put(table2, result);
+        Set<KeyStroke> keys = new HashSet<KeyStroke>(table1.supportedKeys());
+        keys.addAll(table2.supportedKeys());
+        for (KeyStroke key : keys) {
+            Transition<T> transition1 = table1.press(key);
+            Transition<T> transition2 = table2.press(key);
+            if (transition1 == null || transition2 == null) {
+                result.put(key, StateUtils.firstNonNull(transition1, transition2));
+                continue;
+            }
+            // Same as StateUtils.transitionUnion.
+            T value = StateUtils.firstNonNull(transition1.getValue(), transition2.getValue());
+            State<T> next1 = transition1.getNextState();
+            State<T> next2 = transition2.getNextState();
+            State<T> next = next1 != null && next2 != null ? union(next1, next2)
+                    : StateUtils.firstNonNull(next1, next2);
+            result.put(key, new SimpleTransition<T>(value, next));
+        }
+        return result;
+    }
+
+    /** @return compiled state which behaves like {@link ConvertingState} around <tt>state</tt>. */
+    @SuppressWarnings("unchecked")
+    public <T1, T2> State<T1> convert(Function<T1, T2> converter, State<T2> state) {
+        if (state instanceof EmptyState<?>) {
+            return EmptyState.getInstance();
+        }
+        if ( ! (state instanceof TableState<?>)) {
+            return new ConvertingState<T1, T2>(converter, state);
+        }
+        TableState<T2> source = (TableState<T2>) state;
+        Map<TableState<?>, TableState<?>> bySource = converted.get(converter);
+        if (bySource == null) {
+            bySource = new IdentityHashMap<TableState<?>, TableState<?>>();
+            converted.put(converter, bySource);
+        }
+        TableState<T1> result = (TableState<T1>) bySource.get(source);
+        if (result != null) {
+            return result;
+        }
+        result = new TableState<T1>();
+        bySource.put(source, result);
+        for (KeyStroke key : source.supportedKeys()) {
+            Transition<T2> transition = source.press(key);
+            // Same as ConvertingTransition, but the value is converted only once.
+            T2 value = transition.getValue();
+            State<T2> next = transition.getNextState();
+            result.put(key, new SimpleTransition<T1>(value != null ? converter.call(value) : null,
+                    next != null ? convert(converter, next) : null));
+        }
+        return result;
+    }
+
+    /**
+     * @return whether <tt>state</tt> is of a subclass which overrides <tt>press</tt> as declared
+     *         in <tt>base</tt>, so it can't be compiled like a <tt>base</tt> instance.
+     */
+    public static boolean overridesPress(State<?> state, Class<?> base) {
+        try {
+            return state.getClass().getMethod("press", KeyStroke.class).getDeclaringClass() != base;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package net.sourceforge.vrapper.keymap;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sourceforge.vrapper.keymap.vim.KeyStrokes;
+
+/**
+ * Compiled form of a static part of a state graph: a fixed table of transitions whose values
+ * are computed in advance and whose next states are compiled as well. Pressing a key is a
+ * single lookup and allocates nothing: keys with a {@link KeyStrokes#id(KeyStroke) key id} index
+ * an array, only other keys like <tt>&lt;Plug&gt;</tt> mappings are hashed. Built by
+ * {@link StateCompiler}.
+ */
+public final class TableState<T> implements State<T> {
+
+    private final Map<KeyStroke, Transition<T>> transitions = new HashMap<KeyStroke, Transition<T>>();
+    private Transition<T>[] transitionsById = newArray(0);
+
+    TableState() {
+    }
+
+    void put(KeyStroke key, Transition<T> transition) {
+        transitions.put(key, transition);
+        int id = KeyStrokes.id(key);
+        if (id != KeyStrokes.NO_ID) {
+            if (id >= transitionsById.length) {
+                Transition<T>[] grown = newArray(id + 1);
+                System.arraycopy(transitionsById, 0, grown, 0, transitionsById.length);
+                transitionsById = grown;
+            }
+            transitionsById[id] = transition;
+        }
+    }
+
+    public Transition<T> press(KeyStroke key) {
+        int id = KeyStrokes.id(key);
+        if (id == KeyStrokes.NO_ID) {
+            return transitions.get(key);
+        }
+        return id < transitionsById.length ? transitionsById[id] : null;
+    }
+
+    public Collection<KeyStroke> supportedKeys() {
+        return transitions.keySet();
+    }
+
+    public State<T> union(State<T> other) {
+        if (other instanceof EmptyState<?>) {
+            return this;
+        }
+        return new UnionState<T>(this, other);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Transition<T>[] newArray(int length) {
+        return new Transition[length];
+    }
+
+    @Override
+    public String toString() {
+        return "TableState" + transitions.keySet();
+    }
+}
@@ -2,7 +2,7 @@ package net.sourceforge.vrapper.keymap;
 
 import static net.sourceforge.vrapper.keymap.StateUtils.transitionUnion;
 
-public class UnionState<T> implements State<T> {
+public class UnionState<T> implements CompilableState<T> {
 
     protected final State<T> state1;
     protected final State<T> state2;
@@ -21,4 +21,11 @@ public class UnionState<T> implements State<T> {
         return new UnionState<T>(this, other);
     }
 
+    public State<T> compile(StateCompiler compiler) {
+        if (StateCompiler.overridesPress(this, UnionState.class)) {
+            return this;
+        }
+        return compiler.union(compiler.compileState(state1), compiler.compileState(state2));
+    }
+
 }
@@ -158,21 +158,21 @@ public class ConstructorWrappers {
     		if(k != null) {
     			if (k.getSpecialKey() == null && ! k.withCtrlKey() && k.getCharacter() > ' ') {
     				//for combinations like A-S-x. Never convert S-C-x to uppercase!
-    				stroke = new SimpleKeyStroke(Character.toUpperCase(k.getCharacter()),
+    				stroke = KeyStrokes.get(Character.toUpperCase(k.getCharacter()),
     						true, k.withAltKey(), k.withCtrlKey());
     			} else {
-    				stroke = new SimpleKeyStroke(k, true, k.withAltKey(), k.withCtrlKey());
+    				stroke = KeyStrokes.get(k, true, k.withAltKey(), k.withCtrlKey());
     			}
     		}
     	} else if(key.startsWith("A-") || key.startsWith("M-")) { //Alt (Meta)
     		KeyStroke k = parseSpecialKey(key.substring(2));
     		if(k != null) {
-    			stroke = new SimpleKeyStroke(k, k.withShiftKey(), true, k.withCtrlKey());
+    			stroke = KeyStrokes.get(k, k.withShiftKey(), true, k.withCtrlKey());
     		}
     	} else if (key.startsWith("C-")) { //Control
     		KeyStroke k = parseSpecialKey(key.substring(2));
     		if (k != null) {
-    			stroke = new SimpleKeyStroke(k, k.withShiftKey(), k.withAltKey(), true);
+    			stroke = KeyStrokes.get(k, k.withShiftKey(), k.withAltKey(), true);
     		}
     	} else if (keyNames.containsKey(key)) {
     		stroke = keyNames.get(key);
@@ -180,7 +180,7 @@ public class ConstructorWrappers {
     	} else if (key.length() == 1 && key.charAt(0) >= ' ') {
     		//normal character, not special key (e.g., <A-x>)
     		//force lower-case, let the shift modifier convert it back to uppercase if needed.
-    		stroke = new SimpleKeyStroke(key.toLowerCase().charAt(0));
+    		stroke = KeyStrokes.get(key.toLowerCase().charAt(0));
     	}
     	// else we return null, maybe some unknown special key?
     	return stroke;
@@ -238,15 +238,15 @@ public class ConstructorWrappers {
     }
 
     public static KeyStroke key(char key) {
-        return new SimpleKeyStroke(key);
+        return KeyStrokes.get(key);
     }
 
     public static KeyStroke ctrlKey(char key) {
-        return new SimpleKeyStroke(Character.toLowerCase(key), false, false, true);
+        return KeyStrokes.get(Character.toLowerCase(key), false, false, true);
     }
 
     public static KeyStroke key(SpecialKey key) {
-        return new SimpleKeyStroke(key);
+        return KeyStrokes.get(key);
     }
 
     public static<T> KeyBinding<T> binding(char k, Transition<T> transition) {
@@ -485,39 +485,39 @@ public class ConstructorWrappers {
         map.put("BAR",     key('|'));
         
         // add these ctrl keys to keep parseSpecialKey working
-        map.put("C-@", new SimpleKeyStroke('@', false, false, true));
-        map.put("C-A", new SimpleKeyStroke('a', false, false, true));
-        map.put("C-B", new SimpleKeyStroke('b', false, false, true));
-        map.put("C-C", new SimpleKeyStroke('c', false, false, true));
-        map.put("C-D", new SimpleKeyStroke('d', false, false, true));
-        map.put("C-E", new SimpleKeyStroke('e', false, false, true));
-        map.put("C-F", new SimpleKeyStroke('f', false, false, true));
-        map.put("C-G", new SimpleKeyStroke('g', false, false, true));
-        map.put("C-H", new SimpleKeyStroke('h', false, false, true));
-        map.put("C-I", new SimpleKeyStroke('i', false, false, true));
-        map.put("C-J", new SimpleKeyStroke('j', false, false, true));
-        map.put("C-K", new SimpleKeyStroke('k', false, false, true));
-        map.put("C-L", new SimpleKeyStroke('l', false, false, true));
-        map.put("C-M", new SimpleKeyStroke('m', false, false, true));
-        map.put("C-N", new SimpleKeyStroke('n', false, false, true));
-        map.put("C-O", new SimpleKeyStroke('o', false, false, true));
-        map.put("C-P", new SimpleKeyStroke('p', false, false, true));
-        map.put("C-Q", new SimpleKeyStroke('q', false, false, true));
-        map.put("C-R", new SimpleKeyStroke('r', false, false, true));
-        map.put("C-S", new SimpleKeyStroke('s', false, false, true));
-        map.put("C-T", new SimpleKeyStroke('t', false, false, true));
-        map.put("C-U", new SimpleKeyStroke('u', false, false, true));
-        map.put("C-V", new SimpleKeyStroke('v', false, false, true));
-        map.put("C-W", new SimpleKeyStroke('w', false, false, true));
-        map.put("C-X", new SimpleKeyStroke('x', false, false, true));
-        map.put("C-Y", new SimpleKeyStroke('y', false, false, true));
-        map.put("C-Z", new SimpleKeyStroke('z', false, false, true));
-        map.put("C-[", new SimpleKeyStroke('[', false, false, true));
-        map.put("C-\\",new SimpleKeyStroke('\\', false, false, true));
-        map.put("C-]", new SimpleKeyStroke(']', false, false, true));
-        map.put("C-^", new SimpleKeyStroke('^', false, false, true));
-        map.put("C-_", new SimpleKeyStroke('_', false, false, true));
-        map.put("C-SPACE", new SimpleKeyStroke(' ', false, false, true));
+        map.put("C-@", KeyStrokes.get('@', false, false, true));
+        map.put("C-A", KeyStrokes.get('a', false, false, true));
+        map.put("C-B", KeyStrokes.get('b', false, false, true));
+        map.put("C-C", KeyStrokes.get('c', false, false, true));
+        map.put("C-D", KeyStrokes.get('d', false, false, true));
+        map.put("C-E", KeyStrokes.get('e', false, false, true));
+        map.put("C-F", KeyStrokes.get('f', false, false, true));
+        map.put("C-G", KeyStrokes.get('g', false, false, true));
+        map.put("C-H", KeyStrokes.get('h', false, false, true));
+        map.put("C-I", KeyStrokes.get('i', false, false, true));
+        map.put("C-J", KeyStrokes.get('j', false, false, true));
+        map.put("C-K", KeyStrokes.get('k', false, false, true));
+        map.put("C-L", KeyStrokes.get('l', false, false, true));
+        map.put("C-M", KeyStrokes.get('m', false, false, true));
+        map.put("C-N", KeyStrokes.get('n', false, false, true));
+        map.put("C-O", KeyStrokes.get('o', false, false, true));
+        map.put("C-P", KeyStrokes.get('p', false, false, true));
+        map.put("C-Q", KeyStrokes.get('q', false, false, true));
+        map.put("C-R", KeyStrokes.get('r', false, false, true));
+        map.put("C-S", KeyStrokes.get('s', false, false, true));
+        map.put("C-T", KeyStrokes.get('t', false, false, true));
+        map.put("C-U", KeyStrokes.get('u', false, false, true));
+        map.put("C-V", KeyStrokes.get('v', false, false, true));
+        map.put("C-W", KeyStrokes.get('w', false, false, true));
+        map.put("C-X", KeyStrokes.get('x', false, false, true));
+        map.put("C-Y", KeyStrokes.get('y', false, false, true));
+        map.put("C-Z", KeyStrokes.get('z', false, false, true));
+        map.put("C-[", KeyStrokes.get('[', false, false, true));
+        map.put("C-\\",KeyStrokes.get('\\', false, false, true));
+        map.put("C-]", KeyStrokes.get(']', false, false, true));
+        map.put("C-^", KeyStrokes.get('^', false, false, true));
+        map.put("C-_", KeyStrokes.get('_', false, false, true));
+        map.put("C-SPACE", KeyStrokes.get(' ', false, false, true));
         return map;
     }
 }
@@ -0,0 +1,169 @@
+package net.sourceforge.vrapper.keymap.vim;
+
+import net.sourceforge.vrapper.keymap.KeyStroke;
+import net.sourceforge.vrapper.keymap.SpecialKey;
+import net.sourceforge.vrapper.vim.RemappedKeyStroke;
+
+/**
+ * Registry of canonical {@link KeyStroke} instances. Every combination of character or special
+ * key and modifiers is created once and then shared, so translating input events and remapping
+ * keys allocates nothing once a key has been seen.
+ * <p>
+ * Each canonical stroke has a dense, non-negative id which keymap tables can use as an array
+ * index. Strokes which are equal share an id: the shift modifier is ignored for characters other
+ * than space, just like {@link SimpleKeyStroke#equals(Object)} does. {@link PlugKeyStroke}s are
+ * not interned and have no id.
+ */
+public final class KeyStrokes {
+
+    /** Id of keys which can't be interned. */
+    public static final int NO_ID = -1;
+
+    private static final int SHIFT = 1;
+    private static final int ALT = 2;
+    private static final int CTRL = 4;
+    private static final int MODIFIER_BITS = 3;
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    /** Character strokes in pages of 256 characters, times all modifier combinations. */
+    private static final Interned[][] characters = new Interned[(Character.MAX_VALUE + 1) >> PAGE_BITS][];
+    private static final Interned[] specialKeys = new Interned[SpecialKey.values().length << MODIFIER_BITS];
+    private static int nextId = 0;
+
+    private KeyStrokes() {
+    }
+
+    public static KeyStroke get(char character, boolean shiftKey, boolean altKey, boolean ctrlKey) {
+        return character(character, modifiers(shiftKey, altKey, ctrlKey));
+    }
+
+    public static KeyStroke get(SpecialKey key, boolean shiftKey, boolean altKey, boolean ctrlKey) {
+        return specialKey(key, modifiers(shiftKey, altKey, ctrlKey));
+    }
+
+    /**
+     * @return the stroke with the character or special key of <tt>source</tt> but with
+     *      different modifiers.
+     */
+    public static KeyStroke get(KeyStroke source, boolean shiftKey, boolean altKey, boolean ctrlKey) {
+        int modifiers = modifiers(shiftKey, altKey, ctrlKey);
+        if (source.getSpecialKey() == null) {
+            return character(source.getCharacter(), modifiers);
+        }
+        return specialKey(source.getSpecialKey(), modifiers);
+    }
+
+    public static KeyStroke get(char character) {
+        return character(character, 0);
+    }
+
+    public static KeyStroke get(SpecialKey key) {
+        return specialKey(key, 0);
+    }
+
+    /**
+     * @return the canonical stroke equal to <tt>key</tt>, without the remapping information
+     *      of a {@link RemappedKeyStroke}. Keys which can't be interned are returned as they are.
+     */
+    public static KeyStroke intern(KeyStroke key) {
+        if (key instanceof Interned || key instanceof PlugKeyStroke) {
+            return key;
+        }
+        if (key instanceof RemappedKeyStroke) {
+            return intern(((RemappedKeyStroke) key).getDelegate());
+        }
+        return get(key, key.withShiftKey(), key.withAltKey(), key.withCtrlKey());
+    }
+
+    /**
+     * @return the id of the canonical stroke equal to <tt>key</tt> or {@link #NO_ID}.
+     */
+    public static int id(KeyStroke key) {
+        KeyStroke canonical = intern(key);
+        return canonical instanceof Interned ? ((Interned) canonical).id : NO_ID;
+    }
+
+    /**
+     * @return a {@link RemappedKeyStroke} for <tt>key</tt>. For keys which can be interned this is
+     *      a shared instance.
+     */
+    public static RemappedKeyStroke remapped(KeyStroke key, boolean recursive) {
+        KeyStroke canonical = intern(key);
+        if (canonical instanceof Interned) {
+            Interned interned = (Interned) canonical;
+            return recursive ? interned.recursive : interned.remapped;
+        }
+        return new RemappedKeyStroke(key, recursive);
+    }
+
+    private static int modifiers(boolean shiftKey, boolean altKey, boolean ctrlKey) {
+        return (shiftKey ? SHIFT : 0) | (altKey ? ALT : 0) | (ctrlKey ? CTRL : 0);
+    }
+
+    private static Interned character(char character, int modifiers) {
+        Interned[] page = characters[character >> PAGE_BITS];
+        if (page != null) {
+            Interned stroke = page[(character & PAGE_MASK) << MODIFIER_BITS | modifiers];
+            if (stroke != null) {
+                return stroke;
+            }
+        }
+        return internCharacter(character, modifiers);
+    }
+
+    private static synchronized Interned internCharacter(char character, int modifiers) {
+        Interned[] page = characters[character >> PAGE_BITS];
+        if (page == null) {
+            page = new Interned[(PAGE_MASK + 1) << MODIFIER_BITS];
+            characters[character >> PAGE_BITS] = page;
+        }
+        int index = (character & PAGE_MASK) << MODIFIER_BITS | modifiers;
+        if (page[index] == null) {
+            int id;
+            if ((modifiers & SHIFT) != 0 && character != ' ') {
+                // The character already tells whether shift was pressed.
+                id = character(character, modifiers & ~SHIFT).id;
+            } else {
+                id = nextId++;
+            }
+            page[index] = new Interned(character, modifiers, id);
+        }
+        return page[index];
+    }
+
+    private static Interned specialKey(SpecialKey key, int modifiers) {
+        Interned stroke = specialKeys[key.ordinal() << MODIFIER_BITS | modifiers];
+        return stroke != null ? stroke : internSpecialKey(key, modifiers);
+    }
+
+    private static synchronized Interned internSpecialKey(SpecialKey key, int modifiers) {
+        int index = key.ordinal() << MODIFIER_BITS | modifiers;
+        if (specialKeys[index] == null) {
+            specialKeys[index] = new Interned(key, modifiers, nextId++);
+        }
+        return specialKeys[index];
+    }
+
+    /** Canonical stroke, carrying its id and its remapped views. */
+    private static final class Interned extends SimpleKeyStroke {
+
+        final int id;
+        final RemappedKeyStroke remapped;
+        final RemappedKeyStroke recursive;
+
+        Interned(char character, int modifiers, int id) {
+            super(character, (modifiers & SHIFT) != 0, (modifiers & ALT) != 0, (modifiers & CTRL) != 0);
+            this.id = id;
+            remapped = new RemappedKeyStroke(this, false);
+            recursive = new RemappedKeyStroke(this, true);
+        }
+
+        Interned(SpecialKey key, int modifiers, int id) {
+            super(key, (modifiers & SHIFT) != 0, (modifiers & ALT) != 0, (modifiers & CTRL) != 0);
+            this.id = id;
+            remapped = new RemappedKeyStroke(this, false);
+            recursive = new RemappedKeyStroke(this, true);
+        }
+    }
+}
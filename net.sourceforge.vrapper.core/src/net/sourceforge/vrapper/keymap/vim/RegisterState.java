@@ -1,26 +1,28 @@
 package net.sourceforge.vrapper.keymap.vim;
 
+import net.sourceforge.vrapper.keymap.CompilableState;
 import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.keymap.SimpleTransition;
 import net.sourceforge.vrapper.keymap.State;
+import net.sourceforge.vrapper.keymap.StateCompiler;
 import net.sourceforge.vrapper.keymap.Transition;
 import net.sourceforge.vrapper.vim.commands.Command;
 import net.sourceforge.vrapper.vim.commands.SwitchRegisterCommand;
 
-public class RegisterState implements State<Command> {
+public class RegisterState implements CompilableState<Command> {
 
     private final State<Command> wrappedState;
-    private final RegisterSelectState selectState;
+    private final Transition<Command> selectTransition;
 
     public RegisterState(State<Command> wrappedState) {
         super();
         this.wrappedState = wrappedState;
-        selectState = new RegisterSelectState();
+        selectTransition = new SimpleTransition<Command>(new RegisterSelectState());
     }
 
     public Transition<Command> press(KeyStroke key) {
         if ('"' == key.getCharacter()) {
-            return new SimpleTransition<Command>(selectState);
+            return selectTransition;
         }
         return wrappedState.press(key);
     }
@@ -29,6 +31,13 @@ public class RegisterState implements State<Command> {
         return new RegisterState(wrappedState.union(other));
     }
 
+    public State<Command> compile(StateCompiler compiler) {
+        if (getClass() != RegisterState.class) {
+            return this;
+        }
+        return new RegisterState(compiler.compileState(wrappedState));
+    }
+
     public static State<Command> wrap(State<Command> wrapped) {
         return new RegisterState(wrapped);
     }
@@ -33,6 +33,12 @@ public interface Configuration {
      */
     public <T> boolean isSet(Option<T> key);
 
+    /**
+     * @return a number which changes whenever an option is set which {@link #get(Option)} of
+     *      this config can see.
+     */
+    public int getGeneration();
+
     public static enum OptionScope {
         /** This option's value will never be shared between editors, even using <tt>set</tt>. */
         LOCAL,
@@ -134,6 +140,10 @@ public interface Configuration {
             return new Option<Integer>(id, defaultValue, null, alias);
         }
 
+        public static final Option<Integer> globalInteger(String id, int defaultValue, String... alias) {
+            return new Option<Integer>(id, OptionScope.GLOBAL, defaultValue, null, alias);
+        }
+
         public String getId() {
             return id;
         }
@@ -49,7 +49,7 @@ public interface HighlightingService {
      * @param type Eclipse annotation type.
      * @param name highlighting name.
      * @param region range of text to highlight.
-     * @return annotation handle or @a null if there was an error.
+     * @return annotation handles in the order of @a regions.
      */
     List<Object> highlightRegions(String type, String name, List<TextRange> regions);
 
@@ -59,4 +59,16 @@ public interface HighlightingService {
      * @param annotationHandle handle returned by @ref highlightRegion.
      */
     void removeHighlights(List<Object> annotationHandles);
+
+    /**
+     * Removes highlights and adds new ones in a single change, so that the editor only has to
+     * repaint once.
+     * @param annotationHandles handles of the highlights to remove.
+     * @param type Eclipse annotation type of the new highlights.
+     * @param name highlighting name.
+     * @param regions ranges of text to highlight.
+     * @return annotation handles of the new highlights, in the order of @a regions.
+     */
+    List<Object> replaceHighlights(List<Object> annotationHandles, String type, String name,
+            List<TextRange> regions);
 }
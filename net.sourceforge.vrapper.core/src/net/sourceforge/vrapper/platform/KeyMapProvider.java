@@ -15,4 +15,10 @@ public interface KeyMapProvider {
      * @return the keymap with the given name
      */
     KeyMap getKeyMap(String id);
+
+    /**
+     * @return a number which changes whenever a mapping is added to or removed from one of the
+     *      keymaps of this provider.
+     */
+    int getGeneration();
 }
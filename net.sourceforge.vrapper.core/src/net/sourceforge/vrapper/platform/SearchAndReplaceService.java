@@ -1,9 +1,12 @@
 package net.sourceforge.vrapper.platform;
 
-import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.utils.Search;
+import net.sourceforge.vrapper.utils.SearchMatchIndex;
 import net.sourceforge.vrapper.utils.SearchResult;
+import net.sourceforge.vrapper.utils.SubstitutionEngine;
+import net.sourceforge.vrapper.utils.TextRange;
+import net.sourceforge.vrapper.utils.VimPattern;
 
 public interface SearchAndReplaceService {
 
@@ -17,26 +20,28 @@ public interface SearchAndReplaceService {
      * @return the index of the searched string.
      */
 	SearchResult find(Search search, Position start);
-	
-	/**
-	 * Perform a search and replace.
-	 * @param line line in file to search for toFind
-	 * @param toFind String to find in the line
-	 * @param replace String to replace toFind with
-	 * @param flags Regex flags like 'g' for global and 'i' for insensitive case
-	 * @return count of replacements performed
-	 */
-    int replace(LineInformation line, String toFind, String replace, String flags);
 
     /**
-     * Perform a single text substitution (with regex support)
-     * @param start - model index to start looking
-     * @param toFind - String to search for
-     * @param flags - Regex flags like 'i' for insensitive case
-     * @param toReplace - String to replace 'toFind' with
-     * @return true if successful, false if no substitution performed
+     * Returns the match index for the given search in the current document. The index is kept
+     * as long as the search stays the same and is updated when the document changes.
+     * @throws java.util.regex.PatternSyntaxException if the search pattern is invalid.
      */
-    boolean substitute(int start, String toFind, String flags, String toReplace);
+    SearchMatchIndex getMatchIndex(Search search);
+	
+    /**
+     * Counts the matches of a pattern in a range of lines, like <tt>:s///n</tt>. Only reads
+     * the text, so no undo history entries or document change events are created.
+     * @param pattern compiled pattern, see {@link SubstitutionEngine#getPattern()}
+     * @param startLine first line of the range
+     * @param endLine last line of the range
+     * @param global count every match instead of only the first one in each line
+     * @param visualArea last visual selection, restricts the matches if the pattern contains
+     *        <tt>\%V</tt>. May be null.
+     * @return the number of matches and the number of lines containing one
+     */
+    SubstitutionEngine.Result countMatches(VimPattern pattern, int startLine, int endLine, boolean global,
+            TextRange visualArea);
+
 
     /**
      * Parse find string and flags (and use local config)
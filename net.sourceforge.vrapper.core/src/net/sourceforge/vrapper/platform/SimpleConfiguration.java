@@ -12,6 +12,8 @@ public class SimpleConfiguration implements Configuration {
     private String newLine = NewLine.SYSTEM.nl;
     private final Map<Option<?>, Object> vars = new HashMap<Option<?>, Object>();
     private final List<DefaultConfigProvider> defaultConfigProviders;
+    /** Counts the changes of this configuration, see {@link #getGeneration()}. */
+    private int generation;
 
     public SimpleConfiguration(List<DefaultConfigProvider> defaultConfigProviders) {
         this.defaultConfigProviders = defaultConfigProviders;
@@ -45,6 +47,11 @@ public class SimpleConfiguration implements Configuration {
             throw new NullPointerException("value must not be null");
         }
         vars.put(key, value);
+        generation++;
+    }
+
+    public int getGeneration() {
+        return generation;
     }
 
     /* (non-Javadoc)
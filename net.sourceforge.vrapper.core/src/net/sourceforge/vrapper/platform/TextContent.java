@@ -1,7 +1,10 @@
 package net.sourceforge.vrapper.platform;
 
+import java.util.List;
+
 import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.utils.Space;
+import net.sourceforge.vrapper.utils.TextEdit;
 import net.sourceforge.vrapper.utils.TextRange;
 
 /**
@@ -41,6 +44,18 @@ public interface TextContent {
      */
     void replace(int index, int length, String s);
 
+    /**
+     * Applies several replacements as a single change of the text, see
+     * {@link net.sourceforge.vrapper.utils.EditBatch}.
+     *
+     * @param edits
+     *            non-overlapping edits, in any order. Their offsets refer to
+     *            the text before any of them is applied.
+     * @throws IllegalArgumentException
+     *             if two edits overlap.
+     */
+    void applyEdits(List<TextEdit> edits);
+
     /**
      * Uses the underlying editors smart insert if available.
      *
@@ -71,6 +86,31 @@ public interface TextContent {
 
     String getText(TextRange range);
 
+    /**
+     * Retrieves a single character without creating a String for it.
+     *
+     * @param index
+     *            position of the character.
+     * @return the character at the given position.
+     */
+    char charAt(int index);
+
+    /**
+     * Copies characters from the text into a buffer, like
+     * {@link String#getChars(int, int, char[], int)}. Use a
+     * {@link net.sourceforge.vrapper.utils.CharCursor} to walk over larger parts of the text.
+     *
+     * @param start
+     *            offset of the first character to copy.
+     * @param end
+     *            offset after the last character to copy.
+     * @param dest
+     *            the destination buffer.
+     * @param destStart
+     *            start index in the destination buffer.
+     */
+    void getChars(int start, int end, char[] dest, int destStart);
+
     /**
      * @return length of text
      */
@@ -78,4 +118,10 @@ public interface TextContent {
 
 	Space getSpace();
 
+    /**
+     * @return a number which changes whenever the text changes, also when it is not changed
+     *         through this object. Platforms which can't tell return a constant.
+     */
+    long getModificationStamp();
+
 }
@@ -76,4 +76,26 @@ public interface UserInterfaceService {
      * @param editorAdaptor
      */
     CommandLineUI getCommandLineUI(EditorAdaptor editorAdaptor);
+
+    /**
+     * Runs <tt>runnable</tt> on the UI thread once the current event has been handled. May be
+     * called from any thread, used to hand results of background work back to the editor.
+     */
+    void asyncExec(Runnable runnable);
+
+    /**
+     * Runs <tt>runnable</tt> on the UI thread after <tt>milliseconds</tt>. Scheduling a runnable
+     * again replaces its earlier schedule, a negative delay cancels it. Must be called from the
+     * UI thread.
+     */
+    void timerExec(int milliseconds, Runnable runnable);
+
+    /**
+     * Lets the user interrupt a long running operation with Escape or Control-C. Those keys are
+     * consumed, other keys are handed to the editor as usual, which keeps them until the
+     * operation is done. Mouse input is dropped. Must be called on the UI thread, regularly while
+     * the operation runs.
+     * @return whether the user asked for an interrupt since the last call.
+     */
+    boolean pollInterrupt();
 }
@@ -0,0 +1,174 @@
+package net.sourceforge.vrapper.utils;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks for the match closest to a fixed offset on a background thread, as needed for
+ * <tt>incsearch</tt>.
+ * <p>
+ * All searches run against the same snapshot of the text. A search only starts after
+ * {@link #DEBOUNCE_DELAY} milliseconds without a newer request, so a burst of keystrokes results
+ * in a single search. A newer request also cancels a search which is already running, the
+ * matcher is stopped while it reads the text. The result of the latest request is handed to the
+ * {@link Callback} through the UI executor; stale results are dropped.
+ */
+public class BackgroundSearch {
+
+    /** Milliseconds to wait for further requests before a search starts. */
+    public static final int DEBOUNCE_DELAY = 40;
+
+    private static ScheduledExecutorService searchExecutor;
+
+    /** Receives the results, always called through the UI executor. */
+    public interface Callback {
+        /**
+         * @param start
+         *            start of the match closest to the search offset, -1 if there is none.
+         * @param end
+         *            end of that match, -1 if there is none.
+         */
+        void searchDone(Search search, int start, int end);
+    }
+
+    private final CharSequence text;
+    private final int offset;
+    private final boolean wrapScan;
+    private final Executor uiExecutor;
+    private final Callback callback;
+    /** Incremented by every request and by {@link #cancel()}, identifies the current search. */
+    private volatile int generation;
+    private ScheduledFuture<?> pending;
+
+    /**
+     * @param text
+     *            snapshot of the text, must not change while searches run.
+     * @param offset
+     *            a forward search finds the first match after this offset, a backward search
+     *            the last match which ends at or before it, like a search with <tt>n</tt>.
+     * @param uiExecutor
+     *            runs the callback, usually on the UI thread.
+     */
+    public BackgroundSearch(CharSequence text, int offset, boolean wrapScan, Executor uiExecutor,
+            Callback callback) {
+        this.text = text;
+        this.offset = offset;
+        this.wrapScan = wrapScan;
+        this.uiExecutor = uiExecutor;
+        this.callback = callback;
+    }
+
+    /**
+     * Requests a search, replacing any earlier request which hasn't finished yet. The pattern
+     * of <tt>search</tt> should already be compiled, see {@link Search#getPattern()}.
+     */
+    public synchronized void search(final Search search) {
+        final int current = ++generation;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = getSearchExecutor().schedule(new Runnable() {
+            public void run() {
+                runSearch(search, current);
+            }
+        }, DEBOUNCE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /** Cancels the pending search, its result won't be reported. */
+    public synchronized void cancel() {
+        generation++;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    private void runSearch(final Search search, final int current) {
+        if (current != generation) {
+            return;
+        }
+        int start = -1;
+        int end = -1;
+        try {
+            VimPattern pattern = search.getPattern();
+            CharSequence cancellable = new CancellableText(current);
+            int[] match;
+            if (search.isBackward()) {
+                match = pattern.lastIn(cancellable, offset);
+                if (match == null && wrapScan) {
+                    match = pattern.lastIn(cancellable, text.length());
+                }
+            } else {
+                match = pattern.firstIn(cancellable, offset + 1);
+                if (match == null && wrapScan) {
+                    match = pattern.firstIn(cancellable, 0);
+                }
+            }
+            if (match != null) {
+                start = match[0];
+                end = match[1];
+            }
+        } catch (CancellationException e) {
+            return;
+        }
+        final int matchStart = start;
+        final int matchEnd = end;
+        uiExecutor.execute(new Runnable() {
+            public void run() {
+                if (current == generation) {
+                    callback.searchDone(search, matchStart, matchEnd);
+                }
+            }
+        });
+    }
+
+    private static synchronized ScheduledExecutorService getSearchExecutor() {
+        if (searchExecutor == null) {
+            searchExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Vrapper incremental search");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return searchExecutor;
+    }
+
+    /** The text, stopping the matcher once a newer search has been requested. */
+    private class CancellableText implements CharSequence {
+        private final int searchGeneration;
+        private int reads;
+
+        CancellableText(int searchGeneration) {
+            this.searchGeneration = searchGeneration;
+        }
+
+        public char charAt(int index) {
+            // Reading the volatile field for every character would slow the matcher down.
+            if ((++reads & 0xfff) == 0 && searchGeneration != generation) {
+                throw new CancellationException();
+            }
+            return text.charAt(index);
+        }
+
+        public int length() {
+            return text.length();
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
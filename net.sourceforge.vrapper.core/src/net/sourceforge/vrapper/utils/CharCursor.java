@@ -0,0 +1,152 @@
+package net.sourceforge.vrapper.utils;
+
+import net.sourceforge.vrapper.platform.TextContent;
+
+/**
+ * Walks over the characters of a {@link TextContent} in either direction.
+ * <p>
+ * Characters are fetched in chunks into a buffer which is reused for the lifetime of the cursor,
+ * so stepping through a document doesn't create any garbage. The text length is read once when
+ * the cursor is created; create a new cursor (or call {@link #reset()}) after modifying the text.
+ */
+public class CharCursor {
+
+    public static final int DEFAULT_BUFFER_SIZE = 512;
+
+    private final TextContent content;
+    private final char[] buffer;
+    private int length;
+    /** Offset in the text of the first character in the buffer. */
+    private int bufferStart;
+    /** Number of valid characters in the buffer. */
+    private int bufferLength;
+    private int offset;
+    /** Whether the last movement was backwards, used to decide in which direction to prefetch. */
+    private boolean backwards;
+
+    public CharCursor(TextContent content, int offset) {
+        this(content, offset, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CharCursor(TextContent content, int offset, int bufferSize) {
+        this.content = content;
+        this.buffer = new char[bufferSize];
+        reset();
+        setOffset(offset);
+    }
+
+    /** Drops all buffered characters and rereads the text length. */
+    public void reset() {
+        length = content.getTextLength();
+        bufferStart = 0;
+        bufferLength = 0;
+    }
+
+    public TextContent getContent() {
+        return content;
+    }
+
+    /** @return length of the text at the time the cursor was created or last reset. */
+    public int getTextLength() {
+        return length;
+    }
+
+    /**
+     * @return the offset of the character which {@link #next()} will return. {@link #previous()}
+     *         returns the character before this offset.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public void setOffset(int offset) {
+        if (offset < 0 || offset > length) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " not in [0, " + length + "]");
+        }
+        this.offset = offset;
+    }
+
+    public boolean hasNext() {
+        return offset < length;
+    }
+
+    public boolean hasPrevious() {
+        return offset > 0;
+    }
+
+    /** Returns the character at the current offset and moves past it. */
+    public char next() {
+        backwards = false;
+        return charAt(offset++);
+    }
+
+    /** Moves back one character and returns it. */
+    public char previous() {
+        backwards = true;
+        return charAt(--offset);
+    }
+
+    /** Returns the character at the current offset without moving. */
+    public char current() {
+        return charAt(offset);
+    }
+
+    /**
+     * Random access to any character in the text. The buffer is refilled around the requested
+     * offset if needed, ahead of it in the direction the cursor was last moving.
+     */
+    public char charAt(int index) {
+        int bufferIndex = index - bufferStart;
+        if (bufferIndex < 0 || bufferIndex >= bufferLength) {
+            fill(index);
+            bufferIndex = index - bufferStart;
+        }
+        return buffer[bufferIndex];
+    }
+
+    /**
+     * @return the length of the newline sequence starting at <tt>index</tt>, or 0 if there is no
+     *         newline at that offset.
+     */
+    public int newLineLengthAt(int index) {
+        if (index < 0 || index >= length) {
+            return 0;
+        }
+        char c = charAt(index);
+        if (c == '\r') {
+            return index + 1 < length && charAt(index + 1) == '\n' ? 2 : 1;
+        }
+        return c == '\n' ? 1 : 0;
+    }
+
+    /**
+     * @return the length of the newline sequence ending just before <tt>index</tt>, or 0 if the
+     *         character before that offset isn't a newline.
+     */
+    public int newLineLengthBefore(int index) {
+        if (index <= 0 || index > length) {
+            return 0;
+        }
+        char c = charAt(index - 1);
+        if (c == '\n') {
+            return index - 2 >= 0 && charAt(index - 2) == '\r' ? 2 : 1;
+        }
+        return c == '\r' ? 1 : 0;
+    }
+
+    private void fill(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Offset " + index + " not in [0, " + length + ")");
+        }
+        int start;
+        if (backwards) {
+            start = Math.max(0, index + 1 - buffer.length);
+        } else {
+            start = index;
+        }
+        int end = Math.min(length, start + buffer.length);
+        content.getChars(start, end, buffer, 0);
+        bufferStart = start;
+        bufferLength = end - start;
+    }
+}
@@ -22,4 +22,13 @@ public class DefaultKeyMapProvider implements KeyMapProvider {
         return keymaps.get(id);
     }
 
+    public int getGeneration() {
+        // The generations only grow, so their sum changes whenever one of them does.
+        int generation = 0;
+        for (KeyMap keymap : keymaps.values()) {
+            generation += keymap.getGeneration();
+        }
+        return generation;
+    }
+
 }
@@ -0,0 +1,107 @@
+package net.sourceforge.vrapper.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.sourceforge.vrapper.platform.TextContent;
+
+/**
+ * Collects a number of non-overlapping edits which are then applied to a {@link TextContent} as
+ * one change, see {@link TextContent#applyEdits(List)}.
+ * <p>
+ * All offsets refer to the text before the batch is applied, so callers can compute every edit
+ * from the original text without keeping track of how earlier edits shifted it.
+ */
+public class EditBatch {
+
+    private static final Comparator<TextEdit> BY_OFFSET = new Comparator<TextEdit>() {
+        @Override
+        public int compare(TextEdit o1, TextEdit o2) {
+            return o1.getOffset() < o2.getOffset() ? -1 : (o1.getOffset() == o2.getOffset() ? 0 : 1);
+        }
+    };
+
+    private final List<TextEdit> edits = new ArrayList<TextEdit>();
+
+    public EditBatch replace(int offset, int length, String text) {
+        edits.add(new TextEdit(offset, length, text));
+        return this;
+    }
+
+    public EditBatch insert(int offset, String text) {
+        return replace(offset, 0, text);
+    }
+
+    public EditBatch delete(int offset, int length) {
+        return replace(offset, length, "");
+    }
+
+    public boolean isEmpty() {
+        return edits.isEmpty();
+    }
+
+    public int size() {
+        return edits.size();
+    }
+
+    public List<TextEdit> getEdits() {
+        return Collections.unmodifiableList(edits);
+    }
+
+    /**
+     * Applies all collected edits to <tt>content</tt> and empties this batch.
+     * @throws IllegalArgumentException if the edits overlap.
+     */
+    public void applyTo(TextContent content) {
+        if (edits.isEmpty()) {
+            return;
+        }
+        content.applyEdits(new ArrayList<TextEdit>(edits));
+        edits.clear();
+    }
+
+    /**
+     * @return a copy of <tt>edits</tt> sorted by offset. Insertions at the same offset keep the
+     *         order in which they were given.
+     * @throws IllegalArgumentException if two edits overlap.
+     */
+    public static List<TextEdit> sortAndCheck(List<TextEdit> edits) {
+        List<TextEdit> sorted = new ArrayList<TextEdit>(edits);
+        // Collections.sort is stable.
+        Collections.sort(sorted, BY_OFFSET);
+        for (int i = 1; i < sorted.size(); i++) {
+            TextEdit previous = sorted.get(i - 1);
+            TextEdit edit = sorted.get(i);
+            if (edit.getOffset() < previous.getEndOffset()) {
+                throw new IllegalArgumentException("Overlapping edits: " + previous + " and " + edit);
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Applies <tt>edits</tt> by replacing the region spanning all of them in a single call to
+     * {@link TextContent#replace(int, int, String)}. Meant for {@link TextContent} implementations
+     * which have no native way to group changes.
+     */
+    public static void applyAsSingleReplace(TextContent content, List<TextEdit> edits) {
+        List<TextEdit> sorted = sortAndCheck(edits);
+        if (sorted.isEmpty()) {
+            return;
+        }
+        int start = sorted.get(0).getOffset();
+        int end = sorted.get(sorted.size() - 1).getEndOffset();
+        StringBuilder result = new StringBuilder();
+        int position = start;
+        for (TextEdit edit : sorted) {
+            if (edit.getOffset() > position) {
+                result.append(content.getText(position, edit.getOffset() - position));
+            }
+            result.append(edit.getText());
+            position = edit.getEndOffset();
+        }
+        content.replace(start, end - start, result.toString());
+    }
+}
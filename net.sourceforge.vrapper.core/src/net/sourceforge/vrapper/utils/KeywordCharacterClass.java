@@ -0,0 +1,204 @@
+package net.sourceforge.vrapper.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import net.sourceforge.vrapper.log.VrapperLog;
+import net.sourceforge.vrapper.vim.Options;
+
+/**
+ * Compiled form of the <tt>iskeyword</tt> option.
+ * <p>
+ * The option value is parsed the way Vim parses <tt>'isfname'</tt>-style options: a comma
+ * separated list of parts where each part is a single character, a decimal character number, a
+ * range of those (<tt>a-z</tt>, <tt>48-57</tt>), <tt>@</tt> for all letters below 256 or
+ * <tt>@-@</tt> for the '@' character itself. A part prefixed with <tt>^</tt> excludes characters
+ * again. Later parts override earlier ones.
+ * <p>
+ * Characters of the Basic Multilingual Plane are looked up in a precomputed bit table,
+ * supplementary code points are checked against the parsed ranges.
+ * <p>
+ * Values which are not valid in Vim's syntax are interpreted as the contents of a Java regex
+ * character class, which is how older Vrapper versions treated this option.
+ */
+public class KeywordCharacterClass {
+
+    /** Matches every character which isn't whitespace, like Vim's WORD. */
+    public static final KeywordCharacterClass NON_BLANK = new KeywordCharacterClass("^ ", true);
+
+    private static final int BMP_SIZE = Character.MAX_VALUE + 1;
+
+    private final String definition;
+    private final long[] bmpTable = new long[BMP_SIZE / 64];
+    /** Parsed parts as {start, end, included} triples, used for supplementary code points. */
+    private final List<int[]> ranges = new ArrayList<int[]>();
+    /** Only set when the definition is a legacy regex character class. */
+    private Pattern legacyPattern;
+    private final boolean matchAllNonBlank;
+
+    private KeywordCharacterClass(String definition, boolean matchAllNonBlank) {
+        this.definition = definition;
+        this.matchAllNonBlank = matchAllNonBlank;
+    }
+
+    /**
+     * Parses an <tt>iskeyword</tt> value. Never fails: invalid definitions fall back to the
+     * default value of {@link Options#KEYWORDS}.
+     */
+    public static KeywordCharacterClass compile(String iskeyword) {
+        KeywordCharacterClass result = new KeywordCharacterClass(iskeyword, false);
+        try {
+            result.parseVimDefinition(iskeyword);
+        } catch (IllegalArgumentException vimSyntaxError) {
+            try {
+                result.compileLegacyDefinition(iskeyword);
+            } catch (PatternSyntaxException e) {
+                VrapperLog.error("Invalid iskeyword value '" + iskeyword + "', using default", e);
+                return compile(Options.KEYWORDS.getDefaultValue());
+            }
+        }
+        return result;
+    }
+
+    /** The option value this class was compiled from. */
+    public String getDefinition() {
+        return definition;
+    }
+
+    public boolean isKeyword(char c) {
+        if (matchAllNonBlank) {
+            return ! Character.isWhitespace(c);
+        }
+        return (bmpTable[c >>> 6] & (1L << c)) != 0;
+    }
+
+    public boolean isKeywordCodePoint(int codePoint) {
+        if (codePoint < BMP_SIZE) {
+            return isKeyword((char) codePoint);
+        }
+        if (matchAllNonBlank) {
+            return ! Character.isWhitespace(codePoint);
+        }
+        if (legacyPattern != null) {
+            return legacyPattern.matcher(new String(Character.toChars(codePoint))).matches();
+        }
+        boolean result = false;
+        for (int[] range : ranges) {
+            if (codePoint >= range[0] && codePoint <= range[1]) {
+                result = range[2] != 0;
+            }
+        }
+        return result;
+    }
+
+    private void parseVimDefinition(String value) {
+        int i = 0;
+        int length = value.length();
+        while (i < length) {
+            boolean exclude = false;
+            boolean allLetters = false;
+            if (value.charAt(i) == '^' && i + 1 < length && value.charAt(i + 1) != ',') {
+                exclude = true;
+                i++;
+            }
+            int start;
+            if (Character.isDigit(value.charAt(i))) {
+                int numberEnd = skipDigits(value, i);
+                start = parseNumber(value, i, numberEnd);
+                i = numberEnd;
+            } else if (value.startsWith("@-@", i)) {
+                start = '@';
+                i += 3;
+            } else {
+                start = value.codePointAt(i);
+                allLetters = start == '@';
+                i += Character.charCount(start);
+            }
+            int end = start;
+            if (i + 1 < length && value.charAt(i) == '-' && ! allLetters) {
+                i++;
+                if (Character.isDigit(value.charAt(i))) {
+                    int numberEnd = skipDigits(value, i);
+                    end = parseNumber(value, i, numberEnd);
+                    i = numberEnd;
+                } else {
+                    end = value.codePointAt(i);
+                    i += Character.charCount(end);
+                }
+                if (end < start) {
+                    throw new IllegalArgumentException("Reversed range in " + value);
+                }
+            }
+            if (i < length) {
+                if (value.charAt(i) != ',') {
+                    throw new IllegalArgumentException("Expected ',' at " + i + " in " + value);
+                }
+                i++;
+            }
+            if (allLetters) {
+                for (int c = 0; c < 256; c++) {
+                    if (Character.isLetter(c)) {
+                        setBmp(c, c, ! exclude);
+                    }
+                }
+            } else {
+                setBmp(start, Math.min(end, BMP_SIZE - 1), ! exclude);
+                if (end >= BMP_SIZE) {
+                    ranges.add(new int[] { Math.max(start, BMP_SIZE), end, exclude ? 0 : 1 });
+                }
+            }
+        }
+    }
+
+    private static int skipDigits(String value, int i) {
+        while (i < value.length() && Character.isDigit(value.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int parseNumber(String value, int start, int end) {
+        try {
+            int result = Integer.parseInt(value.substring(start, end));
+            if (result > Character.MAX_CODE_POINT) {
+                throw new IllegalArgumentException("Invalid character number in " + value);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid character number in " + value, e);
+        }
+    }
+
+    private void compileLegacyDefinition(String value) {
+        // Undo whatever the Vim parser managed to set before failing.
+        Arrays.fill(bmpTable, 0L);
+        ranges.clear();
+        Pattern pattern = Pattern.compile("[" + value + "]");
+        char[] singleChar = new char[1];
+        for (int c = 0; c < BMP_SIZE; c++) {
+            singleChar[0] = (char) c;
+            if (pattern.matcher(new String(singleChar)).matches()) {
+                setBmp(c, c, true);
+            }
+        }
+        legacyPattern = pattern;
+    }
+
+    private void setBmp(int start, int end, boolean included) {
+        for (int c = start; c <= end; c++) {
+            if (included) {
+                bmpTable[c >>> 6] |= 1L << c;
+            } else {
+                bmpTable[c >>> 6] &= ~(1L << c);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "KeywordCharacterClass(" + definition + ")";
+    }
+}
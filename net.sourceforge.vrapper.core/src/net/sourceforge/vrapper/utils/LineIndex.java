@@ -0,0 +1,144 @@
+package net.sourceforge.vrapper.utils;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the line start offsets of a piece of text so that line look-ups don't have to
+ * rescan it. Meant for {@link net.sourceforge.vrapper.platform.TextContent} implementations which
+ * aren't backed by an Eclipse document.
+ * <p>
+ * <tt>\n</tt>, <tt>\r\n</tt> and <tt>\r</tt> are all recognized as line delimiters. The index
+ * holds on to the text it was created for; after changing that text, call
+ * {@link #replaced(int, int, int)} to update the index.
+ */
+public class LineIndex {
+
+    private final CharSequence text;
+    /** Sorted offsets of the first character of every line, lineStarts[0] is always 0. */
+    private int[] lineStarts = new int[16];
+    private int lineCount;
+
+    public LineIndex(CharSequence text) {
+        this.text = text;
+        rebuild();
+    }
+
+    /** Reindexes the whole text. */
+    public void rebuild() {
+        lineStarts[0] = 0;
+        lineCount = 1;
+        int length = text.length();
+        for (int i = 1; i <= length; i++) {
+            if (isLineStart(i)) {
+                append(i);
+            }
+        }
+    }
+
+    /**
+     * Updates the index after <tt>removedLength</tt> characters at <tt>offset</tt> have been
+     * replaced by <tt>insertedLength</tt> new characters. Only the replaced part of the text is
+     * scanned, line starts after it are shifted.
+     */
+    public void replaced(int offset, int removedLength, int insertedLength) {
+        int delta = insertedLength - removedLength;
+        int oldEnd = offset + removedLength;
+        int newEnd = offset + insertedLength;
+        // Line starts before the edit stay valid, starts behind the character following the
+        // replaced part only move. Everything in between depends on the new text.
+        // The first line always starts at 0, even when the edit is at the start of the text.
+        int keepBefore = Math.max(1, firstIndexAtOrAbove(offset));
+        int keepAfter = firstIndexAtOrAbove(oldEnd + 1);
+        int scanFrom = Math.max(1, offset);
+        int newStarts = 0;
+        for (int i = scanFrom; i <= newEnd; i++) {
+            if (isLineStart(i)) {
+                newStarts++;
+            }
+        }
+
+        int tailLength = lineCount - keepAfter;
+        int tailStart = keepBefore + newStarts;
+        ensureCapacity(tailStart + tailLength);
+        System.arraycopy(lineStarts, keepAfter, lineStarts, tailStart, tailLength);
+        lineCount = tailStart + tailLength;
+        if (delta != 0) {
+            for (int i = tailStart; i < lineCount; i++) {
+                lineStarts[i] += delta;
+            }
+        }
+        int index = keepBefore;
+        for (int i = scanFrom; i <= newEnd; i++) {
+            if (isLineStart(i)) {
+                lineStarts[index++] = i;
+            }
+        }
+    }
+
+    public int getNumberOfLines() {
+        return lineCount;
+    }
+
+    /** @return the zero-based line containing <tt>offset</tt>. */
+    public int getLineOfOffset(int offset) {
+        if (offset < 0 || offset > text.length()) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " not in [0, " + text.length() + "]");
+        }
+        int index = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    public int getLineStart(int line) {
+        checkLine(line);
+        return lineStarts[line];
+    }
+
+    /** @return the length of <tt>line</tt>, excluding its line delimiter. */
+    public int getLineLength(int line) {
+        checkLine(line);
+        if (line == lineCount - 1) {
+            return text.length() - lineStarts[line];
+        }
+        int next = lineStarts[line + 1];
+        int delimiter = next - 2 >= lineStarts[line]
+                && text.charAt(next - 1) == '\n' && text.charAt(next - 2) == '\r' ? 2 : 1;
+        return next - delimiter - lineStarts[line];
+    }
+
+    public LineInformation getLineInformation(int line) {
+        return new LineInformation(line, getLineStart(line), getLineLength(line));
+    }
+
+    public LineInformation getLineInformationOfOffset(int offset) {
+        return getLineInformation(getLineOfOffset(offset));
+    }
+
+    private boolean isLineStart(int offset) {
+        char previous = text.charAt(offset - 1);
+        return previous == '\n'
+                || previous == '\r' && (offset == text.length() || text.charAt(offset) != '\n');
+    }
+
+    /** @return the index of the first line start which is greater or equal to <tt>offset</tt>. */
+    private int firstIndexAtOrAbove(int offset) {
+        int index = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private void append(int lineStart) {
+        ensureCapacity(lineCount + 1);
+        lineStarts[lineCount++] = lineStart;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, Math.max(capacity, lineStarts.length * 2));
+        }
+    }
+
+    private void checkLine(int line) {
+        if (line < 0 || line >= lineCount) {
+            throw new IndexOutOfBoundsException("Line " + line + " not in [0, " + lineCount + ")");
+        }
+    }
+}
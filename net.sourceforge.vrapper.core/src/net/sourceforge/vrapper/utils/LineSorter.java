@@ -0,0 +1,584 @@
+package net.sourceforge.vrapper.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sourceforge.vrapper.log.VrapperLog;
+
+/**
+ * Sort engine for the <tt>:sort</tt> command.
+ * <p>
+ * The sort key of every line is extracted once before sorting: the text behind the
+ * <tt>/pattern/</tt> match, or the match itself for <tt>r</tt> (folded to lower case for
+ * <tt>i</tt>), or the first number in it for <tt>n</tt>, <tt>x</tt>, <tt>o</tt> and <tt>b</tt>.
+ * The pattern is matched with one matcher which is reset for every line, or with the literal
+ * scanner if it is a plain string.
+ * <p>
+ * An array of line numbers is then sorted on these keys with a stable merge sort, so lines with
+ * equal keys keep their order like in Vim. Lines without a number come first, in their original
+ * order.
+ * <p>
+ * From {@link #setParallelThreshold(int)} lines on, the merge sort runs on several threads:
+ * every thread sorts one slice of the line numbers, then neighbouring slices are merged until
+ * one is left. Ranges too large to keep all lines and keys in memory at once can be sorted with
+ * {@link #sortExternally(LineSource, boolean, LineSink)}, which writes sorted runs to temporary
+ * files and merges them.
+ */
+public class LineSorter {
+
+    /** Default for {@link #setParallelThreshold(int)}. */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 100000;
+
+    /** Runs up to this length are sorted by insertion. */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    /** Rough number of bytes a line needs in memory besides its characters. */
+    private static final int LINE_OVERHEAD = 64;
+
+    private final int radix;
+    private final boolean ignoreCase;
+    private final VimPattern pattern;
+    private final boolean patternIsKey;
+    private final LiteralPattern literal;
+    private final Matcher matcher;
+    /** Where the key of the line passed to {@link #findKey(String)} starts and ends. */
+    private int keyFrom;
+    private int keyTo;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 8;
+
+    /** Text keys, used if {@link #radix} is 0. */
+    private String[] textKeys;
+    /** Numeric keys, used otherwise. */
+    private long[] numberKeys;
+    /** Keys which don't fit into a long, null until such a key is found. */
+    private BigInteger[] bigKeys;
+    /** Number of lines without a number, which are first in the sorted order. */
+    private int unkeyedCount;
+
+    /**
+     * @param radix
+     *            10, 16, 8 or 2 to sort on the first number of that base, 0 to sort on text.
+     * @param pattern
+     *            only the text after the first match of this pattern is used as key, or the
+     *            matching text itself if <tt>patternIsKey</tt> is set. May be null. Lines are
+     *            matched one by one, so the pattern should not use {@link Pattern#MULTILINE}.
+     */
+    public LineSorter(int radix, boolean ignoreCase, VimPattern pattern, boolean patternIsKey) {
+        this.radix = radix;
+        this.ignoreCase = ignoreCase;
+        this.pattern = pattern;
+        this.patternIsKey = patternIsKey;
+        literal = pattern != null ? pattern.getLiteral() : null;
+        matcher = pattern != null && literal == null ? pattern.matcher("") : null;
+    }
+
+    /**
+     * @param lines
+     *            minimum number of lines which are sorted on several threads, lines are always
+     *            sorted on one thread if not positive.
+     */
+    public void setParallelThreshold(int lines) {
+        parallelThreshold = lines;
+    }
+
+    /**
+     * @param bytes
+     *            heap space {@link #sortExternally(LineSource, boolean, LineSink)} may use for
+     *            lines and keys, an eighth of the maximum heap size by default.
+     */
+    public void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+    }
+
+    /**
+     * @return whether <tt>characters</tt> of text should rather be sorted externally.
+     */
+    public boolean exceedsMemoryBudget(long characters) {
+        return characters * 2 > memoryBudget;
+    }
+
+    /**
+     * @return line numbers in sorted order.
+     */
+    public int[] sort(String[] lines) {
+        int[] order = sortKeys(lines);
+        clearKeys();
+        return order;
+    }
+
+    /**
+     * Extracts the keys of all lines and sorts on them, keeping the keys.
+     *
+     * @return line numbers in sorted order.
+     */
+    private int[] sortKeys(String[] lines) {
+        int count = lines.length;
+        int[] order = new int[count];
+        int keyed = 0;
+        if (radix == 0) {
+            textKeys = new String[count];
+            for (int i = 0; i < count; i++) {
+                textKeys[i] = textKey(lines[i]);
+                order[i] = i;
+            }
+            keyed = count;
+        } else {
+            numberKeys = new long[count];
+            int[] withoutNumber = new int[count];
+            int unkeyed = 0;
+            for (int i = 0; i < count; i++) {
+                if (parseNumber(lines[i], i)) {
+                    order[keyed++] = i;
+                } else {
+                    withoutNumber[unkeyed++] = i;
+                }
+            }
+            // Lines without a number go first.
+            System.arraycopy(order, 0, order, unkeyed, keyed);
+            System.arraycopy(withoutNumber, 0, order, 0, unkeyed);
+        }
+        int first = count - keyed;
+        unkeyedCount = first;
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (parallelThreshold > 0 && keyed >= parallelThreshold && threads > 1) {
+            parallelMergeSort(order, first, count, Math.min(threads, keyed / INSERTION_SORT_THRESHOLD));
+        } else {
+            mergeSort(order, order.clone(), first, count);
+        }
+        return order;
+    }
+
+    private void clearKeys() {
+        textKeys = null;
+        numberKeys = null;
+        bigKeys = null;
+    }
+
+    private String textKey(String line) {
+        // Like in Vim, lines without a match are sorted on an empty key.
+        String key = findKey(line) ? line.substring(keyFrom, keyTo) : "";
+        return ignoreCase ? fold(key) : key;
+    }
+
+    /**
+     * Sets {@link #keyFrom} and {@link #keyTo} to the part of <tt>line</tt> which holds the
+     * key: the whole line without a pattern, the rest of the line after the first match, or the
+     * match itself if {@link #patternIsKey} is set.
+     *
+     * @return false if the line doesn't match.
+     */
+    private boolean findKey(String line) {
+        int length = line.length();
+        if (pattern == null) {
+            keyFrom = 0;
+            keyTo = length;
+            return true;
+        }
+        int start;
+        int end;
+        if (literal != null) {
+            start = literal.indexOf(line, 0, length);
+            end = start + literal.length();
+        } else {
+            matcher.reset(line);
+            if ( ! pattern.find(matcher)) {
+                return false;
+            }
+            start = pattern.start(matcher);
+            end = pattern.end(matcher);
+        }
+        if (start < 0) {
+            return false;
+        }
+        keyFrom = patternIsKey ? start : end;
+        keyTo = patternIsKey ? end : length;
+        return true;
+    }
+
+    /** Folds case like {@link String#CASE_INSENSITIVE_ORDER} does when comparing. */
+    private static String fold(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Stores the first number in the key part of <tt>line</tt> as key of line <tt>index</tt>.
+     *
+     * @return whether there was a number.
+     */
+    private boolean parseNumber(String line, int index) {
+        if ( ! findKey(line)) {
+            return false;
+        }
+        int from = keyFrom;
+        int limit = keyTo;
+        int start = from;
+        while (start < limit && Character.digit(line.charAt(start), radix) < 0) {
+            start++;
+        }
+        if (start == limit) {
+            return false;
+        }
+        boolean negative = (radix == 10 || radix == 16) && start > from
+                && line.charAt(start - 1) == '-';
+        // A leading "0x" or "0b" is skipped.
+        if (start + 2 < limit && line.charAt(start) == '0'
+                && Character.digit(line.charAt(start + 2), radix) >= 0) {
+            char prefix = Character.toLowerCase(line.charAt(start + 1));
+            if (radix == 16 && prefix == 'x' || radix == 2 && prefix == 'b') {
+                start += 2;
+            }
+        }
+        int end = start;
+        long value = 0;
+        boolean overflow = false;
+        while (end < limit) {
+            int digit = Character.digit(line.charAt(end), radix);
+            if (digit < 0) {
+                break;
+            }
+            if (value > (Long.MAX_VALUE - digit) / radix) {
+                overflow = true;
+            }
+            value = value * radix + digit;
+            end++;
+        }
+        if (overflow) {
+            if (bigKeys == null) {
+                bigKeys = new BigInteger[numberKeys.length];
+            }
+            BigInteger big = new BigInteger(line.substring(start, end), radix);
+            bigKeys[index] = negative ? big.negate() : big;
+        }
+        numberKeys[index] = negative ? -value : value;
+        return true;
+    }
+
+    private int compare(int line1, int line2) {
+        if (radix == 0) {
+            return textKeys[line1].compareTo(textKeys[line2]);
+        }
+        if (bigKeys != null && (bigKeys[line1] != null || bigKeys[line2] != null)) {
+            return bigKey(line1).compareTo(bigKey(line2));
+        }
+        long key1 = numberKeys[line1];
+        long key2 = numberKeys[line2];
+        return key1 < key2 ? -1 : (key1 == key2 ? 0 : 1);
+    }
+
+    private BigInteger bigKey(int line) {
+        return bigKeys[line] != null ? bigKeys[line] : BigInteger.valueOf(numberKeys[line]);
+    }
+
+    /**
+     * Sorts <tt>order[from, to)</tt> by key, <tt>buffer</tt> must contain the same elements.
+     * Equal keys keep their order.
+     */
+    private void mergeSort(int[] order, int[] buffer, int from, int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int line = order[i];
+                int j = i;
+                while (j > from && compare(order[j - 1], line) > 0) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = line;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        // Sort the halves into the buffer, then merge them back.
+        mergeSort(buffer, order, from, middle);
+        mergeSort(buffer, order, middle, to);
+        if (compare(buffer[middle - 1], buffer[middle]) <= 0) {
+            System.arraycopy(buffer, from, order, from, to - from);
+            return;
+        }
+        merge(buffer, from, middle, to, order, from);
+    }
+
+    private void merge(int[] source, int from, int middle, int to, int[] target, int position) {
+        int left = from;
+        int right = middle;
+        while (left < middle && right < to) {
+            if (compare(source[right], source[left]) < 0) {
+                target[position++] = source[right++];
+            } else {
+                target[position++] = source[left++];
+            }
+        }
+        System.arraycopy(source, left, target, position, middle - left);
+        System.arraycopy(source, right, target, position + middle - left, to - right);
+    }
+
+    /**
+     * Sorts <tt>order[from, to)</tt> like {@link #mergeSort(int[], int[], int, int)}, but each of
+     * <tt>parts</tt> slices on its own thread. Adjacent slices are then merged pairwise, again in
+     * parallel, the left one winning ties so the result stays stable.
+     */
+    private void parallelMergeSort(final int[] order, int from, int to, int parts) {
+        final int[] bounds = new int[parts + 1];
+        for (int k = 0; k <= parts; k++) {
+            bounds[k] = from + (int) ((long) (to - from) * k / parts);
+        }
+        final int[] buffer = order.clone();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int k = 0; k < parts; k++) {
+            final int lo = bounds[k];
+            final int hi = bounds[k + 1];
+            futures.add(ParallelSearch.getExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    mergeSort(order, buffer, lo, hi);
+                }
+            }));
+        }
+        waitFor(futures);
+
+        int[] source = order;
+        int[] target = buffer;
+        for (int width = 1; width < parts; width *= 2) {
+            futures.clear();
+            for (int k = 0; k < parts; k += 2 * width) {
+                final int[] mergeSource = source;
+                final int[] mergeTarget = target;
+                final int lo = bounds[k];
+                final int middle = bounds[Math.min(k + width, parts)];
+                final int hi = bounds[Math.min(k + 2 * width, parts)];
+                futures.add(ParallelSearch.getExecutor().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        merge(mergeSource, lo, middle, hi, mergeTarget, lo);
+                    }
+                }));
+            }
+            waitFor(futures);
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        if (source != order) {
+            System.arraycopy(source, from, order, from, to - from);
+        }
+    }
+
+    private static void waitFor(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            ParallelSearch.getResult(future);
+        }
+    }
+
+    /** Supplies the lines to {@link LineSorter#sortExternally(LineSource, boolean, LineSink)}. */
+    public interface LineSource {
+        int getLineCount();
+        String getLine(int index);
+    }
+
+    /** Receives the sorted lines from {@link LineSorter#sortExternally(LineSource, boolean, LineSink)}. */
+    public interface LineSink {
+        void addLine(String line);
+    }
+
+    /**
+     * Sorts lines without holding all of them in memory: as many lines as fit into the memory
+     * budget are sorted at a time and written to a temporary file together with their keys.
+     * The files are then merged, comparing on the original line number where keys are equal,
+     * which gives the same order as {@link #sort(String[])}.
+     *
+     * @param reversed
+     *            whether to pass the lines to <tt>sink</tt> in reverse sorted order.
+     */
+    public void sortExternally(LineSource source, boolean reversed, LineSink sink) throws IOException {
+        List<Run> runs = new ArrayList<Run>();
+        try {
+            int count = source.getLineCount();
+            int base = 0;
+            while (base < count) {
+                List<String> chunk = new ArrayList<String>();
+                long size = 0;
+                while (base + chunk.size() < count && (chunk.isEmpty() || size < memoryBudget / 2)) {
+                    String line = source.getLine(base + chunk.size());
+                    chunk.add(line);
+                    // Key and line may both be a copy of the text.
+                    size += 4L * line.length() + LINE_OVERHEAD;
+                }
+                String[] lines = chunk.toArray(new String[chunk.size()]);
+                chunk = null;
+                runs.add(writeRun(lines, base, reversed));
+                base += lines.length;
+            }
+            mergeRuns(runs, reversed, sink);
+        } finally {
+            for (Run run : runs) {
+                run.close();
+            }
+        }
+    }
+
+    private Run writeRun(String[] lines, int base, boolean reversed) throws IOException {
+        int[] order = sortKeys(lines);
+        File file = File.createTempFile("vrapper-sort", ".tmp");
+        file.deleteOnExit();
+        Run run = new Run(file, lines.length);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (int i = 0; i < order.length; i++) {
+                int position = reversed ? order.length - 1 - i : i;
+                int line = order[position];
+                out.writeInt(base + line);
+                if (radix == 0) {
+                    writeString(out, textKeys[line]);
+                } else {
+                    // Lines without a number come first and have no key.
+                    boolean keyed = position >= unkeyedCount;
+                    out.writeBoolean(keyed);
+                    if (keyed) {
+                        out.writeLong(numberKeys[line]);
+                        BigInteger big = bigKeys != null ? bigKeys[line] : null;
+                        writeString(out, big != null ? big.toString(Character.MAX_RADIX) : "");
+                    }
+                }
+                writeString(out, lines[line]);
+            }
+        } finally {
+            out.close();
+            clearKeys();
+        }
+        return run;
+    }
+
+    private void mergeRuns(List<Run> runs, final boolean reversed, LineSink sink) throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<Run>(Math.max(1, runs.size()), new Comparator<Run>() {
+            @Override
+            public int compare(Run run1, Run run2) {
+                int result = compareRecords(run1, run2);
+                return reversed ? -result : result;
+            }
+        });
+        for (Run run : runs) {
+            run.open();
+            if (run.next()) {
+                queue.add(run);
+            }
+        }
+        while ( ! queue.isEmpty()) {
+            Run run = queue.poll();
+            sink.addLine(run.line);
+            if (run.next()) {
+                queue.add(run);
+            }
+        }
+    }
+
+    private int compareRecords(Run run1, Run run2) {
+        int result;
+        if (radix == 0) {
+            result = run1.textKey.compareTo(run2.textKey);
+        } else if (run1.keyed != run2.keyed) {
+            result = run1.keyed ? 1 : -1;
+        } else if ( ! run1.keyed) {
+            result = 0;
+        } else if (run1.bigKey != null || run2.bigKey != null) {
+            result = run1.getBigKey().compareTo(run2.getBigKey());
+        } else {
+            result = run1.numberKey < run2.numberKey ? -1 : (run1.numberKey == run2.numberKey ? 0 : 1);
+        }
+        if (result == 0) {
+            result = run1.index < run2.index ? -1 : (run1.index == run2.index ? 0 : 1);
+        }
+        return result;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        out.writeInt(string.length());
+        out.writeChars(string);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        char[] chars = new char[in.readInt()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+    /** A temporary file with sorted lines, and the line last read from it. */
+    private class Run {
+        private final File file;
+        private int remaining;
+        private DataInputStream in;
+
+        int index;
+        String textKey;
+        boolean keyed;
+        long numberKey;
+        BigInteger bigKey;
+        String line;
+
+        Run(File file, int lineCount) {
+            this.file = file;
+            this.remaining = lineCount;
+        }
+
+        void open() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        /** @return whether there was another line. */
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            index = in.readInt();
+            if (radix == 0) {
+                textKey = readString(in);
+            } else {
+                keyed = in.readBoolean();
+                if (keyed) {
+                    numberKey = in.readLong();
+                    String big = readString(in);
+                    bigKey = big.length() > 0 ? new BigInteger(big, Character.MAX_RADIX) : null;
+                }
+            }
+            line = readString(in);
+            return true;
+        }
+
+        BigInteger getBigKey() {
+            return bigKey != null ? bigKey : BigInteger.valueOf(numberKey);
+        }
+
+        void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    VrapperLog.error("Could not close " + file, e);
+                }
+                in = null;
+            }
+            if ( ! file.delete()) {
+                VrapperLog.info("Could not delete " + file);
+            }
+        }
+    }
+}
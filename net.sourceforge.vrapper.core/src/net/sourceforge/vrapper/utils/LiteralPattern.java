@@ -0,0 +1,153 @@
+package net.sourceforge.vrapper.utils;
+
+/**
+ * Finds a fixed string with the Boyer-Moore-Horspool algorithm, which only has to look at a
+ * fraction of the text for all but the shortest strings.
+ * <p>
+ * Used by {@link VimPattern} for searches which contain no regular expression at all, see
+ * {@link VimPattern#getLiteral()}. Matches are the same as those of the equivalent regular
+ * expression: case is folded like {@link java.util.regex.Pattern#UNICODE_CASE} does, and a
+ * whole word search only accepts matches with a word boundary (<tt>\b</tt>) on both ends.
+ * Characters outside of the searched range are still used to check word boundaries.
+ */
+public class LiteralPattern {
+
+    /** Size of the shift tables, characters are hashed into them. */
+    private static final int TABLE_SIZE = 256;
+
+    private final String literal;
+    private final char[] chars;
+    private final boolean caseSensitive;
+    private final boolean wholeWord;
+    /** Forward shift for the last character of the window. */
+    private final int[] shift = new int[TABLE_SIZE];
+    /** Backward shift for the first character of the window. */
+    private final int[] backShift = new int[TABLE_SIZE];
+
+    /**
+     * @param literal
+     *            text to look for, must not be empty.
+     */
+    public LiteralPattern(String literal, boolean caseSensitive, boolean wholeWord) {
+        if (literal.length() == 0) {
+            throw new IllegalArgumentException("Literal must not be empty");
+        }
+        this.literal = literal;
+        this.caseSensitive = caseSensitive;
+        this.wholeWord = wholeWord;
+        int length = literal.length();
+        chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = fold(literal.charAt(i));
+        }
+        // Colliding characters share an entry; writing in this order keeps the smaller shift.
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            shift[i] = length;
+            backShift[i] = length;
+        }
+        for (int i = 0; i < length - 1; i++) {
+            shift[chars[i] & (TABLE_SIZE - 1)] = length - 1 - i;
+        }
+        for (int i = length - 1; i > 0; i--) {
+            backShift[chars[i] & (TABLE_SIZE - 1)] = i;
+        }
+    }
+
+    public String getLiteral() {
+        return literal;
+    }
+
+    public int length() {
+        return chars.length;
+    }
+
+    public boolean isCaseSensitive() {
+        return caseSensitive;
+    }
+
+    public boolean isWholeWord() {
+        return wholeWord;
+    }
+
+    /**
+     * @return start of the first match which lies within <tt>[from, to)</tt>, or -1.
+     */
+    public int indexOf(CharSequence text, int from, int to) {
+        int length = chars.length;
+        int last = length - 1;
+        int start = Math.max(0, from);
+        int end = Math.min(to, text.length());
+        while (start + length <= end) {
+            char c = fold(text.charAt(start + last));
+            if (c == chars[last] && matchesAt(text, start, last) && isWordMatch(text, start)) {
+                return start;
+            }
+            start += shift[c & (TABLE_SIZE - 1)];
+        }
+        return -1;
+    }
+
+    /**
+     * @return start of the last match which starts at or before <tt>from</tt>, or -1. Like
+     *         {@link String#lastIndexOf(String, int)}, the match may extend past <tt>from</tt>.
+     */
+    public int lastIndexOf(CharSequence text, int from) {
+        int length = chars.length;
+        int start = Math.min(from, text.length() - length);
+        while (start >= 0) {
+            char c = fold(text.charAt(start));
+            if (c == chars[0] && matchesFrom(text, start) && isWordMatch(text, start)) {
+                return start;
+            }
+            start -= backShift[c & (TABLE_SIZE - 1)];
+        }
+        return -1;
+    }
+
+    /** Compares the characters in front of the already matched one at <tt>last</tt>. */
+    private boolean matchesAt(CharSequence text, int start, int last) {
+        for (int i = last - 1; i >= 0; i--) {
+            if (fold(text.charAt(start + i)) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Compares the characters behind the already matched first one. */
+    private boolean matchesFrom(CharSequence text, int start) {
+        for (int i = 1; i < chars.length; i++) {
+            if (fold(text.charAt(start + i)) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isWordMatch(CharSequence text, int start) {
+        if ( ! wholeWord) {
+            return true;
+        }
+        int end = start + chars.length;
+        return isWordChar(text, start - 1) != isWordChar(text, start)
+                && isWordChar(text, end - 1) != isWordChar(text, end);
+    }
+
+    /** Same definition of word characters as <tt>\b</tt> in {@link java.util.regex.Pattern}. */
+    private static boolean isWordChar(CharSequence text, int index) {
+        if (index < 0 || index >= text.length()) {
+            return false;
+        }
+        char c = text.charAt(index);
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    private char fold(char c) {
+        return caseSensitive ? c : Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    @Override
+    public String toString() {
+        return literal;
+    }
+}
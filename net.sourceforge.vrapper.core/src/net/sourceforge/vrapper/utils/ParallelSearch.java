@@ -0,0 +1,316 @@
+package net.sourceforge.vrapper.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+
+/**
+ * Finds all matches of a pattern in a large text on several threads.
+ * <p>
+ * The range is split into one chunk per processor at line boundaries. Each chunk is scanned for
+ * matches starting in it; a match may continue into the line following the chunk, so patterns
+ * matching a line break still work. The chunk results are then merged in order. Where the last
+ * match of a chunk reaches into the next chunk, the next chunk is scanned again sequentially
+ * until it falls in step with its parallel result, so the merged matches are exactly the ones
+ * a single forward scan finds. Each chunk looks for matches up to the end of the line after it
+ * only; where the matcher reports that it hit that limit, the match is looked for again without
+ * it.
+ * <p>
+ * Ranges smaller than the threshold, which users set with the <tt>parallelsearch</tt> option,
+ * or machines with a single processor, are scanned sequentially. The text must not change
+ * during the search and must support reads from several threads.
+ */
+public class ParallelSearch {
+
+    /** Ranges with fewer characters than this are scanned on the calling thread. */
+    public static final int DEFAULT_THRESHOLD = 1 << 20;
+
+    private static ExecutorService executor;
+
+    private final VimPattern pattern;
+    private final int threshold;
+
+    public ParallelSearch(VimPattern pattern) {
+        this(pattern, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold
+     *            minimum number of characters for which the search is split up, the search is
+     *            never split if it isn't positive.
+     */
+    public ParallelSearch(VimPattern pattern, int threshold) {
+        this.pattern = pattern;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return the matches starting in <tt>[from, to)</tt>, like repeated {@link Matcher#find()}
+     *         calls starting at <tt>from</tt> would find them. If <tt>to</tt> is the end of the
+     *         text, an empty match there is included as well.
+     */
+    public Matches findAll(CharSequence text, int from, int to) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (threshold <= 0 || to - from < threshold || threads < 2) {
+            return new ChunkTask(pattern, text, from, to).call();
+        }
+        List<Future<Matches>> futures = new ArrayList<Future<Matches>>();
+        for (int[] chunk : split(text, from, to, threads)) {
+            futures.add(getExecutor().submit(new ChunkTask(pattern, text, chunk[0], chunk[1])));
+        }
+        Matches result = new Matches();
+        Scanner scanner = new Scanner(pattern, text);
+        int resume = from;
+        for (Future<Matches> future : futures) {
+            Matches chunk = getResult(future);
+            int i = 0;
+            if (resume > chunk.from) {
+                // The last match reached into this chunk, which was scanned from its start.
+                i = chunk.size();
+                while (scanner.find(resume, scanner.limit(chunk.to))
+                        && scanner.startsBefore(chunk.to)) {
+                    int found = chunk.firstStartingAtOrAfter(scanner.start);
+                    if (found < chunk.size() && chunk.getStart(found) == scanner.start
+                            && chunk.getEnd(found) == scanner.end) {
+                        // In step again, the rest of the chunk is valid.
+                        i = found;
+                        break;
+                    }
+                    result.add(scanner.start, scanner.end);
+                    resume = Matches.after(scanner.start, scanner.end);
+                }
+            }
+            for (; i < chunk.size(); i++) {
+                result.add(chunk.getStart(i), chunk.getEnd(i));
+                resume = Matches.after(chunk.getStart(i), chunk.getEnd(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits <tt>[from, to)</tt> into at most <tt>count</tt> ranges which start at the beginning
+     * of a line.
+     *
+     * @return list of <tt>{start, end}</tt> pairs covering the range without gaps.
+     */
+    public static List<int[]> split(CharSequence text, int from, int to, int count) {
+        List<int[]> chunks = new ArrayList<int[]>();
+        int chunkSize = (to - from) / count + 1;
+        int start = from;
+        while (start < to) {
+            int end = Math.min(to, nextLineStart(text, Math.min(to, start + chunkSize)));
+            chunks.add(new int[] { start, end });
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * @return offset after the first line delimiter at or after <tt>offset</tt>, or the text
+     *         length + 1 if there is none.
+     */
+    static int nextLineStart(CharSequence text, int offset) {
+        int length = text.length();
+        for (int i = offset; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                return i + 1;
+            } else if (c == '\r') {
+                return i + 1 < length && text.charAt(i + 1) == '\n' ? i + 2 : i + 1;
+            }
+        }
+        return length + 1;
+    }
+
+    /**
+     * @return the result of <tt>future</tt>, rethrowing what the task threw.
+     */
+    public static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while searching", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * The plugin targets Java 6, so there is no ForkJoinPool; every parallel search, count and
+     * sort submits its chunks to this fixed pool instead.
+     *
+     * @return the daemon thread pool used for parallel searches and sorts, one thread per
+     *         processor.
+     */
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "Vrapper parallel search");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    /** Match offsets in document order. */
+    public static class Matches {
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int count;
+        /** Range which was scanned, only set for chunks. */
+        private int from;
+        private int to;
+
+        public int size() {
+            return count;
+        }
+
+        public int getStart(int match) {
+            checkMatch(match);
+            return starts[match];
+        }
+
+        public int getEnd(int match) {
+            checkMatch(match);
+            return ends[match];
+        }
+
+        void add(int start, int end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        int firstStartingAtOrAfter(int offset) {
+            int index = Arrays.binarySearch(starts, 0, count, offset);
+            if (index < 0) {
+                return -index - 1;
+            }
+            while (index > 0 && starts[index - 1] == offset) {
+                index--;
+            }
+            return index;
+        }
+
+        /** @return where to continue scanning after a match, skipping over empty matches. */
+        static int after(int start, int end) {
+            return end == start ? end + 1 : end;
+        }
+
+        private void checkMatch(int match) {
+            if (match < 0 || match >= count) {
+                throw new IndexOutOfBoundsException("Match " + match + " not in [0, " + count + ")");
+            }
+        }
+    }
+
+    /** Finds single matches, with the literal scanner if the pattern has one. */
+    private static class Scanner {
+        private final VimPattern pattern;
+        private final CharSequence text;
+        private final LiteralPattern literal;
+        private final Matcher matcher;
+        int start;
+        int end;
+
+        Scanner(VimPattern pattern, CharSequence text) {
+            this.pattern = pattern;
+            this.text = text;
+            literal = pattern.getLiteral();
+            matcher = pattern.matcher(text);
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+        }
+
+        /**
+         * @return end of the line following <tt>offset</tt>, or the end of a literal starting
+         *         right before <tt>offset</tt> if that is further.
+         */
+        int limit(int offset) {
+            int limit = nextLineStart(text, offset);
+            if (literal != null) {
+                limit = Math.max(limit, offset + literal.length());
+            }
+            return Math.min(text.length(), limit);
+        }
+
+        /** @return whether the last match starts before <tt>to</tt> or at the end of the text. */
+        boolean startsBefore(int to) {
+            return start < to || start == to && to == text.length();
+        }
+
+        boolean find(int from, int limit) {
+            if (from > limit) {
+                return false;
+            }
+            if (literal != null) {
+                start = literal.indexOf(text, from, limit);
+                end = start + literal.length();
+                return start >= 0;
+            }
+            matcher.region(from, limit);
+            boolean found = pattern.find(matcher);
+            if (matcher.hitEnd() && limit < text.length()) {
+                // The match might go on, or only be found, behind the limit.
+                matcher.region(from, text.length());
+                found = pattern.find(matcher);
+            }
+            if ( ! found) {
+                return false;
+            }
+            start = pattern.start(matcher);
+            end = pattern.end(matcher);
+            return true;
+        }
+    }
+
+    private static class ChunkTask implements Callable<Matches> {
+        private final VimPattern pattern;
+        private final CharSequence text;
+        private final int from;
+        private final int to;
+
+        ChunkTask(VimPattern pattern, CharSequence text, int from, int to) {
+            this.pattern = pattern;
+            this.text = text;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Matches call() {
+            Matches matches = new Matches();
+            matches.from = from;
+            matches.to = to;
+            Scanner scanner = new Scanner(pattern, text);
+            int limit = scanner.limit(to);
+            int position = from;
+            while (position <= to && scanner.find(position, limit) && scanner.startsBefore(to)) {
+                matches.add(scanner.start, scanner.end);
+                position = Matches.after(scanner.start, scanner.end);
+            }
+            return matches;
+        }
+    }
+}
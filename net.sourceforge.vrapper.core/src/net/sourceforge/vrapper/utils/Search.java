@@ -1,5 +1,7 @@
 package net.sourceforge.vrapper.utils;
 
+import java.util.regex.PatternSyntaxException;
+
 public class Search {
 
     private final String keyword;
@@ -8,6 +10,8 @@ public class Search {
     private final boolean caseSensitive;
     private final boolean regexSearch;
     private final SearchOffset afterSearch;
+    private final TextRange visualArea;
+    private VimPattern pattern;
 
     public Search(String keyword, boolean backward, boolean wholeWord, boolean caseSensitive) {
         this(keyword, backward, wholeWord, caseSensitive, SearchOffset.NONE, false);
@@ -15,6 +19,17 @@ public class Search {
 
     public Search(String keyword, boolean backward, boolean wholeWord,
             boolean caseSensitive, SearchOffset afterSearch, boolean useRegExp) {
+        this(keyword, backward, wholeWord, caseSensitive, afterSearch, useRegExp, null);
+    }
+
+    /**
+     * @param visualArea
+     *            the last visual selection, which <tt>\%V</tt> in the keyword refers to. May be
+     *            null.
+     */
+    public Search(String keyword, boolean backward, boolean wholeWord,
+            boolean caseSensitive, SearchOffset afterSearch, boolean useRegExp,
+            TextRange visualArea) {
         super();
         this.keyword = keyword;
         this.backward = backward;
@@ -22,10 +37,12 @@ public class Search {
         this.caseSensitive = caseSensitive;
         this.afterSearch = afterSearch;
         this.regexSearch = useRegExp && !wholeWord;
+        this.visualArea = visualArea;
     }
 
     public Search reverse() {
-        return new Search(keyword, !backward, wholeWord, caseSensitive, afterSearch, regexSearch);
+        return new Search(keyword, !backward, wholeWord, caseSensitive, afterSearch, regexSearch,
+                visualArea);
     }
 
     public String getKeyword() {
@@ -51,4 +68,19 @@ public class Search {
     public SearchOffset getSearchOffset() {
         return afterSearch;
     }
+
+    /**
+     * @return the compiled keyword, a {@link VimRegexCompiler} pattern for regex searches or a
+     *         literal pattern otherwise. It is bound to the visual area the search was created
+     *         with.
+     * @throws PatternSyntaxException if the keyword is not a valid pattern.
+     */
+    public VimPattern getPattern() {
+        if (pattern == null) {
+            pattern = regexSearch
+                    ? VimRegexCompiler.compile(keyword, caseSensitive).inVisualArea(visualArea)
+                    : VimRegexCompiler.compileLiteral(keyword, wholeWord, caseSensitive);
+        }
+        return pattern;
+    }
 }
@@ -0,0 +1,343 @@
+package net.sourceforge.vrapper.utils;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+
+/**
+ * Sorted offsets of all matches of a search pattern in a document, so that the number of a
+ * match and the total shown after <tt>n</tt> and <tt>N</tt> are a binary search instead of a
+ * scan.
+ * <p>
+ * The index is built lazily: a query only scans as far as it needs to, and scanning is done in
+ * chunks of {@link #CHUNK_SIZE} characters. It reads from a live {@link CharSequence} view of the
+ * document and remembers the modification stamp it was built for. When the document changes,
+ * the owner either calls {@link #documentChanged(int, int, int, long)}, which rescans the lines
+ * around the change and keeps the other matches, or simply creates a new index.
+ * <p>
+ * Matches are found the way a single forward scan finds them, i.e. they never overlap.
+ */
+public class SearchMatchIndex {
+
+    /** Number of characters scanned at once when the index is extended. */
+    public static final int CHUNK_SIZE = 256 * 1024;
+
+    private final VimPattern pattern;
+    private final CharSequence text;
+    private final Matcher matcher;
+    /** Used instead of the matcher for plain strings, see {@link VimPattern#getLiteral()}. */
+    private final LiteralPattern literal;
+    private long modificationStamp;
+    /** See {@link ParallelSearch#ParallelSearch(VimPattern, int)}. */
+    private final int parallelThreshold;
+
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int count;
+    /** Offset where scanning continues, every match found so far ends before it. */
+    private int scanPosition;
+    private boolean complete;
+    /** Offsets of the match found by the last call to {@link #find(int)}. */
+    private int foundStart;
+    private int foundEnd;
+
+    /**
+     * @param text
+     *            live view on the document; must reflect changes before
+     *            {@link #documentChanged(int, int, int, long)} is called.
+     */
+    public SearchMatchIndex(VimPattern pattern, CharSequence text, long modificationStamp) {
+        this(pattern, text, modificationStamp, ParallelSearch.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param parallelThreshold
+     *            number of characters from which {@link #size()} scans the rest of the text on
+     *            several threads, never if it isn't positive.
+     */
+    public SearchMatchIndex(VimPattern pattern, CharSequence text, long modificationStamp,
+            int parallelThreshold) {
+        this.pattern = pattern;
+        this.parallelThreshold = parallelThreshold;
+        this.text = text;
+        this.modificationStamp = modificationStamp;
+        matcher = pattern.matcher(text);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        literal = pattern.getLiteral();
+    }
+
+    public VimPattern getPattern() {
+        return pattern;
+    }
+
+    public long getModificationStamp() {
+        return modificationStamp;
+    }
+
+    /**
+     * @return whether this index can answer queries for <tt>search</tt> on a document with the
+     *         given modification stamp.
+     */
+    public boolean isValidFor(Search search, long stamp) {
+        if (stamp != modificationStamp) {
+            return false;
+        }
+        return pattern.isEquivalent(search.getPattern());
+    }
+
+    /** @return whether the whole document has been scanned. */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return whether every match starting before <tt>offset</tt> has been found, so that
+     *         {@link #previous(int)} answers without scanning.
+     */
+    public boolean isScannedTo(int offset) {
+        return complete || scanPosition >= offset;
+    }
+
+    /** Scans the next {@link #CHUNK_SIZE} characters, for callers spreading the work out. */
+    public void scanNextChunk() {
+        if ( ! complete) {
+            scanChunk();
+        }
+    }
+
+    /** @return number of matches found so far, which is the total once {@link #isComplete()}. */
+    public int getIndexedCount() {
+        return count;
+    }
+
+    /** @return total number of matches, scanning the rest of the document if necessary. */
+    public int size() {
+        if ( ! complete && parallelThreshold > 0
+                && text.length() - scanPosition >= parallelThreshold) {
+            scanRestInParallel();
+        }
+        while ( ! complete) {
+            scanChunk();
+        }
+        return count;
+    }
+
+    public int getStart(int match) {
+        checkMatch(match);
+        return starts[match];
+    }
+
+    public int getEnd(int match) {
+        checkMatch(match);
+        return ends[match];
+    }
+
+    /** @return number of the first match starting at or after <tt>offset</tt>, or -1. */
+    public int next(int offset) {
+        while ( ! complete && (count == 0 || starts[count - 1] < offset)) {
+            scanChunk();
+        }
+        int match = firstStartingAtOrAfter(offset);
+        return match < count ? match : -1;
+    }
+
+    /** @return number of the last match starting before <tt>offset</tt>, or -1. */
+    public int previous(int offset) {
+        // A match starting before 'offset' must have been found once scanning got past it.
+        while ( ! complete && scanPosition < offset) {
+            scanChunk();
+        }
+        return firstStartingAtOrAfter(offset) - 1;
+    }
+
+    /** @return number of the last match in the document, or -1 if there is none. */
+    public int last() {
+        return size() - 1;
+    }
+
+    /**
+     * Updates the index after <tt>removedLength</tt> characters at <tt>offset</tt> have been
+     * replaced by <tt>insertedLength</tt> characters. The lines around the change are scanned
+     * again; if the scan doesn't fall in step with the old matches behind the change, those
+     * matches are dropped and found again lazily.
+     */
+    public void documentChanged(int offset, int removedLength, int insertedLength, long newStamp) {
+        modificationStamp = newStamp;
+        int delta = insertedLength - removedLength;
+        // Look-behind and '^' may depend on the previous line.
+        int rescanStart = lineStart(lineStart(offset) - 1);
+        if (scanPosition <= rescanStart) {
+            return;
+        }
+
+        // Keep matches which start in front of the rescanned lines and end before the change.
+        int head = 0;
+        while (head < count && starts[head] < rescanStart && ends[head] <= offset) {
+            head++;
+        }
+        int from = head < count ? Math.min(rescanStart, starts[head]) : rescanStart;
+        if (head > 0) {
+            from = Math.max(from, afterMatch(head - 1));
+        }
+        // Old matches behind the line following the change keep their place, but move.
+        int rescanEnd = nextLineStart(nextLineStart(offset + insertedLength));
+        int tail = head;
+        while (tail < count && starts[tail] < rescanEnd - delta) {
+            tail++;
+        }
+        int tailCount = count - tail;
+        int[] tailStarts = Arrays.copyOfRange(starts, tail, count);
+        int[] tailEnds = Arrays.copyOfRange(ends, tail, count);
+        // Where the old scan continued after the last match in front of the tail.
+        int oldResume = tail > 0 ? afterMatch(tail - 1) : 0;
+        boolean wasComplete = complete;
+        int oldScanPosition = scanPosition;
+
+        count = head;
+        complete = false;
+        scanPosition = from;
+        int limit = nextLineStart(rescanEnd);
+        while (find(scanPosition, limit) && foundStart < rescanEnd) {
+            add(foundStart, foundEnd);
+            scanPosition = afterMatch(count - 1);
+        }
+        if (oldScanPosition < rescanEnd - delta) {
+            // The old index didn't get past the rescanned lines, continue lazily from here.
+            return;
+        }
+        // If both scans continue at or before the end of the rescanned lines, they see the same
+        // text from there on. Otherwise the first old match behind the lines must be found again.
+        boolean inStep = oldResume <= rescanEnd - delta && scanPosition <= rescanEnd;
+        if ( ! inStep && tailCount > 0
+                && find(scanPosition, nextLineStart(tailEnds[0] + delta))) {
+            inStep = foundStart == tailStarts[0] + delta && foundEnd == tailEnds[0] + delta;
+        }
+        if (inStep) {
+            // The rest of the old matches is still valid.
+            for (int i = 0; i < tailCount; i++) {
+                add(tailStarts[i] + delta, tailEnds[i] + delta);
+            }
+            scanPosition = oldScanPosition + delta;
+            complete = wasComplete;
+        }
+    }
+
+    /** Finds the matches starting in the next {@link #CHUNK_SIZE} characters. */
+    private void scanChunk() {
+        int length = text.length();
+        int chunkEnd = (int) Math.min(length, (long) scanPosition + CHUNK_SIZE);
+        while (find(scanPosition, chunkEnd)) {
+            add(foundStart, foundEnd);
+            scanPosition = afterMatch(count - 1);
+        }
+        if (chunkEnd == length) {
+            scanPosition = length;
+            complete = true;
+        } else {
+            // No other match starts up to the end of the chunk.
+            scanPosition = Math.max(scanPosition, chunkEnd + 1);
+        }
+    }
+
+    /** Scans everything behind {@link #scanPosition} at once, see {@link ParallelSearch}. */
+    private void scanRestInParallel() {
+        int length = text.length();
+        ParallelSearch.Matches matches = new ParallelSearch(pattern, parallelThreshold).findAll(text, scanPosition,
+                length);
+        for (int i = 0; i < matches.size(); i++) {
+            add(matches.getStart(i), matches.getEnd(i));
+        }
+        scanPosition = length;
+        complete = true;
+    }
+
+    /**
+     * Looks for the next match at or after <tt>from</tt> which starts at or before <tt>limit</tt>
+     * and stores its offsets in {@link #foundStart} and {@link #foundEnd}. Like a scan without
+     * the limit would, the match may end behind it.
+     */
+    private boolean find(int from, int limit) {
+        if (from > limit) {
+            return false;
+        }
+        int length = text.length();
+        if (literal != null) {
+            foundStart = literal.indexOf(text, from, Math.min(length, limit + literal.length()));
+            foundEnd = foundStart + literal.length();
+            return foundStart >= 0 && foundStart <= limit;
+        }
+        matcher.region(from, limit);
+        boolean found = pattern.find(matcher);
+        if (matcher.hitEnd() && limit < length) {
+            // The match might go on, or only be found, behind the limit.
+            matcher.region(from, length);
+            found = pattern.find(matcher);
+        }
+        if ( ! found) {
+            return false;
+        }
+        foundStart = pattern.start(matcher);
+        foundEnd = pattern.end(matcher);
+        return foundStart <= limit;
+    }
+
+    /** @return where to continue scanning after a match, skipping over empty matches. */
+    private int afterMatch(int match) {
+        return ends[match] == starts[match] ? ends[match] + 1 : ends[match];
+    }
+
+    private void add(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    private int firstStartingAtOrAfter(int offset) {
+        int index = Arrays.binarySearch(starts, 0, count, offset);
+        if (index < 0) {
+            return -index - 1;
+        }
+        // Empty matches and \zs can produce equal starts, take the first one.
+        while (index > 0 && starts[index - 1] == offset) {
+            index--;
+        }
+        return index;
+    }
+
+    /** @return offset of the line containing <tt>offset</tt>, 0 for negative offsets. */
+    private int lineStart(int offset) {
+        int i = Math.min(offset, text.length());
+        while (i > 0) {
+            char c = text.charAt(i - 1);
+            if (c == '\n' || c == '\r') {
+                return i;
+            }
+            i--;
+        }
+        return 0;
+    }
+
+    /** @return offset after the next line delimiter at or after <tt>offset</tt>. */
+    private int nextLineStart(int offset) {
+        int length = text.length();
+        for (int i = Math.max(0, offset); i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                return i + 1;
+            } else if (c == '\r') {
+                return i + 1 < length && text.charAt(i + 1) == '\n' ? i + 2 : i + 1;
+            }
+        }
+        return length;
+    }
+
+    private void checkMatch(int match) {
+        if (match < 0 || match >= count) {
+            throw new IndexOutOfBoundsException("Match " + match + " not in [0, " + count + ")");
+        }
+    }
+}
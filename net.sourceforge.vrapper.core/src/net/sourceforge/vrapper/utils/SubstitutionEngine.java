@@ -0,0 +1,352 @@
+package net.sourceforge.vrapper.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.PatternSyntaxException;
+
+import net.sourceforge.vrapper.platform.TextContent;
+
+/**
+ * Performs a <tt>:s</tt> substitution over a range of lines in a single pass.
+ * <p>
+ * The pattern and the replacement string are compiled once. One matcher walks over the text of
+ * the range and every replacement is collected in an {@link EditBatch}, which is applied as a
+ * single change when the pass is done. Because all offsets refer to the original text, lines
+ * added by a replacement are never substituted again.
+ * <p>
+ * Only needs a {@link TextContent}, so it works the same with or without an Eclipse document.
+ * Matches have to start inside the range but may continue into the line following it.
+ * <p>
+ * Counting matches (<tt>:s///n</tt>) has a separate read-only path, see
+ * {@link #count(VimPattern, CharSequence, int, int, boolean, TextRange)}.
+ */
+public class SubstitutionEngine {
+
+    private final VimPattern pattern;
+    private final boolean caseSensitive;
+    private final String newLine;
+    /** Compiled replacement: Strings are copied literally, Integers are group references. */
+    private final List<Object> replacement = new ArrayList<Object>();
+    /** Whether the replacement contains <tt>\C</tt>. */
+    private boolean retainCase;
+
+    /**
+     * @param find
+     *            search pattern, see {@link VimRegexCompiler} for the syntax.
+     * @param replace
+     *            replacement string. <tt>$n</tt> inserts group n, <tt>\R</tt> a line break and
+     *            <tt>\n</tt>, <tt>\r</tt> and <tt>\t</tt> the corresponding characters.
+     *            <tt>\xhh</tt> and <tt>&#92;uhhhh</tt> insert the character with that hexadecimal
+     *            code. Like in Eclipse, <tt>\C</tt> retains the case of the match: the
+     *            replacement becomes upper case if the match is, lower case if the match is, and
+     *            is capitalized if the match starts with an upper case letter. Any other
+     *            character can be escaped with a backslash.
+     * @param newLine
+     *            the line delimiter inserted for <tt>\R</tt>.
+     * @throws PatternSyntaxException
+     *             if <tt>find</tt> is not a valid regular expression.
+     * @throws IllegalArgumentException
+     *             if <tt>replace</tt> refers to a missing group or has an invalid hex escape.
+     */
+    public SubstitutionEngine(String find, String replace, boolean caseSensitive, String newLine) {
+        this.pattern = VimRegexCompiler.compile(find, caseSensitive);
+        this.caseSensitive = caseSensitive;
+        this.newLine = newLine;
+        compileReplacement(replace, pattern.groupCount());
+    }
+
+    public VimPattern getPattern() {
+        return pattern;
+    }
+
+    public boolean isCaseSensitive() {
+        return caseSensitive;
+    }
+
+    public String getNewLine() {
+        return newLine;
+    }
+
+    /**
+     * Substitutes the matches in lines <tt>startLine</tt> to <tt>endLine</tt>.
+     *
+     * @param global
+     *            replace every match in a line instead of only the first one.
+     */
+    public Result substitute(TextContent content, int startLine, int endLine, boolean global) {
+        return substitute(content, startLine, endLine, global, null);
+    }
+
+    /**
+     * Like {@link #substitute(TextContent, int, int, boolean)}, but if the pattern contains
+     * <tt>\%V</tt> only matches which lie completely inside <tt>visualArea</tt> are replaced.
+     * For a block selection that is the whole range spanned by the block.
+     */
+    public Result substitute(TextContent content, int startLine, int endLine, boolean global,
+            TextRange visualArea) {
+        VimPattern pattern = this.pattern.inVisualArea(visualArea);
+        int numberOfLines = content.getNumberOfLines();
+        int rangeStart = content.getLineInformation(startLine).getBeginOffset();
+        // Include the following line so that patterns matching a line break can see it.
+        int limit = endLine + 2 < numberOfLines
+                ? content.getLineInformation(endLine + 2).getBeginOffset()
+                : content.getTextLength();
+
+        Matcher matcher = pattern.matcher(new TextContentCharSequence(content));
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        EditBatch batch = new EditBatch();
+        StringBuilder replaced = new StringBuilder();
+        int substitutions = 0;
+        int lines = 0;
+        int lastLine = -1;
+        int searchFrom = rangeStart;
+        while (searchFrom <= limit) {
+            matcher.region(searchFrom, limit);
+            boolean found = pattern.find(matcher);
+            if (matcher.hitEnd() && limit < content.getTextLength()) {
+                // Like ParallelSearch, look again if the match might go on behind the limit.
+                matcher.region(searchFrom, content.getTextLength());
+                found = pattern.find(matcher);
+            }
+            if ( ! found) {
+                break;
+            }
+            int start = pattern.start(matcher);
+            int end = pattern.end(matcher);
+            LineInformation line = content.getLineInformationOfOffset(start);
+            if (line.getNumber() > endLine) {
+                break;
+            }
+            substitutions++;
+            if (line.getNumber() != lastLine) {
+                lastLine = line.getNumber();
+                lines++;
+            }
+            replaced.setLength(0);
+            appendReplacement(matcher, replaced);
+            batch.replace(start, end - start, replaced.toString());
+            if (global) {
+                // Like Matcher.find(), don't look for another match at the position of an
+                // empty match.
+                searchFrom = end == start ? end + 1 : end;
+            } else if (line.getNumber() + 1 < numberOfLines) {
+                searchFrom = Math.max(end, content.getLineInformation(line.getNumber() + 1).getBeginOffset());
+            } else {
+                break;
+            }
+        }
+        batch.applyTo(content);
+        return new Result(substitutions, lines);
+    }
+
+    /**
+     * Replaces only the first match starting at or after <tt>from</tt>, for substitutions which
+     * are confirmed one by one. The replacement is built the same way as in
+     * {@link #substitute(TextContent, int, int, boolean)}.
+     *
+     * @return the offset following the inserted replacement, or -1 if there is no match.
+     */
+    public int substituteNext(TextContent content, int from) {
+        return substituteNext(content, from, null);
+    }
+
+    /**
+     * Like {@link #substituteNext(TextContent, int)}, but if the pattern contains <tt>\%V</tt>
+     * only a match which lies completely inside <tt>visualArea</tt> is replaced.
+     */
+    public int substituteNext(TextContent content, int from, TextRange visualArea) {
+        VimPattern pattern = this.pattern.inVisualArea(visualArea);
+        Matcher matcher = pattern.matcher(new TextContentCharSequence(content));
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        matcher.region(from, content.getTextLength());
+        if ( ! pattern.find(matcher)) {
+            return -1;
+        }
+        int start = pattern.start(matcher);
+        int end = pattern.end(matcher);
+        StringBuilder replaced = new StringBuilder();
+        appendReplacement(matcher, replaced);
+        content.replace(start, end - start, replaced.toString());
+        return start + replaced.length();
+    }
+
+    /**
+     * Counts the matches of <tt>pattern</tt> in the lines between <tt>rangeStart</tt> and
+     * <tt>rangeEnd</tt> with the same rules as
+     * {@link #substitute(TextContent, int, int, boolean)}, but only reads <tt>text</tt>.
+     * The matches are found with {@link ParallelSearch#findAll(CharSequence, int, int)}, so
+     * large ranges are searched in parallel and <tt>text</tt> must then support concurrent
+     * reads.
+     *
+     * @param rangeStart
+     *            offset of the first line of the range.
+     * @param rangeEnd
+     *            offset of the line following the range, or the length of the text.
+     * @param visualArea
+     *            the last visual selection for patterns containing <tt>\%V</tt>, may be null.
+     */
+    public static Result count(VimPattern pattern, CharSequence text, int rangeStart, int rangeEnd,
+            boolean global, TextRange visualArea) {
+        return count(pattern, text, rangeStart, rangeEnd, global, visualArea,
+                ParallelSearch.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Like {@link #count(VimPattern, CharSequence, int, int, boolean, TextRange)}, with the
+     * number of characters from which the search is split up.
+     */
+    public static Result count(VimPattern pattern, CharSequence text, int rangeStart, int rangeEnd,
+            boolean global, TextRange visualArea, int parallelThreshold) {
+        pattern = pattern.inVisualArea(visualArea);
+        ParallelSearch.Matches matches = new ParallelSearch(pattern, parallelThreshold)
+                .findAll(text, rangeStart, rangeEnd);
+        int substitutions = 0;
+        int lines = 0;
+        // Start of the line after the last line with a match.
+        int nextLine = -1;
+        int searchFrom = rangeStart;
+        int i = 0;
+        while (true) {
+            // Without 'g' the rest of a line is skipped, and so are the matches found there.
+            while (i < matches.size() && matches.getStart(i) < searchFrom
+                    && matches.getEnd(i) <= searchFrom) {
+                i++;
+            }
+            if (i == matches.size()) {
+                break;
+            }
+            int start;
+            int end;
+            if (matches.getStart(i) < searchFrom) {
+                // This match hides where substitute() searches next, so search from there.
+                int[] match = pattern.firstIn(text, searchFrom);
+                if (match == null || match[0] > rangeEnd
+                        || match[0] == rangeEnd && rangeEnd < text.length()) {
+                    break;
+                }
+                start = match[0];
+                end = match[1];
+            } else {
+                start = matches.getStart(i);
+                end = matches.getEnd(i);
+                i++;
+            }
+            substitutions++;
+            if (start >= nextLine) {
+                lines++;
+                nextLine = ParallelSearch.nextLineStart(text, start);
+            }
+            if (global) {
+                searchFrom = end == start ? end + 1 : end;
+            } else {
+                searchFrom = Math.max(end, nextLine);
+            }
+        }
+        return new Result(substitutions, lines);
+    }
+
+    private void appendReplacement(Matcher matcher, StringBuilder result) {
+        int start = result.length();
+        for (Object part : replacement) {
+            if (part instanceof Integer) {
+                String group = pattern.group(matcher, (Integer) part);
+                if (group != null) {
+                    result.append(group);
+                }
+            } else {
+                result.append((String) part);
+            }
+        }
+        if (retainCase) {
+            String match = pattern.group(matcher, 0);
+            String replaced = result.substring(start);
+            if (match.equals(match.toUpperCase())) {
+                replaced = replaced.toUpperCase();
+            } else if (match.equals(match.toLowerCase())) {
+                replaced = replaced.toLowerCase();
+            } else if (Character.isUpperCase(match.charAt(0)) && replaced.length() > 0) {
+                replaced = Character.toUpperCase(replaced.charAt(0)) + replaced.substring(1);
+            }
+            result.replace(start, result.length(), replaced);
+        }
+    }
+
+    /** Parses the <tt>digits</tt> hex digits at <tt>i</tt> of an escape in the replacement. */
+    private static char parseHex(String replace, int i, int digits) {
+        if (i + digits > replace.length()) {
+            throw new IllegalArgumentException("Illegal hex escape in replacement " + replace);
+        }
+        int code = 0;
+        for (int j = i; j < i + digits; j++) {
+            int digit = Character.digit(replace.charAt(j), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Illegal hex escape in replacement " + replace);
+            }
+            code = code * 16 + digit;
+        }
+        return (char) code;
+    }
+
+    private void compileReplacement(String replace, int groupCount) {
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < replace.length()) {
+            char c = replace.charAt(i++);
+            if (c == '\\' && i < replace.length()) {
+                char escaped = replace.charAt(i++);
+                switch (escaped) {
+                case 'R': literal.append(newLine); break;
+                case 'n': literal.append('\n'); break;
+                case 'r': literal.append('\r'); break;
+                case 't': literal.append('\t'); break;
+                case 'x': literal.append(parseHex(replace, i, 2)); i += 2; break;
+                case 'u': literal.append(parseHex(replace, i, 4)); i += 4; break;
+                case 'C': retainCase = true; break;
+                default: literal.append(escaped);
+                }
+            } else if (c == '$' && i < replace.length() && Character.isDigit(replace.charAt(i))) {
+                // Like Java, take as many digits as still form an existing group number.
+                int group = replace.charAt(i++) - '0';
+                while (i < replace.length() && Character.isDigit(replace.charAt(i))
+                        && group * 10 + replace.charAt(i) - '0' <= groupCount) {
+                    group = group * 10 + replace.charAt(i++) - '0';
+                }
+                if (group > groupCount) {
+                    throw new IllegalArgumentException("No group " + group + " in pattern " + pattern);
+                }
+                if (literal.length() > 0) {
+                    replacement.add(literal.toString());
+                    literal.setLength(0);
+                }
+                replacement.add(Integer.valueOf(group));
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            replacement.add(literal.toString());
+        }
+    }
+
+    /** Number of substitutions (or matches) and of lines in which they occurred. */
+    public static class Result {
+        private final int substitutions;
+        private final int lines;
+
+        public Result(int substitutions, int lines) {
+            this.substitutions = substitutions;
+            this.lines = lines;
+        }
+
+        public int getSubstitutions() {
+            return substitutions;
+        }
+
+        public int getLines() {
+            return lines;
+        }
+    }
+}
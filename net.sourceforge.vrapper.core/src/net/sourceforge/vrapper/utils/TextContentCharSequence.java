@@ -0,0 +1,65 @@
+package net.sourceforge.vrapper.utils;
+
+import net.sourceforge.vrapper.platform.TextContent;
+
+/**
+ * Read-only {@link CharSequence} view on (a part of) a {@link TextContent}, so that it can be fed
+ * to a {@link java.util.regex.Matcher} without copying the whole text into a String first.
+ * <p>
+ * Like {@link CharCursor}, the view doesn't notice changes to the underlying text.
+ */
+public class TextContentCharSequence implements CharSequence {
+
+    private final CharCursor cursor;
+    private final int start;
+    private final int end;
+
+    public TextContentCharSequence(TextContent content) {
+        this(content, 0, content.getTextLength());
+    }
+
+    public TextContentCharSequence(TextContent content, int start, int end) {
+        this(new CharCursor(content, start, 4 * CharCursor.DEFAULT_BUFFER_SIZE), start, end);
+    }
+
+    private TextContentCharSequence(CharCursor cursor, int start, int end) {
+        if (start < 0 || end < start || end > cursor.getTextLength()) {
+            throw new IndexOutOfBoundsException("Invalid range [" + start + ", " + end + ")");
+        }
+        this.cursor = cursor;
+        this.start = start;
+        this.end = end;
+    }
+
+    /** @return offset in the text content where this sequence starts. */
+    public int getStartOffset() {
+        return start;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("Index " + index + " not in [0, " + length() + ")");
+        }
+        return cursor.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to > end - start || from > to) {
+            throw new IndexOutOfBoundsException("Invalid range [" + from + ", " + to + ")");
+        }
+        // Shares the buffer, subsequences are typically used for short look-ups.
+        return new TextContentCharSequence(cursor, start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+        return cursor.getContent().getText(start, end - start);
+    }
+}
@@ -0,0 +1,56 @@
+package net.sourceforge.vrapper.utils;
+
+/**
+ * A single replacement which is part of an {@link EditBatch}. Offsets always refer to the text as
+ * it was before any edit of the batch was applied.
+ */
+public class TextEdit {
+
+    private final int offset;
+    private final int length;
+    private final String text;
+
+    public TextEdit(int offset, int length, String text) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid edit at " + offset + " (" + length + " chars)");
+        }
+        this.offset = offset;
+        this.length = length;
+        this.text = text == null ? "" : text;
+    }
+
+    public static TextEdit insert(int offset, String text) {
+        return new TextEdit(offset, 0, text);
+    }
+
+    public static TextEdit delete(int offset, int length) {
+        return new TextEdit(offset, length, "");
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /** @return number of characters which are replaced. */
+    public int getLength() {
+        return length;
+    }
+
+    public int getEndOffset() {
+        return offset + length;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /** @return how much this edit changes the length of the text. */
+    public int getDelta() {
+        return text.length() - length;
+    }
+
+    @Override
+    public String toString() {
+        return "TextEdit(" + offset + ", " + length + ", \"" + text + "\")";
+    }
+}
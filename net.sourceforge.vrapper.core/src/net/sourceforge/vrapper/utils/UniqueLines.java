@@ -0,0 +1,83 @@
+package net.sourceforge.vrapper.utils;
+
+import java.util.Arrays;
+
+/**
+ * Duplicate line removal for <tt>:sort u</tt> and <tt>:uniq</tt>.
+ * <p>
+ * Both work on arrays of line numbers into a <tt>String[]</tt> of lines. Lines are equal if they
+ * are identical, or equal ignoring case like {@link String#equalsIgnoreCase(String)} if
+ * <tt>ignoreCase</tt> is set.
+ */
+public class UniqueLines {
+
+    private UniqueLines() {
+    }
+
+    /**
+     * Drops every line of <tt>order</tt> which equals the line before it, like Vim does after
+     * sorting for <tt>:sort u</tt>. The first line of a sequence of equal lines is kept.
+     *
+     * @return the remaining line numbers, <tt>order</tt> itself if nothing was dropped.
+     */
+    public static int[] removeAdjacent(String[] lines, int[] order, boolean ignoreCase) {
+        int kept = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (kept == 0 || ! equal(lines[order[kept - 1]], lines[order[i]], ignoreCase)) {
+                order[kept++] = order[i];
+            }
+        }
+        return kept == order.length ? order : Arrays.copyOf(order, kept);
+    }
+
+    /**
+     * Finds the first occurrence of every distinct line with a hash table of line numbers,
+     * which takes linear time.
+     *
+     * @return numbers of the lines which don't equal an earlier line, in ascending order.
+     */
+    public static int[] firstOccurrences(String[] lines, boolean ignoreCase) {
+        int capacity = Integer.highestOneBit(Math.max(1, lines.length) * 2 - 1) << 1;
+        int mask = capacity - 1;
+        // Line number + 1 per slot, 0 for empty slots.
+        int[] slots = new int[capacity];
+        int[] hashes = new int[lines.length];
+        int[] result = new int[lines.length];
+        int kept = 0;
+        for (int i = 0; i < lines.length; i++) {
+            int hash = hash(lines[i], ignoreCase);
+            hashes[i] = hash;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            boolean duplicate = false;
+            while (slots[slot] != 0) {
+                int other = slots[slot] - 1;
+                if (hashes[other] == hash && equal(lines[other], lines[i], ignoreCase)) {
+                    duplicate = true;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if ( ! duplicate) {
+                slots[slot] = i + 1;
+                result[kept++] = i;
+            }
+        }
+        return Arrays.copyOf(result, kept);
+    }
+
+    public static boolean equal(String line1, String line2, boolean ignoreCase) {
+        return ignoreCase ? line1.equalsIgnoreCase(line2) : line1.equals(line2);
+    }
+
+    /** @return a hash code which is equal for lines that are {@link #equal(String, String, boolean)}. */
+    private static int hash(String line, boolean ignoreCase) {
+        if ( ! ignoreCase) {
+            return line.hashCode();
+        }
+        int hash = 0;
+        for (int i = 0; i < line.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(line.charAt(i)));
+        }
+        return hash;
+    }
+}
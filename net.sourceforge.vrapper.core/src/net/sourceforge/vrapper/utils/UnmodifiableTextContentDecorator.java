@@ -1,5 +1,7 @@
 package net.sourceforge.vrapper.utils;
 
+import java.util.List;
+
 import net.sourceforge.vrapper.platform.Configuration.Option;
 import net.sourceforge.vrapper.platform.FileService;
 import net.sourceforge.vrapper.platform.Platform;
@@ -19,6 +21,7 @@ public class UnmodifiableTextContentDecorator implements TextContent {
     private boolean modifiable = true;
     private UserInterfaceService uiService;
     private FileService fileService;
+    private int modificationCount;
 
     public UnmodifiableTextContentDecorator(TextContent target, LocalConfiguration configuration,
             Platform platform) {
@@ -54,6 +57,15 @@ public class UnmodifiableTextContentDecorator implements TextContent {
     public void replace(int index, int length, String s) {
         if (allowChanges()) {
             textContent.replace(index, length, s);
+            modificationCount++;
+        }
+    }
+
+    @Override
+    public void applyEdits(List<TextEdit> edits) {
+        if (allowChanges()) {
+            textContent.applyEdits(edits);
+            modificationCount++;
         }
     }
 
@@ -61,6 +73,7 @@ public class UnmodifiableTextContentDecorator implements TextContent {
     public void smartInsert(int index, String s) {
         if (allowChanges()) {
             textContent.smartInsert(index, s);
+            modificationCount++;
         }
     }
 
@@ -68,6 +81,7 @@ public class UnmodifiableTextContentDecorator implements TextContent {
     public void smartInsert(String s) {
         if (allowChanges()) {
             textContent.smartInsert(s);
+            modificationCount++;
         }
     }
 
@@ -81,6 +95,16 @@ public class UnmodifiableTextContentDecorator implements TextContent {
         return textContent.getText(range);
     }
 
+    @Override
+    public char charAt(int index) {
+        return textContent.charAt(index);
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dest, int destStart) {
+        textContent.getChars(start, end, dest, destStart);
+    }
+
     @Override
     public int getTextLength() {
         return textContent.getTextLength();
@@ -91,6 +115,15 @@ public class UnmodifiableTextContentDecorator implements TextContent {
         return textContent.getSpace();
     }
 
+    /**
+     * @return the stamp of the decorated text, which also counts the changes made through this
+     *         object in case the platform doesn't provide a stamp.
+     */
+    @Override
+    public long getModificationStamp() {
+        return textContent.getModificationStamp() + modificationCount;
+    }
+
     protected boolean allowChanges() {
         if (modifiable && fileService.isEditable() && fileService.checkModifiable()) {
             return true;
@@ -0,0 +1,283 @@
+package net.sourceforge.vrapper.utils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A search pattern compiled by {@link VimRegexCompiler}.
+ * <p>
+ * Wraps the translated {@link Pattern} together with what Java can't express on its own: where
+ * a match really starts when the pattern uses <tt>\zs</tt>, how Vim group numbers map to Java
+ * group numbers, and whether matches have to lie in the last visual area (<tt>\%V</tt>). Use
+ * {@link #find(Matcher)}, {@link #start(Matcher)}, {@link #end(Matcher)} and
+ * {@link #group(Matcher, int)} instead of asking the matcher directly.
+ * <p>
+ * A pattern containing <tt>\%V</tt> only finds matches which lie completely inside the area it
+ * was bound to with {@link #inVisualArea(TextRange)}, and nothing at all before it is bound.
+ */
+public class VimPattern {
+
+    /** Size of the first window scanned by {@link #lastIn(CharSequence, int)}, it doubles. */
+    private static final int BACKWARD_WINDOW = 4096;
+
+    private final String source;
+    private final Pattern pattern;
+    /** Java group holding the part after <tt>\zs</tt>, 0 if the pattern doesn't use it. */
+    private final int zsGroup;
+    private final boolean visualArea;
+    /** Offsets of the visual area matches must lie in, -1 if the pattern isn't bound to one. */
+    private final int areaStart;
+    private final int areaEnd;
+    /** Scanner for patterns without any regular expression items, null otherwise. */
+    private final LiteralPattern literal;
+
+    VimPattern(String source, Pattern pattern, int zsGroup, boolean visualArea) {
+        this(source, pattern, zsGroup, visualArea, null);
+    }
+
+    VimPattern(String source, Pattern pattern, int zsGroup, boolean visualArea,
+            LiteralPattern literal) {
+        this(source, pattern, zsGroup, visualArea, literal, -1, -1);
+    }
+
+    private VimPattern(String source, Pattern pattern, int zsGroup, boolean visualArea,
+            LiteralPattern literal, int areaStart, int areaEnd) {
+        this.source = source;
+        this.pattern = pattern;
+        this.zsGroup = zsGroup;
+        this.visualArea = visualArea;
+        this.literal = literal;
+        this.areaStart = areaStart;
+        this.areaEnd = areaEnd;
+    }
+
+    /**
+     * @return this pattern bound to <tt>area</tt>, normally the last visual selection, if the
+     *         pattern contains <tt>\%V</tt>; the pattern itself otherwise. <tt>area</tt> may be
+     *         null if there is no visual area yet.
+     */
+    public VimPattern inVisualArea(TextRange area) {
+        if (area == null) {
+            return inVisualArea(-1, -1);
+        }
+        return inVisualArea(area.getLeftBound().getModelOffset(),
+                area.getRightBound().getModelOffset());
+    }
+
+    /**
+     * Like {@link #inVisualArea(TextRange)}, for callers which match in a part of the text and
+     * therefore use offsets of their own.
+     *
+     * @param start
+     *            first offset in the area, or -1 if there is no area.
+     * @param end
+     *            offset following the area.
+     */
+    public VimPattern inVisualArea(int start, int end) {
+        if ( ! visualArea || start == areaStart && end == areaEnd) {
+            return this;
+        }
+        return new VimPattern(source, pattern, zsGroup, visualArea, literal, start,
+                start < 0 ? -1 : end);
+    }
+
+    /** @return the pattern as it was given to the compiler. */
+    public String getSource() {
+        return source;
+    }
+
+    /** @return the translated Java pattern. */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /** @return a matcher for <tt>text</tt>, search with {@link #find(Matcher)}. */
+    public Matcher matcher(CharSequence text) {
+        return pattern.matcher(text);
+    }
+
+    /**
+     * Like {@link Matcher#find()}, but for a pattern containing <tt>\%V</tt> only matches
+     * inside the visual area count. Where a match doesn't fit the search is started again one
+     * character further on, by narrowing the region of <tt>matcher</tt>; callers should use
+     * transparent bounds so that this doesn't change what matches.
+     */
+    public boolean find(Matcher matcher) {
+        if ( ! visualArea) {
+            return matcher.find();
+        }
+        if (areaStart < 0) {
+            return false;
+        }
+        while (matcher.find()) {
+            if (matcher.start() > areaEnd) {
+                return false;
+            }
+            if (start(matcher) >= areaStart && end(matcher) <= areaEnd) {
+                return true;
+            }
+            int next = matcher.start() + 1;
+            if (zsGroup == 0) {
+                next = Math.max(next, areaStart);
+            }
+            if (next > matcher.regionEnd()) {
+                return false;
+            }
+            matcher.region(next, matcher.regionEnd());
+        }
+        return false;
+    }
+
+    /**
+     * @return a faster scanner which finds the same matches as {@link #getPattern()}, or null if
+     *         the pattern is not a plain string. Matches of a literal have no groups and neither
+     *         <tt>\zs</tt> nor <tt>\%V</tt> apply.
+     */
+    public LiteralPattern getLiteral() {
+        return literal;
+    }
+
+    /**
+     * @return start of the first match in <tt>text</tt> at or after <tt>from</tt>, or -1. Uses
+     *         the literal scanner when there is one. Text outside of <tt>[from, to)</tt> is
+     *         visible to look-behind and word boundaries, but matches must lie inside.
+     */
+    public int indexIn(CharSequence text, int from, int to) {
+        if (literal != null) {
+            return literal.indexOf(text, from, to);
+        }
+        Matcher matcher = matcher(text);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        matcher.region(from, to);
+        return find(matcher) ? start(matcher) : -1;
+    }
+
+    /**
+     * @return start and end of the first match in <tt>text</tt> which starts at or after
+     *         <tt>from</tt>, or null.
+     */
+    public int[] firstIn(CharSequence text, int from) {
+        if (from > text.length()) {
+            return null;
+        }
+        if (literal != null) {
+            int start = literal.indexOf(text, from, text.length());
+            return start < 0 ? null : new int[] { start, start + literal.length() };
+        }
+        Matcher matcher = matcher(text);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        matcher.region(from, text.length());
+        return find(matcher) ? new int[] { start(matcher), end(matcher) } : null;
+    }
+
+    /**
+     * @return start and end of the last match in <tt>text</tt> which ends at or before
+     *         <tt>limit</tt>, or null. Like {@link #indexIn(CharSequence, int, int)} this uses
+     *         the literal scanner when there is one.
+     */
+    public int[] lastIn(CharSequence text, int limit) {
+        limit = Math.min(limit, text.length());
+        if (literal != null) {
+            int start = literal.lastIndexOf(text, limit - literal.length());
+            return start < 0 ? null : new int[] { start, start + literal.length() };
+        }
+        Matcher matcher = matcher(text);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        // Scan a window before the limit, widening it until a match is found. The region ends at
+        // the limit so that a widening doesn't read up to the end of the text; a match which
+        // reaches the limit is checked again without that bound, it might really be longer.
+        int window = BACKWARD_WINDOW;
+        int windowStart;
+        do {
+            windowStart = Math.max(0, limit - window);
+            int[] result = null;
+            int from = windowStart;
+            while (from <= limit) {
+                matcher.region(from, limit);
+                boolean found = find(matcher);
+                if (matcher.hitEnd() && limit < text.length()) {
+                    matcher.region(from, text.length());
+                    found = find(matcher);
+                }
+                if ( ! found || matcher.end() > limit) {
+                    break;
+                }
+                result = new int[] { start(matcher), end(matcher) };
+                from = matcher.start() + 1;
+            }
+            if (result != null) {
+                return result;
+            }
+            window *= 2;
+        } while (windowStart > 0);
+        return null;
+    }
+
+    /** @return start offset of the last match, honouring <tt>\zs</tt>. */
+    public int start(Matcher matcher) {
+        if (zsGroup > 0) {
+            int start = matcher.start(zsGroup);
+            if (start >= 0) {
+                return start;
+            }
+        }
+        return matcher.start();
+    }
+
+    /** @return end offset of the last match. <tt>\ze</tt> is a lookahead, so no special case. */
+    public int end(Matcher matcher) {
+        return matcher.end();
+    }
+
+    /** @return number of groups as written in the original pattern. */
+    public int groupCount() {
+        int count = pattern.matcher("").groupCount();
+        return zsGroup > 0 ? count - 1 : count;
+    }
+
+    /**
+     * @return the text matched by group number <tt>group</tt> of the original pattern, group 0
+     *         being the whole match from {@link #start(Matcher)} to {@link #end(Matcher)}.
+     */
+    public String group(Matcher matcher, int group) {
+        if (group == 0) {
+            if (zsGroup == 0) {
+                return matcher.group();
+            }
+            int start = start(matcher);
+            return matcher.group().substring(start - matcher.start());
+        }
+        return matcher.group(javaGroup(group));
+    }
+
+    /** @return Java group number for group <tt>group</tt> of the original pattern. */
+    public int javaGroup(int group) {
+        return zsGroup > 0 && group >= zsGroup ? group + 1 : group;
+    }
+
+    /**
+     * @return whether <tt>other</tt> finds the same matches as this pattern, even if it was
+     *         compiled or bound to its visual area separately.
+     */
+    public boolean isEquivalent(VimPattern other) {
+        return other == this
+                || other.pattern.pattern().equals(pattern.pattern())
+                && other.pattern.flags() == pattern.flags()
+                && other.areaStart == areaStart && other.areaEnd == areaEnd;
+    }
+
+    /**
+     * @return whether the pattern contains <tt>\%V</tt>, see {@link #inVisualArea(TextRange)}.
+     */
+    public boolean usesVisualArea() {
+        return visualArea;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
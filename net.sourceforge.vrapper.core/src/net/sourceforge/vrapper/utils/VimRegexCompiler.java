@@ -0,0 +1,797 @@
+package net.sourceforge.vrapper.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Translates Vim search patterns to {@link Pattern}s and caches the result.
+ * <p>
+ * For compatibility with earlier Vrapper versions a pattern is read as a Java regular expression
+ * until it contains one of Vim's mode switches which Java doesn't know: <tt>\m</tt> (magic),
+ * <tt>\M</tt> (nomagic) or <tt>\V</tt> (very nomagic). From there on Vim's syntax is used, and
+ * <tt>\v</tt> (very magic) switches modes as well. A few Vim items which mean nothing useful in
+ * Java are understood in both dialects:
+ * <ul>
+ * <li><tt>\&lt;</tt> and <tt>\&gt;</tt>: start and end of a word.</li>
+ * <li><tt>\{-n,m}</tt>: as few repetitions as possible.</li>
+ * <li><tt>\zs</tt> and <tt>\ze</tt>: set start and end of the match. Both must be used outside of
+ * groups.</li>
+ * <li><tt>\%V</tt>: match inside the visual area, see {@link VimPattern#inVisualArea(TextRange)}.</li>
+ * <li><tt>\C</tt>: match case.</li>
+ * </ul>
+ * <tt>\v</tt>, <tt>\c</tt> (ignore case) and <tt>\z</tt> without <tt>s</tt> or <tt>e</tt> are
+ * Vim items only in Vim's syntax, in the Java dialect they keep their Java meaning.
+ * Lookaround (<tt>\@</tt>), <tt>\&amp;</tt>, <tt>~</tt> and position items such as
+ * <tt>\%23l</tt> are not supported.
+ * <p>
+ * Compiled patterns are kept in a small LRU cache keyed by pattern, case sensitivity and flags,
+ * so that repeated searches (<tt>n</tt>, highlighting, incremental search) don't recompile.
+ */
+public class VimRegexCompiler {
+
+    static final int CACHE_SIZE = 32;
+
+    private static final Map<Key, VimPattern> CACHE = new LinkedHashMap<Key, VimPattern>(CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, VimPattern> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private enum Mode { JAVA, VERY_MAGIC, MAGIC, NOMAGIC, VERY_NOMAGIC }
+
+    /** Characters which are special either with or without a backslash, depending on the mode. */
+    private static final String TOGGLED = "()|+?={@%<>.*[~";
+    private static final String MAGIC_UNESCAPED = ".*[~";
+    private static final String JAVA_META = "\\^$.|?*+()[]{}";
+    private static final String END_OF_LINE = "(?:\\r\\n|\\n|\\r)";
+
+    private final String source;
+    private final StringBuilder out = new StringBuilder();
+    private int pos;
+    private Mode mode = Mode.JAVA;
+    /** Number of capturing groups emitted so far. */
+    private int groups;
+    /** Nesting level of groups in the emitted pattern. */
+    private int depth;
+    private int zsGroup;
+    private boolean zsOpen;
+    private boolean zeOpen;
+    private boolean visualArea;
+    private Boolean caseSensitive;
+    private boolean branchStart = true;
+
+    private VimRegexCompiler(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Same as {@link #compile(String, boolean, int)} with {@link Pattern#MULTILINE}, which is
+     * what Vim's line anchors need.
+     */
+    public static VimPattern compile(String pattern, boolean caseSensitive) {
+        return compile(pattern, caseSensitive, Pattern.MULTILINE);
+    }
+
+    /**
+     * @param caseSensitive
+     *            whether case matters, unless the pattern contains <tt>\c</tt> or <tt>\C</tt>.
+     * @param flags
+     *            additional {@link Pattern} flags.
+     * @throws PatternSyntaxException
+     *             if the pattern is invalid or uses something which is not supported.
+     */
+    public static VimPattern compile(String pattern, boolean caseSensitive, int flags) {
+        Key key = new Key(pattern, caseSensitive, flags);
+        synchronized (CACHE) {
+            VimPattern cached = CACHE.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        VimPattern compiled = new VimRegexCompiler(pattern).compilePattern(caseSensitive, flags);
+        synchronized (CACHE) {
+            CACHE.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    /** Compiles a pattern which matches <tt>text</tt> literally. */
+    public static VimPattern compileLiteral(String text, boolean wholeWord, boolean caseSensitive) {
+        String quoted = Pattern.quote(text);
+        if (wholeWord) {
+            quoted = "\\b" + quoted + "\\b";
+        }
+        return compile(quoted, caseSensitive);
+    }
+
+    /**
+     * @return the Java regular expression for <tt>pattern</tt>. Mostly useful for APIs which
+     *         insist on compiling by themselves; <tt>\zs</tt> becomes an ordinary group there.
+     */
+    public static String translate(String pattern) {
+        VimRegexCompiler compiler = new VimRegexCompiler(pattern);
+        compiler.translate();
+        return compiler.out.toString();
+    }
+
+    private VimPattern compilePattern(boolean defaultCaseSensitive, int flags) {
+        translate();
+        boolean matchCase = caseSensitive != null ? caseSensitive.booleanValue() : defaultCaseSensitive;
+        if ( ! matchCase) {
+            flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        }
+        return new VimPattern(source, Pattern.compile(out.toString(), flags), zsGroup, visualArea,
+                compileLiteral(source, matchCase, flags));
+    }
+
+    /**
+     * @return a scanner for patterns which only match a fixed string: patterns without any
+     *         special character, <tt>\Q...\E</tt> (optionally between <tt>\b</tt>, which is
+     *         what {@link #compileLiteral(String, boolean, boolean)} creates) and
+     *         <tt>\V</tt> patterns without backslashes. null for anything else.
+     */
+    private static LiteralPattern compileLiteral(String source, boolean caseSensitive, int flags) {
+        if ((flags & ~(Pattern.MULTILINE | Pattern.DOTALL | Pattern.CASE_INSENSITIVE
+                | Pattern.UNICODE_CASE)) != 0) {
+            return null;
+        }
+        String literal = null;
+        boolean wholeWord = false;
+        if (source.startsWith("\\b\\Q") && source.endsWith("\\E\\b")) {
+            literal = source.substring(4, source.length() - 4);
+            wholeWord = true;
+        } else if (source.startsWith("\\Q") && source.endsWith("\\E")) {
+            literal = source.substring(2, source.length() - 2);
+        } else if (source.startsWith("\\V") && source.indexOf('\\', 2) < 0
+                && ! source.startsWith("\\V^") && ! source.endsWith("$")) {
+            literal = source.substring(2);
+        } else if ( ! containsAny(source, JAVA_META)) {
+            literal = source;
+        }
+        if (literal == null || literal.length() == 0 || literal.contains("\\E")) {
+            return null;
+        }
+        return new LiteralPattern(literal, caseSensitive, wholeWord);
+    }
+
+    private static boolean containsAny(String text, String characters) {
+        for (int i = 0; i < text.length(); i++) {
+            if (characters.indexOf(text.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void translate() {
+        while (pos < source.length()) {
+            char c = source.charAt(pos++);
+            if (c == '\\' && pos < source.length()) {
+                char escaped = source.charAt(pos++);
+                if ( ! handleCommonEscape(escaped)) {
+                    if (mode == Mode.JAVA) {
+                        javaEscape(escaped);
+                    } else {
+                        vimEscape(escaped);
+                    }
+                }
+            } else if (c == '\\') {
+                out.append("\\\\");
+            } else if (mode == Mode.JAVA) {
+                javaChar(c);
+            } else {
+                vimChar(c, false);
+            }
+        }
+        closeMatchGroups();
+    }
+
+    /**
+     * Handles items which work the same in every dialect, and the Vim items which Java uses for
+     * something else once Vim's syntax is in use.
+     */
+    private boolean handleCommonEscape(char c) {
+        switch (c) {
+        case 'v':
+            if (mode == Mode.JAVA) {
+                // vertical whitespace
+                return false;
+            }
+            mode = Mode.VERY_MAGIC;
+            return true;
+        case 'm': mode = Mode.MAGIC; return true;
+        case 'M': mode = Mode.NOMAGIC; return true;
+        case 'V': mode = Mode.VERY_NOMAGIC; return true;
+        case 'c':
+            if (mode == Mode.JAVA) {
+                // control character
+                return false;
+            }
+            caseSensitive = Boolean.FALSE;
+            return true;
+        case 'C':
+            if (caseSensitive == null) {
+                caseSensitive = Boolean.TRUE;
+            }
+            return true;
+        case 'z':
+            if (pos < source.length() && source.charAt(pos) == 's') {
+                pos++;
+                startMatch();
+                return true;
+            } else if (pos < source.length() && source.charAt(pos) == 'e') {
+                pos++;
+                endMatch();
+                return true;
+            } else if (mode == Mode.JAVA) {
+                // end of input
+                return false;
+            }
+            throw error("Unsupported item \\z");
+        default:
+            return false;
+        }
+    }
+
+    //
+    // Java dialect
+    //
+
+    private void javaEscape(char c) {
+        if (c == 'Q') {
+            int end = source.indexOf("\\E", pos);
+            end = end < 0 ? source.length() : end + 2;
+            out.append("\\Q").append(source, pos, end);
+            pos = end;
+        } else if (c == '<') {
+            startOfWord();
+        } else if (c == '>') {
+            endOfWord();
+        } else if (c == '%' && pos < source.length() && source.charAt(pos) == 'V') {
+            pos++;
+            visualArea = true;
+        } else if (c == '{' && pos < source.length() && source.charAt(pos) == '-') {
+            braceQuantifier();
+        } else if (c >= '1' && c <= '9') {
+            // Like Java, take as many digits as still refer to an existing group.
+            int group = c - '0';
+            while (pos < source.length() && Character.isDigit(source.charAt(pos))
+                    && group * 10 + source.charAt(pos) - '0' <= userGroups()) {
+                group = group * 10 + source.charAt(pos++) - '0';
+            }
+            backReference(group);
+        } else {
+            out.append('\\').append(c);
+        }
+        branchStart = false;
+    }
+
+    private void javaChar(char c) {
+        switch (c) {
+        case '[':
+            javaCharacterClass();
+            break;
+        case '(':
+            if (pos < source.length() && source.charAt(pos) == '?') {
+                // Only named groups capture.
+                if (pos + 2 < source.length() && source.charAt(pos + 1) == '<'
+                        && Character.isLetter(source.charAt(pos + 2))) {
+                    groups++;
+                }
+            } else {
+                groups++;
+            }
+            depth++;
+            out.append(c);
+            branchStart = true;
+            break;
+        case ')':
+            depth--;
+            out.append(c);
+            break;
+        case '|':
+            alternative();
+            break;
+        default:
+            out.append(c);
+            branchStart = false;
+        }
+    }
+
+    /** Copies a Java character class, which may contain nested classes. */
+    private void javaCharacterClass() {
+        out.append('[');
+        int nesting = 1;
+        while (pos < source.length() && nesting > 0) {
+            char c = source.charAt(pos++);
+            out.append(c);
+            if (c == '\\' && pos < source.length()) {
+                out.append(source.charAt(pos++));
+            } else if (c == '[') {
+                nesting++;
+            } else if (c == ']') {
+                nesting--;
+            }
+        }
+        branchStart = false;
+    }
+
+    //
+    // Vim dialects
+    //
+
+    private void vimEscape(char c) {
+        if (TOGGLED.indexOf(c) >= 0) {
+            vimChar(c, true);
+            return;
+        }
+        if (c == '_' && pos < source.length()) {
+            anyLineItem(source.charAt(pos++));
+            return;
+        }
+        if (c >= '1' && c <= '9') {
+            backReference(c - '0');
+            branchStart = false;
+            return;
+        }
+        if (characterClass(c) != null) {
+            appendCharacterClass(c, false);
+            branchStart = false;
+            return;
+        }
+        switch (c) {
+        case 'n': out.append(END_OF_LINE); break;
+        case 't': out.append("\\t"); break;
+        case 'r': out.append("\\r"); break;
+        case 'e': out.append("\\x1b"); break;
+        case 'b': out.append("\\x08"); break;
+        case '^': out.append("\\^"); break;
+        case '$': out.append("\\$"); break;
+        case '&':
+            throw error("Unsupported item \\&");
+        default:
+            if (Character.isLetterOrDigit(c)) {
+                throw error("Unsupported item \\" + c);
+            }
+            appendLiteral(c);
+        }
+        branchStart = false;
+    }
+
+    private void vimChar(char c, boolean escaped) {
+        if (c == '^' && ! escaped) {
+            if (branchStart) {
+                out.append('^');
+            } else {
+                out.append("\\^");
+            }
+            return;
+        }
+        if (c == '$' && ! escaped) {
+            out.append(atBranchEnd() ? "$" : "\\$");
+            branchStart = false;
+            return;
+        }
+        if (TOGGLED.indexOf(c) < 0 || escaped == unescapedSpecial(c)) {
+            appendLiteral(c);
+            branchStart = false;
+            return;
+        }
+        switch (c) {
+        case '(':
+            groups++;
+            depth++;
+            out.append('(');
+            branchStart = true;
+            return;
+        case ')':
+            if (depth == 0) {
+                throw error("Unmatched )");
+            }
+            depth--;
+            out.append(')');
+            break;
+        case '|':
+            alternative();
+            return;
+        case '+':
+        case '?':
+        case '*':
+            if (branchStart) {
+                appendLiteral(c);
+            } else {
+                out.append(c);
+            }
+            break;
+        case '=':
+            out.append('?');
+            break;
+        case '{':
+            braceQuantifier();
+            break;
+        case '<':
+            startOfWord();
+            break;
+        case '>':
+            endOfWord();
+            break;
+        case '.':
+            out.append('.');
+            break;
+        case '[':
+            collection(false);
+            break;
+        case '%':
+            percentItem();
+            return;
+        case '@':
+            throw error("Lookaround (\\@) is not supported");
+        default:
+            // '~' would insert the last substitute string.
+            appendLiteral(c);
+        }
+        branchStart = false;
+    }
+
+    private boolean unescapedSpecial(char c) {
+        switch (mode) {
+        case VERY_MAGIC: return true;
+        case MAGIC: return MAGIC_UNESCAPED.indexOf(c) >= 0;
+        default: return false;
+        }
+    }
+
+    /** @return whether a <tt>$</tt> just read ends a branch. */
+    private boolean atBranchEnd() {
+        if (pos >= source.length()) {
+            return true;
+        }
+        String rest = source.substring(pos);
+        if (mode == Mode.VERY_MAGIC) {
+            return rest.startsWith("|") || rest.startsWith(")") || rest.startsWith("\\c")
+                    || rest.startsWith("\\C");
+        }
+        return rest.startsWith("\\|") || rest.startsWith("\\)") || rest.startsWith("\\c")
+                || rest.startsWith("\\C") || rest.startsWith("\\n") || rest.startsWith("\\ze");
+    }
+
+    /** Handles <tt>\_x</tt>, items which also match a line break. */
+    private void anyLineItem(char c) {
+        if (characterClass(c) != null) {
+            appendCharacterClass(c, true);
+        } else if (c == '.') {
+            out.append("(?s:.)");
+        } else if (c == '[') {
+            collection(true);
+        } else if (c == '^') {
+            out.append('^');
+            return;
+        } else if (c == '$') {
+            out.append('$');
+        } else {
+            throw error("Unsupported item \\_" + c);
+        }
+        branchStart = false;
+    }
+
+    /** @return contents of a bracket expression for Vim's character class <tt>c</tt>. */
+    private static String characterClass(char c) {
+        switch (Character.toLowerCase(c)) {
+        case 's': return " \\t";
+        case 'd': return "0-9";
+        case 'w': return "0-9A-Za-z_";
+        case 'a': return "A-Za-z";
+        case 'l': return "a-z";
+        case 'u': return "A-Z";
+        case 'x': return "0-9A-Fa-f";
+        case 'o': return "0-7";
+        case 'h': return "A-Za-z_";
+        case 'i':
+        case 'k':
+            return Character.isUpperCase(c) ? "A-Za-z_\\u00c0-\\uffff" : "0-9A-Za-z_\\u00c0-\\uffff";
+        case 'f':
+            return Character.isUpperCase(c) ? "A-Za-z_./~+,#$%\\-" : "0-9A-Za-z_./~+,#$%\\-";
+        case 'p':
+            return Character.isUpperCase(c) ? "\\x20-\\x2f\\x3a-\\x7e" : "\\x20-\\x7e";
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Appends Vim's character class <tt>c</tt>. Negated classes never match a line break unless
+     * <tt>withNewLine</tt> is set. <tt>\I</tt>, <tt>\K</tt>, <tt>\F</tt> and <tt>\P</tt> mean
+     * "without digits" rather than negation.
+     */
+    private void appendCharacterClass(char c, boolean withNewLine) {
+        String characterClass = characterClass(c);
+        boolean negated = Character.isUpperCase(c) && "IKFP".indexOf(c) < 0;
+        out.append('[');
+        if (negated) {
+            out.append('^').append(characterClass);
+            if ( ! withNewLine) {
+                out.append("\\r\\n");
+            }
+        } else {
+            out.append(characterClass);
+            if (withNewLine) {
+                out.append("\\r\\n");
+            }
+        }
+        out.append(']');
+    }
+
+    /** Translates a Vim collection <tt>[...]</tt>, the opening bracket has been read. */
+    private void collection(boolean withNewLine) {
+        int i = pos;
+        boolean negated = false;
+        if (i < source.length() && source.charAt(i) == '^') {
+            negated = true;
+            i++;
+        }
+        StringBuilder members = new StringBuilder();
+        if (i < source.length() && source.charAt(i) == ']') {
+            members.append("\\]");
+            i++;
+        }
+        while (i < source.length() && source.charAt(i) != ']') {
+            char c = source.charAt(i);
+            if (c == '[' && source.startsWith("[:", i)) {
+                int end = source.indexOf(":]", i + 2);
+                if (end < 0) {
+                    throw error("Unterminated character class");
+                }
+                members.append(posixClass(source.substring(i + 2, end)));
+                i = end + 2;
+            } else if (c == '\\' && i + 1 < source.length()) {
+                char escaped = source.charAt(i + 1);
+                switch (escaped) {
+                case 'e': members.append("\\x1b"); i += 2; break;
+                case 't': members.append("\\t"); i += 2; break;
+                case 'r': members.append("\\r"); i += 2; break;
+                case 'n': members.append("\\n"); i += 2; break;
+                case '\\': members.append("\\\\"); i += 2; break;
+                case ']': members.append("\\]"); i += 2; break;
+                case '^': members.append("\\^"); i += 2; break;
+                case '-': members.append("\\-"); i += 2; break;
+                default:
+                    // Vim takes the backslash literally.
+                    members.append("\\\\");
+                    i++;
+                }
+            } else {
+                if (c == '[' || c == '&') {
+                    members.append('\\');
+                }
+                members.append(c);
+                i++;
+            }
+        }
+        if (i >= source.length()) {
+            // Without a closing bracket, Vim matches '[' literally.
+            appendLiteral('[');
+            return;
+        }
+        pos = i + 1;
+        out.append('[');
+        if (negated) {
+            out.append('^').append(members);
+            if ( ! withNewLine) {
+                out.append("\\r\\n");
+            }
+        } else {
+            out.append(members);
+            if (withNewLine) {
+                out.append("\\r\\n");
+            }
+        }
+        out.append(']');
+    }
+
+    private String posixClass(String name) {
+        if (name.equals("alnum")) return "\\p{Alnum}";
+        if (name.equals("alpha")) return "\\p{Alpha}";
+        if (name.equals("blank")) return " \\t";
+        if (name.equals("cntrl")) return "\\p{Cntrl}";
+        if (name.equals("digit")) return "0-9";
+        if (name.equals("graph")) return "\\p{Graph}";
+        if (name.equals("lower")) return "\\p{Lower}";
+        if (name.equals("print")) return "\\p{Print}";
+        if (name.equals("punct")) return "\\p{Punct}";
+        if (name.equals("space")) return "\\s";
+        if (name.equals("upper")) return "\\p{Upper}";
+        if (name.equals("xdigit")) return "\\p{XDigit}";
+        throw error("Unknown character class [:" + name + ":]");
+    }
+
+    /** Handles the items starting with <tt>\%</tt>, the percent sign has been read. */
+    private void percentItem() {
+        if (pos >= source.length()) {
+            throw error("Incomplete item \\%");
+        }
+        char c = source.charAt(pos++);
+        switch (c) {
+        case '(':
+            depth++;
+            out.append("(?:");
+            branchStart = true;
+            return;
+        case 'V':
+            visualArea = true;
+            return;
+        case '^':
+            out.append("\\A");
+            break;
+        case '$':
+            out.append("\\z");
+            break;
+        case 'd':
+            appendCodePoint(10, 10);
+            break;
+        case 'x':
+            appendCodePoint(16, 2);
+            break;
+        case 'u':
+            appendCodePoint(16, 4);
+            break;
+        default:
+            throw error("Unsupported item \\%" + c);
+        }
+        branchStart = false;
+    }
+
+    private void appendCodePoint(int radix, int maxDigits) {
+        int start = pos;
+        while (pos < source.length() && pos - start < maxDigits
+                && Character.digit(source.charAt(pos), radix) >= 0) {
+            pos++;
+        }
+        if (pos == start) {
+            throw error("Missing number");
+        }
+        int codePoint = Integer.parseInt(source.substring(start, pos), radix);
+        if (codePoint > 0xffff) {
+            throw error("Character out of range");
+        }
+        out.append(String.format("\\u%04x", codePoint));
+    }
+
+    //
+    // Shared helpers
+    //
+
+    /** Translates <tt>\{n,m}</tt>, the opening brace has been read. */
+    private void braceQuantifier() {
+        int end = source.indexOf('}', pos);
+        if (end < 0) {
+            throw error("Missing }");
+        }
+        String body = source.substring(pos, end);
+        pos = end + 1;
+        if (body.endsWith("\\")) {
+            body = body.substring(0, body.length() - 1);
+        }
+        boolean lazy = body.startsWith("-");
+        if (lazy) {
+            body = body.substring(1);
+        }
+        if ( ! body.matches("\\d*(,\\d*)?")) {
+            throw error("Invalid repetition {" + body + "}");
+        }
+        int comma = body.indexOf(',');
+        if (body.length() == 0 || body.equals(",")) {
+            out.append('*');
+        } else if (comma < 0) {
+            out.append('{').append(body).append('}');
+        } else {
+            out.append('{').append(comma == 0 ? "0" : body.substring(0, comma))
+                    .append(',').append(body.substring(comma + 1)).append('}');
+        }
+        if (lazy) {
+            out.append('?');
+        }
+    }
+
+    private void startOfWord() {
+        out.append("\\b(?=\\w)");
+    }
+
+    private void endOfWord() {
+        out.append("\\b(?<=\\w)");
+    }
+
+    private void backReference(int group) {
+        int javaGroup = zsGroup > 0 && group >= zsGroup ? group + 1 : group;
+        out.append("(?:\\").append(javaGroup).append(')');
+    }
+
+    private int userGroups() {
+        return zsGroup > 0 ? groups - 1 : groups;
+    }
+
+    private void alternative() {
+        if (depth == 0) {
+            closeMatchGroups();
+        }
+        out.append('|');
+        branchStart = true;
+    }
+
+    private void startMatch() {
+        if (depth > 0) {
+            throw error("\\zs is only supported outside of groups");
+        }
+        if (zsGroup > 0 || zeOpen) {
+            throw error("\\zs can only be used once, before \\ze");
+        }
+        groups++;
+        zsGroup = groups;
+        zsOpen = true;
+        out.append('(');
+    }
+
+    private void endMatch() {
+        if (depth > 0) {
+            throw error("\\ze is only supported outside of groups");
+        }
+        if (zeOpen) {
+            throw error("\\ze can only be used once");
+        }
+        zeOpen = true;
+        out.append("(?=");
+    }
+
+    private void closeMatchGroups() {
+        if (zeOpen) {
+            out.append(')');
+            zeOpen = false;
+        }
+        if (zsOpen) {
+            out.append(')');
+            zsOpen = false;
+        }
+    }
+
+    private void appendLiteral(char c) {
+        if (JAVA_META.indexOf(c) >= 0) {
+            out.append('\\');
+        }
+        out.append(c);
+    }
+
+    private PatternSyntaxException error(String description) {
+        return new PatternSyntaxException(description, source, pos - 1);
+    }
+
+    private static class Key {
+        private final String pattern;
+        private final boolean caseSensitive;
+        private final int flags;
+
+        public Key(String pattern, boolean caseSensitive, int flags) {
+            this.pattern = pattern;
+            this.caseSensitive = caseSensitive;
+            this.flags = flags;
+        }
+
+        @Override
+        public int hashCode() {
+            return (pattern.hashCode() * 31 + flags) * 2 + (caseSensitive ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if ( ! (obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return pattern.equals(other.pattern) && caseSensitive == other.caseSensitive
+                    && flags == other.flags;
+        }
+    }
+}
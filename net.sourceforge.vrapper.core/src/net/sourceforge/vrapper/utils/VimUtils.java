@@ -7,13 +7,11 @@ import java.util.Set;
 import java.util.regex.Pattern;
 
 import net.sourceforge.vrapper.keymap.KeyStroke;
-import net.sourceforge.vrapper.keymap.vim.SimpleKeyStroke;
+import net.sourceforge.vrapper.keymap.vim.KeyStrokes;
 import net.sourceforge.vrapper.platform.CursorService;
-import net.sourceforge.vrapper.platform.SearchAndReplaceService;
 import net.sourceforge.vrapper.platform.SimpleConfiguration.NewLine;
 import net.sourceforge.vrapper.platform.TextContent;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
-import net.sourceforge.vrapper.vim.Options;
 import net.sourceforge.vrapper.vim.VimConstants;
 import net.sourceforge.vrapper.vim.commands.Utils;
 
@@ -133,13 +131,13 @@ public class VimUtils {
         int max = line.getEndOffset();
         int first = -1;
         int last = -1;
-        String s;
+        CharCursor chars = new CharCursor(p, index);
         boolean found = false;
-        String keywords = wholeWord ? "\\S" : editorAdaptor.getConfiguration().get(Options.KEYWORDS);
+        KeywordCharacterClass keywords = wholeWord ? KeywordCharacterClass.NON_BLANK
+                : editorAdaptor.getConfiguration().getKeywordCharacterClass();
 
         if (index < max) {
-            s = p.getText(index, 1);
-            if (Utils.characterType(s.charAt(0), keywords) == Utils.WORD) {
+            if (Utils.characterType(chars.charAt(index), keywords) == Utils.WORD) {
                 found = true;
                 first = index;
                 last = index;
@@ -147,8 +145,7 @@ public class VimUtils {
         }
         while (index < max-1) {
             index += 1;
-            s = p.getText(index, 1);
-            if(Utils.characterType(s.charAt(0), keywords) == Utils.WORD) {
+            if(Utils.characterType(chars.charAt(index), keywords) == Utils.WORD) {
                 last = index;
                 if(!found) {
                     first = index;
@@ -162,8 +159,7 @@ public class VimUtils {
             index = first;
             while (index > min) {
                 index -= 1;
-                s = p.getText(index, 1);
-                if(Utils.characterType(s.charAt(0), keywords) == Utils.WORD) {
+                if(Utils.characterType(chars.charAt(index), keywords) == Utils.WORD) {
                     first = index;
                 } else {
                     break;
@@ -331,19 +327,6 @@ public class VimUtils {
         return Collections.unmodifiableSet(new HashSet<T>(Arrays.asList(content)));
     }
 
-    public static SearchResult wrapAroundSearch(final EditorAdaptor vim, final Search search,
-            final Position position) {
-        final SearchAndReplaceService searcher = vim.getSearchAndReplaceService();
-        SearchResult result = searcher.find(search, position);
-        if (!result.isFound() && vim.getConfiguration().get(Options.WRAP_SCAN)) {
-            // redo search from beginning / end of document
-            final TextContent p = vim.getModelContent();
-            final int index = search.isBackward() ? p.getLineInformation(p.getNumberOfLines()-1).getEndOffset()-1 : 0;
-            result = searcher.find(search, position.setModelOffset(index));
-        }
-        return result;
-    }
-    
     /**
      * Vim doesn't start a delimited range on a newline or end a range on an
      * empty line (try 'vi{' while within a function for proof).
@@ -401,9 +384,9 @@ public class VimUtils {
 
         // Turn off control and alt key bits.
         if (key.getSpecialKey() == null) {
-            return new SimpleKeyStroke(key.getCharacter(), key.withShiftKey(), false, false);
+            return KeyStrokes.get(key.getCharacter(), key.withShiftKey(), false, false);
         } else {
-            return new SimpleKeyStroke(key.getSpecialKey(), key.withShiftKey(), false, false);
+            return KeyStrokes.get(key.getSpecialKey(), key.withShiftKey(), false, false);
         }
     }
     
@@ -0,0 +1,301 @@
+package net.sourceforge.vrapper.vim;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.vrapper.keymap.KeyStroke;
+import net.sourceforge.vrapper.keymap.vim.ConstructorWrappers;
+import net.sourceforge.vrapper.keymap.vim.KeyStrokes;
+import net.sourceforge.vrapper.vim.modes.CommandBasedMode;
+import net.sourceforge.vrapper.vim.modes.EditorMode;
+
+/**
+ * The keys of a macro together with what they did when the macro was played for the first time.
+ * <p>
+ * Playing a macro key by key means looking up every key in the mappings of the current mode, on
+ * every playback. So while a macro is played for the first time, the keys of each command
+ * executed by normal or visual mode and each key handled by another mode are recorded as a step,
+ * together with the mode which handled them. Later playbacks hand the keys of a step straight to
+ * its mode, which parses and executes them like typed keys. The mappings and options of the
+ * editor are not allowed to change in between, otherwise the macro is recorded again.
+ * <p>
+ * A step only replaces keys which start and end with no mapping or command pending and which
+ * resulted in exactly one command, or in one key for a mode other than normal and visual mode.
+ * Keys which went through a mapping or started another macro stay keys. Before each key of a step
+ * the current mode is compared to the recorded one. When they differ, because a command had
+ * another effect this time, the rest of the macro is played key by key.
+ */
+public class CompiledMacro {
+
+    /** How many macros an editor keeps, the least recently used one is dropped first. */
+    private static final int CACHE_SIZE = 32;
+
+    private final String text;
+    private final KeyStroke[] keys;
+    /** Edits of the mappings and options of the editor when the macro was recorded. */
+    private int generation;
+    /** Recorded steps, <code>null</code> if the macro is played as keys. */
+    private Step[] steps;
+    private int stepCount;
+    /** Whether the macro was played once, so it was either recorded or is played as keys. */
+    private boolean played;
+    private boolean recording;
+    /** First key of the steps being recorded. */
+    private int spanStart;
+    /** Number of steps recorded since {@link #spanStart}. */
+    private int spanSteps;
+    /** Whether the keys since {@link #spanStart} must stay keys. */
+    private boolean spanIsKeys;
+    /** Keys handed to a mode since the last step was recorded. */
+    private final List<KeyStroke> modeKeys = new ArrayList<KeyStroke>();
+
+    /**
+     * Creates a macro which is compiled when it is played for the first time.
+     * @param text the keys in the notation of {@link ConstructorWrappers#parseKeyStrokes(String)}.
+     */
+    public CompiledMacro(String text) {
+        this.text = text;
+        keys = toArray(ConstructorWrappers.parseKeyStrokes(text));
+    }
+
+    /**
+     * Creates a macro which is always played key by key.
+     */
+    public CompiledMacro(Iterable<KeyStroke> keys) {
+        text = null;
+        this.keys = toArray(keys);
+        played = true;
+    }
+
+    /**
+     * @return whether this macro was made from <tt>text</tt> and can still be played from its
+     *      steps in the given editor.
+     */
+    public boolean isCompiledFrom(String text, EditorAdaptor editorAdaptor) {
+        return text.equals(this.text) && ( ! played || isUpToDate(editorAdaptor));
+    }
+
+    /**
+     * Plays the macro, recording its steps if it is played for the first time. Should only be
+     * called by the {@link MacroPlayer}.
+     */
+    void play(DefaultEditorAdaptor editorAdaptor) {
+        CompiledMacro outer = editorAdaptor.compilingMacro;
+        if (outer != null) {
+            // Keys starting another macro can't be replaced by a step.
+            outer.keepKeys();
+        }
+        editorAdaptor.compilingMacro = null;
+        try {
+            if ( ! played && ! recording && editorAdaptor.isReadyForMacroStep()) {
+                record(editorAdaptor);
+            } else if (steps != null && ! recording && isUpToDate(editorAdaptor)) {
+                replay(editorAdaptor);
+            } else {
+                playKeys(editorAdaptor, 0, keys.length);
+            }
+        } finally {
+            editorAdaptor.compilingMacro = outer;
+        }
+    }
+
+    /**
+     * Handles a key while the steps are recorded. Should only be called by the
+     * {@link EditorAdaptor} for keys which didn't go through a mapping.
+     */
+    boolean handleKey(EditorMode mode, KeyStroke key) {
+        boolean handled = mode.handleKey(key);
+        modeKeys.add(key);
+        if (mode instanceof CommandBasedMode) {
+            CommandBasedMode commandMode = (CommandBasedMode) mode;
+            if (commandMode.isCommandExecuted()) {
+                if (commandMode.isCommandPending()) {
+                    keepKeys();
+                } else {
+                    addModeStep(mode);
+                }
+            }
+        } else {
+            addModeStep(mode);
+        }
+        return handled;
+    }
+
+    private void addModeStep(EditorMode mode) {
+        addStep(new Step(spanStart, mode, modeKeys.toArray(new KeyStroke[modeKeys.size()])));
+        modeKeys.clear();
+        spanSteps++;
+    }
+
+    /**
+     * Marks the keys handled since the last step as keys which must be played as they are.
+     */
+    void keepKeys() {
+        spanIsKeys = true;
+    }
+
+    private boolean isUpToDate(EditorAdaptor editorAdaptor) {
+        return generation == generationOf(editorAdaptor);
+    }
+
+    private static int generationOf(EditorAdaptor editorAdaptor) {
+        // Neither count goes down, so an edit of either changes the sum.
+        return editorAdaptor.getConfiguration().getGeneration()
+                + editorAdaptor.getKeyMapProvider().getGeneration();
+    }
+
+    private void record(DefaultEditorAdaptor editorAdaptor) {
+        played = true;
+        recording = true;
+        generation = generationOf(editorAdaptor);
+        steps = new Step[8];
+        stepCount = 0;
+        spanStart = 0;
+        spanSteps = 0;
+        spanIsKeys = false;
+        modeKeys.clear();
+        boolean compiled = false;
+        editorAdaptor.compilingMacro = this;
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                if (i > spanStart && editorAdaptor.isReadyForMacroStep()) {
+                    endSpan(i);
+                }
+                editorAdaptor.handleKeyOffRecord(keys[i]);
+            }
+            if ( ! editorAdaptor.isReadyForMacroStep()) {
+                keepKeys();
+            }
+            endSpan(keys.length);
+            // The steps are only valid if the macro itself didn't change mappings or options.
+            compiled = isUpToDate(editorAdaptor) && (stepCount > 1 || stepCount == 1 && steps[0].mode != null);
+        } finally {
+            recording = false;
+            modeKeys.clear();
+            if ( ! compiled) {
+                steps = null;
+                stepCount = 0;
+            }
+        }
+    }
+
+    private void endSpan(int end) {
+        if (spanIsKeys || spanSteps != 1) {
+            stepCount -= spanSteps;
+            for (int i = 0; i < spanSteps; i++) {
+                steps[stepCount + i] = null;
+            }
+            Step last = stepCount > 0 ? steps[stepCount - 1] : null;
+            if (last != null && last.mode == null) {
+                last.end = end;
+            } else {
+                Step keysStep = new Step(spanStart, null, null);
+                keysStep.end = end;
+                addStep(keysStep);
+            }
+        }
+        spanStart = end;
+        spanSteps = 0;
+        spanIsKeys = false;
+        modeKeys.clear();
+    }
+
+    private void replay(DefaultEditorAdaptor editorAdaptor) {
+        Step[] steps = this.steps;
+        int stepCount = this.stepCount;
+        for (int i = 0; i < stepCount; i++) {
+            Step step = steps[i];
+            if (step.mode == null) {
+                playKeys(editorAdaptor, step.start, step.end);
+                continue;
+            }
+            if ( ! editorAdaptor.isReadyForMacroStep()) {
+                playKeys(editorAdaptor, step.start, keys.length);
+                return;
+            }
+            // Without mappings the keys of a step correspond to the macro keys one by one.
+            for (int j = 0; j < step.keys.length; j++) {
+                if (editorAdaptor.currentMode != step.mode) {
+                    // A command had another effect than on the first playback.
+                    playKeys(editorAdaptor, step.start + j, keys.length);
+                    return;
+                }
+                step.mode.handleKey(step.keys[j]);
+            }
+            editorAdaptor.playQueuedMacro();
+        }
+    }
+
+    private void playKeys(DefaultEditorAdaptor editorAdaptor, int start, int end) {
+        for (int i = start; i < end; i++) {
+            editorAdaptor.handleKeyOffRecord(keys[i]);
+        }
+    }
+
+    private void addStep(Step step) {
+        if (stepCount == steps.length) {
+            Step[] grown = new Step[steps.length * 2];
+            System.arraycopy(steps, 0, grown, 0, stepCount);
+            steps = grown;
+        }
+        steps[stepCount++] = step;
+    }
+
+    private static KeyStroke[] toArray(Iterable<KeyStroke> keys) {
+        List<KeyStroke> list = new ArrayList<KeyStroke>();
+        for (KeyStroke key : keys) {
+            list.add(KeyStrokes.remapped(key, true));
+        }
+        return list.toArray(new KeyStroke[list.size()]);
+    }
+
+    /**
+     * The keys of a command or a key for a mode, handed to the mode directly, which replace the
+     * keys starting at <tt>start</tt>. Or keys from <tt>start</tt> to <tt>end</tt> which are
+     * played as they are if <tt>mode</tt> is <code>null</code>.
+     */
+    private static class Step {
+        final int start;
+        int end;
+        final EditorMode mode;
+        final KeyStroke[] keys;
+
+        Step(int start, EditorMode mode, KeyStroke[] keys) {
+            this.start = start;
+            this.mode = mode;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * The macros of an editor, by their keys.
+     */
+    static class Cache extends LinkedHashMap<String, CompiledMacro> {
+
+        private static final long serialVersionUID = 1L;
+
+        Cache() {
+            super(16, 0.75f, true);
+        }
+
+        /**
+         * @return the macro with the given keys, compiled if it was played before and the
+         *      mappings and options of the editor didn't change since.
+         */
+        CompiledMacro lookup(String text, EditorAdaptor editorAdaptor) {
+            CompiledMacro macro = get(text);
+            if (macro == null || ! macro.isCompiledFrom(text, editorAdaptor)) {
+                macro = new CompiledMacro(text);
+                put(text, macro);
+            }
+            return macro;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledMacro> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    }
+}
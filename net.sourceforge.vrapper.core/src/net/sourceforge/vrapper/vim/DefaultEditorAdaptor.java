@@ -7,16 +7,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 import net.sourceforge.vrapper.keymap.KeyMap;
 import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.keymap.SpecialKey;
-import net.sourceforge.vrapper.keymap.vim.SimpleKeyStroke;
+import net.sourceforge.vrapper.keymap.vim.KeyStrokes;
 import net.sourceforge.vrapper.log.VrapperLog;
 import net.sourceforge.vrapper.platform.BufferAndTabService;
 import net.sourceforge.vrapper.platform.CommandLineUI;
@@ -53,6 +53,7 @@ import net.sourceforge.vrapper.vim.commands.YankOperation;
 import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
 import net.sourceforge.vrapper.vim.modes.AbstractVisualMode;
 import net.sourceforge.vrapper.vim.modes.BlockwiseVisualMode;
+import net.sourceforge.vrapper.vim.modes.CommandBasedMode;
 import net.sourceforge.vrapper.vim.modes.ConfirmSubstitutionMode;
 import net.sourceforge.vrapper.vim.modes.ContentAssistMode;
 import net.sourceforge.vrapper.vim.modes.EditorMode;
@@ -84,10 +85,12 @@ public class DefaultEditorAdaptor implements EditorAdaptor {
 
     private static final String CONFIG_FILE_NAME = ".vrapperrc";
     private static final String WINDOWS_CONFIG_FILE_NAME = "_vrapperrc";
+    /** Like Vim's 'maxmapdepth', stops recursive mappings. */
+    private static final int MAX_MAPPING_DEPTH = 1000;
     protected EditorMode currentMode;
     private final Map<String, EditorMode> modeMap = new HashMap<String, EditorMode>();
-    private final TextContent modelContent;
-    private final TextContent viewContent;
+    private final UnmodifiableTextContentDecorator modelContent;
+    private final UnmodifiableTextContentDecorator viewContent;
     private final CursorService cursorService;
     private final SelectionService selectionService;
     private final FileService fileService;
@@ -109,6 +112,11 @@ public class DefaultEditorAdaptor implements EditorAdaptor {
     private final HighlightingService highlightingService;
     private MacroRecorder macroRecorder;
     private MacroPlayer macroPlayer;
+    private final CompiledMacro.Cache compiledMacros = new CompiledMacro.Cache();
+    /** Macro whose steps are being recorded, see {@link CompiledMacro}. */
+    CompiledMacro compilingMacro;
+    /** Owner of the lock which keeps the mode shown in the status line, or <code>null</code>. */
+    private Object modeDisplayLock;
     private String lastModeName;
     private String editorType;
     private VrapperEventListeners listeners;
@@ -116,6 +124,18 @@ public class DefaultEditorAdaptor implements EditorAdaptor {
     private Selection lastSelection;
     private SearchResult searchResult;
     private int cursorBeforeMapping = -1;
+    /** Keys of mappings waiting to be played, see {@link #playMappingResult()}. */
+    private final ArrayDeque<RemappedKeyStroke> typeahead = new ArrayDeque<RemappedKeyStroke>();
+    private boolean playingMappings;
+    private int nestedMappings;
+    private Runnable mappingTimeout;
+    private boolean mappingTimeoutScheduled;
+    /** Set while a macro lets the user interface dispatch events, see {@link #pollInterrupt()}. */
+    private boolean pollingInterrupt;
+    /** Keys typed while a macro was played, handled once it is done. */
+    private final ArrayDeque<KeyStroke> polledKeys = new ArrayDeque<KeyStroke>();
+    private Runnable polledKeysHandler;
+    private boolean polledKeysScheduled;
 
 
     public DefaultEditorAdaptor(final Platform editor, final RegisterManager registerManager, final boolean isActive) {
@@ -380,7 +400,7 @@ public class DefaultEditorAdaptor implements EditorAdaptor {
             	currentMode = newMode;
             	newMode.enterMode(args);
             	//EditorMode might have called changeMode again, so update UI with actual mode.
-            	userInterfaceService.setEditorMode(currentMode.getDisplayName());
+            	showCurrentMode();
             	listeners.fireModeSwitched(oldMode);
             }
             catch(final CommandExecutionException e) {
@@ -389,7 +409,7 @@ public class DefaultEditorAdaptor implements EditorAdaptor {
             	currentMode = oldMode;
             	oldMode.enterMode();
             	//EditorMode might have called changeMode again, so update UI with actual mode.
-            	userInterfaceService.setEditorMode(currentMode.getDisplayName());
+            	showCurrentMode();
             	listeners.fireModeSwitched(oldMode);
             	throw e;
             }
@@ -399,22 +419,61 @@ public class DefaultEditorAdaptor implements EditorAdaptor {
                 currentMode = oldMode;
                 oldMode.enterMode();
                 //EditorMode might have called changeMode again, so update UI with actual mode.
-                userInterfaceService.setEditorMode(currentMode.getDisplayName());
+                showCurrentMode();
                 listeners.fireModeSwitched(oldMode);
                 throw e;
             }
         }
     }
 
+    /**
+     * Keeps the mode shown in the status line until {@link #unlockModeDisplay(Object)} is called
+     * with the same owner, so switching modes many times doesn't update it each time.
+     */
+    void lockModeDisplay(final Object lock) {
+        if (modeDisplayLock == null) {
+            modeDisplayLock = lock;
+        }
+    }
+
+    void unlockModeDisplay(final Object lock) {
+        if (modeDisplayLock == lock) {
+            modeDisplayLock = null;
+            if (currentMode != null) {
+                showCurrentMode();
+            }
+        }
+    }
+
+    private void showCurrentMode() {
+        if (modeDisplayLock == null) {
+            userInterfaceService.setEditorMode(currentMode.getDisplayName());
+        }
+    }
+
     @Override
     public boolean handleKey(final KeyStroke key) {
+        if (pollingInterrupt) {
+            //typed while a macro is played, it is handled when the macro is done
+            polledKeys.add(key);
+            return true;
+        }
         macroRecorder.handleKey(key);
         return handleKeyOffRecord(key);
     }
 
     @Override
     public boolean handleKeyOffRecord(final KeyStroke key) {
+        if (pollingInterrupt) {
+            //dispatched while a macro looks for an interrupt, it must not run inside the macro
+            return true;
+        }
         final boolean result = handleKey0(key);
+        playQueuedMacro();
+        return result;
+    }
+
+    void playQueuedMacro() {
         if (macroPlayer != null) {
             // while playing back one macro, another macro might be called
             // recursively. we need a fresh macro player for that.
@@ -422,7 +481,64 @@ public class DefaultEditorAdaptor implements EditorAdaptor {
             macroPlayer = null;
             player.play();
         }
-        return result;
+    }
+
+    /**
+     * Lets the user interface dispatch pending events while a macro is played, see
+     * {@link UserInterfaceService#pollInterrupt()}. Keys and the mapping timeout which are
+     * dispatched meanwhile are put off, they would otherwise run in the middle of the macro. The
+     * keys are handled after the macro, unless the user interrupted it, which drops them like
+     * Vim drops its typeahead.
+     *
+     * @return whether the user asked to stop.
+     */
+    boolean pollInterrupt() {
+        boolean interrupted = false;
+        pollingInterrupt = true;
+        try {
+            interrupted = userInterfaceService.pollInterrupt();
+            return interrupted;
+        } finally {
+            pollingInterrupt = false;
+            if (interrupted) {
+                polledKeys.clear();
+            } else if ( ! polledKeys.isEmpty()) {
+                schedulePolledKeys();
+            }
+        }
+    }
+
+    /**
+     * Handles the keys typed during a macro once the UI thread is free again. The runnable only
+     * gets to run while a macro dispatches events or after it is done.
+     */
+    private void schedulePolledKeys() {
+        if (polledKeysScheduled) {
+            return;
+        }
+        if (polledKeysHandler == null) {
+            polledKeysHandler = new Runnable() {
+                public void run() {
+                    polledKeysScheduled = false;
+                    if (pollingInterrupt) {
+                        //still inside the macro, pollInterrupt() schedules us again
+                        return;
+                    }
+                    while ( ! polledKeys.isEmpty()) {
+                        handleKey(polledKeys.pollFirst());
+                    }
+                }
+            };
+        }
+        polledKeysScheduled = true;
+        userInterfaceService.asyncExec(polledKeysHandler);
+    }
+
+    /**
+     * @return a number which changes whenever the text is changed.
+     */
+    long getModificationStamp() {
+        return modelContent.getModificationStamp() + viewContent.getModificationStamp();
     }
 
     @Override
@@ -590,7 +706,7 @@ public class DefaultEditorAdaptor implements EditorAdaptor {
     @Override
     public MacroPlayer getMacroPlayer() {
         if (macroPlayer == null) {
-            macroPlayer = new MacroPlayer(this);
+            macroPlayer = new MacroPlayer(this, compiledMacros);
         }
         return macroPlayer;
     }
@@ -618,80 +734,166 @@ public class DefaultEditorAdaptor implements EditorAdaptor {
      */
     private boolean handleKey0(KeyStroke key) {
         if (currentMode != null) {
+            cancelMappingTimeout();
             KeyMap map = null;
             String keyMapName = currentMode.resolveKeyMap(key);
             if (keyMapName != null) {
                 map = keyMapProvider.getKeyMap(keyMapName);
             }
-            if (map != null) {
-                final boolean inMapping = keyStrokeTranslator.processKeyStroke(map, key);
-                if (inMapping) {
-                    final Queue<RemappedKeyStroke> resultingKeyStrokes =
-                        keyStrokeTranslator.resultingKeyStrokes();
-                    //if we're in a mapping in InsertMode, display the pending characters
-                    //(we'll delete them if the user completes the mapping)
-                    if(currentMode.getName() == InsertMode.NAME) {
-                        if(cursorBeforeMapping == -1) {
-                            //keep track of where the cursor is at the start of a mapping
-                            //so we can delete the pending characters if the mapping completes
-                            cursorBeforeMapping = cursorService.getPosition().getModelOffset();
-                        }
-                    	//display pending character
-                    	if(resultingKeyStrokes.isEmpty()) {
-                    		return currentMode.handleKey(key);
-                    	}
-                    	//there are resulting key strokes,
-                    	//mapping exited either successfully or unsuccessfully.
-                    	//do we have pending characters to delete?
-                    	else if(cursorService.getPosition().getModelOffset() - cursorBeforeMapping > 0) {
-                    	    int pendingChars = cursorService.getPosition().getModelOffset() - cursorBeforeMapping;
-                    	    //prepare for next mapping
-                    	    cursorBeforeMapping = -1;
-                    		if(keyStrokeTranslator.didMappingSucceed()) {
-                    			//delete all the pending characters we had displayed
-                    			for(int i=0; i < pendingChars; i++) {
-                    				currentMode.handleKey(new RemappedKeyStroke(new SimpleKeyStroke(SpecialKey.BACKSPACE), false));
-                    			}
-                    		}
-                    		else {
-                    			//we've already displayed all but this most recent key
-
-                    			//mapping failed though, check if key is in global map.
-                    			if (KeyMap.GLOBAL_MAP.containsKey(key)) {
-                    				key = new RemappedKeyStroke(KeyMap.GLOBAL_MAP.get(key), false);
-                    			}
-                    			return currentMode.handleKey(key);
-                    		}
-                    	}
-                    	//else, mapping is only one character long (no pending characters to remove)
-                    	
-                    	//prepare for next mapping
-                    	cursorBeforeMapping = -1;
-                    } else if (resultingKeyStrokes.isEmpty()) {
-                        currentMode.addKeyToMapBuffer(key);
-                    } else {
-                        currentMode.cleanMapBuffer(keyStrokeTranslator.didMappingSucceed());
-                    }
-                    //play all resulting key strokes
-                    while (!resultingKeyStrokes.isEmpty()) {
-                        final RemappedKeyStroke next = resultingKeyStrokes.poll();
-                        if (next.isRecursive()) {
-                            handleKey(next);
-                        } else {
-                            currentMode.handleKey(next);
-                        }
-                    }
-                    return true;
+            if (map != null && keyStrokeTranslator.processKeyStroke(map, key)) {
+                if (compilingMacro != null) {
+                    compilingMacro.keepKeys();
                 }
+                boolean handled = handleMappedKey(key);
+                scheduleMappingTimeout();
+                return handled;
             }
-            if (KeyMap.GLOBAL_MAP.containsKey(key)) {
-                key = new RemappedKeyStroke(KeyMap.GLOBAL_MAP.get(key), false);
+            if (compilingMacro != null) {
+                return compilingMacro.handleKey(currentMode, globalMapped(key));
             }
-            return currentMode.handleKey(key);
+            return currentMode.handleKey(globalMapped(key));
         }
         return false;
     }
 
+    /**
+     * @return whether neither a mapping nor a command is pending, so a step of a
+     *      {@link CompiledMacro} can be played.
+     */
+    boolean isReadyForMacroStep() {
+        return currentMode != null && ! keyStrokeTranslator.isPending()
+                && ! (currentMode instanceof CommandBasedMode
+                        && ((CommandBasedMode) currentMode).isCommandPending());
+    }
+
+    /**
+     * Handles a key which was taken by the {@link KeyStrokeTranslator}, or a timed out mapping if
+     * <tt>key</tt> is <tt>null</tt>.
+     */
+    private boolean handleMappedKey(KeyStroke key) {
+        boolean insertMode = currentMode.getName() == InsertMode.NAME;
+        if (keyStrokeTranslator.isPending()) {
+            if (insertMode) {
+                //if we're in a mapping in InsertMode, display the pending characters
+                //(we'll delete them if the user completes the mapping)
+                if (cursorBeforeMapping == -1) {
+                    cursorBeforeMapping = cursorService.getPosition().getModelOffset();
+                }
+                return currentMode.handleKey(key);
+            }
+            currentMode.addKeyToMapBuffer(key);
+            return true;
+        }
+        if (insertMode) {
+            //mapping exited either successfully or unsuccessfully.
+            //do we have pending characters to delete?
+            int pendingChars = 0;
+            if (cursorBeforeMapping != -1) {
+                pendingChars = cursorService.getPosition().getModelOffset() - cursorBeforeMapping;
+                cursorBeforeMapping = -1;
+            }
+            if (pendingChars > 0) {
+                if ( ! keyStrokeTranslator.didMappingSucceed()) {
+                    //we've already displayed all but this most recent key
+                    return key == null || currentMode.handleKey(globalMapped(key));
+                }
+                //delete all the pending characters we had displayed
+                KeyStroke backspace = KeyStrokes.remapped(KeyStrokes.get(SpecialKey.BACKSPACE), false);
+                for (int i = 0; i < pendingChars; i++) {
+                    currentMode.handleKey(backspace);
+                }
+            }
+        } else {
+            currentMode.cleanMapBuffer(keyStrokeTranslator.didMappingSucceed());
+        }
+        playMappingResult();
+        return true;
+    }
+
+    /**
+     * Plays the keys resulting from a mapping. They go in front of the keys still waiting from
+     * an outer mapping, which is played by the outermost call only.
+     */
+    private void playMappingResult() {
+        if (playingMappings) {
+            if (++nestedMappings > MAX_MAPPING_DEPTH) {
+                typeahead.clear();
+                userInterfaceService.setErrorMessage("E223: recursive mapping");
+                return;
+            }
+        }
+        for (int i = keyStrokeTranslator.getResultCount() - 1; i >= 0; i--) {
+            typeahead.addFirst(keyStrokeTranslator.getResult(i));
+        }
+        if (playingMappings) {
+            return;
+        }
+        playingMappings = true;
+        nestedMappings = 0;
+        try {
+            while ( ! typeahead.isEmpty()) {
+                final RemappedKeyStroke next = typeahead.pollFirst();
+                if (next.isRecursive()) {
+                    handleKey(next);
+                } else {
+                    currentMode.handleKey(next);
+                }
+            }
+        } finally {
+            typeahead.clear();
+            playingMappings = false;
+        }
+    }
+
+    private static KeyStroke globalMapped(KeyStroke key) {
+        KeyStroke global = KeyMap.GLOBAL_MAP.get(key);
+        return global != null ? KeyStrokes.remapped(global, false) : key;
+    }
+
+    /**
+     * Lets a pending mapping time out after <tt>timeoutlen</tt>, or <tt>ttimeoutlen</tt> if it
+     * starts with Escape and that is not negative.
+     */
+    private void scheduleMappingTimeout() {
+        if ( ! keyStrokeTranslator.isPending() || ! configuration.get(Options.TIMEOUT)) {
+            return;
+        }
+        int delay = configuration.get(Options.TIMEOUT_LEN);
+        if (keyStrokeTranslator.getFirstKey().getSpecialKey() == SpecialKey.ESC) {
+            int escapeDelay = configuration.get(Options.TTIMEOUT_LEN);
+            if (escapeDelay >= 0) {
+                delay = escapeDelay;
+            }
+        }
+        if (mappingTimeout == null) {
+            mappingTimeout = new Runnable() {
+                public void run() {
+                    mappingTimeoutScheduled = false;
+                    if (pollingInterrupt) {
+                        //a macro is being played, wait until it is done
+                        scheduleMappingTimeout();
+                        return;
+                    }
+                    if (currentMode != null && keyStrokeTranslator.isPending()) {
+                        keyStrokeTranslator.timeout();
+                        handleMappedKey(null);
+                        playQueuedMacro();
+                        scheduleMappingTimeout();
+                    }
+                }
+            };
+        }
+        mappingTimeoutScheduled = true;
+        userInterfaceService.timerExec(delay, mappingTimeout);
+    }
+
+    private void cancelMappingTimeout() {
+        if (mappingTimeoutScheduled) {
+            mappingTimeoutScheduled = false;
+            userInterfaceService.timerExec(-1, mappingTimeout);
+        }
+    }
+
     @Override
     public void onChangeEnabled(final boolean enabled) {
         // switch mode for set-up/tear-down
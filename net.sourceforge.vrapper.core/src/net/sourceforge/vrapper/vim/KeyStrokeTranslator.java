@@ -1,19 +1,20 @@
 package net.sourceforge.vrapper.vim;
 
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Queue;
-
 import net.sourceforge.vrapper.keymap.KeyMap;
 import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.keymap.Remapping;
 import net.sourceforge.vrapper.keymap.State;
 import net.sourceforge.vrapper.keymap.Transition;
+import net.sourceforge.vrapper.keymap.vim.KeyStrokes;
 
 /**
  * Determines whether keystrokes are part of a mapping or not and handles
  * the current state of multi-keystroke mappings.
+ * <p>
+ * The keystrokes resulting from a finished mapping can be read with {@link #getResultCount()}
+ * and {@link #getResult(int)} until the next keystroke is processed. A pending mapping which
+ * doesn't get another key is finished with {@link #timeout()}.
  *
  * @author Matthias Radig
  */
@@ -21,17 +22,16 @@ public class KeyStrokeTranslator {
 
     private State<Remapping> currentState;
     private Remapping lastValue;
-    private final List<RemappedKeyStroke> unconsumedKeyStrokes;
-    private final LinkedList<RemappedKeyStroke> resultingKeyStrokes;
+    private KeyStroke firstKey;
+    private RemappedKeyStroke[] unconsumedKeyStrokes = new RemappedKeyStroke[8];
+    private int unconsumedCount;
+    private RemappedKeyStroke[] resultingKeyStrokes = new RemappedKeyStroke[8];
+    private int resultCount;
     private boolean mappingSucceeded = false;
 
-    public KeyStrokeTranslator() {
-        unconsumedKeyStrokes = new LinkedList<RemappedKeyStroke>();
-        resultingKeyStrokes  = new LinkedList<RemappedKeyStroke>();
-    }
-
     public boolean processKeyStroke(KeyMap keymap, KeyStroke key) {
         Transition<Remapping> trans;
+        resultCount = 0;
         if (currentState == null) {
             trans = keymap.press(key);
             if (trans == null) {
@@ -39,8 +39,8 @@ public class KeyStrokeTranslator {
                 return false;
             }
             //begin new mapping, make sure values are reset
-            resultingKeyStrokes.clear();
-            unconsumedKeyStrokes.clear();
+            unconsumedCount = 0;
+            firstKey = key;
             mappingSucceeded = true;
         } else {
             trans = currentState.press(key);
@@ -50,61 +50,106 @@ public class KeyStrokeTranslator {
             if (trans.getValue() != null) {
             	//mapping completed successfully
                 lastValue = trans.getValue();
-                unconsumedKeyStrokes.clear();
+                unconsumedCount = 0;
             } else { //mapping pending
                 // as long as no preliminary result is found, keystrokes
                 // should not be evaluated again
-                boolean recursive = !unconsumedKeyStrokes.isEmpty() || lastValue != null;
-                unconsumedKeyStrokes.add(new RemappedKeyStroke(key, recursive));
+                boolean recursive = unconsumedCount > 0 || lastValue != null;
+                addUnconsumed(KeyStrokes.remapped(key, recursive));
             }
             if (trans.getNextState() == null) {
             	//mapping completed
-                prependLastValue();
-                currentState = null;
+                finish();
             } else {
             	//mapping still pending
                 currentState = trans.getNextState();
             }
         } else {
             // mapping was not completed
-            unconsumedKeyStrokes.add(new RemappedKeyStroke(key, true));
-            prependUnconsumed();
-            prependLastValue();
-            currentState = null;
+            addUnconsumed(KeyStrokes.remapped(key, true));
             mappingSucceeded = false;
+            finish();
         }
         return true;
     }
 
-    public Queue<RemappedKeyStroke> resultingKeyStrokes() {
-        return resultingKeyStrokes;
+    /**
+     * Finishes a pending mapping without waiting for more keys: the longest mapping found so far
+     * is used, the keys after it are played as they are.
+     */
+    public void timeout() {
+        resultCount = 0;
+        if (currentState != null) {
+            mappingSucceeded = lastValue != null;
+            finish();
+        }
+    }
+
+    /**
+     * @return whether more keys are needed to decide on a mapping.
+     */
+    public boolean isPending() {
+        return currentState != null;
+    }
+
+    /**
+     * @return the first key of the pending mapping or of the last one.
+     */
+    public KeyStroke getFirstKey() {
+        return firstKey;
+    }
+
+    public int getResultCount() {
+        return resultCount;
+    }
+
+    public RemappedKeyStroke getResult(int index) {
+        return resultingKeyStrokes[index];
     }
 
     public boolean didMappingSucceed() {
         return mappingSucceeded;
     }
 
-    private void prependUnconsumed() {
-        //Check if any unmatched keys are in the global map 
-        for (int i = 0; i < unconsumedKeyStrokes.size(); i++) {
-            KeyStroke key = unconsumedKeyStrokes.get(i);
-            if (KeyMap.GLOBAL_MAP.containsKey(key)) {
-                unconsumedKeyStrokes.set(i, new RemappedKeyStroke(KeyMap.GLOBAL_MAP.get(key), false));
+    /**
+     * Puts the keys of the last value found and then the unconsumed keys into the results.
+     */
+    private void finish() {
+        if (lastValue != null) {
+            boolean recursive = lastValue.isRecursive();
+            for (KeyStroke key : lastValue.getKeyStrokes()) {
+                addResult(KeyStrokes.remapped(key, recursive));
             }
+            lastValue = null;
+        }
+        //Check if any unmatched keys are in the global map
+        for (int i = 0; i < unconsumedCount; i++) {
+            RemappedKeyStroke key = unconsumedKeyStrokes[i];
+            KeyStroke global = KeyMap.GLOBAL_MAP.get(key);
+            addResult(global != null ? KeyStrokes.remapped(global, false) : key);
+            unconsumedKeyStrokes[i] = null;
         }
-        resultingKeyStrokes.addAll(0, unconsumedKeyStrokes);
-        unconsumedKeyStrokes.clear();
+        unconsumedCount = 0;
+        currentState = null;
     }
 
-    private void prependLastValue() {
-        if (lastValue == null) {
-            return;
+    private void addUnconsumed(RemappedKeyStroke key) {
+        if (unconsumedCount == unconsumedKeyStrokes.length) {
+            unconsumedKeyStrokes = grow(unconsumedKeyStrokes);
         }
-        boolean recursive = lastValue.isRecursive();
-        int i = 0;
-        for (KeyStroke key : lastValue.getKeyStrokes()) {
-            resultingKeyStrokes.add(i++, new RemappedKeyStroke(key, recursive));
+        unconsumedKeyStrokes[unconsumedCount++] = key;
+    }
+
+    private void addResult(RemappedKeyStroke key) {
+        if (resultCount == resultingKeyStrokes.length) {
+            resultingKeyStrokes = grow(resultingKeyStrokes);
         }
-        lastValue = null;
+        resultingKeyStrokes[resultCount++] = key;
+    }
+
+    private static RemappedKeyStroke[] grow(RemappedKeyStroke[] keys) {
+        RemappedKeyStroke[] grown = new RemappedKeyStroke[keys.length * 2];
+        System.arraycopy(keys, 0, grown, 0, keys.length);
+        return grown;
     }
 }
@@ -1,6 +1,7 @@
 package net.sourceforge.vrapper.vim;
 
 import net.sourceforge.vrapper.platform.Configuration;
+import net.sourceforge.vrapper.utils.KeywordCharacterClass;
 
 public interface LocalConfiguration extends Configuration {
 
@@ -12,4 +13,10 @@ public interface LocalConfiguration extends Configuration {
     public void addListener(ConfigurationListener listener);
 
     public void setListenersEnabled(boolean enabled);
+
+    /**
+     * Compiled version of the current {@link Options#KEYWORDS} value. The result is cached and
+     * only rebuilt when the option value changes.
+     */
+    public KeywordCharacterClass getKeywordCharacterClass();
 }
@@ -1,12 +1,18 @@
 package net.sourceforge.vrapper.vim;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Queue;
 
 import net.sourceforge.vrapper.keymap.KeyStroke;
+import net.sourceforge.vrapper.keymap.vim.ConstructorWrappers;
+import net.sourceforge.vrapper.platform.HistoryService;
+import net.sourceforge.vrapper.platform.UserInterfaceService;
 import net.sourceforge.vrapper.platform.ViewportService;
 import net.sourceforge.vrapper.vim.commands.PlaybackMacroCommand;
 import net.sourceforge.vrapper.vim.modes.EditorMode;
+import net.sourceforge.vrapper.vim.register.RegisterContent;
+import net.sourceforge.vrapper.vim.register.RegisterManager;
 
 /**
  * Handles playback of user-recorded macros.
@@ -15,35 +21,128 @@ import net.sourceforge.vrapper.vim.modes.EditorMode;
  * This is necessary because executing macros from a command would mean that
  * an {@link EditorMode}'s {@link EditorMode#handleKey(KeyStroke)} method
  * would be called recursivly, which results in undefined behaviour.
+ * <p>
+ * Macros added by their keys in text form are kept as {@link CompiledMacro}s, so playing them
+ * again doesn't parse their keys again.
+ * <p>
+ * A macro added with a count is played that many times, like Vim does it: when an iteration
+ * fails with an error, the remaining iterations and the rest of the playlist are dropped. When
+ * an iteration neither moves the cursor, nor changes the text, nor writes a register (all
+ * writes also reach the unnamed register), the next ones wouldn't either, so they are skipped.
+ * This is not what Vim does, it only stops at an error; a macro whose only effect is something
+ * else, like setting a mark or an option, is played just once. The whole playlist is one change
+ * for undo, the editor is repainted and the mode in the status line is updated once at the end.
+ * Long playbacks show their progress and can be interrupted with Escape or Control-C.
+ * <p>
+ * Commands which play the same macro many times, like <tt>:normal</tt> over a range of lines,
+ * put the playbacks between {@link #beginBatch()} and {@link #endBatch()} so they share the
+ * undo step, the repaint and the check for an interrupt.
  *
  * @author Matthias Radig
  */
 public class MacroPlayer {
 
-    private final Queue<KeyStroke> playlist;
-    private final EditorAdaptor editorAdaptor;
+    /** Nanoseconds between checks for an interrupt. */
+    private static final long CHECK_INTERVAL = 100000000L;
+    /** Progress is shown for playbacks running longer than this many nanoseconds. */
+    private static final long PROGRESS_DELAY = 500000000L;
 
-    MacroPlayer (EditorAdaptor editorAdaptor) {
+    private final Queue<Playback> playlist;
+    private final DefaultEditorAdaptor editorAdaptor;
+    private final CompiledMacro.Cache compiledMacros;
+    private long startTime;
+    private long nextCheck;
+    private boolean showingProgress;
+    private boolean interrupted;
+    private int batchDepth;
+
+    MacroPlayer (DefaultEditorAdaptor editorAdaptor, CompiledMacro.Cache compiledMacros) {
         this.editorAdaptor = editorAdaptor;
-        playlist = new LinkedList<KeyStroke>();
+        this.compiledMacros = compiledMacros;
+        playlist = new ArrayDeque<Playback>();
     }
 
     /**
      * Adds a key stroke to the playlist. May be called by commands.
      */
     public void add(KeyStroke stroke) {
-        playlist.add(new RemappedKeyStroke(stroke, true));
+        playlist.add(new Playback(new CompiledMacro(Collections.singletonList(stroke)), 1));
     }
 
     /**
      * Adds a list of keystrokes to the playlist. May be called by commands.
      */
     public void add(Iterable<KeyStroke> macro) {
-        for (KeyStroke stroke : macro) {
-            playlist.add(new RemappedKeyStroke(stroke, true));
+        playlist.add(new Playback(new CompiledMacro(macro), 1));
+    }
+
+    /**
+     * Adds a macro to the playlist. May be called by commands.
+     * @param macro the keys in the notation of {@link ConstructorWrappers#parseKeyStrokes(String)}.
+     *      Unless {@link Options#MACRO_CACHE} is off, the macro is played from the steps recorded
+     *      when it was played before.
+     */
+    public void add(String macro) {
+        add(macro, 1);
+    }
+
+    /**
+     * Adds a macro to the playlist which is played <tt>count</tt> times. May be called by
+     * commands.
+     * @see #add(String)
+     */
+    public void add(String macro, int count) {
+        playlist.add(new Playback(compile(macro), count));
+    }
+
+    /**
+     * Adds a macro returned by {@link #compile(String)} to the playlist. May be called by
+     * commands.
+     */
+    public void add(CompiledMacro macro) {
+        playlist.add(new Playback(macro, 1));
+    }
+
+    /**
+     * @return the macro for the given keys, which can be added to the playlist again and again
+     *      without parsing the keys each time.
+     * @see #add(String)
+     */
+    public CompiledMacro compile(String macro) {
+        if (editorAdaptor.getConfiguration().get(Options.MACRO_CACHE)) {
+            return compiledMacros.lookup(macro, editorAdaptor);
+        }
+        return new CompiledMacro(ConstructorWrappers.parseKeyStrokes(macro));
+    }
+
+    /**
+     * Starts a batch of playbacks: until {@link #endBatch()} is called, all changes are one step
+     * for undo and neither the editor nor the mode in the status line are updated. Calls may be
+     * nested.
+     */
+    public void beginBatch() {
+        if (batchDepth++ == 0) {
+            lock();
         }
     }
 
+    /**
+     * Ends the batch started by {@link #beginBatch()}, must be called in a <code>finally</code>
+     * block.
+     */
+    public void endBatch() {
+        if (--batchDepth == 0) {
+            unlock();
+        }
+    }
+
+    /**
+     * @return whether the user interrupted the last playback or the current batch.
+     */
+    public boolean isInterrupted() {
+        return interrupted;
+    }
+
     /**
      * Executes what is in the playlist. Should only be called by the parent
      * {@link EditorAdaptor}.
@@ -51,20 +150,108 @@ public class MacroPlayer {
      *  so we can support the 'normal' command, see ":help normal")
      */
     public void play() {
-        ViewportService view = editorAdaptor.getViewportService();
+        if (batchDepth > 0) {
+            playPlaylist();
+            return;
+        }
+        lock();
         try {
-            view.setRepaint(false);
-            view.lockRepaint(this);
-            editorAdaptor.getHistory().beginCompoundChange();
-            editorAdaptor.getHistory().lock("macroplayback");
-            while (!playlist.isEmpty()) {
-                editorAdaptor.handleKeyOffRecord(playlist.poll());
-            }
+            playPlaylist();
         } finally {
-            editorAdaptor.getHistory().unlock("macroplayback");
-            editorAdaptor.getHistory().endCompoundChange();
-            view.unlockRepaint(this);
-            view.setRepaint(true);
+            unlock();
+        }
+    }
+
+    private void lock() {
+        startTime = System.nanoTime();
+        nextCheck = startTime + CHECK_INTERVAL;
+        interrupted = false;
+        ViewportService view = editorAdaptor.getViewportService();
+        HistoryService history = editorAdaptor.getHistory();
+        view.setRepaint(false);
+        view.lockRepaint(this);
+        history.beginCompoundChange();
+        history.lock("macroplayback");
+        editorAdaptor.lockModeDisplay(this);
+    }
+
+    private void unlock() {
+        ViewportService view = editorAdaptor.getViewportService();
+        HistoryService history = editorAdaptor.getHistory();
+        if (showingProgress) {
+            showingProgress = false;
+            editorAdaptor.getUserInterfaceService().setInfoMessage("");
+        }
+        editorAdaptor.unlockModeDisplay(this);
+        history.unlock("macroplayback");
+        history.endCompoundChange();
+        view.unlockRepaint(this);
+        view.setRepaint(true);
+    }
+
+    private void playPlaylist() {
+        while (!playlist.isEmpty()) {
+            if ( ! play(playlist.poll())) {
+                playlist.clear();
+            }
+        }
+    }
+
+    /**
+     * @return <code>false</code> if an iteration failed or the user interrupted the playback.
+     */
+    private boolean play(Playback playback) {
+        UserInterfaceService userInterfaceService = editorAdaptor.getUserInterfaceService();
+        for (int i = 0; i < playback.count; i++) {
+            if (playback.count == 1) {
+                playback.macro.play(editorAdaptor);
+            } else {
+                int offset = editorAdaptor.getPosition().getModelOffset();
+                long stamp = editorAdaptor.getModificationStamp();
+                RegisterContent registerContent = getUnnamedRegisterContent();
+                userInterfaceService.setErrorMessage(null);
+                playback.macro.play(editorAdaptor);
+                String error = userInterfaceService.getLastErrorValue();
+                if (error != null && error.length() > 0) {
+                    return false;
+                }
+                if (offset == editorAdaptor.getPosition().getModelOffset()
+                        && stamp == editorAdaptor.getModificationStamp()
+                        && registerContent == getUnnamedRegisterContent()) {
+                    return true;
+                }
+            }
+            long now = System.nanoTime();
+            if (now >= nextCheck) {
+                nextCheck = now + CHECK_INTERVAL;
+                if (now - startTime >= PROGRESS_DELAY && playback.count > 1) {
+                    showingProgress = true;
+                    userInterfaceService.setInfoMessage("Playing macro: " + (i + 1) + " of "
+                            + playback.count);
+                }
+                if (editorAdaptor.pollInterrupt()) {
+                    interrupted = true;
+                    userInterfaceService.setErrorMessage("Interrupted");
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private RegisterContent getUnnamedRegisterContent() {
+        return editorAdaptor.getRegisterManager()
+                .getRegister(RegisterManager.REGISTER_NAME_UNNAMED).getContent();
+    }
+
+    /** A macro and how many times it is played. */
+    private static class Playback {
+        final CompiledMacro macro;
+        final int count;
+
+        Playback(CompiledMacro macro, int count) {
+            this.macro = macro;
+            this.count = count;
         }
     }
 }
@@ -2,6 +2,7 @@ package net.sourceforge.vrapper.vim;
 
 import static net.sourceforge.vrapper.platform.Configuration.Option.bool;
 import static net.sourceforge.vrapper.platform.Configuration.Option.globalBool;
+import static net.sourceforge.vrapper.platform.Configuration.Option.globalInteger;
 import static net.sourceforge.vrapper.platform.Configuration.Option.globalString;
 import static net.sourceforge.vrapper.platform.Configuration.Option.globalStringSet;
 import static net.sourceforge.vrapper.platform.Configuration.Option.integer;
@@ -13,6 +14,8 @@ import static net.sourceforge.vrapper.utils.VimUtils.set;
 import java.util.Set;
 
 import net.sourceforge.vrapper.platform.Configuration.Option;
+import net.sourceforge.vrapper.utils.LineSorter;
+import net.sourceforge.vrapper.utils.ParallelSearch;
 import net.sourceforge.vrapper.vim.commands.Selection;
 import net.sourceforge.vrapper.vim.modes.commandline.HighlightSearch;
 import net.sourceforge.vrapper.vim.register.RegisterManager;
@@ -44,6 +47,9 @@ public interface Options {
     public static final Option<Boolean> LINE_NUMBERS    = globalBool("number",       false, "nu");
     public static final Option<Boolean> SHOW_WHITESPACE = globalBool("list",         false, "l");
     public static final Option<Boolean> HIGHLIGHT_CURSOR_LINE = globalBool("cursorline",   false, "cul");
+    public static final Option<Boolean> TIMEOUT         = globalBool("timeout",      true,  "to");
+    /** Whether macros are replayed from the commands recorded during their first playback. */
+    public static final Option<Boolean> MACRO_CACHE     = globalBool("macrocache",   true);
 
     public static final Option<Boolean> MODIFIABLE       = localBool("modifiable", true, "ma");
     public static final Option<Boolean> GLOBAL_REGISTERS = localBool("globalregisters", true);
@@ -55,7 +61,7 @@ public interface Options {
             INCREMENTAL_SEARCH, LINE_NUMBERS, SHOW_WHITESPACE, IM_DISABLE,
             VISUAL_MOUSE, EXIT_LINK_MODE, CLEAN_INDENT, AUTO_CHDIR, HIGHLIGHT_CURSOR_LINE,
             CONTENT_ASSIST_MODE, START_NORMAL_MODE, UNDO_MOVES_CURSOR, DEBUGLOG, MODIFIABLE,
-            GLOBAL_REGISTERS, WRAP_SCAN);
+            GLOBAL_REGISTERS, WRAP_SCAN, TIMEOUT, MACRO_CACHE);
 
     // String options:
     public static final Option<String> SYNC_MODIFIABLE = globalString("syncmodifiable", "nosync", "nosync, matchreadonly", "syncma");
@@ -64,10 +70,13 @@ public interface Options {
     public static final Option<String> PATH      = stringNoConstraint("path", ".", "pa");
     public static final Option<String> GVIM_PATH = stringNoConstraint("gvimpath", "/usr/bin/gvim", "gvp");
     public static final Option<String> GVIM_ARGS = stringNoConstraint("gvimargs", "");
-    public static final Option<String> KEYWORDS  = stringNoConstraint("iskeyword", "a-zA-Z0-9_\u00C0-\u017F", "isk");
+    public static final Option<String> KEYWORDS  = stringNoConstraint("iskeyword", "a-z,A-Z,48-57,_,192-383", "isk");
     @SuppressWarnings("unchecked")
     public static final Set<Option<String>> STRING_OPTIONS = set(SELECTION, SEARCH_HL_SCOPE, PATH,
             GVIM_PATH, GVIM_ARGS, KEYWORDS, SYNC_MODIFIABLE);
+    /** String options holding a comma-separated list, <tt>+=</tt> and <tt>-=</tt> work on items. */
+    @SuppressWarnings("unchecked")
+    public static final Set<Option<String>> COMMA_LIST_OPTIONS = set(KEYWORDS);
 
     // String-set options:
     public static final Option<Set<String>> CLIPBOARD = globalStringSet("clipboard", "",
@@ -90,7 +99,16 @@ public interface Options {
     //       Changing this value should change the Eclipse configuration too. -- BRD
     public static final Option<Integer> TAB_STOP      = integer("tabstop",     8, "ts");
     public static final Option<Integer> SHIFT_WIDTH   = integer("shiftwidth",  8, "sw");
+    /** Milliseconds to wait for the next key of a mapping, see {@link #TIMEOUT}. */
+    public static final Option<Integer> TIMEOUT_LEN   = globalInteger("timeoutlen",  1000, "tm");
+    /** Like {@link #TIMEOUT_LEN} for mappings starting with Escape if not negative. */
+    public static final Option<Integer> TTIMEOUT_LEN  = globalInteger("ttimeoutlen", -1,   "ttm");
+    /** Characters from which a search is split over several threads, never if not positive. */
+    public static final Option<Integer> PARALLEL_SEARCH = globalInteger("parallelsearch", ParallelSearch.DEFAULT_THRESHOLD);
+    /** Lines from which <tt>:sort</tt> runs on several threads, never if not positive. */
+    public static final Option<Integer> PARALLEL_SORT = globalInteger("parallelsort", LineSorter.DEFAULT_PARALLEL_THRESHOLD);
 
     @SuppressWarnings("unchecked")
-    public static final Set<Option<Integer>> INT_OPTIONS = set(SCROLL_JUMP, SCROLL, SCROLL_OFFSET, TEXT_WIDTH, SOFT_TAB, TAB_STOP, SHIFT_WIDTH);
+    public static final Set<Option<Integer>> INT_OPTIONS = set(SCROLL_JUMP, SCROLL, SCROLL_OFFSET, TEXT_WIDTH, SOFT_TAB, TAB_STOP, SHIFT_WIDTH,
+            TIMEOUT_LEN, TTIMEOUT_LEN, PARALLEL_SEARCH, PARALLEL_SORT);
 }
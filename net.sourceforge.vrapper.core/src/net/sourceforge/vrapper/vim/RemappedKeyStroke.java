@@ -2,10 +2,12 @@ package net.sourceforge.vrapper.vim;
 
 import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.keymap.SpecialKey;
+import net.sourceforge.vrapper.keymap.vim.KeyStrokes;
 
 /**
  * Wrapper class for {@link KeyStroke} which provides an additional
- * recursive property.
+ * recursive property. Use {@link KeyStrokes#remapped(KeyStroke, boolean)} to get a shared
+ * instance.
  *
  * @author Matthias Radig
  */
@@ -40,6 +42,10 @@ public class RemappedKeyStroke implements KeyStroke {
     	return delegate.withCtrlKey();
     }
 
+    public KeyStroke getDelegate() {
+        return delegate;
+    }
+
     public boolean isRecursive() {
         return recursive;
     }
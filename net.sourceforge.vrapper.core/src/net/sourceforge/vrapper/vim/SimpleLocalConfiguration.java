@@ -6,6 +6,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.sourceforge.vrapper.platform.Configuration;
 import net.sourceforge.vrapper.platform.SimpleConfiguration;
+import net.sourceforge.vrapper.utils.KeywordCharacterClass;
 
 /** Wraps a {@link Configuration}, allowing to notify {@link ConfigurationListener}. */
 public class SimpleLocalConfiguration extends SimpleConfiguration implements LocalConfiguration {
@@ -15,6 +16,7 @@ public class SimpleLocalConfiguration extends SimpleConfiguration implements Loc
     protected List<ConfigurationListener> listeners =
             new CopyOnWriteArrayList<ConfigurationListener>();
     private boolean listenersEnabled;
+    private KeywordCharacterClass keywordCharacterClass;
 
     public SimpleLocalConfiguration(List<DefaultConfigProvider> defaultConfigProviders,
             Configuration sharedConfiguration) {
@@ -50,6 +52,12 @@ public class SimpleLocalConfiguration extends SimpleConfiguration implements Loc
         }
     }
 
+    @Override
+    public int getGeneration() {
+        // Both only grow, so the sum changes whenever one of them does.
+        return super.getGeneration() + sharedConfiguration.getGeneration();
+    }
+
     @Override
     public <T> void setLocal(Option<T> key, T value) {
         if (key.getScope() == OptionScope.GLOBAL) {
@@ -68,6 +76,19 @@ public class SimpleLocalConfiguration extends SimpleConfiguration implements Loc
         }
     }
     
+    @Override
+    public KeywordCharacterClass getKeywordCharacterClass() {
+        // iskeyword can change through the shared configuration without notifying our listeners,
+        // so compare against the current value instead of relying on optionChanged events.
+        String iskeyword = get(Options.KEYWORDS);
+        KeywordCharacterClass cached = keywordCharacterClass;
+        if (cached == null || ! cached.getDefinition().equals(iskeyword)) {
+            cached = KeywordCharacterClass.compile(iskeyword);
+            keywordCharacterClass = cached;
+        }
+        return cached;
+    }
+
     public void setListenersEnabled(boolean enabled) {
         listenersEnabled = enabled;
     }
@@ -1,20 +1,26 @@
 package net.sourceforge.vrapper.vim.commands;
 
-import net.sourceforge.vrapper.keymap.KeyStroke;
-import net.sourceforge.vrapper.keymap.vim.ConstructorWrappers;
 import net.sourceforge.vrapper.platform.CursorService;
 import net.sourceforge.vrapper.platform.TextContent;
 import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.utils.LineRange;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.utils.SimpleLineRange;
+import net.sourceforge.vrapper.vim.CompiledMacro;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
+import net.sourceforge.vrapper.vim.MacroPlayer;
 import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
 import net.sourceforge.vrapper.vim.modes.NormalMode;
 
 /**
  * Immediately execute a set of commands without storing them
  * in a named register.
+ * <p>
+ * On a range of lines the commands are parsed once and played on each line in one batch of the
+ * {@link MacroPlayer}, so the editor is repainted and the history is changed only once. Like in
+ * Vim the commands run once per line of the range, always on a line below the last one. The next
+ * line is found by counting from the end of the text, so lines added by the commands are
+ * skipped; when they delete or join the next line, the line which took its place is used.
  */
 public class AnonymousMacroOperation extends AbstractLinewiseOperation {
 	
@@ -40,7 +46,9 @@ public class AnonymousMacroOperation extends AbstractLinewiseOperation {
 		CursorService cursor = editorAdaptor.getCursorService();
 		TextContent model = editorAdaptor.getModelContent();
 		
-		Iterable<KeyStroke> parsed = ConstructorWrappers.parseKeyStrokes(macro);
+		//parse the keys once, the same macro is played on every line
+		MacroPlayer player = editorAdaptor.getMacroPlayer();
+		CompiledMacro compiled = player.compile(macro);
 		
 		boolean resetPos = true;
 		if (lineRange.getStartLine() == lineRange.getEndLine()) {
@@ -49,25 +57,36 @@ public class AnonymousMacroOperation extends AbstractLinewiseOperation {
 			resetPos = false;
 		}
 		
-		// [NOTE] This is not safe when doing :<range>normal dd. ExCommandOperation (class behind
-		// the :g/<pattern>/ command) has code which guards against this, so users should prefer
-		// that one for destructive operations.
-		for (int i = lineRange.getStartLine(); i <= lineRange.getEndLine(); i++) {
-
-			if (resetPos) {
-				LineInformation lineInfo = model.getLineInformation(i);
-				Position lineStart = cursor.newPositionForModelOffset(lineInfo.getBeginOffset());
-				editorAdaptor.setPosition(lineStart, StickyColumnPolicy.NEVER);
-			}
-			
-			//set macro
-			editorAdaptor.getMacroPlayer().add(parsed);
-			//run macro
-			editorAdaptor.getMacroPlayer().play();
-			
-			if ( ! NormalMode.NAME.equals(editorAdaptor.getCurrentModeName())) {
-				editorAdaptor.changeModeSafely(NormalMode.NAME);
+		player.beginBatch();
+		try {
+			int lineNo = lineRange.getStartLine();
+			int runs = lineRange.getEndLine() - lineNo + 1;
+			while (runs-- > 0 && ! player.isInterrupted()) {
+				int nLines = model.getNumberOfLines();
+				if (lineNo >= nLines) {
+					break;
+				}
+				//lines below the next one, they find it again after the change
+				int linesBelow = nLines - (lineNo + 1);
+				if (resetPos) {
+					LineInformation lineInfo = model.getLineInformation(lineNo);
+					Position lineStart = cursor.newPositionForModelOffset(lineInfo.getBeginOffset());
+					editorAdaptor.setPosition(lineStart, StickyColumnPolicy.NEVER);
+				}
+				
+				player.add(compiled);
+				player.play();
+				
+				if ( ! NormalMode.NAME.equals(editorAdaptor.getCurrentModeName())) {
+					editorAdaptor.changeModeSafely(NormalMode.NAME);
+				}
+				
+				//never go back to this line, if the next one was deleted or joined take the
+				//one below it
+				lineNo = Math.max(lineNo + 1, model.getNumberOfLines() - linesBelow);
 			}
+		} finally {
+			player.endBatch();
 		}
 	}
 
@@ -1,7 +1,10 @@
 package net.sourceforge.vrapper.vim.commands;
 
+import java.util.Arrays;
+
 import net.sourceforge.vrapper.platform.CursorService;
 import net.sourceforge.vrapper.platform.TextContent;
+import net.sourceforge.vrapper.utils.EditBatch;
 import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.utils.StringUtils;
@@ -39,56 +42,87 @@ abstract public class BlockPasteHelper {
         int newCursorOfs = cursorService.shiftPositionForModelOffset(
                 pos.getModelOffset(), startOfs, false).getModelOffset();
         final int vWidth = rect.getVisualWidth();
-        for (int i = 0; i < rect.getNumLines(); ++i) {
-            Position pastePos;
-            if (startLine + i >= content.getNumberOfLines() - 1) {
-                // Insert a new empty line if at the of the document.
-                content.replace(content.getTextLength(), 0,
-                        editorAdaptor.getConfiguration().getNewLine());
-            }
-            LineInformation pasteLine = content.getLineInformation(startLine + i);
-            int vOffset = cursorService.getVisualOffset(pos);
-            for (int c = 0; c < count; ++c) {
-                pastePos = cursorService.getPositionByVisualOffset(startLine + i, vOffset);
+        final int numLines = rect.getNumLines();
+        final int firstMissingLine = Math.max(0, content.getNumberOfLines() - 1 - startLine);
+        if (firstMissingLine < numLines) {
+            // Insert new empty lines if at the end of the document.
+            content.replace(content.getTextLength(), 0, StringUtils.multiply(
+                    editorAdaptor.getConfiguration().getNewLine(), numLines - firstMissingLine));
+        }
+        //
+        // Every copy of the block is pasted into all lines at once. Right-padding depends on how
+        // wide the pasted text is rendered, so it is added in a second batch.
+        //
+        final int[] vOffsets = new int[numLines];
+        Arrays.fill(vOffsets, cursorService.getVisualOffset(pos));
+        final int[] blockEnds = new int[numLines];
+        final boolean[] padRight = new boolean[numLines];
+        for (int c = 0; c < count; ++c) {
+            EditBatch blockLines = new EditBatch();
+            int delta = 0;
+            for (int i = 0; i < numLines; ++i) {
+                final LineInformation pasteLine = content.getLineInformation(startLine + i);
+                final Position pastePos = cursorService.getPositionByVisualOffset(startLine + i, vOffsets[i]);
+                final StringBuilder insertion = new StringBuilder();
+                int insertOfs;
                 if (pastePos == null) {
-                    pastePos = cursorService.newPositionForModelOffset(pasteLine.getEndOffset());
-                    final int lineEndVOfs = cursorService.getVisualOffset(pastePos);
                     //
                     // "Extend" the paste line with spaces until it reaches vOffset.
                     //
-                    final int padding = cursorService.visualWidthToChars(vOffset - lineEndVOfs);
-                    content.replace(pasteLine.getEndOffset(), 0, StringUtils.multiply(" ", padding));
-                    pastePos = pastePos.addModelOffset(padding);
+                    final int lineEndVOfs = cursorService.getVisualOffset(
+                            cursorService.newPositionForModelOffset(pasteLine.getEndOffset()));
+                    final int padding = cursorService.visualWidthToChars(vOffsets[i] - lineEndVOfs);
+                    insertion.append(StringUtils.multiply(" ", padding));
+                    insertOfs = pasteLine.getEndOffset();
+                } else {
+                    insertOfs = pastePos.getModelOffset();
                 }
-                // Refresh line information if extended.
-                pasteLine = content.getLineInformation(startLine + i);
-                if (startOfs > 0 && pasteLine.getEndOffset() == pastePos.getModelOffset()) {
-                    content.replace(pasteLine.getEndOffset(), 0, " ");
+                if (insertOfs == pasteLine.getEndOffset()) {
+                    if (startOfs > 0) {
+                        insertion.append(' ');
+                    }
+                    padRight[i] = c != count - 1;
+                } else {
+                    //
+                    // Paste after the character at vOffset.
+                    //
+                    insertOfs += startOfs;
+                    // Right-pad with spaces if block-line is shorter and not at EOL.
+                    padRight[i] = insertOfs < pasteLine.getEndOffset() || c != count - 1;
                 }
-                //
-                // Paste after the character at vOffset.
-                //
-                final String blockLine = rect.getLine(i);
-                content.replace(pastePos.addModelOffset(startOfs).getModelOffset(), 0, blockLine);
-                //
-                // Right-pad with spaces if block-line is shorter and not at EOL.
-                //
-                pastePos = pastePos.addModelOffset(blockLine.length());
-                if (pastePos.getModelOffset() + startOfs < (pasteLine.getEndOffset() + blockLine.length()) || c != count - 1) {
-                    final int vEndOfs = cursorService.getVisualOffset(pastePos);
-                    final int padding = cursorService.visualWidthToChars(vOffset + vWidth - vEndOfs) + 1;
-                    content.replace(pastePos.addModelOffset(startOfs).getModelOffset(), 0,
-                            StringUtils.multiply(" ", padding));
-                    pastePos = pastePos.addModelOffset(padding);
+                insertion.append(rect.getLine(i));
+                if (insertion.length() > 0) {
+                    blockLines.insert(insertOfs, insertion.toString());
                 }
-                // Set vOffset for the next block line for count > 1.
-                vOffset = cursorService.getVisualOffset(pastePos);
-                if (placeCursorAfter) {
-                    newCursorOfs = pastePos.getModelOffset() + startOfs;
+                delta += insertion.length();
+                blockEnds[i] = insertOfs + delta;
+            }
+            blockLines.applyTo(content);
+
+            EditBatch rightPadding = new EditBatch();
+            delta = 0;
+            for (int i = 0; i < numLines; ++i) {
+                if (padRight[i]) {
+                    final int vEndOfs = cursorService.getVisualOffset(
+                            cursorService.newPositionForModelOffset(blockEnds[i] - startOfs));
+                    final int padding = cursorService.visualWidthToChars(vOffsets[i] + vWidth - vEndOfs) + 1;
+                    rightPadding.insert(blockEnds[i], StringUtils.multiply(" ", padding));
+                    delta += padding;
                 }
+                blockEnds[i] += delta;
+            }
+            rightPadding.applyTo(content);
+
+            for (int i = 0; i < numLines; ++i) {
+                // Set vOffset for the next block line for count > 1.
+                vOffsets[i] = cursorService.getVisualOffset(
+                        cursorService.newPositionForModelOffset(blockEnds[i] - startOfs));
             }
         }
+        if (placeCursorAfter && numLines > 0) {
+            newCursorOfs = blockEnds[numLines - 1];
+        }
         return newCursorOfs;
     }
 
-}
\ No newline at end of file
+}
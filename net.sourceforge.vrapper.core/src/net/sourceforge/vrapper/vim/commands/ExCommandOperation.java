@@ -1,17 +1,33 @@
 package net.sourceforge.vrapper.vim.commands;
 
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
 import net.sourceforge.vrapper.log.VrapperLog;
 import net.sourceforge.vrapper.platform.CursorService;
 import net.sourceforge.vrapper.platform.TextContent;
+import net.sourceforge.vrapper.platform.ViewportService;
 import net.sourceforge.vrapper.utils.ContentType;
+import net.sourceforge.vrapper.utils.EditBatch;
 import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.utils.LineRange;
+import net.sourceforge.vrapper.utils.ParallelSearch;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.utils.SimpleLineRange;
 import net.sourceforge.vrapper.utils.StartEndTextRange;
 import net.sourceforge.vrapper.utils.SubstitutionDefinition;
 import net.sourceforge.vrapper.utils.TextRange;
+import net.sourceforge.vrapper.utils.VimPattern;
+import net.sourceforge.vrapper.utils.VimRegexCompiler;
+import net.sourceforge.vrapper.utils.VimUtils;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
+import net.sourceforge.vrapper.vim.Options;
+import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
+import net.sourceforge.vrapper.vim.register.RegisterContent;
+import net.sourceforge.vrapper.vim.register.RegisterManager;
+import net.sourceforge.vrapper.vim.register.StringRegisterContent;
 
 /**
  * Takes a user-defined String such as:
@@ -31,7 +47,9 @@ import net.sourceforge.vrapper.vim.EditorAdaptor;
  */
 public class ExCommandOperation extends AbstractLinewiseOperation {
 
-	protected static final String NEXTLINE_MARK = CursorService.INTERNAL_MARK_PREFIX + "-ex-nextline";
+	protected static final String LINE_MARK = CursorService.INTERNAL_MARK_PREFIX + "-ex-line-";
+	/** Number of marked lines ahead of the current one which carry a mark. */
+	private static final int TRACKED_LINES = 1000;
 
 	String originalDefinition;
 
@@ -117,10 +135,42 @@ public class ExCommandOperation extends AbstractLinewiseOperation {
 		//chop off pattern (+delimiter), all that should be left is command
 		definition = definition.substring(patternEnd + 1);
 
-		LineWiseOperation operation = buildExCommand(definition, editorAdaptor);
+		VimPattern compiledPattern;
+		try {
+			boolean caseSensitive = editorAdaptor.getSearchAndReplaceService()
+					.isCaseSensitive(pattern, "");
+			compiledPattern = VimRegexCompiler.compile(pattern, caseSensitive);
+		} catch (PatternSyntaxException e) {
+			throw new CommandExecutionException(e.getDescription());
+		}
+
+		LineWiseOperation operation;
+		if (definition.startsWith("d") || definition.startsWith("y")) {
+			boolean delete = definition.startsWith("d");
+			//arguments are an optional register and an optional count, like :d x 3
+			String args = getArguments(definition);
+			String register = null;
+			if (args.length() > 0 && ! Character.isDigit(args.charAt(0))) {
+				register = args.substring(0, 1);
+				args = args.substring(1).trim();
+			}
+			if (args.length() == 0) {
+				//deleting or yanking the lines one by one isn't necessary
+				executeBulk(lineRange, findMatch, compiledPattern, delete, register, editorAdaptor);
+				return;
+			}
+			//with a count the lines below each match are included, they may be marked
+			//themselves so the lines have to be handled one after the other
+			String macro = register == null ? "" : "\"" + register;
+			macro += parseCount(args) + (delete ? "dd" : "yy");
+			operation = new AnonymousMacroOperation(macro);
+		}
+		else {
+			operation = buildExCommand(definition, editorAdaptor);
+		}
 
 		if(operation != null) {
-			executeExCommand(lineRange, findMatch, pattern, operation, editorAdaptor);
+			executeExCommand(lineRange, findMatch, compiledPattern, operation, editorAdaptor);
 		}
 	}
 
@@ -130,6 +180,13 @@ public class ExCommandOperation extends AbstractLinewiseOperation {
 			String args = command.substring("normal ".length());
 			return new AnonymousMacroOperation(args);
 		}
+		else if(command.equals("j") || command.equals("join")) {
+			//:join on a single line is the same as J
+			return new AnonymousMacroOperation("J");
+		}
+		else if(command.equals("j!") || command.equals("join!")) {
+			return new AnonymousMacroOperation("gJ");
+		}
 		else if(command.startsWith("s")) {
 			SubstitutionDefinition definition;
 			try {
@@ -143,116 +200,349 @@ public class ExCommandOperation extends AbstractLinewiseOperation {
 			}
 			return new SubstitutionOperation(definition);
 		}
-		else if(command.startsWith("d")) {
-			return DeleteOperation.INSTANCE;
+
+		return null;
+	}
+
+	/** @return whatever follows the name of a :d or :y sub-command. */
+	private static String getArguments(String command) {
+		int i = 0;
+		while (i < command.length() && Character.isLetter(command.charAt(i))) {
+			i++;
+		}
+		return command.substring(i).trim();
+	}
+
+	private static int parseCount(String count) throws CommandExecutionException {
+		for (int i = 0; i < count.length(); i++) {
+			if ( ! Character.isDigit(count.charAt(i))) {
+				throw new CommandExecutionException("Trailing characters: " + count);
+			}
 		}
-		else if(command.startsWith("y")) {
-			if (command.length() >= 3) {
-				return new YankOperation(command.substring(command.length() - 1));
+		try {
+			int value = Integer.parseInt(count);
+			if (value > 0) {
+				return value;
+			}
+		} catch (NumberFormatException e) {
+			//too large
+		}
+		throw new CommandExecutionException("Positive count required");
+	}
+
+	/**
+	 * Deletes or yanks all marked lines at once. The register ends up with the same content as
+	 * if the lines had been deleted or yanked one after the other.
+	 */
+	private void executeBulk(LineRange lineRange, boolean findMatch, VimPattern pattern,
+			boolean delete, String register, EditorAdaptor editorAdaptor) {
+		TextContent modelContent = editorAdaptor.getModelContent();
+		int[] lines = markLines(modelContent, pattern, findMatch,
+				lineRange.getStartLine(), lineRange.getEndLine(),
+				editorAdaptor.getLastActiveSelection(),
+				editorAdaptor.getConfiguration().get(Options.PARALLEL_SEARCH));
+		if (lines.length == 0) {
+			return;
+		}
+
+		RegisterManager registerManager = editorAdaptor.getRegisterManager();
+		if (register != null) {
+			registerManager.setActiveRegister(register);
+		}
+		String newLine = editorAdaptor.getConfiguration().getNewLine();
+		//each line replaces the previous one in the register, unless it is appended to
+		boolean append = register != null && Character.isUpperCase(register.charAt(0));
+		int first = append ? 0 : lines.length - 1;
+		if (delete && registerManager.isDefaultRegisterActive()) {
+			//earlier deletes were shifted through the numbered registers
+			for (int i = Math.max(0, lines.length - 9); i < lines.length - 1; i++) {
+				registerManager.setLastDelete(new StringRegisterContent(ContentType.LINES,
+						getLineText(modelContent, lines[i], newLine)));
+			}
+		}
+		StringBuilder text = new StringBuilder();
+		for (int i = first; i < lines.length; i++) {
+			text.append(getLineText(modelContent, lines[i], newLine));
+		}
+		RegisterContent content = new StringRegisterContent(ContentType.LINES, text.toString());
+		registerManager.getActiveRegister().setContent(content);
+		if (registerManager.isDefaultRegisterActive()) {
+			if (delete) {
+				registerManager.setLastDelete(content);
 			} else {
-				return YankOperation.INSTANCE;
+				registerManager.setLastYank(content);
 			}
 		}
 
-		return null;
+		CursorService cs = editorAdaptor.getCursorService();
+		if ( ! delete) {
+			cs.setPosition(cs.stickyColumnAtModelLine(lines[lines.length - 1]),
+					StickyColumnPolicy.ON_CHANGE);
+			return;
+		}
+		editorAdaptor.getHistory().beginCompoundChange();
+		try {
+			int offset = deleteLines(modelContent, lines);
+			//like 'dd', leave the cursor on the indent of the line after the last deleted one
+			LineInformation line = modelContent.getLineInformationOfOffset(offset);
+			int indent = VimUtils.getIndent(modelContent, line).length();
+			cs.setPosition(cs.newPositionForModelOffset(line.getBeginOffset() + indent),
+					StickyColumnPolicy.ON_CHANGE);
+		} finally {
+			editorAdaptor.getHistory().endCompoundChange();
+		}
 	}
 
-	private void executeExCommand(LineRange lineRange, boolean findMatch,
-			String pattern, LineWiseOperation operation, EditorAdaptor editorAdaptor) {
+	/** @return text of a line including its line break, which is added if it is missing. */
+	private static String getLineText(TextContent content, int lineNo, String newLine) {
+		LineInformation line = content.getLineInformation(lineNo);
+		if (lineNo + 1 >= content.getNumberOfLines()) {
+			return content.getText(line.getBeginOffset(), line.getLength()) + newLine;
+		}
+		int end = content.getLineInformation(lineNo + 1).getBeginOffset();
+		return content.getText(line.getBeginOffset(), end - line.getBeginOffset());
+	}
 
-		/** Starting line, inclusive. */
-		int startLine = lineRange.getStartLine();
-		/** Ending line, inclusive. */
-		int endLine = lineRange.getEndLine();
+	/**
+	 * Deletes the given lines with one batch of edits, one edit per block of adjacent lines.
+	 *
+	 * @return offset where the last deleted line was, in the changed text.
+	 */
+	static int deleteLines(TextContent content, int[] lines) {
+		int nLines = content.getNumberOfLines();
+		EditBatch batch = new EditBatch();
+		int removed = 0;
+		int lastOffset = 0;
+		int i = 0;
+		while (i < lines.length) {
+			int last = i;
+			while (last + 1 < lines.length && lines[last + 1] == lines[last] + 1) {
+				last++;
+			}
+			int start = content.getLineInformation(lines[i]).getBeginOffset();
+			int end;
+			if (lines[last] + 1 < nLines) {
+				end = content.getLineInformation(lines[last] + 1).getBeginOffset();
+			} else {
+				//the last line has no line break, remove the one in front of it instead
+				end = content.getTextLength();
+				if (lines[i] > 0) {
+					start = content.getLineInformation(lines[i] - 1).getEndOffset();
+				}
+			}
+			batch.delete(start, end - start);
+			lastOffset = start - removed;
+			removed += end - start;
+			i = last + 1;
+		}
+		batch.applyTo(content);
+		return lastOffset;
+	}
+
+	private void executeExCommand(LineRange lineRange, boolean findMatch,
+			VimPattern pattern, LineWiseOperation operation, EditorAdaptor editorAdaptor) {
 		TextContent modelContent = editorAdaptor.getModelContent();
-		LineInformation line = modelContent.getLineInformation(startLine);
+		//phase one: decide on all lines before the command changes any of them
+		int[] lines = markLines(modelContent, pattern, findMatch,
+				lineRange.getStartLine(), lineRange.getEndLine(),
+				editorAdaptor.getLastActiveSelection(),
+				editorAdaptor.getConfiguration().get(Options.PARALLEL_SEARCH));
+		if (lines.length == 0) {
+			return;
+		}
 
+		//phase two: run the command on every marked line
+		ViewportService view = editorAdaptor.getViewportService();
 		editorAdaptor.getHistory().beginCompoundChange();
 		editorAdaptor.getHistory().lock("ex-command");
+		view.setRepaint(false);
+		view.lockRepaint(this);
 		try {
-			if (startLine == endLine) {
-				processLine(pattern, findMatch, operation, line, editorAdaptor);
-			}
-			else {
-				processMultipleLines(findMatch, pattern, operation, editorAdaptor, line, startLine,
-						endLine, modelContent);
-			}
+			processMarkedLines(lines, operation, editorAdaptor, modelContent);
 		} finally {
+			view.unlockRepaint(this);
+			view.setRepaint(true);
 			editorAdaptor.getHistory().unlock("ex-command");
 			editorAdaptor.getHistory().endCompoundChange();
 		}
 	}
 
-	private void processMultipleLines(boolean findMatch, String pattern,
-			LineWiseOperation operation, EditorAdaptor editorAdaptor, LineInformation line,
-			int startLine, int endLine, TextContent modelContent) {
-		int linesProcessed = 0;
-		int nLines = modelContent.getNumberOfLines();
-		// Hard limit ( + 1 because endLine is inclusive )
-		int maxLinesToProcess = endLine - startLine + 1;
-		CursorService cs = editorAdaptor.getCursorService();
-
-		while (linesProcessed < maxLinesToProcess && line != null) {
-			nLines = modelContent.getNumberOfLines();
-			if (nLines > line.getNumber() + 1) {
-				LineInformation nextLine = modelContent.getLineInformation(line.getNumber() + 1);
-				cs.setMark(NEXTLINE_MARK, cs.newPositionForModelOffset(nextLine.getBeginOffset()));
-			} else {
-				// Remove mark for exit condition
-				cs.deleteMark(NEXTLINE_MARK);
+	/**
+	 * Checks every line between <tt>startLine</tt> and <tt>endLine</tt> (inclusive) in a single
+	 * pass over their text. A line is marked if a match starts in it; like for <tt>:s</tt> the
+	 * match may continue into the line following the range. The matches are found with
+	 * {@link ParallelSearch}, so large ranges are searched on several threads.
+	 *
+	 * @param visualArea
+	 *            the last visual selection, which <tt>\%V</tt> in the pattern refers to. May be
+	 *            null.
+	 * @param threshold
+	 *            number of characters from which the search is split up, see
+	 *            {@link Options#PARALLEL_SEARCH}.
+	 * @return ascending numbers of the lines which match (or don't match, for <tt>:v</tt>).
+	 */
+	static int[] markLines(TextContent content, VimPattern pattern, boolean findMatch,
+			int startLine, int endLine, TextRange visualArea, int threshold) {
+		int begin = content.getLineInformation(startLine).getBeginOffset();
+		int limit = endLine + 2 < content.getNumberOfLines()
+				? content.getLineInformation(endLine + 2).getBeginOffset()
+				: content.getTextLength();
+		String text = content.getText(begin, limit - begin);
+		int rangeEnd = endLine + 1 < content.getNumberOfLines()
+				? content.getLineInformation(endLine + 1).getBeginOffset() - begin
+				: text.length();
+		//the text starts at the first line of the range, so the area moves along
+		if (visualArea != null) {
+			pattern = pattern.inVisualArea(Math.max(0, visualArea.getLeftBound().getModelOffset() - begin),
+					visualArea.getRightBound().getModelOffset() - begin);
+		} else {
+			pattern = pattern.inVisualArea(null);
+		}
+		ParallelSearch.Matches matches = new ParallelSearch(pattern, threshold)
+				.findAll(text, 0, rangeEnd);
+		int[] lines = new int[16];
+		int count = 0;
+		int lineStart = 0;
+		int next = 0;
+		//match found by searching directly, when a match hides the start of a line
+		int[] found = null;
+		int foundFrom = -1;
+		for (int lineNo = startLine; lineNo <= endLine; lineNo++) {
+			int lineEnd = lineStart;
+			while (lineEnd < text.length() && text.charAt(lineEnd) != '\n'
+					&& text.charAt(lineEnd) != '\r') {
+				lineEnd++;
 			}
-			processLine(pattern, findMatch, operation, line, editorAdaptor);
-			Position nextLineStart = cs.getMark(NEXTLINE_MARK);
-			// Try to guess our position if user ran something like 2d and removed next line
-			int updatedNLines = modelContent.getNumberOfLines();
-			if (nextLineStart == null && nLines > updatedNLines) {
-				// Do nothing except check end of document - "line" object should stay the same if still in bounds
-				if (line.getNumber() >= updatedNLines) {
-					line = null;
-				}
-			} else if (nextLineStart == null) {
-				// Either we ran out of lines or somebody replaced the contents of the next
-				// line (and the mark) without the file getting shorter
-				if (line.getNumber() + 1 >= updatedNLines) {
-					line = null;
-				} else {
-					// Assume that line + 1 is our target.
-					line = modelContent.getLineInformation(line.getNumber() + 1);
+			while (next < matches.size() && matches.getStart(next) < lineStart
+					&& matches.getEnd(next) <= lineStart) {
+				next++;
+			}
+			int match;
+			if (next < matches.size() && matches.getStart(next) < lineStart) {
+				//the match found before this line reaches into it, Vim searches from the line
+				if (foundFrom < 0 || found != null && found[0] < lineStart) {
+					found = pattern.firstIn(text, lineStart);
+					foundFrom = lineStart;
 				}
+				match = found == null ? -1 : found[0];
 			} else {
-				line = modelContent.getLineInformationOfOffset(nextLineStart.getModelOffset());
+				match = next < matches.size() ? matches.getStart(next) : -1;
+			}
+			boolean matched = match >= 0 && match <= lineEnd;
+			if ( ! matched && lineStart == text.length()) {
+				matched = matchesEmptyLastLine(pattern, text);
+			}
+			if (matched == findMatch) {
+				if (count == lines.length) {
+					lines = Arrays.copyOf(lines, count * 2);
+				}
+				lines[count++] = lineNo;
+			}
+			lineStart = lineEnd + 1;
+			if (lineEnd + 1 < text.length() && text.charAt(lineEnd) == '\r'
+					&& text.charAt(lineEnd + 1) == '\n') {
+				lineStart++;
 			}
-			linesProcessed++;
 		}
-		cs.deleteMark(NEXTLINE_MARK);
+		return Arrays.copyOf(lines, count);
 	}
 
-	private boolean processLine(String pattern, boolean findMatch, LineWiseOperation operation,
-			LineInformation line, EditorAdaptor editorAdaptor) {
-		boolean operationPerformed = false;
-		String text = editorAdaptor.getModelContent().getText(line.getBeginOffset(), line.getLength());
-		//Java's matches() method expects to match the entire string.
-		//If the user isn't explicitly matching beginning or end of
-		//a String, fake it out so Java is happy.
-		if( ! pattern.startsWith("^")) {
-			//line can start with anything
-			pattern = ".*" + pattern;
-		}
-		if( ! pattern.endsWith("$")) {
-			//line can end with anything
-			pattern += ".*";
+	/**
+	 * Java never matches '^' at the end of the input, even after a line break. The last line of
+	 * the text is therefore matched on its own if it is empty, like Vim matches every line.
+	 */
+	private static boolean matchesEmptyLastLine(VimPattern pattern, String text) {
+		if (pattern.getLiteral() != null) {
+			return false;
 		}
+		Pattern javaPattern = pattern.getPattern();
+		Matcher matcher = Pattern.compile(javaPattern.pattern(),
+				javaPattern.flags() & ~Pattern.MULTILINE).matcher(text);
+		matcher.region(text.length(), text.length());
+		return pattern.find(matcher);
+	}
 
-		boolean matches = text.matches(pattern);
-		if( (findMatch && matches) || (!findMatch && !matches) ) {
-			try {
-				LineRange singleLine = SimpleLineRange.singleLineInModel(editorAdaptor, line);
-				operation.execute(editorAdaptor, singleLine);
-				operationPerformed = true;
-			} catch (CommandExecutionException e) {
+	/**
+	 * Runs the command on every marked line which still exists. Like Vim, lines which were
+	 * deleted by the command, or joined into a line it already ran on, are skipped.
+	 * <p>
+	 * Every marked line gets a mark at its end, which is removed together with the line (see
+	 * {@link #isJoined} for empty lines). Only
+	 * the next {@link #TRACKED_LINES} lines carry a mark at any time, so the editor doesn't have
+	 * to move a mark for every line on each change; the others are placed when they come near,
+	 * using how far the last mark has moved.
+	 */
+	private void processMarkedLines(int[] lines, LineWiseOperation operation,
+			EditorAdaptor editorAdaptor, TextContent modelContent) {
+		CursorService cs = editorAdaptor.getCursorService();
+		//how far the lines moved, measured at the last mark which was set
+		int shift = 0;
+		int tracked = 0;
+		int previous = -1;
+		int i = 0;
+		try {
+			for (; i < lines.length; i++) {
+				if (tracked > i && tracked < lines.length) {
+					Position last = cs.getMark(LINE_MARK + (tracked - 1));
+					if (last != null) {
+						shift = modelContent.getLineInformationOfOffset(last.getModelOffset())
+								.getNumber() - lines[tracked - 1];
+					}
+				}
+				while (tracked < lines.length && tracked <= i + TRACKED_LINES
+						&& lines[tracked] + shift < modelContent.getNumberOfLines()) {
+					LineInformation line = modelContent.getLineInformation(lines[tracked] + shift);
+					cs.setMark(LINE_MARK + tracked, cs.newPositionForModelOffset(line.getEndOffset()));
+					tracked++;
+				}
+
+				Position mark = cs.getMark(LINE_MARK + i);
+				if (mark == null) {
+					//deleted, or it was behind the end of the text
+					continue;
+				}
+				LineInformation line = modelContent.getLineInformationOfOffset(mark.getModelOffset());
+				Position previousMark = previous < 0 ? null : cs.getMark(LINE_MARK + previous);
+				if (previous >= 0) {
+					cs.deleteMark(LINE_MARK + previous);
+				}
+				previous = i;
+				if (previousMark != null && isJoined(modelContent, previousMark, line)) {
+					continue;
+				}
+				processLine(operation, line, editorAdaptor);
 			}
+		} finally {
+			for (int j = Math.max(0, previous); j < tracked; j++) {
+				cs.deleteMark(LINE_MARK + j);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the line with the mark <tt>current</tt> was joined into the line the
+	 * command ran on last. A mark inside of deleted text is removed, but an empty line has no
+	 * text around its mark: when it is deleted, the mark stays behind at the start of the next
+	 * line. So a previous mark at the start of the line counts as a deleted line. Joining the
+	 * next line into an empty line changes the text in the same way, and isn't told apart.
+	 */
+	private static boolean isJoined(TextContent modelContent, Position previousMark,
+			LineInformation current) {
+		int offset = previousMark.getModelOffset();
+		LineInformation previousLine = modelContent.getLineInformationOfOffset(offset);
+		return previousLine.getNumber() == current.getNumber()
+				&& offset != previousLine.getBeginOffset();
+	}
+
+	private boolean processLine(LineWiseOperation operation, LineInformation line,
+			EditorAdaptor editorAdaptor) {
+		try {
+			LineRange singleLine = SimpleLineRange.singleLineInModel(editorAdaptor, line);
+			operation.execute(editorAdaptor, singleLine);
+			return true;
+		} catch (CommandExecutionException e) {
+			return false;
 		}
-		return operationPerformed;
 	}
 
 }
@@ -1,6 +1,7 @@
 package net.sourceforge.vrapper.vim.commands;
 
 import net.sourceforge.vrapper.platform.TextContent;
+import net.sourceforge.vrapper.utils.EditBatch;
 import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
 import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
@@ -58,16 +59,27 @@ public class JoinLinesCommand extends CountAwareCommand {
         }
         
         TextContent modelContent = editorAdaptor.getModelContent();
-        for (int i = 1; i < count; i++) {
-            int modelOffset = editorAdaptor.getPosition().getModelOffset();
-            LineInformation firstLnInfo = modelContent.getLineInformationOfOffset(modelOffset);
-            if (firstLnInfo.getNumber() + 1 == modelContent.getNumberOfLines())
-                throw new CommandExecutionException("there is nothing to join below last line");
+        int modelOffset = editorAdaptor.getPosition().getModelOffset();
+        LineInformation firstLnInfo = modelContent.getLineInformationOfOffset(modelOffset);
+        int lastLine = modelContent.getNumberOfLines() - 1;
+        if (firstLnInfo.getNumber() == lastLine)
+            throw new CommandExecutionException("there is nothing to join below last line");
+        int joins = Math.min(count - 1, lastLine - firstLnInfo.getNumber());
+
+        // All joins are computed on the original text and applied as one change. The state of the
+        // line joined so far is tracked here instead of being read back from the document.
+        boolean joinedLineEmpty = firstLnInfo.getLength() == 0;
+        boolean joinedLineEndsInSpace = ! joinedLineEmpty
+                && Character.isWhitespace(modelContent.charAt(firstLnInfo.getEndOffset() - 1));
+        EditBatch batch = new EditBatch();
+        int newCursorOffset = modelOffset;
+        int delta = 0;
+        for (int i = 0; i < joins; i++) {
             LineInformation secondLnInfo = modelContent.getLineInformation(firstLnInfo.getNumber() + 1);
             int eolOffset = firstLnInfo.getEndOffset();
             int bolOffset = secondLnInfo.getBeginOffset();
             String secondLineText = modelContent.getText(bolOffset, secondLnInfo.getLength());
-            LineInformation lastLineInfo = modelContent.getLineInformation(modelContent.getNumberOfLines() - 1);
+            int skipped = 0;
             String glue;
             if (isSmart) {
                 glue = " ";
@@ -76,24 +88,36 @@ public class JoinLinesCommand extends CountAwareCommand {
                 // any space between joined lines (this behavior is not
                 // documented in Vim manual, but experiments show that it works
                 // this way)
-                if (firstLnInfo.getLength() == 0)
+                if (joinedLineEmpty)
                     glue = "";
-                else if (Character.isWhitespace(modelContent.getText(eolOffset - 1, 1).charAt(0)))
+                else if (joinedLineEndsInSpace)
                     glue = "";
-                for (int j = 0; j < secondLineText.length() && Character.isWhitespace(secondLineText.charAt(j)); j++)
-                    bolOffset++;
+                while (skipped < secondLineText.length() && Character.isWhitespace(secondLineText.charAt(skipped)))
+                    skipped++;
                 // On last line of file, if it's a blank line, we don't want to append a space
-                if(secondLnInfo.getNumber() == lastLineInfo.getNumber() && secondLineText.length() == 0)
+                if(secondLnInfo.getNumber() == lastLine && secondLineText.length() == 0)
                      glue = "";
-                else if (modelContent.getText(bolOffset, 1).charAt(0) == ')')
+                else if (skipped < secondLineText.length() && secondLineText.charAt(skipped) == ')')
                     glue = "";
             } else
                 glue = "";
-                
-            modelContent.replace(eolOffset, bolOffset - eolOffset, glue);
-            editorAdaptor.setPosition(editorAdaptor.getPosition().setModelOffset(eolOffset),
-                    StickyColumnPolicy.ON_CHANGE);
+
+            batch.replace(eolOffset, bolOffset + skipped - eolOffset, glue);
+            newCursorOffset = eolOffset + delta;
+            delta += glue.length() - (bolOffset + skipped - eolOffset);
+
+            String appended = glue + secondLineText.substring(skipped);
+            if (appended.length() > 0) {
+                joinedLineEmpty = false;
+                joinedLineEndsInSpace = Character.isWhitespace(appended.charAt(appended.length() - 1));
+            }
+            firstLnInfo = secondLnInfo;
         }
+        batch.applyTo(modelContent);
+        editorAdaptor.setPosition(editorAdaptor.getPosition().setModelOffset(newCursorOffset),
+                StickyColumnPolicy.ON_CHANGE);
+        if (joins < count - 1)
+            throw new CommandExecutionException("there is nothing to join below last line");
     }
 
     @Override
@@ -210,6 +210,9 @@ public class LineRangeOperationCommand extends CountIgnoringNonRepeatableCommand
     	else if(operation == 'm') {
     		return new CopyMoveLinesOperation(operationStr, true);
     	}
+    	else if(operation == 'u' && operationStr.startsWith("uniq")) {
+    		return new UniqOperation(operationStr.substring(4));
+    	}
     	else if(operation == 'n' && operationStr.startsWith("norm")) {
     		return new AnonymousMacroOperation(operationStr);
     	}
@@ -1,7 +1,6 @@
 package net.sourceforge.vrapper.vim.commands;
 
 import net.sourceforge.vrapper.keymap.KeyStroke;
-import net.sourceforge.vrapper.keymap.vim.ConstructorWrappers;
 import net.sourceforge.vrapper.utils.Function;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
 import net.sourceforge.vrapper.vim.MacroPlayer;
@@ -10,11 +9,12 @@ import net.sourceforge.vrapper.vim.register.RegisterContent;
 import net.sourceforge.vrapper.vim.register.RegisterManager;
 
 /**
- * Enqueues a macro in the playlist of the {@link MacroPlayer}.
+ * Enqueues a macro in the playlist of the {@link MacroPlayer}, to be played as many times as
+ * the count says.
  *
  * @author Matthias Radig
  */
-public class PlaybackMacroCommand extends SimpleRepeatableCommand {
+public class PlaybackMacroCommand extends CountAwareCommand {
 
     public static final Function<Command, KeyStroke> KEYSTROKE_CONVERTER = new Function<Command, KeyStroke>() {
         public Command call(KeyStroke arg) {
@@ -32,7 +32,8 @@ public class PlaybackMacroCommand extends SimpleRepeatableCommand {
         this.macroName = macroName;
     }
 
-    public void execute(EditorAdaptor editorAdaptor)
+    @Override
+    public void execute(EditorAdaptor editorAdaptor, int count)
             throws CommandExecutionException {
     	RegisterManager registerManager = editorAdaptor.getRegisterManager();
     	Register namedRegister = registerManager.getRegister(macroName);
@@ -42,11 +43,11 @@ public class PlaybackMacroCommand extends SimpleRepeatableCommand {
         }
         //store this register for the '@@' command
         registerManager.setLastNamedRegister(namedRegister);
-        Iterable<KeyStroke> parsed = ConstructorWrappers.parseKeyStrokes(content.getText());
-        editorAdaptor.getMacroPlayer().add(parsed);
+        editorAdaptor.getMacroPlayer().add(content.getText(), count == NO_COUNT_GIVEN ? 1 : count);
     }
 
-    public Command repetition() {
+    @Override
+    public CountAwareCommand repetition() {
         return this;
     }
 
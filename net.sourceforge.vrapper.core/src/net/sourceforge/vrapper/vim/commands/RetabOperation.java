@@ -1,9 +1,7 @@
 package net.sourceforge.vrapper.vim.commands;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import net.sourceforge.vrapper.platform.TextContent;
+import net.sourceforge.vrapper.utils.EditBatch;
 import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.utils.LineRange;
 import net.sourceforge.vrapper.utils.Position;
@@ -109,13 +107,11 @@ public class RetabOperation extends AbstractLinewiseOperation {
             TextContent content = editorAdaptor.getModelContent();
             LineInformation startLine;
             LineInformation endLine;
-            int length;
             
             startLine = content.getLineInformation(lineRange.getStartLine());
             endLine = content.getLineInformation(lineRange.getEndLine());
-            length = lineRange.getModelLength();
             
-            doIt(editorAdaptor, startLine, endLine, length);
+            doIt(editorAdaptor, startLine, endLine);
             
         } catch (Exception e) {
             throw new CommandExecutionException("retab failed: " + e.getMessage());
@@ -130,8 +126,7 @@ public class RetabOperation extends AbstractLinewiseOperation {
      */
     public void doIt(EditorAdaptor editorAdaptor, 
                      LineInformation startLine, 
-                     LineInformation endLine, 
-                     int totalLengthOfRange) throws Exception {
+                     LineInformation endLine) throws Exception {
 
         int tabStop = editorAdaptor.getConfiguration().get(Options.TAB_STOP);
         boolean expandTab = editorAdaptor.getConfiguration().get(Options.EXPAND_TAB);
@@ -153,20 +148,18 @@ public class RetabOperation extends AbstractLinewiseOperation {
        
         editorAdaptor.getConfiguration().set(Options.TAB_STOP, newTab);
         
-        // Throw the whole editor into an array separated by newlines
-        String newline = editorAdaptor.getConfiguration().getNewLine();
         TextContent content = editorAdaptor.getModelContent();
-        int totalLinesInEditor = content.getNumberOfLines();
-        List<String> editorContentList = new ArrayList<String>();
+        EditBatch batch = new EditBatch();
         LineInformation line = null;
     
         /* 
-         * Step 1: Go through and retab each line and put it into an
-         *         array list so we can replace the contents of the editor
+         * Retab each line and collect the lines which changed, so that they can be
+         * replaced in a single change. Unchanged lines and line delimiters are left alone.
          */
         for(int i = startLine.getNumber(); i <= endLine.getNumber(); ++i) {
             line = content.getLineInformation(i);
-            String lineStr = content.getText(line.getBeginOffset(), line.getLength());
+            String oldLineStr = content.getText(line.getBeginOffset(), line.getLength());
+            String lineStr = oldLineStr;
          
             if(expandTab) { 
                 lineStr = lineStr.replaceAll("\\t", replacementSpaces);
@@ -176,29 +169,11 @@ public class RetabOperation extends AbstractLinewiseOperation {
                 lineStr = lineStr.replaceAll(replacementSpaces, "\t");
             }
             
-            editorContentList.add(lineStr);
+            if( ! lineStr.equals(oldLineStr))
+                batch.replace(line.getBeginOffset(), line.getLength(), lineStr);
         }
 
-        /*
-         * Step 2: Append newlines to everything but the very last line of the editor
-         */
-        StringBuilder replacementText = new StringBuilder();
-        int count = startLine.getNumber();
-        for (String editorLine : editorContentList) {
-            if(count != totalLinesInEditor - 1)
-                editorLine += newline;
-            
-            ++count;
-            replacementText.append(editorLine);
-        }
-        
-        /*
-         * Step 3: Replace the contents of the editor with the freshly retabbed text
-         *         This applies to a range, or the whole editor
-         */
-        editorAdaptor.getModelContent().replace(startLine.getBeginOffset(),
-                                                totalLengthOfRange,
-                                                replacementText.toString());
+        batch.applyTo(content);
         //put cursor at beginning of sorted text
         editorAdaptor.setPosition(
         		editorAdaptor.getCursorService().newPositionForModelOffset(startLine.getBeginOffset()),
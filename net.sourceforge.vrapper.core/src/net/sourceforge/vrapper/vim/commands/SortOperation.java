@@ -1,21 +1,21 @@
 package net.sourceforge.vrapper.vim.commands;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.io.IOException;
+import java.util.regex.PatternSyntaxException;
 
 import net.sourceforge.vrapper.platform.TextContent;
+import net.sourceforge.vrapper.platform.ViewportService;
 import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.utils.LineRange;
-import net.sourceforge.vrapper.utils.NumericStringComparator;
-import net.sourceforge.vrapper.utils.PatternSortComparator;
+import net.sourceforge.vrapper.utils.LineSorter;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.utils.SimpleLineRange;
+import net.sourceforge.vrapper.utils.UniqueLines;
+import net.sourceforge.vrapper.utils.VimPattern;
+import net.sourceforge.vrapper.utils.VimRegexCompiler;
 import net.sourceforge.vrapper.utils.VimUtils;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
+import net.sourceforge.vrapper.vim.Options;
 import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
 
 /**
@@ -57,16 +57,10 @@ import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
  * lines to be different.
  * </pre>
  * 
- * TODO: Pattern has not yet fully been implemented.
- * 		 This has been giving me problems, mostly because
- * 		 of the differences between Java regular expressions
- * and, well, every other regular expression implementation.
- * 
- * 		 Many of the simple examples in the Vim docs won't work
- * 		 in a Java regex. The decision has to be made, do we make
- * 		 the user use Java regex's or do we translate? Translation
- * 		 would be a huge pain, but it would give the user a 
- * familiarity benefit.
+ * The pattern is compiled once with {@link VimRegexCompiler}, like search patterns, so
+ * Vim syntax works after <tt>\v</tt> or <tt>\m</tt>. It is matched against every line on its
+ * own, with a single matcher which is reset for each line. Case is handled like for
+ * <tt>:s</tt>: 'ignorecase' and 'smartcase' apply, [i] only affects how the keys compare.
  * 
  * <pre>
  * When /{pattern}/ is specified and there is no [r] flag
@@ -109,6 +103,9 @@ import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
  */
 public class SortOperation extends AbstractLinewiseOperation {
 
+    /** Characters of sorted text inserted at once when a large range is sorted on disk. */
+    private static final int WRITE_CHUNK = 1 << 16;
+
     private static final String REVERSED_FLAG    = "!";
     private static final String NUMERIC_FLAG     = "n";
     private static final String IGNORE_CASE_FLAG = "i";
@@ -208,43 +205,6 @@ public class SortOperation extends AbstractLinewiseOperation {
         return null;
     }
 
-    /**
-     * According to Vim behavior, sorting by number will look at the FIRST
-     * OCCURRENCE of contiguous number string on a line.
-     * The following return true:
-     *      1
-     *      9L
-     *      67 Chevy
-     *      -29
-     *      blah blah 5 blah blah
-     *      0b01010
-     *      01234567123
-     *      Ox123
-     * NOTE: These will match to the very FIRST occurrence of a number in their
-     * set. If it finds one, then we return true.
-     * 
-     * @param str
-     * @param base
-     * @return
-     */
-    private boolean hasNumber(String str, int offset) {
-    	int radix = 10;
-    	     if(binary) radix = 2;
-    	else if(octal)  radix = 8;
-    	else if(hex)    radix = 16;
-    	
-    	if(offset > 0) {
-    		str = str.substring(offset);
-    	}
-        char[] strArr = str.toCharArray();
-        for (char c : strArr) {
-            if (Character.digit(c, radix) != -1)
-                return true;
-        }
-
-        return false;
-    }
-
 	@Override
     public void execute(EditorAdaptor editorAdaptor, LineRange lineRange) throws CommandExecutionException {
         try {
@@ -281,129 +241,65 @@ public class SortOperation extends AbstractLinewiseOperation {
      */
     public void doIt(EditorAdaptor editorAdaptor, LineInformation startLine,
     		LineInformation endLine, int totalLengthOfRange) throws Exception {
-        // Throw the whole editor into an array separated by newlines
         String newline = editorAdaptor.getConfiguration().getNewLine();
-        TextContent content = editorAdaptor.getModelContent();
-        int totalLinesInEditor = content.getNumberOfLines();
-        List<String> editorContentList = new ArrayList<String>();
-        Comparator<String> comp = null;
-        LineInformation line = null;
-       
-        /* 
-         * Step 1: Put editor text into a sortable array
-         *         This may be the whole editor or a range
-         */
-        for(int i = startLine.getNumber(); i <= endLine.getNumber(); ++i) {
-            line = content.getLineInformation(i);
-            String lineStr = content.getText(line.getBeginOffset(), line.getLength());
-            editorContentList.add(lineStr);
-        }
-       
-        /*
-         * Step 2: If u was specified, get all unique lines 
-         *         and remove the rest
-         */
-        if (unique) {
-        	//use a Set to remove all duplicates for us
-        	Set<String> set;
-        	if(ignoreCase) {
-        		//TreeSet can take a Comparator as an argument to constructor
-        		set = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
-        	} else {
-        		set = new TreeSet<String>();
-        	}
-        	set.addAll(editorContentList);
-            editorContentList = new ArrayList<String>(set);
-            totalLinesInEditor = editorContentList.size();
-        }
-       
-        /*
-         * Step 3: If a pattern was used, handle it
-         */
-        List<String> candidateList = editorContentList;
-        List<Integer> candidateOffsetList = new ArrayList<Integer>();
-        List<String> nonCandidateList = new ArrayList<String>();
-        if(usePattern) {
-            String candidate;
-            for (int i = 0; i < candidateList.size(); i++) {
-            	candidate = candidateList.get(i);
-
-            	if(candidate.contains(pattern)) {
-            		candidateOffsetList.add( usePatternR ? candidate.indexOf(pattern) : candidate.indexOf(pattern) + pattern.length() );
-            	}
-            	else {
-                	candidateList.remove(i);
-                	i--;
-            		nonCandidateList.add(candidate);
-            	}
-            }
-            
-            comp = new PatternSortComparator(pattern, usePatternR);
-        }
+        final TextContent content = editorAdaptor.getModelContent();
+        boolean lastLineOfEditor = endLine.getNumber() == content.getNumberOfLines() - 1;
+        final int firstLine = startLine.getNumber();
+        final int lineCount = endLine.getNumber() - firstLine + 1;
+        LineSorter sorter = createSorter(editorAdaptor);
 
-        /*
-         * Step 4: If a numeric sort was called, separate numeric vs. non-numeric
-         *         Also handle ignore case
-         */
-        if (numeric || binary || octal || hex) {
-        	String newLine = editorAdaptor.getConfiguration().getNewLine();
-        	comp = new NumericStringComparator(newLine, binary, octal, hex, pattern, usePatternR);
+        if (sorter.exceedsMemoryBudget(totalLengthOfRange)) {
+            sortExternally(editorAdaptor, sorter, startLine.getBeginOffset(), firstLine,
+                    lineCount, totalLengthOfRange, lastLineOfEditor);
+        } else {
+            /*
+             * Step 1: Split the range into lines
+             */
+            String[] lines = splitLines(content.getText(startLine.getBeginOffset(),
+                    endLine.getEndOffset() - startLine.getBeginOffset()), lineCount);
 
-        	String candidate;
-        	int candidateOffset;
-            for (int i=0; i < candidateList.size(); i++) {
-            	candidate = candidateList.get(i);
-            	candidateOffset = candidateOffsetList.size() > i ? candidateOffsetList.get(i) : -1;
-                if (! hasNumber(candidate, candidateOffset)) {
-                	candidateList.remove(candidate);
-                	i--;
-                    nonCandidateList.add(candidate);
+            /*
+             * Step 2: Extract the sort key of every line once and sort on the keys
+             */
+            int[] order = sorter.sort(lines);
+            if (reversed) {
+                for (int i = 0, j = order.length - 1; i < j; i++, j--) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
                 }
             }
-        } else if(ignoreCase) {
-        	comp = String.CASE_INSENSITIVE_ORDER;
-        }
-        
-        /*
-         * Step 5: Perform the actual sorting on all sortable candidates
-         */
-        if(comp == null) { // normal ascii sort
-            Collections.sort(candidateList);
-        } else {
-            Collections.sort(candidateList, comp);
-        }
-        
-        // Add non-sorted rows before sorted rows, per Vim behavior
-        editorContentList = new ArrayList<String>(nonCandidateList);
-        editorContentList.addAll(candidateList);
 
-        if (reversed) {
-            Collections.reverse(editorContentList);
-        }
+            /*
+             * Step 3: If u was specified, drop lines equal to the line before them,
+             *         comparing whole lines like Vim does
+             */
+            if (unique) {
+                order = UniqueLines.removeAdjacent(lines, order, ignoreCase);
+            }
 
-        /*
-         * Step 6: Append newlines to everything but the very last line of the editor
-         */
-        StringBuilder replacementText = new StringBuilder();
-        int count = startLine.getNumber();
-        for (String editorLine : editorContentList) {
-            if(count != totalLinesInEditor - 1) {
-                editorLine += newline;
+            /*
+             * Step 4: Join the lines in sorted order, with a newline after
+             *         everything but the very last line of the editor
+             */
+            StringBuilder replacementText = new StringBuilder(totalLengthOfRange);
+            for (int i = 0; i < order.length; i++) {
+                replacementText.append(lines[order[i]]);
+                if (i < order.length - 1 || ! lastLineOfEditor) {
+                    replacementText.append(newline);
+                }
             }
-            ++count;
-            replacementText.append(editorLine);
+
+            /*
+             * Step 5: Replace the contents of the editor with the freshly sorted text
+             *         This applies to a range, or the whole editor
+             */
+            content.replace(
+                    startLine.getBeginOffset(),
+                    totalLengthOfRange,
+                    replacementText.toString()
+            );
         }
-        
-        /*
-         * Step 7: Replace the contents of the editor with the freshly sorted text
-         *         This applies to a range, or the whole editor
-         */
-        editorAdaptor.getModelContent().replace(
-        		startLine.getBeginOffset(),
-        		totalLengthOfRange,
-        		replacementText.toString()
-        		
-		);
         //put cursor at beginning of sorted text
         editorAdaptor.setPosition(
         		editorAdaptor.getCursorService().newPositionForModelOffset(startLine.getBeginOffset()),
@@ -411,6 +307,130 @@ public class SortOperation extends AbstractLinewiseOperation {
         );
     }
 
+    /**
+     * Sorts a range which is too large to keep several copies of it: the lines are read one by
+     * one and sorted in runs on disk. The merged lines are inserted in front of the range in
+     * chunks of {@link #WRITE_CHUNK} characters, then the unsorted range is removed, so the
+     * sorted text never has to be held in one piece. All of it is one change for undo.
+     */
+    private void sortExternally(EditorAdaptor editorAdaptor, LineSorter sorter,
+            final int start, final int firstLine, final int lineCount, int totalLengthOfRange,
+            boolean lastLineOfEditor) throws IOException {
+        final TextContent content = editorAdaptor.getModelContent();
+        final String separator = editorAdaptor.getConfiguration().getNewLine();
+        ViewportService view = editorAdaptor.getViewportService();
+        editorAdaptor.getHistory().beginCompoundChange();
+        editorAdaptor.getHistory().lock("sort");
+        view.setRepaint(false);
+        view.lockRepaint(this);
+        try {
+            final int[] written = new int[1];
+            final StringBuilder chunk = new StringBuilder();
+            sorter.sortExternally(new LineSorter.LineSource() {
+                @Override
+                public int getLineCount() {
+                    return lineCount;
+                }
+                @Override
+                public String getLine(int index) {
+                    //nothing is inserted before all lines have been read
+                    LineInformation line = content.getLineInformation(firstLine + index);
+                    return content.getText(line.getBeginOffset(), line.getLength());
+                }
+            }, reversed, new LineSorter.LineSink() {
+                private String previous;
+                @Override
+                public void addLine(String line) {
+                    if ( ! unique || previous == null
+                            || ! UniqueLines.equal(previous, line, ignoreCase)) {
+                        //the newline goes in front, the last line may not get one
+                        if (previous != null) {
+                            chunk.append(separator);
+                        }
+                        chunk.append(line);
+                        if (chunk.length() >= WRITE_CHUNK) {
+                            content.replace(start + written[0], 0, chunk.toString());
+                            written[0] += chunk.length();
+                            chunk.setLength(0);
+                        }
+                    }
+                    previous = line;
+                }
+            });
+            if ( ! lastLineOfEditor) {
+                chunk.append(separator);
+            }
+            content.replace(start + written[0], 0, chunk.toString());
+            written[0] += chunk.length();
+            content.replace(start + written[0], totalLengthOfRange, "");
+        } finally {
+            view.unlockRepaint(this);
+            view.setRepaint(true);
+            editorAdaptor.getHistory().unlock("sort");
+            editorAdaptor.getHistory().endCompoundChange();
+        }
+    }
+
+    private LineSorter createSorter(EditorAdaptor editorAdaptor) throws CommandExecutionException {
+        VimPattern compiledPattern = null;
+        if(usePattern) {
+            String find = pattern;
+            if (find.length() == 0) {
+                // "//" uses the last search pattern.
+                // Register manager guarantees that the register content is not null here.
+                find = editorAdaptor.getRegisterManager().getRegister("/").getContent().getText();
+                if (find.length() == 0) {
+                    throw new CommandExecutionException("No previous regular expression");
+                }
+            }
+            boolean caseSensitive = editorAdaptor.getSearchAndReplaceService()
+                    .isCaseSensitive(find, "");
+            try {
+                // Lines are matched one at a time, so no multi-line mode.
+                compiledPattern = VimRegexCompiler.compile(find, caseSensitive, 0);
+            } catch (PatternSyntaxException e) {
+                throw new CommandExecutionException("Invalid pattern: " + e.getDescription());
+            }
+            if (compiledPattern.usesVisualArea()) {
+                // Keys are matched in the lines on their own, which have no document offsets.
+                throw new CommandExecutionException("\\%V is not supported in :sort patterns");
+            }
+        }
+        int radix = 0;
+        if (binary) {
+            radix = 2;
+        } else if (octal) {
+            radix = 8;
+        } else if (hex) {
+            radix = 16;
+        } else if (numeric) {
+            radix = 10;
+        }
+        LineSorter sorter = new LineSorter(radix, ignoreCase, compiledPattern, usePatternR);
+        sorter.setParallelThreshold(editorAdaptor.getConfiguration().get(Options.PARALLEL_SORT));
+        return sorter;
+    }
+
+    /**
+     * @return the <tt>count</tt> lines of <tt>text</tt>, without line delimiters.
+     */
+    static String[] splitLines(String text, int count) {
+        String[] lines = new String[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = start;
+            while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+                end++;
+            }
+            lines[i] = text.substring(start, end);
+            start = end + 1;
+            if (end + 1 < text.length() && text.charAt(end) == '\r' && text.charAt(end + 1) == '\n') {
+                start++;
+            }
+        }
+        return lines;
+    }
+
 	public TextOperation repetition() {
 		return null;
 	}
@@ -1,12 +1,12 @@
 package net.sourceforge.vrapper.vim.commands;
 
-import net.sourceforge.vrapper.platform.SearchAndReplaceService;
-import net.sourceforge.vrapper.platform.TextContent;
-import net.sourceforge.vrapper.utils.LineInformation;
+import java.util.regex.PatternSyntaxException;
+
 import net.sourceforge.vrapper.utils.LineRange;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.utils.SimpleLineRange;
 import net.sourceforge.vrapper.utils.SubstitutionDefinition;
+import net.sourceforge.vrapper.utils.SubstitutionEngine;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
 
 /**
@@ -17,6 +17,7 @@ import net.sourceforge.vrapper.vim.EditorAdaptor;
 public class SubstitutionOperation extends AbstractLinewiseOperation {
 
 	private SubstitutionDefinition subDef;
+	private SubstitutionEngine engine;
 
 	public SubstitutionOperation(SubstitutionDefinition substitution) {
 		this.subDef = substitution;
@@ -34,45 +35,29 @@ public class SubstitutionOperation extends AbstractLinewiseOperation {
 
     @Override
     public void execute(EditorAdaptor editorAdaptor, LineRange range) throws CommandExecutionException {
-        TextContent model = editorAdaptor.getModelContent();
-		int numReplaces = 0;
-		int lineReplaceCount = 0;
-		if (range.getStartLine() == range.getEndLine()) {
-			LineInformation currentLine = model.getLineInformation(range.getStartLine());
-			//begin and end compound change so a single 'u' undoes all replaces
-			editorAdaptor.getHistory().beginCompoundChange();
-			numReplaces = performReplace(currentLine, subDef.find, subDef.replace, subDef.flags, editorAdaptor);
-			editorAdaptor.getHistory().endCompoundChange();
-		}
-		else {
-			LineInformation line;
-			int lineChanges = 0;
-
-			int endLine = range.getEndLine();
-			int totalLines = model.getNumberOfLines();
-			int lineDiff;
-			//perform search individually on each line in the range
-			//(so :%s without 'g' flag runs once on each line)
-			editorAdaptor.getHistory().beginCompoundChange();
-			for(int i=range.getStartLine(); i <= endLine; i++) {
-				line = model.getLineInformation(i);
-				lineChanges = performReplace(line, subDef.find, subDef.replace, subDef.flags, editorAdaptor);
-				if(lineChanges > 0) {
-					lineReplaceCount++;
-				}
-				numReplaces += lineChanges;
-
-				lineDiff = model.getNumberOfLines() - totalLines;
-				if(lineDiff > 0) {
-				    //lines were introduced as a result of this replacement
-				    //skip over those introduced lines and move on to the next intended line
-				    i += lineDiff;
-				    endLine += lineDiff;
-				    totalLines += lineDiff;
-				}
-			}
-			editorAdaptor.getHistory().endCompoundChange();
-		}
+        SubstitutionEngine engine = getEngine(editorAdaptor);
+        SubstitutionEngine.Result result;
+        if (subDef.hasFlag('n')) {
+            //only counting, this doesn't touch the document or the undo history
+            result = editorAdaptor.getSearchAndReplaceService().countMatches(engine.getPattern(),
+                    range.getStartLine(), range.getEndLine(), subDef.hasFlag('g'),
+                    editorAdaptor.getLastActiveSelection());
+        } else {
+            //begin and end compound change so a single 'u' undoes all replaces
+            editorAdaptor.getHistory().beginCompoundChange();
+            try {
+                //the engine searches each line individually
+                //(so :%s without 'g' flag runs once on each line)
+                //patterns containing \%V only match inside the last visual selection
+                result = engine.substitute(editorAdaptor.getModelContent(),
+                        range.getStartLine(), range.getEndLine(), subDef.hasFlag('g'),
+                        editorAdaptor.getLastActiveSelection());
+            } finally {
+                editorAdaptor.getHistory().endCompoundChange();
+            }
+        }
+		int numReplaces = result.getSubstitutions();
+		int lineReplaceCount = result.getLines();
 		
 		if (numReplaces == 0) {
 			editorAdaptor.getUserInterfaceService().setErrorMessage("'"+subDef.find+"' not found");
@@ -91,26 +76,26 @@ public class SubstitutionOperation extends AbstractLinewiseOperation {
 		// [TODO] Move to substitution parser
 		editorAdaptor.getRegisterManager().setLastSubstitution(this);
 	}
-    
-    private int performReplace(LineInformation line, String find,
-    		String replace, String flags, EditorAdaptor editorAdaptor) {
-    	//Eclipse regex doesn't handle '^' and '$' like Vim does.
-    	//Time for some special cases!
-		if(find.equals("^")) {
-			//insert the text at the beginning of the line
-            editorAdaptor.getModelContent().replace(line.getBeginOffset(), 0, replace);
-			return 1;
-		}
-		else if(find.equals("$")) {
-			//insert the text at the end of the line
-            editorAdaptor.getModelContent().replace(line.getEndOffset(), 0, replace);
-			return 1;
-		}
-		else {
-			//let Eclipse handle the regex
-			SearchAndReplaceService searchAndReplace = editorAdaptor.getSearchAndReplaceService();
-			return searchAndReplace.replace(line, find, replace, flags);
-		}
+
+    /**
+     * Compiles the substitution, the result is kept for repeating it with '&' as long as the
+     * case sensitivity and line delimiter stay the same.
+     */
+    private SubstitutionEngine getEngine(EditorAdaptor editorAdaptor) throws CommandExecutionException {
+        boolean caseSensitive = editorAdaptor.getSearchAndReplaceService()
+                .isCaseSensitive(subDef.find, subDef.flags);
+        String newLine = editorAdaptor.getConfiguration().getNewLine();
+        if (engine == null || engine.isCaseSensitive() != caseSensitive
+                || ! engine.getNewLine().equals(newLine)) {
+            try {
+                engine = new SubstitutionEngine(subDef.find, subDef.replace, caseSensitive, newLine);
+            } catch (PatternSyntaxException e) {
+                throw new CommandExecutionException(e.getDescription());
+            } catch (IllegalArgumentException e) {
+                throw new CommandExecutionException(e.getMessage());
+            }
+        }
+        return engine;
     }
 
 	public TextOperation repetition() {
@@ -0,0 +1,88 @@
+package net.sourceforge.vrapper.vim.commands;
+
+import net.sourceforge.vrapper.platform.TextContent;
+import net.sourceforge.vrapper.utils.LineInformation;
+import net.sourceforge.vrapper.utils.LineRange;
+import net.sourceforge.vrapper.utils.Position;
+import net.sourceforge.vrapper.utils.SimpleLineRange;
+import net.sourceforge.vrapper.utils.UniqueLines;
+import net.sourceforge.vrapper.vim.EditorAdaptor;
+import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
+
+/**
+ * <pre>
+ * :[range]uniq [i]
+ * </pre>
+ * Removes every line in [range] which equals an earlier line in the range, keeping the
+ * remaining lines in their order. Without a range the whole file is used. With [i] case
+ * is ignored.
+ * <p>
+ * Unlike <tt>:sort u</tt>, equal lines don't need to be next to each other. The first
+ * occurrences are found with a hash table, so this takes linear time.
+ * <p>
+ * XXX: NOT ORIGINALLY PART OF VIM
+ */
+public class UniqOperation extends AbstractLinewiseOperation {
+
+    private static final String IGNORE_CASE_FLAG = "i";
+
+    /** i - ignore case */
+    private boolean ignoreCase = false;
+    /** Argument which is neither empty nor [i], reported when the command is executed. */
+    private String invalidArgument;
+
+    public UniqOperation(String commandStr) {
+        super();
+        String argument = commandStr != null ? commandStr.trim() : "";
+        if (argument.equalsIgnoreCase(IGNORE_CASE_FLAG)) {
+            ignoreCase = true;
+        } else if (argument.length() > 0) {
+            invalidArgument = argument;
+        }
+    }
+
+    @Override
+    public LineRange getDefaultRange(EditorAdaptor editorAdaptor, int count, Position currentPos)
+            throws CommandExecutionException {
+        return SimpleLineRange.entireFile(editorAdaptor);
+    }
+
+    @Override
+    public void execute(EditorAdaptor editorAdaptor, LineRange lineRange) throws CommandExecutionException {
+        if (invalidArgument != null) {
+            throw new CommandExecutionException("Invalid argument: " + invalidArgument);
+        }
+        TextContent content = editorAdaptor.getModelContent();
+        LineInformation startLine = content.getLineInformation(lineRange.getStartLine());
+        LineInformation endLine = content.getLineInformation(lineRange.getEndLine());
+        int lineCount = endLine.getNumber() - startLine.getNumber() + 1;
+        if (lineCount < 2) {
+            return;
+        }
+        String[] lines = SortOperation.splitLines(content.getText(startLine.getBeginOffset(),
+                endLine.getEndOffset() - startLine.getBeginOffset()), lineCount);
+        int[] kept = UniqueLines.firstOccurrences(lines, ignoreCase);
+        if (kept.length < lineCount) {
+            // Collect the numbers of the lines which are not kept.
+            int[] duplicates = new int[lineCount - kept.length];
+            int next = 0;
+            int count = 0;
+            for (int i = 0; i < lineCount; i++) {
+                if (next < kept.length && kept[next] == i) {
+                    next++;
+                } else {
+                    duplicates[count++] = startLine.getNumber() + i;
+                }
+            }
+            ExCommandOperation.deleteLines(content, duplicates);
+        }
+        //put cursor at beginning of the range
+        editorAdaptor.setPosition(
+                editorAdaptor.getCursorService().newPositionForModelOffset(startLine.getBeginOffset()),
+                StickyColumnPolicy.ON_CHANGE);
+    }
+
+    public TextOperation repetition() {
+        return null;
+    }
+}
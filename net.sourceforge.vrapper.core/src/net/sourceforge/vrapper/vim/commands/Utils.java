@@ -1,6 +1,6 @@
 package net.sourceforge.vrapper.vim.commands;
 
-import java.util.regex.Pattern;
+import net.sourceforge.vrapper.utils.KeywordCharacterClass;
 
 
 public class Utils {
@@ -9,13 +9,13 @@ public class Utils {
     public static final int WORD = 1;
     public static final int OTHER = 2;
 
-	public static int characterType(char chr, String iskeyword) {
+	public static int characterType(char chr, KeywordCharacterClass iskeyword) {
 		if (Character.isWhitespace(chr))
 			return WHITESPACE;
-		else if (Pattern.matches("["+iskeyword+"]", ""+chr))
+		else if (iskeyword.isKeyword(chr))
 			return WORD;
 		else
 			return OTHER;
 	}
 
-}
\ No newline at end of file
+}
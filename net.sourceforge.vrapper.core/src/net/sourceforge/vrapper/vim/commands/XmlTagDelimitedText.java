@@ -197,7 +197,7 @@ public class XmlTagDelimitedText implements DelimitedText {
     }
 
     private char characterAt(Position position, EditorAdaptor editorAdaptor) {
-        return editorAdaptor.getModelContent().getText(position.getModelOffset(), 1).charAt(0);
+        return editorAdaptor.getModelContent().charAt(position.getModelOffset());
     }
 
     /**
@@ -16,7 +16,7 @@ public class BailOffMotion extends AbstractModelSideMotion {
 
     @Override
     protected int destination(int offset, TextContent content, int count) throws CommandExecutionException {
-        if (content.getText(offset, 1).charAt(0) == delim)
+        if (content.charAt(offset) == delim)
             if (count == 1)
                 return offset;
             else
@@ -34,7 +34,7 @@ public class FindBalancedMotion extends AbstractModelSideMotion {
         char current;
         while (backwards ? offset > end : offset < end) {
             offset += step;
-            current = content.getText(offset, 1).charAt(0);
+            current = content.charAt(offset);
             if(current == target && !isEscaped(content, offset))
                 --depth;
             else if (current == pair && !isEscaped(content, offset))
@@ -42,7 +42,7 @@ public class FindBalancedMotion extends AbstractModelSideMotion {
             if (depth == 0)
                 break;
         }
-        if(offset >= content.getTextLength() || depth != 0 || content.getText(offset, 1).charAt(0) != target) {
+        if(offset >= content.getTextLength() || depth != 0 || content.charAt(offset) != target) {
             throw new CommandExecutionException("'" + target + "' not found");
         }
         if(!upToTarget) {
@@ -56,7 +56,7 @@ public class FindBalancedMotion extends AbstractModelSideMotion {
         if(offset == 0 || ignoreEscape) {
             return false;
         }
-        return content.getText(offset - 1, 1).charAt(0) == '\\';
+        return content.charAt(offset - 1) == '\\';
     }
 
     protected int getEndSearchOffset(TextContent content, int offset) {
@@ -113,13 +113,13 @@ public class FindQuoteMotion extends AbstractModelSideMotion {
 	}
 	
 	private boolean isQuote(TextContent content, int offset) {
-	    if(content.getText(offset, 1).charAt(0) == quote) {
+	    if(content.charAt(offset) == quote) {
 	        if(offset == 0) {
 	            return true;
 	        }
 	        else {
 	            //skip escaped quotes
-	            return content.getText(offset - 1, 1).charAt(0) != '\\';
+	            return content.charAt(offset - 1) != '\\';
 	        }
 	    }
 	    return false;
@@ -169,7 +169,7 @@ public class FindQuoteMotion extends AbstractModelSideMotion {
                 LineInformation lineInfo = content.getLineInformationOfOffset(rightOffset);
 
                 while (rightOffset < lineInfo.getEndOffset()
-                        && Character.isWhitespace(content.getText(rightOffset, 1).charAt(0))) {
+                        && Character.isWhitespace(content.charAt(rightOffset))) {
                     rightOffset++;
                 }
                 Position rightPos = cursorService.newPositionForModelOffset(rightOffset);
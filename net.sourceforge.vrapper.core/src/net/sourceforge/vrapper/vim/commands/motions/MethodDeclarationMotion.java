@@ -44,7 +44,7 @@ public class MethodDeclarationMotion extends AbstractModelSideMotion {
         char testChar;
 
         while(testOffset < content.getTextLength()) {
-            testChar = content.getText(testOffset, 1).charAt(0);
+            testChar = content.charAt(testOffset);
             if(testChar == '{') {
                 if(depth == 1) {
                     lastOpen = testOffset;
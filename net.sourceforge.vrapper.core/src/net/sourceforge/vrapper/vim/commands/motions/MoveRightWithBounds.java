@@ -1,8 +1,7 @@
 package net.sourceforge.vrapper.vim.commands.motions;
 
 import static java.lang.Math.min;
-import net.sourceforge.vrapper.platform.TextContent;
-import net.sourceforge.vrapper.utils.VimUtils;
+import net.sourceforge.vrapper.utils.CharCursor;
 
 public abstract class MoveRightWithBounds extends MoveWithBounds {
 
@@ -11,35 +10,31 @@ public abstract class MoveRightWithBounds extends MoveWithBounds {
     }
 
     @Override
-	protected int destination(int offset, TextContent content, boolean bailOff, boolean hasMoreCounts) {
+	protected int destination(int offset, CharCursor content, boolean bailOff, boolean hasMoreCounts) {
 		// ensure we don't stay inside object
 		if (!bailOff && shouldStopAtLeftBoundingChar())
 			++offset;
 
 		int textLen = content.getTextLength();
 		boolean lookingAtNL = false;
-		notFound: while (offset < textLen - 1) {
-			int i, len = min(BUFFER_LEN, textLen - offset);
-			String buffer = content.getText(offset, len);
-			for (i = 0; i < len-1; i++, offset++) {
-				if (stopsAtNewlines()) {
-				    int nlSkip = VimUtils.startsWithNewLine(buffer.substring(i));
-				    if (nlSkip != 0) {
-				        if (lookingAtNL) {
-				            return min(offset, textLen);
-				        } else {
-				            i += nlSkip - 1;
-				            offset += nlSkip - 1;
-				            if (i >= len - 1) {
-				                break;
-				            }
-				        }
-				    } 
-				    lookingAtNL = nlSkip != 0;
-				}
-				if (atBoundary(buffer.charAt(i), buffer.charAt(i+1)))
-					break notFound;
+		while (offset < textLen - 1) {
+			if (stopsAtNewlines()) {
+			    int nlSkip = content.newLineLengthAt(offset);
+			    if (nlSkip != 0) {
+			        if (lookingAtNL) {
+			            return min(offset, textLen);
+			        } else {
+			            offset += nlSkip - 1;
+			            if (offset >= textLen - 1) {
+			                break;
+			            }
+			        }
+			    }
+			    lookingAtNL = nlSkip != 0;
 			}
+			if (atBoundary(content.charAt(offset), content.charAt(offset + 1)))
+				break;
+			offset++;
 		}
 
 		if (!shouldStopAtLeftBoundingChar() || hasMoreCounts)
@@ -48,4 +43,4 @@ public abstract class MoveRightWithBounds extends MoveWithBounds {
 		return min(offset, textLen);
 	}
 
-}
\ No newline at end of file
+}
@@ -1,18 +1,17 @@
 package net.sourceforge.vrapper.vim.commands.motions;
 
-import net.sourceforge.vrapper.platform.TextContent;
+import net.sourceforge.vrapper.utils.CharCursor;
+import net.sourceforge.vrapper.utils.KeywordCharacterClass;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
-import net.sourceforge.vrapper.vim.Options;
 
 public abstract class MoveWithBounds extends CountAwareMotion {
-    protected static final int BUFFER_LEN = 32;
     
     protected abstract boolean atBoundary(char c1, char c2);
     protected abstract boolean stopsAtNewlines();
     protected abstract boolean shouldStopAtLeftBoundingChar();
-    protected abstract int destination(int offset, TextContent viewContent, boolean bailOff, boolean hasMoreCounts);
-    protected String keywords;
+    protected abstract int destination(int offset, CharCursor content, boolean bailOff, boolean hasMoreCounts);
+    protected KeywordCharacterClass keywords;
 
     private final boolean bailOff;
     
@@ -27,15 +26,17 @@ public abstract class MoveWithBounds extends CountAwareMotion {
     @Override
     public Position destination(EditorAdaptor editorAdaptor, int count) {
         //used for calls to Utils.characterType in child classes
-        keywords = editorAdaptor.getConfiguration().get(Options.KEYWORDS);
+        keywords = editorAdaptor.getConfiguration().getKeywordCharacterClass();
 
         if (count == NO_COUNT_GIVEN)
             count = 1;
 
         int offset = editorAdaptor.getPosition().getModelOffset();
+        // Shared by all iterations so that counted motions reuse the same buffer.
+        CharCursor content = new CharCursor(editorAdaptor.getModelContent(), offset);
 
         for (int i = 0; i < count; i++)
-            offset = destination(offset, editorAdaptor.getModelContent(), bailOff && i == 0, i != count-1);
+            offset = destination(offset, content, bailOff && i == 0, i != count-1);
         
         return editorAdaptor.getCursorService().newPositionForModelOffset(offset);
     }
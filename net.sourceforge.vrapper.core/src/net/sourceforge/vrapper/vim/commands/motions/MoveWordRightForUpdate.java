@@ -13,6 +13,9 @@ import net.sourceforge.vrapper.vim.commands.CommandExecutionException;
  */
 public class MoveWordRightForUpdate extends CountAwareMotion {
     
+    /** Characters before the end of a word which are checked for a trailing newline. */
+    private static final int BUFFER_LEN = 32;
+    
     public static final Motion MOVE_WORD_RIGHT_INSTANCE = new MoveWordRightForUpdate( new MoveWordRight(false) );
     public static final Motion MOVE_BIG_WORD_RIGHT_INSTANCE = new MoveWordRightForUpdate( new MoveBigWORDRight(false) );
     
@@ -68,7 +71,7 @@ public class MoveWordRightForUpdate extends CountAwareMotion {
      * @return the new ending offset, decremented if newlines and whitespace are present
      */
     public int offsetWithoutLastNewline(int newlineLength, int startingIndex, int endingIndex, TextContent content) {
-        int bufferLength = min(MoveWithBounds.BUFFER_LEN, endingIndex);
+        int bufferLength = min(BUFFER_LEN, endingIndex);
         if( bufferLength == 0 )
             return endingIndex;
         
@@ -1,7 +1,6 @@
 package net.sourceforge.vrapper.vim.commands.motions;
 
 import java.util.LinkedList;
-import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import net.sourceforge.vrapper.platform.Configuration;
@@ -10,13 +9,13 @@ import net.sourceforge.vrapper.platform.TextContent;
 import net.sourceforge.vrapper.utils.ContentType;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.utils.Search;
+import net.sourceforge.vrapper.utils.SearchMatchIndex;
 import net.sourceforge.vrapper.utils.SearchOffset.Begin;
 import net.sourceforge.vrapper.utils.SearchOffset.End;
 import net.sourceforge.vrapper.utils.SearchOffset;
 import net.sourceforge.vrapper.utils.SearchResult;
 import net.sourceforge.vrapper.utils.StartEndTextRange;
 import net.sourceforge.vrapper.utils.TextRange;
-import net.sourceforge.vrapper.utils.VimUtils;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
 import net.sourceforge.vrapper.vim.Options;
 import net.sourceforge.vrapper.vim.commands.AbstractTextObject;
@@ -38,6 +37,7 @@ public class SearchResultMotion extends CountAwareMotion {
 
     private static final String NOT_FOUND_MESSAGE = "'%s' not found";
     private static final String NOT_FOUND_WRAP = "search hit %s without match for: %s";
+    private static final String SEARCH_COUNT = "%s [%d/%s]";
 
     protected final boolean reverse;
     private Boolean forcedBackwards;
@@ -72,7 +72,7 @@ public class SearchResultMotion extends CountAwareMotion {
         if(editorAdaptor.getConfiguration().get(Options.SEARCH_REGEX)) {
             //before attempting search, is this regex even valid?
             try {
-                Pattern.compile(search.getKeyword());
+                search.getPattern();
             }
             catch(PatternSyntaxException e) {
                 throw new CommandExecutionException("Invalid regex search string: " + search.getKeyword());
@@ -115,9 +115,83 @@ public class SearchResultMotion extends CountAwareMotion {
             }
             position = result.getStart();
         }
+        showSearchCount(editorAdaptor, search, shouldReverse, result);
         return offset.apply(modelContent, result);
     }
 
+    /**
+     * Shows which match the cursor is on like Vim's <tt>[12/340]</tt>. The numbers come from the
+     * match index of the search, which only scans the document as far as the match; while the
+     * index is still incomplete the total is shown as a lower bound. If the match is further
+     * away than a chunk of the index, only the search is shown at first and the count follows
+     * once the index got there, one chunk per UI event, see {@link SearchCountUpdater}.
+     */
+    private static void showSearchCount(EditorAdaptor editorAdaptor, Search search,
+            boolean reversed, SearchResult result) {
+        SearchMatchIndex index = editorAdaptor.getSearchAndReplaceService().getMatchIndex(search);
+        String direction = search.isBackward() != reversed ? "?" : "/";
+        SearchCountUpdater updater = new SearchCountUpdater(editorAdaptor, search, index, result,
+                direction + search.getKeyword());
+        if ( ! index.isScannedTo(updater.offset)) {
+            index.scanNextChunk();
+        }
+        if (index.isScannedTo(updater.offset)) {
+            updater.showCount();
+        } else {
+            editorAdaptor.getUserInterfaceService().setInfoMessage(updater.message);
+            editorAdaptor.getUserInterfaceService().timerExec(0, updater);
+        }
+    }
+
+    /**
+     * Extends the match index by a chunk at a time until it reaches the match, then shows the
+     * count. Gives up when the cursor moved to another match or the document changed.
+     */
+    private static class SearchCountUpdater implements Runnable {
+        private final EditorAdaptor editorAdaptor;
+        private final Search search;
+        private final SearchMatchIndex index;
+        private final SearchResult result;
+        /** The search as shown in front of the count, like <tt>/foo</tt>. */
+        private final String message;
+        /** Matches starting before this offset are counted. */
+        private final int offset;
+
+        SearchCountUpdater(EditorAdaptor editorAdaptor, Search search, SearchMatchIndex index,
+                SearchResult result, String message) {
+            this.editorAdaptor = editorAdaptor;
+            this.search = search;
+            this.index = index;
+            this.result = result;
+            this.message = message;
+            // The index doesn't contain matches overlapping others, count those up to the match.
+            offset = result.getStart().getModelOffset() + 1;
+        }
+
+        @Override
+        public void run() {
+            if (editorAdaptor.getLastSearchResult() != result
+                    || editorAdaptor.getSearchAndReplaceService().getMatchIndex(search) != index) {
+                return;
+            }
+            index.scanNextChunk();
+            if (index.isScannedTo(offset)) {
+                showCount();
+            } else {
+                editorAdaptor.getUserInterfaceService().timerExec(0, this);
+            }
+        }
+
+        void showCount() {
+            int current = index.previous(offset) + 1;
+            String total = index.isComplete()
+                    ? Integer.toString(index.getIndexedCount())
+                    : ">" + index.getIndexedCount();
+            editorAdaptor.getUserInterfaceService().setInfoMessage(
+                    String.format(SEARCH_COUNT, message, current, total));
+        }
+    }
+
     public BorderPolicy borderPolicy() {
         if (lineWise) {
             return BorderPolicy.LINE_WISE;
@@ -132,6 +206,10 @@ public class SearchResultMotion extends CountAwareMotion {
         return StickyColumnPolicy.ON_CHANGE;
     }
 
+    /**
+     * Finds the next match after (or the previous match before) <tt>position</tt>, wrapping
+     * around the document if 'wrapscan' is set.
+     */
     protected static SearchResult doSearch(Search search, boolean reverse, EditorAdaptor vim,
             Position position) {
         if (reverse) {
@@ -143,7 +221,17 @@ public class SearchResultMotion extends CountAwareMotion {
         } else {
             position = position.addModelOffset(1);
         }
-        return VimUtils.wrapAroundSearch(vim, search, position);
+        SearchAndReplaceService searcher = vim.getSearchAndReplaceService();
+        SearchResult result = searcher.find(search, position);
+        if ( ! result.isFound() && vim.getConfiguration().get(Options.WRAP_SCAN)) {
+            // redo search from beginning / end of document
+            TextContent content = vim.getModelContent();
+            int offset = search.isBackward()
+                    ? content.getLineInformation(content.getNumberOfLines() - 1).getEndOffset() - 1
+                    : 0;
+            result = searcher.find(search, position.setModelOffset(offset));
+        }
+        return result;
     }
 
     @Override
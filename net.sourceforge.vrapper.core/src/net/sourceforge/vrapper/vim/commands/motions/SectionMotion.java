@@ -30,7 +30,7 @@ public class SectionMotion extends MethodDeclarationMotion {
         while(lineNo >= 0 && lineNo < content.getNumberOfLines()) {
             line = content.getLineInformation(lineNo);
             if(line.getLength() > 0) {
-                testChar = content.getText(line.getBeginOffset(), 1).charAt(0);
+                testChar = content.charAt(line.getBeginOffset());
                 if(testChar == toFind) {
                     return line.getBeginOffset();
                 }
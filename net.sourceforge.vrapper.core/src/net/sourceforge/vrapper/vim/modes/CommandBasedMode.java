@@ -14,6 +14,7 @@ import net.sourceforge.vrapper.keymap.EmptyState;
 import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.keymap.SpecialKey;
 import net.sourceforge.vrapper.keymap.State;
+import net.sourceforge.vrapper.keymap.StateCompiler;
 import net.sourceforge.vrapper.keymap.Transition;
 import net.sourceforge.vrapper.log.VrapperLog;
 import net.sourceforge.vrapper.platform.CursorService;
@@ -72,6 +73,7 @@ public abstract class CommandBasedMode extends AbstractMode {
     protected State<Command> currentState;
     private final KeyMapResolver keyMapResolver;
     private final StringBuilder commandBuffer;
+    private boolean commandExecuted;
     private static Map<String, State<Command>> initialStateCache = new HashMap<String, State<Command>>();
 
     public CommandBasedMode(EditorAdaptor editorAdaptor) {
@@ -93,7 +95,7 @@ public abstract class CommandBasedMode extends AbstractMode {
         if (platformSpecificStateProvider != null)
             key += " for " + platformSpecificStateProvider.getName();
         if (!initialStateCache.containsKey(key))
-            initialStateCache.put(key, buildInitialState());
+            initialStateCache.put(key, StateCompiler.compile(buildInitialState()));
         return initialStateCache.get(key);
     }
 
@@ -299,11 +301,13 @@ public abstract class CommandBasedMode extends AbstractMode {
         }
         commandBuffer.append(keyStroke.getCharacter());
         boolean recognized = false;
+        commandExecuted = false;
         if (transition != null) {
             Command command = transition.getValue();
             currentState = transition.getNextState();
             if (command != null) {
                 recognized = true;
+                commandExecuted = true;
                 try {
                     executeCommand(command);
                 } catch (CommandExecutionException e) {
@@ -349,6 +353,20 @@ public abstract class CommandBasedMode extends AbstractMode {
         return true;
     }
 
+    /**
+     * @return whether the last key completed a command.
+     */
+    public boolean isCommandExecuted() {
+        return commandExecuted;
+    }
+
+    /**
+     * @return whether keys of an incomplete command were typed.
+     */
+    public boolean isCommandPending() {
+        return currentState != initialState;
+    }
+
     private void setErrorMessage(String message) {
         editorAdaptor.getUserInterfaceService().setErrorMessage(message);
     }
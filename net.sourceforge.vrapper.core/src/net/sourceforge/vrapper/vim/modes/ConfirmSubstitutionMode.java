@@ -1,18 +1,22 @@
 package net.sourceforge.vrapper.vim.modes;
 
 import static net.sourceforge.vrapper.keymap.vim.ConstructorWrappers.key;
+
+import java.util.regex.PatternSyntaxException;
+
 import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.keymap.SpecialKey;
 import net.sourceforge.vrapper.platform.CommandLineUI;
-import net.sourceforge.vrapper.platform.SearchAndReplaceService;
+import net.sourceforge.vrapper.platform.CursorService;
 import net.sourceforge.vrapper.platform.TextContent;
+import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.utils.Position;
-import net.sourceforge.vrapper.utils.Search;
-import net.sourceforge.vrapper.utils.SearchOffset;
-import net.sourceforge.vrapper.utils.SearchResult;
+import net.sourceforge.vrapper.utils.StartEndTextRange;
 import net.sourceforge.vrapper.utils.SubstitutionDefinition;
+import net.sourceforge.vrapper.utils.SubstitutionEngine;
+import net.sourceforge.vrapper.utils.TextContentCharSequence;
+import net.sourceforge.vrapper.utils.TextRange;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
-import net.sourceforge.vrapper.vim.Options;
 import net.sourceforge.vrapper.vim.commands.CenterLineCommand;
 import net.sourceforge.vrapper.vim.commands.CommandExecutionException;
 import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
@@ -20,6 +24,8 @@ import net.sourceforge.vrapper.vim.commands.motions.StickyColumnPolicy;
 /**
  * Prompt the user for each match in a substitution, activated by the 'c' flag
  * of a substitution definition (e.g., :s/foo/bar/c).
+ * Matches are found and replaced by a {@link SubstitutionEngine}, so patterns and
+ * replacement strings work the same as without the 'c' flag.
  */
 public class ConfirmSubstitutionMode extends AbstractMode {
 
@@ -28,15 +34,16 @@ public class ConfirmSubstitutionMode extends AbstractMode {
     private static final KeyStroke KEY_ESCAPE = key(SpecialKey.ESC);
     
     private SubstitutionDefinition subDef;
+    private SubstitutionEngine engine;
     private int endOffset;
-    private int nextLine;
-    private int totalLength;
-    private int replaceOffset = 0;
     private boolean globalFlag = false;
-    private boolean caseSensitive = false;
-    private boolean useRegex = true;
     private CommandLineUI commandLine;
-    private SearchResult lastMatch;
+    /** Offset the current match was searched from, -1 if there is no current match. */
+    private int searchFrom = -1;
+    /** Offset where the search for the match after the current one starts. */
+    private int nextStart;
+    /** The last visual area, for patterns with <tt>\%V</tt>. May be null. */
+    private TextRange visualArea;
 
     public ConfirmSubstitutionMode(EditorAdaptor editorAdaptor) {
         super(editorAdaptor);
@@ -75,14 +82,22 @@ public class ConfirmSubstitutionMode extends AbstractMode {
             SubstitutionConfirm hint = (SubstitutionConfirm) hints[0];
             subDef = hint.subDef;
             globalFlag = subDef.flags.contains("g");
-            caseSensitive = editorAdaptor.getSearchAndReplaceService().isCaseSensitive(subDef.find, subDef.flags);
-            useRegex = editorAdaptor.getConfiguration().get(Options.SEARCH_REGEX);
-            nextLine = hint.startLine;
+            boolean caseSensitive = editorAdaptor.getSearchAndReplaceService()
+                    .isCaseSensitive(subDef.find, subDef.flags);
+            try {
+                engine = new SubstitutionEngine(subDef.find, subDef.replace, caseSensitive,
+                        editorAdaptor.getConfiguration().getNewLine());
+            } catch (PatternSyntaxException e) {
+                throw new CommandExecutionException(e.getDescription());
+            } catch (IllegalArgumentException e) {
+                throw new CommandExecutionException(e.getMessage());
+            }
 
+            visualArea = editorAdaptor.getLastActiveSelection();
             TextContent model = editorAdaptor.getModelContent();
-            totalLength = model.getTextLength();
+            nextStart = model.getLineInformation(hint.startLine).getBeginOffset();
             if(hint.endLine == model.getNumberOfLines()) {
-                endOffset = totalLength;
+                endOffset = model.getTextLength();
             }
             else {
                 endOffset = model.getLineInformation(hint.endLine).getEndOffset();
@@ -108,45 +123,42 @@ public class ConfirmSubstitutionMode extends AbstractMode {
     }
     
     private void findNextMatch(boolean doHighlight) {
-        int startOffset;
-        if(lastMatch != null && globalFlag) {
-            //next match might be on the same line
-            startOffset = lastMatch.getRightBound().getModelOffset() + replaceOffset;
-            //performing a substitution could change our next starting position
-            //(so we don't match on the replaced string) reset replaceOffset in
-            //case the user hits 'n' and we *don't* modify starting position
-            replaceOffset = 0;
-        }
-        else {
-            //start on next line
-            startOffset = editorAdaptor.getModelContent().getLineInformation(nextLine).getBeginOffset();
-        }
-    
-        SearchOffset afterSearch = new SearchOffset.Begin(startOffset);
-        Search search = new Search(subDef.find, false, false, caseSensitive, afterSearch, useRegex);
-        SearchAndReplaceService searchService = editorAdaptor.getSearchAndReplaceService();
-        Position start = editorAdaptor.getCursorService().newPositionForModelOffset(startOffset);
-        SearchResult result = searchService.find(search, start);
-        //if no match found or match is outside our range
-        if(result.getStart() == null || result.getRightBound().getModelOffset() > endOffset) {
+        TextContent model = editorAdaptor.getModelContent();
+        int[] match = engine.getPattern().inVisualArea(visualArea)
+                .firstIn(new TextContentCharSequence(model), nextStart);
+        //if no match found or match starts outside our range
+        if(match == null || match[0] > endOffset) {
             exit();
             return;
         }
+        searchFrom = nextStart;
 
-        editorAdaptor.setPosition(result.getLeftBound(), StickyColumnPolicy.NEVER);
+        Position start = editorAdaptor.getCursorService().newPositionForModelOffset(match[0]);
+        editorAdaptor.setPosition(start, StickyColumnPolicy.NEVER);
         if(doHighlight) {
             //force match to be visible (move scrollbars)
             //is there a better way to do this?
             CenterLineCommand.CENTER.execute(editorAdaptor);
             //highlight match
-            searchService.incSearchhighlight(result.getLeftBound(), result.getModelLength());
+            editorAdaptor.getSearchAndReplaceService().incSearchhighlight(start, match[1] - match[0]);
         }
 
-        //prepare for next iteration
-        lastMatch = result;
-        nextLine = editorAdaptor.getModelContent().getLineInformationOfOffset(
-                lastMatch.getRightBound().getModelOffset()
-                ).getNumber() + 1; //next line after match
+        //prepare for next iteration, with the same rules as SubstitutionEngine
+        if(globalFlag) {
+            //next match might be on the same line, but not at the position of an empty match
+            nextStart = match[1] == match[0] ? match[1] + 1 : match[1];
+        }
+        else {
+            //start on next line
+            LineInformation line = model.getLineInformationOfOffset(match[0]);
+            if(line.getNumber() + 1 < model.getNumberOfLines()) {
+                nextStart = Math.max(match[1],
+                        model.getLineInformation(line.getNumber() + 1).getBeginOffset());
+            }
+            else {
+                nextStart = model.getTextLength() + 1;
+            }
+        }
     }
 
     @Override
@@ -183,14 +195,14 @@ public class ConfirmSubstitutionMode extends AbstractMode {
     }
     
     private void exit() {
-        lastMatch = null;
+        searchFrom = -1;
         editorAdaptor.getSearchAndReplaceService().removeIncSearchHighlighting();
         editorAdaptor.changeModeSafely(NormalMode.NAME);
     }
     
     private void replaceAll() {
         editorAdaptor.getHistory().beginCompoundChange();
-        while(lastMatch != null) {
+        while(searchFrom >= 0) {
             performSubstitution();
             findNextMatch(false);
         }
@@ -198,15 +210,21 @@ public class ConfirmSubstitutionMode extends AbstractMode {
     }
 
     private void performSubstitution() {
-        editorAdaptor.getSearchAndReplaceService().substitute(
-                lastMatch.getLeftBound().getModelOffset(),
-                subDef.find, subDef.flags, subDef.replace);
-        
-        int newTotal = editorAdaptor.getModelContent().getTextLength();
+        TextContent model = editorAdaptor.getModelContent();
+        int oldLength = model.getTextLength();
+        //the text didn't change since the match was found, so this replaces that match
+        engine.substituteNext(model, searchFrom, visualArea);
+
         //keep offsets in sync when find and replace are different lengths
-        replaceOffset = newTotal - totalLength;
-        endOffset += replaceOffset;
-        totalLength = newTotal;
+        int delta = model.getTextLength() - oldLength;
+        endOffset += delta;
+        nextStart += delta;
+        if (visualArea != null && delta != 0) {
+            //the match was inside of the area, so only its end moves
+            CursorService cursor = editorAdaptor.getCursorService();
+            visualArea = new StartEndTextRange(visualArea.getLeftBound(),
+                    cursor.newPositionForModelOffset(visualArea.getRightBound().getModelOffset() + delta));
+        }
     }
 
     @Override
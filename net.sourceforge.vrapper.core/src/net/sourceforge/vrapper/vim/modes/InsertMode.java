@@ -14,8 +14,8 @@ import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.keymap.SpecialKey;
 import net.sourceforge.vrapper.keymap.State;
 import net.sourceforge.vrapper.keymap.Transition;
+import net.sourceforge.vrapper.keymap.vim.KeyStrokes;
 import net.sourceforge.vrapper.keymap.vim.RegisterState;
-import net.sourceforge.vrapper.keymap.vim.SimpleKeyStroke;
 import net.sourceforge.vrapper.log.VrapperLog;
 import net.sourceforge.vrapper.platform.CursorService;
 import net.sourceforge.vrapper.platform.TextContent;
@@ -571,7 +571,7 @@ public class InsertMode extends AbstractMode {
             platformSpecificState,
             state(
                     // Alt+O - temporary go into command mode
-                    leafBind(new SimpleKeyStroke('o', false, true, false),
+                    leafBind(KeyStrokes.get('o', false, true, false),
                             (Command)new ChangeModeCommand(CommandLineMode.NAME, RESUME_ON_MODE_ENTER)),
             		leafCtrlBind('a', (Command)PasteRegisterCommand.PASTE_LAST_INSERT),
             		leafCtrlBind('e', (Command)InsertAdjacentCharacter.LINE_BELOW),
@@ -8,13 +8,13 @@ import java.util.HashMap;
 
 import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.keymap.SpecialKey;
-import net.sourceforge.vrapper.keymap.vim.SimpleKeyStroke;
+import net.sourceforge.vrapper.keymap.vim.KeyStrokes;
 import net.sourceforge.vrapper.platform.CommandLineUI;
 import net.sourceforge.vrapper.platform.CommandLineUI.CommandLineMode;
 import net.sourceforge.vrapper.platform.Platform;
+import net.sourceforge.vrapper.utils.KeywordCharacterClass;
 import net.sourceforge.vrapper.utils.VimUtils;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
-import net.sourceforge.vrapper.vim.Options;
 import net.sourceforge.vrapper.vim.commands.Command;
 import net.sourceforge.vrapper.vim.commands.LeaveVisualModeCommand;
 import net.sourceforge.vrapper.vim.modes.ExecuteCommandHint;
@@ -152,7 +152,7 @@ public abstract class AbstractCommandParser {
             } else {
                 if (e.equals(KEY_CTRL_V) || (e.getSpecialKey() == KEY_INSERT && e.withShiftKey())) {
                     pasteRegister = true;
-                    e = new SimpleKeyStroke(DefaultRegisterManager.REGISTER_NAME_CLIPBOARD.charAt(0));
+                    e = KeyStrokes.get(DefaultRegisterManager.REGISTER_NAME_CLIPBOARD.charAt(0));
                 } else {
                     if (e.getSpecialKey() == KEY_TAB) { //tab-completion for filenames
                         String completed = completeArgument(commandLine.getContents(), e);
@@ -220,7 +220,7 @@ public abstract class AbstractCommandParser {
     	    if (offset > contents.length()) {
     	        offset = contents.length();
     	    }
-    	    String iskeyword = editor.getConfiguration().get(Options.KEYWORDS);
+    	    KeywordCharacterClass iskeyword = editor.getConfiguration().getKeywordCharacterClass();
     	    char c1, c2;
     	    do {
     	        offset--;
@@ -54,6 +54,7 @@ import net.sourceforge.vrapper.vim.commands.SwitchBufferCommand;
 import net.sourceforge.vrapper.vim.commands.TextObject;
 import net.sourceforge.vrapper.vim.commands.TextOperationTextObjectCommand;
 import net.sourceforge.vrapper.vim.commands.UndoCommand;
+import net.sourceforge.vrapper.vim.commands.UniqOperation;
 import net.sourceforge.vrapper.vim.commands.VimCommandSequence;
 import net.sourceforge.vrapper.vim.commands.motions.GoToLineMotion;
 import net.sourceforge.vrapper.vim.commands.motions.MoveRight;
@@ -210,6 +211,26 @@ public class CommandLineParser extends AbstractCommandParser {
             	return null;
             }
         };
+        Evaluator uniq = new Evaluator() {
+            public Object evaluate(EditorAdaptor vim, Queue<String> command) {
+                String commandStr = "";
+                while(command.size() > 0)
+                    commandStr += command.poll() + " ";
+
+                TextObject selection = new DummyTextObject(null);
+                if(vim.getSelection().getModelLength() > 0) {
+                    selection = vim.getSelection();
+                }
+
+                try {
+                    new UniqOperation(commandStr).execute(vim, 0, selection);
+                } catch (CommandExecutionException e) {
+                    vim.getUserInterfaceService().setErrorMessage(e.getMessage());
+                }
+
+                return null;
+            }
+        };
         Evaluator retab = new Evaluator() {
             public Object evaluate(EditorAdaptor vim, Queue<String> command) {
                 String commandStr = "";
@@ -507,6 +528,7 @@ public class CommandLineParser extends AbstractCommandParser {
         mapping.add("tabfind", findFile);
         mapping.add("cd", chDir);
         mapping.add("sort", sort);
+        mapping.add("uniq", uniq);
         mapping.add("retab", retab);
         mapping.add("ascii", ascii);
         mapping.add("normal", normal);
@@ -43,13 +43,26 @@ public class ComplexOptionEvaluator implements Evaluator {
         Option<Set<String>> stringSetOpt;
         try {
             if ((strOpt = find(Options.STRING_OPTIONS, optName)) != null) {
+                boolean commaList = Options.COMMA_LIST_OPTIONS.contains(strOpt);
                 if(additive) { //append ( += )
-                    String newValue = vim.getConfiguration().get(strOpt) + value;
+                    String oldValue = vim.getConfiguration().get(strOpt);
+                    String newValue;
+                    if (commaList && oldValue.length() > 0) {
+                        newValue = oldValue + Option.SET_DELIMITER + value;
+                    } else {
+                        newValue = oldValue + value;
+                    }
                     validate(strOpt, newValue);
                     set(vim, strOpt, newValue);
                 }
                 else if(subtractive) { //remove ( -= )
-                    String newValue = vim.getConfiguration().get(strOpt).replace(value, "");
+                    String oldValue = vim.getConfiguration().get(strOpt);
+                    String newValue;
+                    if (commaList) {
+                        newValue = removeListItem(oldValue, value);
+                    } else {
+                        newValue = oldValue.replace(value, "");
+                    }
                     validate(strOpt, newValue);
                     set(vim, strOpt, newValue);
                 }
@@ -86,6 +99,18 @@ public class ComplexOptionEvaluator implements Evaluator {
         return null;
     }
 
+    /** Removes <tt>item</tt> and one of its separating commas, leaves the list as-is otherwise. */
+    private static String removeListItem(String list, String item) {
+        String delimited = Option.SET_DELIMITER + list + Option.SET_DELIMITER;
+        int index = delimited.indexOf(Option.SET_DELIMITER + item + Option.SET_DELIMITER);
+        if (index < 0 || item.length() == 0) {
+            return list;
+        }
+        String result = delimited.substring(0, index) + delimited.substring(index + item.length() + 1);
+        // Strip the outer delimiters which were added above.
+        return result.substring(1, Math.max(1, result.length() - 1));
+    }
+
     private void invalidValueMessage(EditorAdaptor vim, String value) {
         vim.getUserInterfaceService().setErrorMessage("Invalid value: " + value);
     }
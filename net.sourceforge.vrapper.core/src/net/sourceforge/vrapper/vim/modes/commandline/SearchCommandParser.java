@@ -83,7 +83,8 @@ public class SearchCommandParser extends AbstractCommandParser {
             // Sanity checking. Passing null is bad style though.
             offset = SearchOffset.NONE;
         }
-        return new Search(keyword, backward, wholeWord, caseSensitive, offset, useRegExp);
+        return new Search(keyword, backward, wholeWord, caseSensitive, offset, useRegExp,
+                editor.getLastActiveSelection());
     }
 
 	private Search parseSearchCommand(String first, String command) {
@@ -1,17 +1,18 @@
 package net.sourceforge.vrapper.vim.modes.commandline;
 
 import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.regex.PatternSyntaxException;
 
 import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.platform.Configuration.Option;
-import net.sourceforge.vrapper.platform.CursorService;
 import net.sourceforge.vrapper.platform.SearchAndReplaceService;
-import net.sourceforge.vrapper.platform.VrapperPlatformException;
+import net.sourceforge.vrapper.platform.TextContent;
+import net.sourceforge.vrapper.platform.UserInterfaceService;
+import net.sourceforge.vrapper.utils.BackgroundSearch;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.utils.Search;
 import net.sourceforge.vrapper.utils.SearchOffset;
-import net.sourceforge.vrapper.utils.SearchResult;
-import net.sourceforge.vrapper.utils.VimUtils;
 import net.sourceforge.vrapper.vim.ConfigurationListener;
 import net.sourceforge.vrapper.vim.EditorAdaptor;
 import net.sourceforge.vrapper.vim.Options;
@@ -76,6 +77,8 @@ public class SearchMode extends AbstractCommandLineMode {
     private int originalTopLine;
     private Command command;
     private SearchCommandParser searchParser;
+    /** Runs incsearch in the background, created for the first keystroke. */
+    private BackgroundSearch backgroundSearch;
 
     public SearchMode(EditorAdaptor editorAdaptor) {
         super(editorAdaptor);
@@ -102,6 +105,7 @@ public class SearchMode extends AbstractCommandLineMode {
         startPos = editorAdaptor.getCursorService().getPosition();
         originalTopLine = editorAdaptor.getViewportService().getViewPortInformation().getTopLine();
         searchParser = new SearchCommandParser(editorAdaptor, command);
+        backgroundSearch = null;
         super.enterMode(args);
     }
 
@@ -116,47 +120,85 @@ public class SearchMode extends AbstractCommandLineMode {
         if (incsearch &&
                 (stroke.equals(AbstractCommandParser.KEY_RETURN) ||
                     stroke.equals(AbstractCommandParser.KEY_ESCAPE))) {
+                cancelIncSearch();
                 resetIncSearch();
         }
         super.handleKey(stroke);
         if (incsearch && isEnabled) {
             // isEnabled == false indicates that super method ran a search and went to normal mode.
             doIncSearch();
+        } else {
+            cancelIncSearch();
         }
         return true;
     }
 
+    private void cancelIncSearch() {
+        if (backgroundSearch != null) {
+            backgroundSearch.cancel();
+        }
+    }
+
     private void resetIncSearch() {
         editorAdaptor.getSearchAndReplaceService().removeIncSearchHighlighting();
         editorAdaptor.getCursorService().setPosition(startPos, StickyColumnPolicy.NEVER);
         editorAdaptor.getViewportService().setTopLine(originalTopLine);
     }
 
+    /**
+     * Starts searching for the keyword typed so far. The search runs in the background, see
+     * {@link BackgroundSearch}, and {@link #showIncSearchResult(int, int)} is called with the
+     * result of the last keystroke only.
+     */
     private void doIncSearch() {
         String keyword = searchParser.getKeyWord();
         Search s = SearchCommandParser.createSearch(editorAdaptor, keyword, !forward, false, SearchOffset.NONE);
-        CursorService cursorService = editorAdaptor.getCursorService();
-        int fixedPos = startPos.getModelOffset() + (forward ? 1 : -1);
-        Position startSearchPos = cursorService.newPositionForModelOffset(fixedPos, startPos, true);
-        SearchResult res;
         try {
-            res = VimUtils.wrapAroundSearch(editorAdaptor, s, startSearchPos);
-        } catch (VrapperPlatformException e) {
+            // Compile here so that errors are noticed right away, the pattern is cached.
+            s.getPattern();
+        } catch (PatternSyntaxException e) {
             // This might happen if the user is modifying a regex, making it invalid. Bail out.
+            cancelIncSearch();
             resetIncSearch();
             return;
         }
+        if (backgroundSearch == null) {
+            // The document doesn't change while the search is typed, so one snapshot will do.
+            TextContent content = editorAdaptor.getModelContent();
+            String snapshot = content.getText(0, content.getTextLength());
+            final UserInterfaceService userInterfaceService = editorAdaptor.getUserInterfaceService();
+            Executor uiExecutor = new Executor() {
+                public void execute(Runnable command) {
+                    userInterfaceService.asyncExec(command);
+                }
+            };
+            backgroundSearch = new BackgroundSearch(snapshot, startPos.getModelOffset(),
+                    editorAdaptor.getConfiguration().get(Options.WRAP_SCAN), uiExecutor,
+                    new BackgroundSearch.Callback() {
+                        public void searchDone(Search search, int start, int end) {
+                            showIncSearchResult(start, end);
+                        }
+                    });
+        }
+        backgroundSearch.search(s);
+    }
+
+    private void showIncSearchResult(int start, int end) {
+        if ( ! isEnabled) {
+            return;
+        }
         boolean fromVisual = parser.isFromVisual();
-        if (res.isFound()) {
-            MotionCommand.gotoAndChangeViewPort(editorAdaptor, res.getStart(), StickyColumnPolicy.NEVER);
+        if (start >= 0) {
+            Position matchStart = editorAdaptor.getCursorService().newPositionForModelOffset(start);
+            MotionCommand.gotoAndChangeViewPort(editorAdaptor, matchStart, StickyColumnPolicy.NEVER);
 
             if (fromVisual) {
                 Selection lastSel = editorAdaptor.getLastActiveSelection();
-                Selection updated = lastSel.reset(editorAdaptor, lastSel.getFrom(), res.getStart());
+                Selection updated = lastSel.reset(editorAdaptor, lastSel.getFrom(), matchStart);
                 editorAdaptor.setSelection(updated);
             } else {
                 SearchAndReplaceService sars = editorAdaptor.getSearchAndReplaceService();
-                sars.incSearchhighlight(res.getStart(), res.getModelLength());
+                sars.incSearchhighlight(matchStart, end - start);
             }
         } else {
             resetIncSearch();
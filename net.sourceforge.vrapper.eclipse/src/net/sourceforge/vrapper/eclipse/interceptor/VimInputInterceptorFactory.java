@@ -2,8 +2,6 @@
 package net.sourceforge.vrapper.eclipse.interceptor;
 
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 
 import net.sourceforge.vrapper.eclipse.activator.VrapperPlugin;
@@ -11,7 +9,7 @@ import net.sourceforge.vrapper.eclipse.platform.EclipsePlatform;
 import net.sourceforge.vrapper.eclipse.platform.SWTRegisterManager;
 import net.sourceforge.vrapper.keymap.KeyStroke;
 import net.sourceforge.vrapper.keymap.SpecialKey;
-import net.sourceforge.vrapper.keymap.vim.SimpleKeyStroke;
+import net.sourceforge.vrapper.keymap.vim.KeyStrokes;
 import net.sourceforge.vrapper.log.VrapperLog;
 import net.sourceforge.vrapper.platform.BufferAndTabService;
 import net.sourceforge.vrapper.platform.Configuration.Option;
@@ -47,10 +45,15 @@ public class VimInputInterceptorFactory implements InputInterceptorFactory {
 
     public static final VimInputInterceptorFactory INSTANCE = new VimInputInterceptorFactory();
 
-    private static final HashMap<Integer, SpecialKey> specialKeys;
+    /**
+     * Number of key codes which are characters in {@link #specialKeys}, the key codes with
+     * {@link SWT#KEYCODE_BIT} set follow them.
+     */
+    private static final int CHARACTER_KEY_CODES = 128;
+    /** Special keys indexed by key code, see {@link #getSpecialKey(int)}. */
+    private static final SpecialKey[] specialKeys;
     /** Maps "Escape characters" to the corresponding Control + <i>x</i> character. */
-    private static final HashMap<Character, Character> escapedChars;
-    private static final HashSet<Integer> ignoredKeyCodes;
+    private static final char[] escapedChars;
 
     private static final GlobalConfiguration sharedConfiguration = setupGlobalConfiguration();
 
@@ -61,8 +64,6 @@ public class VimInputInterceptorFactory implements InputInterceptorFactory {
         specialKeys = createSpecialKeys();
 
         escapedChars = createEscapedChars();
-
-        ignoredKeyCodes = createIgnoredKeyCodes();
     }
 
     /** Initialize default configuration where it needs to be overridden by environment. */
@@ -119,83 +120,74 @@ public class VimInputInterceptorFactory implements InputInterceptorFactory {
         return sharedConfiguration;
     }
 
-    private static HashMap<Integer, SpecialKey> createSpecialKeys() {
-        HashMap<Integer, SpecialKey> specialKeys = new HashMap<Integer, SpecialKey>();
-        specialKeys.put( SWT.ARROW_LEFT,         SpecialKey.ARROW_LEFT);
-        specialKeys.put( SWT.ARROW_RIGHT,        SpecialKey.ARROW_RIGHT);
-        specialKeys.put( SWT.ARROW_UP,           SpecialKey.ARROW_UP);
-        specialKeys.put( SWT.ARROW_DOWN,         SpecialKey.ARROW_DOWN);
-        specialKeys.put( (int)SWT.BS,            SpecialKey.BACKSPACE);
-        specialKeys.put( (int)SWT.DEL,           SpecialKey.DELETE);
-        specialKeys.put( (int)SWT.TAB,           SpecialKey.TAB);
-        specialKeys.put( SWT.INSERT,             SpecialKey.INSERT);
-        specialKeys.put( SWT.PAGE_DOWN,          SpecialKey.PAGE_DOWN);
-        specialKeys.put( SWT.PAGE_UP,            SpecialKey.PAGE_UP);
-        specialKeys.put( SWT.HOME,               SpecialKey.HOME);
-        specialKeys.put( SWT.END,                SpecialKey.END);
-        specialKeys.put( (int)SWT.ESC,           SpecialKey.ESC);
-        specialKeys.put( (int)SWT.CR,            SpecialKey.RETURN);
-        specialKeys.put( SWT.KEYPAD_CR,          SpecialKey.RETURN);
+    private static SpecialKey[] createSpecialKeys() {
+        SpecialKey[] specialKeys = new SpecialKey[CHARACTER_KEY_CODES + 128];
+        putSpecialKey(specialKeys, SWT.ARROW_LEFT,     SpecialKey.ARROW_LEFT);
+        putSpecialKey(specialKeys, SWT.ARROW_RIGHT,    SpecialKey.ARROW_RIGHT);
+        putSpecialKey(specialKeys, SWT.ARROW_UP,       SpecialKey.ARROW_UP);
+        putSpecialKey(specialKeys, SWT.ARROW_DOWN,     SpecialKey.ARROW_DOWN);
+        putSpecialKey(specialKeys, SWT.BS,             SpecialKey.BACKSPACE);
+        putSpecialKey(specialKeys, SWT.DEL,            SpecialKey.DELETE);
+        putSpecialKey(specialKeys, SWT.TAB,            SpecialKey.TAB);
+        putSpecialKey(specialKeys, SWT.INSERT,         SpecialKey.INSERT);
+        putSpecialKey(specialKeys, SWT.PAGE_DOWN,      SpecialKey.PAGE_DOWN);
+        putSpecialKey(specialKeys, SWT.PAGE_UP,        SpecialKey.PAGE_UP);
+        putSpecialKey(specialKeys, SWT.HOME,           SpecialKey.HOME);
+        putSpecialKey(specialKeys, SWT.END,            SpecialKey.END);
+        putSpecialKey(specialKeys, SWT.ESC,            SpecialKey.ESC);
+        putSpecialKey(specialKeys, SWT.CR,             SpecialKey.RETURN);
+        putSpecialKey(specialKeys, SWT.KEYPAD_CR,      SpecialKey.RETURN);
 
         SpecialKey[] values = SpecialKey.values();
         int swtStart = SWT.F1;
         int skStart = SpecialKey.F1.ordinal();
         //SWT has up to F20
         for (int i=0; i < 20; ++i)
-        	specialKeys.put(swtStart+i, values[skStart+i]);
+        	putSpecialKey(specialKeys, swtStart+i, values[skStart+i]);
         return specialKeys;
     }
 
+    private static void putSpecialKey(SpecialKey[] specialKeys, int keyCode, SpecialKey key) {
+        specialKeys[specialKeyIndex(keyCode)] = key;
+    }
+
+    private static int specialKeyIndex(int keyCode) {
+        return (keyCode & SWT.KEYCODE_BIT) != 0
+                ? (keyCode & ~SWT.KEYCODE_BIT) + CHARACTER_KEY_CODES
+                : keyCode;
+    }
+
+    /** Looks up a key code without boxing it, this runs for every key event. */
+    private static SpecialKey getSpecialKey(int keyCode) {
+        int index = specialKeyIndex(keyCode);
+        return index >= 0 && index < specialKeys.length ? specialKeys[index] : null;
+    }
 
-    private static HashMap<Character, Character> createEscapedChars() {
+    private static char[] createEscapedChars() {
         /*
          * Translate the "Escape characters" sent by Ctrl + alpha keys to regular characters.
          * This circumvents problems with the user language where raw keyCode values might not.
+         * Escape character n is sent for the character n + 64 ('@', 'A', ...), letters are
+         * translated to lower case.
          */
-        HashMap<Character, Character> escapedChars = new HashMap<Character, Character>();
-        escapedChars.put('\u0000', '@');
-        escapedChars.put('\u0001', 'a');
-        escapedChars.put('\u0002', 'b');
-        escapedChars.put('\u0003', 'c');
-        escapedChars.put('\u0004', 'd');
-        escapedChars.put('\u0005', 'e');
-        escapedChars.put('\u0006', 'f');
-        escapedChars.put('\u0007', 'g');
-        escapedChars.put('\u0008', 'h');
-        escapedChars.put('\t',     'i');
-        escapedChars.put('\n',     'j');
-        escapedChars.put('\u000B', 'k');
-        escapedChars.put('\u000C', 'l');
-        escapedChars.put('\r',     'm');
-        escapedChars.put('\u000E', 'n');
-        escapedChars.put('\u000F', 'o');
-        escapedChars.put('\u0010', 'p');
-        escapedChars.put('\u0011', 'q');
-        escapedChars.put('\u0012', 'r');
-        escapedChars.put('\u0013', 's');
-        escapedChars.put('\u0014', 't');
-        escapedChars.put('\u0015', 'u');
-        escapedChars.put('\u0016', 'v');
-        escapedChars.put('\u0017', 'w');
-        escapedChars.put('\u0018', 'x');
-        escapedChars.put('\u0019', 'y');
-        escapedChars.put('\u001A', 'z');
-        escapedChars.put('\u001B', '[');
-        escapedChars.put('\u001C', '\\');
-        escapedChars.put('\u001D', ']');
-        escapedChars.put('\u001E', '^');
-        escapedChars.put('\u001F', '_');
+        char[] escapedChars = new char[32];
+        for (int i = 0; i < escapedChars.length; i++) {
+            escapedChars[i] = Character.toLowerCase((char) (i + '@'));
+        }
         return escapedChars;
     }
 
-    private static HashSet<Integer> createIgnoredKeyCodes() {
-        HashSet<Integer> ignoredKeyCodes = new HashSet<Integer>();
-        ignoredKeyCodes.add(SWT.CTRL);
-        ignoredKeyCodes.add(SWT.SHIFT);
-        ignoredKeyCodes.add(SWT.ALT);
-        ignoredKeyCodes.add(SWT.CAPS_LOCK);
-        ignoredKeyCodes.add(SWT.COMMAND);
-        return ignoredKeyCodes;
+    private static boolean isIgnoredKeyCode(int keyCode) {
+        switch (keyCode) {
+        case SWT.CTRL:
+        case SWT.SHIFT:
+        case SWT.ALT:
+        case SWT.CAPS_LOCK:
+        case SWT.COMMAND:
+            return true;
+        default:
+            return false;
+        }
     }
 
     @Override
@@ -260,19 +252,20 @@ public class VimInputInterceptorFactory implements InputInterceptorFactory {
             if (!VrapperPlugin.isVrapperEnabled()) {
                 return;
             }
-            if (ignoredKeyCodes.contains(event.keyCode)) {
+            if (isIgnoredKeyCode(event.keyCode)) {
                 return;
             }
             KeyStroke keyStroke;
             boolean shiftKey = (event.stateMask & SWT.SHIFT) != 0;
             boolean altKey   = (event.stateMask & SWT.ALT)   != 0;
             boolean ctrlKey   = (event.stateMask & SWT.CONTROL | event.stateMask & SWT.COMMAND)   != 0;
-            if(specialKeys.containsKey(event.keyCode)) {
-                keyStroke = new SimpleKeyStroke(specialKeys.get(event.keyCode), shiftKey, altKey, ctrlKey);
-            } else if (escapedChars.containsKey(event.character)) {
-                keyStroke = new SimpleKeyStroke(escapedChars.get(event.character), shiftKey, altKey, ctrlKey);
+            SpecialKey specialKey = getSpecialKey(event.keyCode);
+            if (specialKey != null) {
+                keyStroke = KeyStrokes.get(specialKey, shiftKey, altKey, ctrlKey);
+            } else if (event.character < escapedChars.length) {
+                keyStroke = KeyStrokes.get(escapedChars[event.character], shiftKey, altKey, ctrlKey);
             } else {
-                keyStroke = new SimpleKeyStroke(event.character, shiftKey, altKey, ctrlKey);
+                keyStroke = KeyStrokes.get(event.character, shiftKey, altKey, ctrlKey);
             }
             event.doit = !editorAdaptor.handleKey(keyStroke);
         }
@@ -26,24 +26,36 @@ public class EclipseHighlightingService implements HighlightingService {
         this.cursorService = cursorService;
     }
 
+    @Override
+    public List<Object> highlightRegions(final String type, final String name, final List<TextRange> regions) {
+        return replaceHighlights(null, type, name, regions);
+    }
+
     @Override
     @SuppressWarnings({"rawtypes", // IAnnotationModelExtension uses raw Map
         "unchecked"}) // Converting to raw map or putting is considered unsafe
-    public List<Object> highlightRegions(final String type, final String name, final List<TextRange> regions) {
+    public List<Object> replaceHighlights(List<Object> annotationHandles, String type, String name,
+            List<TextRange> regions) {
         List<Object> annotations = new ArrayList<Object>();
         final IAnnotationModel am = getAnnotationModel();
         if (am instanceof IAnnotationModelExtension) {
             IAnnotationModelExtension ame = (IAnnotationModelExtension) am;
+            Annotation[] removed = annotationHandles == null || annotationHandles.isEmpty()
+                    ? null
+                    : annotationHandles.toArray(new Annotation[annotationHandles.size()]);
             Map temp = new HashMap(regions.size());
             for (TextRange region : regions) {
                 Annotation annotation = new Annotation(type, false, name);
                 int offset = region.getLeftBound().getModelOffset();
                 int length = region.getModelLength();
                 temp.put(annotation, new org.eclipse.jface.text.Position(offset, length));
+                annotations.add(annotation);
             }
-            ame.replaceAnnotations(null, temp);
-            annotations.addAll(temp.keySet());
+            ame.replaceAnnotations(removed, temp);
         } else if (am != null) {
+            if (annotationHandles != null) {
+                removeHighlights(annotationHandles);
+            }
             // Slower method
             for (TextRange region : regions) {
                 annotations.add(highlightRegion(type, name, region));
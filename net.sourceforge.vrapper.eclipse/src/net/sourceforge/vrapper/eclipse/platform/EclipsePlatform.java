@@ -85,7 +85,8 @@ public class EclipsePlatform implements Platform {
                 abstractTextEditor, sourceViewer);
         keyMapProvider = new DefaultKeyMapProvider();
         highlightingService = new EclipseHighlightingService(abstractTextEditor, cursorAndSelection);
-        searchAndReplaceService = new EclipseSearchAndReplaceService(sourceViewer, localConfiguration, highlightingService);
+        searchAndReplaceService = new EclipseSearchAndReplaceService(sourceViewer, localConfiguration,
+                highlightingService, viewportService);
         if (sourceViewer instanceof ITextViewerExtension6) {
             final IUndoManager delegate = ((ITextViewerExtension6) sourceViewer)
                     .getUndoManager();
@@ -1,30 +1,36 @@
 package net.sourceforge.vrapper.eclipse.platform;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.PatternSyntaxException;
 
 import net.sourceforge.vrapper.log.VrapperLog;
 import net.sourceforge.vrapper.platform.Configuration;
 import net.sourceforge.vrapper.platform.HighlightingService;
 import net.sourceforge.vrapper.platform.SearchAndReplaceService;
+import net.sourceforge.vrapper.platform.ViewportService;
 import net.sourceforge.vrapper.platform.VrapperPlatformException;
-import net.sourceforge.vrapper.utils.LineInformation;
+import net.sourceforge.vrapper.utils.LiteralPattern;
 import net.sourceforge.vrapper.utils.Position;
 import net.sourceforge.vrapper.utils.Search;
+import net.sourceforge.vrapper.utils.SearchMatchIndex;
 import net.sourceforge.vrapper.utils.SearchResult;
-import net.sourceforge.vrapper.utils.Space;
-import net.sourceforge.vrapper.utils.StartEndTextRange;
 import net.sourceforge.vrapper.utils.StringUtils;
+import net.sourceforge.vrapper.utils.SubstitutionEngine;
 import net.sourceforge.vrapper.utils.TextRange;
+import net.sourceforge.vrapper.utils.VimPattern;
 import net.sourceforge.vrapper.vim.Options;
 
 import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.FindReplaceDocumentAdapter;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IDocumentListener;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.Region;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 
 public class EclipseSearchAndReplaceService implements SearchAndReplaceService {
 
@@ -33,71 +39,90 @@ public class EclipseSearchAndReplaceService implements SearchAndReplaceService {
     private final FindReplaceDocumentAdapter adapter;
     private final HighlightingService highlightingService;
     private final Configuration configuration;
+    private final SearchHighlighter searchHighlighter;
     private Search lastHighlightedSearch;
-    private List<Object> annotations;
     private Object incSearchAnnotation;
     private ITextViewer textViewer;
+    private SearchMatchIndex matchIndex;
+    /** Document the match index listens to, null until the first index is created. */
+    private IDocument indexedDocument;
+    /** Counts changes for documents which don't provide a modification stamp. */
+    private long changeCount;
+
+    /** Keeps the match index in sync with the document. */
+    private final IDocumentListener matchIndexUpdater = new IDocumentListener() {
+        public void documentAboutToBeChanged(DocumentEvent event) {
+        }
+
+        public void documentChanged(DocumentEvent event) {
+            changeCount++;
+            if (matchIndex != null) {
+                String text = event.getText();
+                matchIndex.documentChanged(event.getOffset(), event.getLength(),
+                        text == null ? 0 : text.length(), getModificationStamp());
+            }
+        }
+    };
 
     public EclipseSearchAndReplaceService(ITextViewer textViewer, final Configuration configuration,
-            HighlightingService highlightingService) {
+            HighlightingService highlightingService, ViewportService viewportService) {
         this.textViewer = textViewer;
         this.adapter = new FindReplaceDocumentAdapter(textViewer.getDocument());
         this.highlightingService = highlightingService;
         this.configuration = configuration;
-        this.annotations = Collections.emptyList();
+        this.searchHighlighter = new SearchHighlighter(textViewer, adapter, highlightingService,
+                viewportService, ANNOTATION_TYPE, "Vrapper Search");
     }
 
     public SearchResult find(Search search, Position start) {
-        try {
-            IRegion result = find(search, start.getModelOffset());
-            Position resultPosition = result != null ? start.setModelOffset(result.getOffset()) : null;
-            Position endPosition = result != null ? start.setModelOffset(result.getOffset()+result.getLength()) : null;
-            return new SearchResult(resultPosition, endPosition);
-        } catch (BadLocationException e) {
-            return new SearchResult(null, null);
-        } catch (PatternSyntaxException e) {
-            throw new VrapperPlatformException("Regex uses bad format: " + e.getMessage(), e);
-        }
+        IRegion result = find(search, start.getModelOffset());
+        Position resultPosition = result != null ? start.setModelOffset(result.getOffset()) : null;
+        Position endPosition = result != null ? start.setModelOffset(result.getOffset()+result.getLength()) : null;
+        return new SearchResult(resultPosition, endPosition);
     }
     
-    public int replace(LineInformation line, String toFind, String replace, String flags) {
-        int start = line.getBeginOffset();
-        int end = line.getEndOffset();
-        final boolean replaceAll = flags.contains("g");
-        final boolean reportMatches = flags.contains("n");
-        final boolean caseSensitive = isCaseSensitive(toFind, flags);
-
-        int numReplaces = 0;
-        toFind = convertRegexSearch(toFind);
-        IRegion result;
-        try {
-            result = adapter.find(start, toFind, true, caseSensitive, false, true);
-            if (result != null && result.getOffset() < end) {
-                numReplaces++;
-                if ( ! reportMatches) {
-                    IRegion replacedresult = adapter.replace(replace, true);
-                    // Fix end position when line gets longer or shorter
-                    end = end + (replacedresult.getLength() - result.getLength());
-                    result = replacedresult;
+    public SearchMatchIndex getMatchIndex(Search search) {
+        if (indexedDocument == null) {
+            indexedDocument = textViewer.getDocument();
+            indexedDocument.addDocumentListener(matchIndexUpdater);
+            textViewer.getTextWidget().addDisposeListener(new DisposeListener() {
+                public void widgetDisposed(DisposeEvent e) {
+                    indexedDocument.removeDocumentListener(matchIndexUpdater);
+                    matchIndex = null;
                 }
-                result = adapter.find(result.getOffset() + result.getLength(),
-                        toFind, true, caseSensitive, false, true);
-            }
-            while (replaceAll && result != null && result.getOffset() < end) {
-                numReplaces++;
-                if ( ! reportMatches) {
-                    IRegion replacedresult = adapter.replace(replace, true);
-                    end = end + (replacedresult.getLength() - result.getLength());
-                    result = replacedresult;
-                }
-                result = adapter.find(result.getOffset() + result.getLength(),
-                        toFind, true, caseSensitive, false, true);
-            }
+            });
+        }
+        long stamp = getModificationStamp();
+        if (matchIndex == null || ! matchIndex.isValidFor(search, stamp)) {
+            matchIndex = new SearchMatchIndex(search.getPattern(), adapter, stamp,
+                    configuration.get(Options.PARALLEL_SEARCH));
+        }
+        return matchIndex;
+    }
+
+    private long getModificationStamp() {
+        if (indexedDocument instanceof IDocumentExtension4) {
+            return ((IDocumentExtension4) indexedDocument).getModificationStamp();
+        }
+        return changeCount;
+    }
+
+    public SubstitutionEngine.Result countMatches(VimPattern pattern, int startLine, int endLine,
+            boolean global, TextRange visualArea) {
+        IDocument document = textViewer.getDocument();
+        try {
+            int rangeStart = document.getLineOffset(startLine);
+            int rangeEnd = endLine + 1 < document.getNumberOfLines()
+                    ? document.getLineOffset(endLine + 1)
+                    : document.getLength();
+            // The adapter is a CharSequence reading straight from the document, it has no state
+            // of its own when used this way so the count may be split over several threads.
+            return SubstitutionEngine.count(pattern, adapter, rangeStart, rangeEnd, global,
+                    visualArea, configuration.get(Options.PARALLEL_SEARCH));
         } catch (BadLocationException e) {
-            VrapperLog.error("Failed to replace for " + line, e);
+            throw new VrapperPlatformException("Failed to count matches in lines " + startLine
+                    + " - " + endLine, e);
         }
-        
-        return numReplaces;
     }
 
     public boolean isCaseSensitive(String toFind, String flags) {
@@ -111,64 +136,57 @@ public class EclipseSearchAndReplaceService implements SearchAndReplaceService {
         return caseSensitive;
     }
     
-    public boolean substitute(int start, String toFind, String flags, String toReplace) {
-        boolean success = false;
-        try {
-            toFind = convertRegexSearch(toFind);
-            IRegion result = adapter.find(start, toFind, true, isCaseSensitive(toFind, flags), false, true);
-            if(result != null) {
-                adapter.replace(toReplace, true);
-                success = true;
-            }
-        } catch (BadLocationException e) {
-            VrapperLog.error("Failed to substitute starting from M" + start, e);
-        }
-        return success;
-    }
-
-    private IRegion find(Search search, int begin) throws BadLocationException {
-        if(search.isRegExSearch()) {
-            search = convertRegexSearch(search);
-        }
-        IRegion result;
+    /**
+     * Searches with the pattern compiled by {@link Search#getPattern()}, which is cached, instead
+     * of letting {@link FindReplaceDocumentAdapter} compile the keyword again for every call.
+     * The adapter is only used as a {@link CharSequence} view on the document.
+     * <p>
+     * Like the adapter, a backward search returns the last match which ends at most one
+     * character after <tt>begin</tt>. Plain strings are found with a {@link LiteralPattern}.
+     */
+    private IRegion find(Search search, int begin) {
+        VimPattern pattern;
         try {
-            result = adapter.find(
-                        begin, search.getKeyword(),
-                        !search.isBackward(), search.isCaseSensitive(),
-                        search.isWholeWord(), search.isRegExSearch());
-        } catch (BadLocationException e) {
-            throw new VrapperPlatformException("Failed to find '" + search.getKeyword() + "' at "
-                    + "offset" + begin + ", offset is invalid.", e);
+            pattern = search.getPattern();
         } catch (PatternSyntaxException e) {
             throw new VrapperPlatformException("Failed to find '" + search.getKeyword() + "' at "
                     + "offset" + begin + ", search pattern is invalid.", e);
         }
-        return result;
-    }
-    
-    /**
-     * We're using Eclipse's (Java's) Regex engine for search/replace. However,
-     * a lot of people are used to Vim's syntax for regex. So, check for Vim
-     * regex syntax and map to Eclipse's (Java's) syntax where possible.
-     * \< and \> =  \b   = word boundary
-     * (Feature pending... add support for 'magic' and 'very magic')
-     */
-    private Search convertRegexSearch(Search search) {
-        String keyword = search.getKeyword();
-        keyword = convertRegexSearch(keyword);
-        return new Search(keyword, search.isBackward(), search.isWholeWord(),
-            search.isCaseSensitive(), search.getSearchOffset(), search.isRegExSearch());
-    }
-    private String convertRegexSearch(String keyword) {
-        //in Vim, '\<' and '\>' are word boundaries
-        //in Eclipse, '\b' is word boundaries
-        return keyword.replaceAll("\\\\<|\\\\>", "\\\\b");
+        int length = adapter.length();
+        LiteralPattern literal = pattern.getLiteral();
+        if (literal != null) {
+            int start;
+            if ( ! search.isBackward()) {
+                start = begin > length ? -1 : literal.indexOf(adapter, begin, length);
+            } else {
+                start = begin < 0 ? -1 : literal.lastIndexOf(adapter, begin + 1 - literal.length());
+            }
+            return start < 0 ? null : new Region(start, literal.length());
+        }
+        Matcher matcher = pattern.matcher(adapter);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        if ( ! search.isBackward()) {
+            if (begin > length) {
+                return null;
+            }
+            matcher.region(Math.max(0, begin), length);
+            if ( ! pattern.find(matcher)) {
+                return null;
+            }
+            int start = pattern.start(matcher);
+            return new Region(start, pattern.end(matcher) - start);
+        }
+        if (begin < 0) {
+            return null;
+        }
+        int[] match = pattern.lastIn(adapter, Math.min(length, begin) + 1);
+        return match == null ? null : new Region(match[0], match[1] - match[0]);
     }
 
     public void removeHighlighting() {
         lastHighlightedSearch = null;
-        highlightingService.removeHighlights(annotations);
-        annotations = Collections.emptyList();
+        searchHighlighter.clear();
     }
 
     public void highlight(Search search) {
@@ -182,20 +200,11 @@ public class EclipseSearchAndReplaceService implements SearchAndReplaceService {
         if (search.isBackward()) {
             search = search.reverse();
         }
-        IRegion result = new Region(0, 0);
-        annotations = new ArrayList<Object>();
         lastHighlightedSearch = search;
         try {
-            List<TextRange> rangesToHL = new ArrayList<TextRange>();
-            TextViewerPosition temp = new TextViewerPosition(textViewer, Space.MODEL, 0);
-            while ((result = find(search, result.getOffset()+result.getLength())) != null) {
-                Position start = temp.setModelOffset(result.getOffset());
-                Position end = temp.setModelOffset(result.getOffset() + result.getLength());
-                rangesToHL.add(StartEndTextRange.exclusive(start, end));
-            }
-            annotations = highlightingService.highlightRegions(ANNOTATION_TYPE,
-                    "Vrapper Search", rangesToHL);
-        } catch (BadLocationException e) {
+            // Highlights the visible lines now and the rest in the background.
+            searchHighlighter.highlight(search.getPattern());
+        } catch (PatternSyntaxException e) {
             VrapperLog.error("while highlighting search", e);
         }
     }
@@ -1,23 +1,41 @@
 package net.sourceforge.vrapper.eclipse.platform;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.sourceforge.vrapper.platform.TextContent;
 import net.sourceforge.vrapper.platform.VrapperPlatformException;
+import net.sourceforge.vrapper.utils.EditBatch;
 import net.sourceforge.vrapper.utils.LineInformation;
 import net.sourceforge.vrapper.utils.Space;
+import net.sourceforge.vrapper.utils.TextEdit;
 import net.sourceforge.vrapper.utils.TextRange;
 
 import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentRewriteSession;
+import org.eclipse.jface.text.DocumentRewriteSessionType;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.ITextViewerExtension5;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.Region;
 import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.text.edits.MalformedTreeException;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.ReplaceEdit;
 
 @SuppressWarnings("nls")
 public class EclipseTextContent {
 
+    /**
+     * Batches with more edits than this are applied in a rewrite session for large changes,
+     * the text viewer then refreshes its widget only once afterwards.
+     */
+    private static final int LARGE_BATCH_SIZE = 100;
+
     protected final ITextViewer textViewer;
     protected ITextViewerExtension5 converter;
     protected TextContent modelSide;
@@ -40,6 +58,15 @@ public class EclipseTextContent {
         return viewSide;
     }
 
+    /** Both sides show the same document, so they share its stamp. */
+    private long getModificationStamp() {
+        IDocument doc = textViewer.getDocument();
+        if (doc instanceof IDocumentExtension4) {
+            return ((IDocumentExtension4) doc).getModificationStamp();
+        }
+        return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+    }
+
     protected class ModelSideTextContent implements TextContent {
 
         public LineInformation getLineInformation(int line) {
@@ -85,6 +112,27 @@ public class EclipseTextContent {
             return getText(range.getLeftBound().getModelOffset(), range.getModelLength());
         }
 
+        public char charAt(int index) {
+            try {
+                return textViewer.getDocument().getChar(index);
+            } catch (BadLocationException e) {
+                throw new VrapperPlatformException("Failed to get char M" + index, e);
+            }
+        }
+
+        public void getChars(int start, int end, char[] dest, int destStart) {
+            IDocument document = textViewer.getDocument();
+            try {
+                // IDocument.getChar reads straight from the text store, no Strings are created.
+                for (int i = start; i < end; i++) {
+                    dest[destStart++] = document.getChar(i);
+                }
+            } catch (BadLocationException e) {
+                throw new VrapperPlatformException("Failed to get chars M" + start
+                        + " (" + (end - start) + " chars)", e);
+            }
+        }
+
         public void replace(int index, int length, String s) {
             try {
                 IDocument doc = textViewer.getDocument();
@@ -98,6 +146,38 @@ public class EclipseTextContent {
             }
         }
 
+        public void applyEdits(List<TextEdit> edits) {
+            List<TextEdit> sorted = EditBatch.sortAndCheck(edits);
+            if (sorted.isEmpty()) {
+                return;
+            }
+            MultiTextEdit multiEdit = new MultiTextEdit();
+            for (TextEdit edit : sorted) {
+                multiEdit.addChild(new ReplaceEdit(edit.getOffset(), edit.getLength(), edit.getText()));
+            }
+            IDocument doc = textViewer.getDocument();
+            DocumentRewriteSession session = null;
+            if (doc instanceof IDocumentExtension4) {
+                DocumentRewriteSessionType type = sorted.size() > LARGE_BATCH_SIZE
+                        ? DocumentRewriteSessionType.UNRESTRICTED
+                        : DocumentRewriteSessionType.UNRESTRICTED_SMALL;
+                session = ((IDocumentExtension4) doc).startRewriteSession(type);
+            }
+            try {
+                multiEdit.apply(doc, org.eclipse.text.edits.TextEdit.NONE);
+            } catch (BadLocationException e) {
+                throw new VrapperPlatformException("Failed to apply " + sorted.size()
+                        + " edits starting at M" + sorted.get(0).getOffset(), e);
+            } catch (MalformedTreeException e) {
+                throw new VrapperPlatformException("Failed to apply " + sorted.size()
+                        + " edits starting at M" + sorted.get(0).getOffset(), e);
+            } finally {
+                if (session != null) {
+                    ((IDocumentExtension4) doc).stopRewriteSession(session);
+                }
+            }
+        }
+
         public void smartInsert(int index, String s) {
             int offset = converter.modelOffset2WidgetOffset(index);
             // View might not have index exposed (it is in a fold or far away), check and correct.
@@ -120,6 +200,10 @@ public class EclipseTextContent {
             return Space.MODEL;
         }
 
+        public long getModificationStamp() {
+            return EclipseTextContent.this.getModificationStamp();
+        }
+
     }
 
     protected class ViewSideTextContent implements TextContent  {
@@ -162,6 +246,47 @@ public class EclipseTextContent {
             return getText(range.getLeftBound().getViewOffset(), range.getViewLength());
         }
 
+        public char charAt(int index) {
+            int modelOffset = converter.widgetOffset2ModelOffset(index);
+            if (modelOffset == -1) {
+                throw new VrapperPlatformException("Failed to get char V" + index);
+            }
+            return modelSide.charAt(modelOffset);
+        }
+
+        public void getChars(int start, int end, char[] dest, int destStart) {
+            StyledTextContent widgetContent = textViewer.getTextWidget().getContent();
+            IDocument document = textViewer.getDocument();
+            int offset = start;
+            try {
+                // The widget content only hands out Strings. Folds hide whole lines though, so
+                // each widget line is a single piece of the document: look up where it starts
+                // and copy it from the document like the model side does, into the caller's
+                // buffer.
+                while (offset < end) {
+                    int line = widgetContent.getLineAtOffset(offset);
+                    int lineEnd = line + 1 < widgetContent.getLineCount()
+                            ? widgetContent.getOffsetAtLine(line + 1)
+                            : widgetContent.getCharCount();
+                    int pieceEnd = Math.min(end, lineEnd);
+                    int modelOffset = converter.widgetOffset2ModelOffset(offset);
+                    if (modelOffset == -1) {
+                        throw new VrapperPlatformException("Failed to get chars V" + offset);
+                    }
+                    while (offset < pieceEnd) {
+                        dest[destStart++] = document.getChar(modelOffset++);
+                        offset++;
+                    }
+                }
+            } catch (BadLocationException e) {
+                throw new VrapperPlatformException("Failed to get chars V" + start
+                        + " (" + (end - start) + " chars)", e);
+            } catch (IllegalArgumentException e) {
+                throw new VrapperPlatformException("Failed to get chars V" + start
+                        + " (" + (end - start) + " chars)", e);
+            }
+        }
+
         public void replace(int index, int length, String text) {
             // XXX: it was illegal in Vrapper. Why?
             try {
@@ -172,6 +297,20 @@ public class EclipseTextContent {
             }
         }
 
+        public void applyEdits(List<TextEdit> edits) {
+            List<TextEdit> modelEdits = new ArrayList<TextEdit>(edits.size());
+            for (TextEdit edit : edits) {
+                IRegion region = converter.widgetRange2ModelRange(
+                        new Region(edit.getOffset(), edit.getLength()));
+                if (region == null) {
+                    throw new VrapperPlatformException("Failed to map edit for V" + edit.getOffset()
+                            + " (" + edit.getLength() + " chars)");
+                }
+                modelEdits.add(new TextEdit(region.getOffset(), region.getLength(), edit.getText()));
+            }
+            modelSide.applyEdits(modelEdits);
+        }
+
         public void smartInsert(int index, String s) {
             StyledText textWidget = textViewer.getTextWidget();
             int oldIndex = textWidget.getCaretOffset();
@@ -247,5 +386,9 @@ public class EclipseTextContent {
         public Space getSpace() {
             return Space.VIEW;
         }
+
+        public long getModificationStamp() {
+            return EclipseTextContent.this.getModificationStamp();
+        }
     }
 }
@@ -8,6 +8,10 @@ import net.sourceforge.vrapper.vim.EditorAdaptor;
 
 import org.eclipse.jface.action.IStatusLineManager;
 import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IPartListener;
 import org.eclipse.ui.IWorkbenchPart;
@@ -15,10 +19,18 @@ import org.eclipse.ui.IWorkbenchPart;
 public class EclipseUserInterfaceService implements UserInterfaceService {
 
     private static final String CONTRIBUTION_ITEM_NAME = "VimInputMode";
+    /** Events which are filtered while {@link #pollInterrupt()} dispatches events. */
+    private static final int[] INPUT_EVENTS = { SWT.KeyDown, SWT.MouseDown, SWT.MouseUp,
+            SWT.MouseDoubleClick, SWT.MouseWheel, SWT.Close };
+    /** Upper bound of events dispatched in one {@link #pollInterrupt()} call. */
+    private static final int MAX_POLLED_EVENTS = 100;
+    /** Number of {@link #pollInterrupt()} calls dispatching events, see {@link #isPolling()}. */
+    private static int pollDepth;
 
     private final CommandLineUIFactory commandLineFactory;
     private final IEditorPart editor;
     private final ModeContributionItem vimInputModeItem;
+    private final Display display;
 
     private String lastInfoValue = "";
     private String lastErrorValue = "";
@@ -35,9 +47,12 @@ public class EclipseUserInterfaceService implements UserInterfaceService {
     private String lastCommandResultValue = "";
 
     private String currentModeName;
+    private Listener interruptFilter;
+    private boolean interruptRequested;
 
     public EclipseUserInterfaceService(final IEditorPart editor, final ITextViewer textViewer) {
         this.editor = editor;
+        this.display = textViewer.getTextWidget().getDisplay();
         commandLineFactory = new CommandLineUIFactory(textViewer.getTextWidget());
         vimInputModeItem = getContributionItem();
         setEditorMode(VRAPPER_DISABLED);
@@ -157,4 +172,71 @@ public class EclipseUserInterfaceService implements UserInterfaceService {
     public CommandLineUI getCommandLineUI(EditorAdaptor editorAdaptor) {
         return commandLineFactory.createCommandLineUI(editorAdaptor);
     }
+
+    @Override
+    public void asyncExec(Runnable runnable) {
+        if ( ! display.isDisposed()) {
+            display.asyncExec(runnable);
+        }
+    }
+
+    @Override
+    public void timerExec(int milliseconds, Runnable runnable) {
+        if ( ! display.isDisposed()) {
+            display.timerExec(milliseconds, runnable);
+        }
+    }
+
+    /**
+     * The UI thread is busy with the operation, so keys only arrive when we dispatch the pending
+     * events ourselves. A filter consumes Escape and Control-C and drops mouse input meanwhile.
+     * Other keys reach the editor, which keeps them as typeahead. Runnables which change an
+     * editor check {@link #isPolling()} and wait until the operation is done.
+     */
+    @Override
+    public boolean pollInterrupt() {
+        if (display.isDisposed()) {
+            return false;
+        }
+        if (interruptFilter == null) {
+            interruptFilter = new Listener() {
+                public void handleEvent(Event event) {
+                    if (event.type == SWT.KeyDown) {
+                        if (event.keyCode != SWT.ESC
+                                && ((event.stateMask & SWT.CTRL) == 0 || event.keyCode != 'c')) {
+                            return;
+                        }
+                        interruptRequested = true;
+                    }
+                    event.type = SWT.None;
+                    event.doit = false;
+                }
+            };
+        }
+        for (int type : INPUT_EVENTS) {
+            display.addFilter(type, interruptFilter);
+        }
+        pollDepth++;
+        try {
+            for (int i = 0; i < MAX_POLLED_EVENTS && display.readAndDispatch(); i++) {
+                // Paints the status line and collects the keys.
+            }
+        } finally {
+            pollDepth--;
+            for (int type : INPUT_EVENTS) {
+                display.removeFilter(type, interruptFilter);
+            }
+        }
+        boolean interrupted = interruptRequested;
+        interruptRequested = false;
+        return interrupted;
+    }
+
+    /**
+     * @return whether an operation dispatches events in {@link #pollInterrupt()}. The UI thread
+     *      is shared, so this holds for all editors.
+     */
+    static boolean isPolling() {
+        return pollDepth > 0;
+    }
 }
@@ -0,0 +1,575 @@
+package net.sourceforge.vrapper.eclipse.platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import net.sourceforge.vrapper.log.VrapperLog;
+import net.sourceforge.vrapper.platform.HighlightingService;
+import net.sourceforge.vrapper.platform.ViewportService;
+import net.sourceforge.vrapper.utils.LiteralPattern;
+import net.sourceforge.vrapper.utils.Position;
+import net.sourceforge.vrapper.utils.Space;
+import net.sourceforge.vrapper.utils.StartEndTextRange;
+import net.sourceforge.vrapper.utils.TextRange;
+import net.sourceforge.vrapper.utils.ViewPortInformation;
+import net.sourceforge.vrapper.utils.VimPattern;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.FindReplaceDocumentAdapter;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+
+/**
+ * Highlights all matches of a pattern (<tt>hlsearch</tt>) without blocking the UI.
+ * <p>
+ * The visible lines are highlighted right away. The rest of the document is done by a job
+ * which scans {@link #CHUNK_SIZE} characters at a time, first the part below the visible lines
+ * and then the part above them. Every chunk runs in its own <tt>Display.asyncExec</tt> call, so
+ * input and painting are handled in between. The document and the annotation model may only be
+ * used from the UI thread, which is why the job doesn't run on a thread of its own.
+ * <p>
+ * A job is cancelled by {@link #clear()} or by highlighting another pattern.
+ * <p>
+ * Document changes only move the highlights behind them, like the annotation model moves the
+ * annotations. The highlights behind the last change are stored relative to a shared offset
+ * (a gap, like in a gap buffer), so a change only touches the highlights between it and the
+ * previous change instead of all that follow it. The changed ranges are merged and rescanned {@link #UPDATE_DELAY} ms after the
+ * last change, or when the job is done, so typing doesn't rescan anything per keystroke. The
+ * rescan only covers the lines around the changes and replaces the highlights which differ in
+ * one annotation model change.
+ */
+class SearchHighlighter implements IDocumentListener {
+
+    /** Number of characters scanned by a single step of the background job. */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Milliseconds without document changes before the changed lines are rescanned. */
+    static final int UPDATE_DELAY = 100;
+
+    private final ITextViewer textViewer;
+    private final IDocument document;
+    private final FindReplaceDocumentAdapter adapter;
+    private final HighlightingService highlightingService;
+    private final ViewportService viewportService;
+    private final String annotationType;
+    private final String annotationName;
+    /** Pattern being highlighted, null if there are no highlights. */
+    private VimPattern pattern;
+    private Matcher matcher;
+    /**
+     * Highlighted matches ordered by offset. Matches never overlap. The offsets of those from
+     * <tt>gapIndex</tt> on are relative to <tt>gapDelta</tt>, use {@link #startOf(int)} and
+     * {@link #endOf(int)} to read them.
+     */
+    private final List<Highlight> highlights = new ArrayList<Highlight>();
+    private int gapIndex;
+    private int gapDelta;
+    private HighlightJob job;
+    /** Changed range which still has to be rescanned, <tt>dirtyStart</tt> is -1 if none. */
+    private int dirtyStart = -1;
+    private int dirtyEnd;
+    private final Runnable updater = new Runnable() {
+        public void run() {
+            if (EclipseUserInterfaceService.isPolling()) {
+                // A macro is being played, the document is only half way changed.
+                scheduleUpdate();
+                return;
+            }
+            if (pattern != null && job == null && dirtyStart >= 0) {
+                update();
+            }
+        }
+    };
+
+    SearchHighlighter(ITextViewer textViewer, FindReplaceDocumentAdapter adapter,
+            HighlightingService highlightingService, ViewportService viewportService,
+            String annotationType, String annotationName) {
+        this.textViewer = textViewer;
+        this.document = textViewer.getDocument();
+        this.adapter = adapter;
+        this.highlightingService = highlightingService;
+        this.viewportService = viewportService;
+        this.annotationType = annotationType;
+        this.annotationName = annotationName;
+        StyledText widget = textViewer.getTextWidget();
+        if (widget != null) {
+            widget.addDisposeListener(new DisposeListener() {
+                public void widgetDisposed(DisposeEvent e) {
+                    stop();
+                }
+            });
+        }
+    }
+
+    /**
+     * Removes the current highlights and starts highlighting the matches of <tt>pattern</tt>.
+     */
+    void highlight(VimPattern pattern) {
+        clear();
+        this.pattern = pattern;
+        matcher = pattern.matcher(adapter);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        document.addDocumentListener(this);
+        job = new HighlightJob();
+        job.start();
+    }
+
+    /** Cancels a running job and removes all highlights. */
+    void clear() {
+        stop();
+        List<Object> annotations = new ArrayList<Object>(highlights.size());
+        for (Highlight highlight : highlights) {
+            annotations.add(highlight.annotation);
+        }
+        highlightingService.removeHighlights(annotations);
+        highlights.clear();
+        gapIndex = 0;
+        gapDelta = 0;
+    }
+
+    /** Stops following the document, leaving the annotations alone. */
+    private void stop() {
+        if (job != null) {
+            job.cancel();
+            job = null;
+        }
+        if (dirtyStart >= 0) {
+            dirtyStart = -1;
+            StyledText widget = textViewer.getTextWidget();
+            if (widget != null && ! widget.isDisposed()) {
+                widget.getDisplay().timerExec(-1, updater);
+            }
+        }
+        if (pattern != null) {
+            document.removeDocumentListener(this);
+            pattern = null;
+            matcher = null;
+        }
+    }
+
+    @Override
+    public void documentAboutToBeChanged(DocumentEvent event) {
+    }
+
+    @Override
+    public void documentChanged(DocumentEvent event) {
+        String text = event.getText();
+        int offset = event.getOffset();
+        int oldChangeEnd = offset + event.getLength();
+        int newChangeEnd = offset + (text == null ? 0 : text.length());
+        int delta = newChangeEnd - oldChangeEnd;
+
+        // Move the highlights along with their annotations. Those touched by the change can't
+        // be kept, they only have to stay in order until the rescan replaces them.
+        int i = firstEndingAfter(offset);
+        moveGap(i);
+        for (; i < highlights.size() && startOf(i) < oldChangeEnd; i++) {
+            Highlight highlight = highlights.get(i);
+            highlight.stale = true;
+            highlight.start = Math.min(startOf(i), offset);
+            highlight.end = moved(endOf(i), offset, oldChangeEnd, newChangeEnd);
+            gapIndex = i + 1;
+        }
+        // Those behind the change move by shifting the gap.
+        gapDelta += delta;
+        if (job != null) {
+            job.documentChanged(offset, oldChangeEnd, newChangeEnd);
+        }
+
+        if (dirtyStart < 0) {
+            dirtyStart = offset;
+            dirtyEnd = newChangeEnd;
+        } else {
+            dirtyStart = Math.min(dirtyStart, offset);
+            dirtyEnd = Math.max(moved(dirtyEnd, offset, oldChangeEnd, newChangeEnd),
+                    newChangeEnd);
+        }
+        if (job == null) {
+            scheduleUpdate();
+        }
+        // Otherwise the job rescans the changed range when it is done.
+    }
+
+    /** Rescans the changed range once no change happened for {@link #UPDATE_DELAY} ms. */
+    private void scheduleUpdate() {
+        StyledText widget = textViewer.getTextWidget();
+        if (widget != null && ! widget.isDisposed()) {
+            // Scheduling the same runnable again only postpones it.
+            widget.getDisplay().timerExec(UPDATE_DELAY, updater);
+        }
+    }
+
+    /**
+     * Rescans the lines of the changed range and replaces the highlights in it. One line before
+     * and after the range is included, so that patterns matching a line break are found again.
+     */
+    private void update() {
+        try {
+            int length = document.getLength();
+            int firstLine = Math.max(0, document.getLineOfOffset(Math.min(dirtyStart, length)) - 1);
+            int lastLine = document.getLineOfOffset(Math.min(dirtyEnd, length)) + 1;
+            dirtyStart = -1;
+            int windowStart = document.getLineOffset(firstLine);
+            int windowEnd = lastLine + 1 < document.getNumberOfLines()
+                    ? document.getLineOffset(lastLine + 1)
+                    : length;
+            replaceHighlights(windowStart, windowEnd);
+        } catch (BadLocationException e) {
+            VrapperLog.error("Failed to update search highlighting, highlighting everything", e);
+            highlight(pattern);
+        }
+    }
+
+    /** Replaces the highlights in <tt>[windowStart, windowEnd)</tt> by the current matches. */
+    private void replaceHighlights(int windowStart, int windowEnd) {
+        // Old highlights ending in front of the window stay, those behind it are still valid.
+        int first = firstEndingAfter(windowStart);
+        int last = Math.max(first, firstStartingAtOrAfter(windowEnd));
+        // Matches reaching into the window may change, scan them again from their start.
+        int from = first < highlights.size()
+                ? Math.min(windowStart, startOf(first))
+                : windowStart;
+        if (first > 0) {
+            from = Math.max(from, afterOf(first - 1));
+        }
+        List<Highlight> found = new ArrayList<Highlight>();
+        int limit = searchLimit(windowEnd);
+        while (from < windowEnd) {
+            Highlight highlight = find(from, limit);
+            if (highlight == null || highlight.start >= windowEnd) {
+                break;
+            }
+            found.add(highlight);
+            from = highlight.after();
+        }
+        if ( ! found.isEmpty()) {
+            // A match reaching out of the window replaces the old highlights it overlaps.
+            int end = found.get(found.size() - 1).end;
+            while (last < highlights.size() && startOf(last) < end) {
+                last++;
+            }
+        }
+        moveGap(last);
+
+        // Keep the annotations of old highlights which are found again at the same place.
+        List<Highlight> replaced = highlights.subList(first, last);
+        List<Object> removed = new ArrayList<Object>();
+        List<TextRange> added = new ArrayList<TextRange>();
+        List<Highlight> addedHighlights = new ArrayList<Highlight>();
+        int i = 0;
+        for (Highlight highlight : found) {
+            while (i < replaced.size() && replaced.get(i).start < highlight.start) {
+                removed.add(replaced.get(i++).annotation);
+            }
+            Highlight old = i < replaced.size() ? replaced.get(i) : null;
+            if (old != null && ! old.stale && old.start == highlight.start
+                    && old.end == highlight.end) {
+                highlight.annotation = old.annotation;
+                i++;
+            } else {
+                added.add(toTextRange(highlight));
+                addedHighlights.add(highlight);
+            }
+        }
+        while (i < replaced.size()) {
+            removed.add(replaced.get(i++).annotation);
+        }
+        if ( ! removed.isEmpty() || ! added.isEmpty()) {
+            List<Object> annotations = highlightingService.replaceHighlights(removed,
+                    annotationType, annotationName, added);
+            for (int j = 0; j < addedHighlights.size() && j < annotations.size(); j++) {
+                addedHighlights.get(j).annotation = annotations.get(j);
+            }
+        }
+        replaced.clear();
+        highlights.addAll(first, found);
+        gapIndex = first + found.size();
+    }
+
+    /**
+     * Makes the offsets of the highlights before <tt>index</tt> absolute and those from
+     * <tt>index</tt> on relative to {@link #gapDelta}.
+     */
+    private void moveGap(int index) {
+        while (gapIndex < index) {
+            Highlight highlight = highlights.get(gapIndex++);
+            highlight.start += gapDelta;
+            highlight.end += gapDelta;
+        }
+        while (gapIndex > index) {
+            Highlight highlight = highlights.get(--gapIndex);
+            highlight.start -= gapDelta;
+            highlight.end -= gapDelta;
+        }
+    }
+
+    private int startOf(int index) {
+        int start = highlights.get(index).start;
+        return index < gapIndex ? start : start + gapDelta;
+    }
+
+    private int endOf(int index) {
+        int end = highlights.get(index).end;
+        return index < gapIndex ? end : end + gapDelta;
+    }
+
+    /** @return where to continue scanning after a highlight, skipping over empty matches. */
+    private int afterOf(int index) {
+        int start = startOf(index);
+        int end = endOf(index);
+        return end == start ? end + 1 : end;
+    }
+
+    /**
+     * @return where <tt>value</tt> ends up when <tt>[offset, oldChangeEnd)</tt> is replaced by
+     *         <tt>[offset, newChangeEnd)</tt>; offsets inside the replaced range move to its end.
+     */
+    private static int moved(int value, int offset, int oldChangeEnd, int newChangeEnd) {
+        if (value <= offset) {
+            return value;
+        }
+        return value >= oldChangeEnd ? value + newChangeEnd - oldChangeEnd : newChangeEnd;
+    }
+
+    /** @return index of the first highlight ending after <tt>offset</tt>, or empty at it. */
+    private int firstEndingAfter(int offset) {
+        int low = 0;
+        int high = highlights.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (afterOf(middle) > offset) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private int firstStartingAtOrAfter(int offset) {
+        int low = 0;
+        int high = highlights.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (startOf(middle) >= offset) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private TextRange toTextRange(Highlight highlight) {
+        TextViewerPosition temp = new TextViewerPosition(textViewer, Space.MODEL, 0);
+        Position start = temp.setModelOffset(highlight.start);
+        Position end = temp.setModelOffset(highlight.end);
+        return StartEndTextRange.exclusive(start, end);
+    }
+
+    /**
+     * Finds the matches starting in <tt>[from, to)</tt> and highlights them.
+     *
+     * @return offset where scanning the following range should continue, which is after
+     *         <tt>to</tt> if the last match continues past it.
+     */
+    private int highlightMatches(int from, int to) {
+        int index = firstStartingAtOrAfter(from);
+        int limit = searchLimit(to);
+        if (index < highlights.size()) {
+            // After wrapping around, the lines above the visible ones are scanned last. A match
+            // there must end before the first highlight of the visible lines.
+            limit = Math.min(limit, startOf(index));
+        }
+        List<Highlight> found = new ArrayList<Highlight>();
+        List<TextRange> ranges = new ArrayList<TextRange>();
+        int next = from;
+        while (next < to) {
+            Highlight highlight = find(next, limit);
+            if (highlight == null || highlight.start >= to) {
+                break;
+            }
+            found.add(highlight);
+            ranges.add(toTextRange(highlight));
+            next = highlight.after();
+        }
+        if ( ! found.isEmpty()) {
+            List<Object> annotations = highlightingService.highlightRegions(annotationType,
+                    annotationName, ranges);
+            for (int i = 0; i < found.size() && i < annotations.size(); i++) {
+                found.get(i).annotation = annotations.get(i);
+            }
+            moveGap(index);
+            highlights.addAll(index, found);
+            gapIndex += found.size();
+        }
+        return Math.max(next, to);
+    }
+
+    /** @return the first match at or after <tt>from</tt> ending at most at <tt>limit</tt>. */
+    private Highlight find(int from, int limit) {
+        if (from > limit) {
+            return null;
+        }
+        LiteralPattern literal = pattern.getLiteral();
+        if (literal != null) {
+            int start = literal.indexOf(adapter, from, limit);
+            return start < 0 ? null : new Highlight(start, start + literal.length());
+        }
+        matcher.region(from, limit);
+        if ( ! pattern.find(matcher)) {
+            return null;
+        }
+        return new Highlight(pattern.start(matcher), pattern.end(matcher));
+    }
+
+    /**
+     * @return end of the line following the one containing <tt>offset</tt>. Matches which start
+     *         before <tt>offset</tt> may continue up to there, like they do for <tt>:s</tt>;
+     *         searching further would rescan the rest of the document for every chunk.
+     */
+    private int searchLimit(int offset) {
+        try {
+            int line = document.getLineOfOffset(offset);
+            return line + 1 < document.getNumberOfLines()
+                    ? document.getLineOffset(line + 1)
+                    : document.getLength();
+        } catch (BadLocationException e) {
+            return document.getLength();
+        }
+    }
+
+    /** A highlighted match, see {@link #highlights} for how its offsets are kept up to date. */
+    private static class Highlight {
+        int start;
+        int end;
+        Object annotation;
+        /** Set when a change touched the match, its annotation has to be replaced. */
+        boolean stale;
+
+        Highlight(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /** @return where to continue scanning, skipping over empty matches. */
+        int after() {
+            return end == start ? end + 1 : end;
+        }
+    }
+
+    /**
+     * Highlights the visible lines, then the rest of the document in chunks.
+     */
+    private class HighlightJob implements Runnable {
+
+        private boolean cancelled;
+        /** Range of the visible lines when the job was started. */
+        private int visibleStart;
+        private int visibleEnd;
+        /** Where the next chunk starts; below the visible lines first, then from the top. */
+        private int position;
+        private boolean wrapped;
+
+        void start() {
+            computeVisibleRange();
+            position = highlightMatches(visibleStart, visibleEnd);
+            schedule();
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        /** Moves the ranges still to be scanned, the changed range itself is rescanned later. */
+        void documentChanged(int offset, int oldChangeEnd, int newChangeEnd) {
+            visibleStart = moved(visibleStart, offset, oldChangeEnd, newChangeEnd);
+            position = moved(position, offset, oldChangeEnd, newChangeEnd);
+        }
+
+        private void computeVisibleRange() {
+            int length = document.getLength();
+            try {
+                ViewPortInformation viewPort = viewportService.getViewPortInformation();
+                int topLine = viewportService.viewLine2ModelLine(viewPort.getTopLine());
+                int bottomLine = viewportService.viewLine2ModelLine(viewPort.getBottomLine());
+                if (topLine < 0 || bottomLine < topLine) {
+                    // Folded or otherwise odd viewport, start at the top.
+                    topLine = 0;
+                    bottomLine = 0;
+                }
+                visibleStart = document.getLineOffset(topLine);
+                visibleEnd = bottomLine + 1 < document.getNumberOfLines()
+                        ? document.getLineOffset(bottomLine + 1)
+                        : length;
+            } catch (BadLocationException e) {
+                VrapperLog.error("Failed to determine visible range for search highlighting", e);
+                visibleStart = 0;
+                visibleEnd = 0;
+            }
+        }
+
+        private void schedule() {
+            if (wrapped && position >= visibleStart) {
+                // Done, changes are handled by update() from now on.
+                if (job == this) {
+                    job = null;
+                    if (dirtyStart >= 0) {
+                        scheduleUpdate();
+                    }
+                }
+                return;
+            }
+            StyledText widget = textViewer.getTextWidget();
+            if (widget == null || widget.isDisposed()) {
+                cancel();
+                return;
+            }
+            widget.getDisplay().asyncExec(this);
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            if (EclipseUserInterfaceService.isPolling()) {
+                StyledText widget = textViewer.getTextWidget();
+                if (widget == null || widget.isDisposed()) {
+                    cancel();
+                } else {
+                    // Don't scan in the middle of a macro, try again once it is done.
+                    widget.getDisplay().timerExec(UPDATE_DELAY, this);
+                }
+                return;
+            }
+            int length = adapter.length();
+            int limit = wrapped ? visibleStart : length;
+            int to = Math.min(limit, position + CHUNK_SIZE);
+            if (to < limit) {
+                // Continue with a whole line so that '^' and look-behind see the same context.
+                try {
+                    to = document.getLineOffset(document.getLineOfOffset(to));
+                    if (to <= position) {
+                        to = Math.min(limit, position + CHUNK_SIZE);
+                    }
+                } catch (BadLocationException e) {
+                    to = Math.min(limit, position + CHUNK_SIZE);
+                }
+            }
+            position = highlightMatches(position, to);
+            if ( ! wrapped && position >= length) {
+                wrapped = true;
+                position = 0;
+            }
+            schedule();
+        }
+    }
+}
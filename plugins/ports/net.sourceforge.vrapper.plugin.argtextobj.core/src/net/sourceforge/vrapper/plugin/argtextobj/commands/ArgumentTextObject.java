@@ -235,7 +235,7 @@ public class ArgumentTextObject extends AbstractTextObject {
 
         private char getCharAt(int modelOffset) {
             assert modelOffset < text.getTextLength();
-            return text.getText(modelOffset, 1).charAt(0);
+            return text.charAt(modelOffset);
         }
 
         private int skipQuotedTextForward(final int start, final int end) {